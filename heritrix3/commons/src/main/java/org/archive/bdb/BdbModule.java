@@ -28,7 +28,9 @@ import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,6 +47,7 @@ import org.archive.spring.ConfigPath;
 import org.archive.util.CLibrary;
 import org.archive.util.FilesystemLinkMaker;
 import org.archive.util.IdentityCacheable;
+import org.archive.util.ObjectIdentityBdbBoundedCache;
 import org.archive.util.ObjectIdentityBdbManualCache;
 import org.archive.util.ObjectIdentityCache;
 import org.archive.util.bdbje.EnhancedEnvironment;
@@ -62,6 +65,9 @@ import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.DatabaseNotFoundException;
 import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.EnvironmentMutableConfig;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
 import com.sleepycat.je.util.DbBackup;
 
 /**
@@ -99,6 +105,7 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         boolean sortedDuplicates;
         boolean transactional;
         boolean deferredWrite = true; 
+        boolean keyPrefixing = false;
 
         public BdbConfig() {
         }
@@ -129,6 +136,7 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
             result.setTransactional(transactional);
             result.setAllowCreate(allowCreate);
             result.setSortedDuplicates(sortedDuplicates);
+            result.setKeyPrefixing(keyPrefixing);
             return result;
         }
 
@@ -146,6 +154,21 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         public void setDeferredWrite(boolean b) {
             this.deferredWrite = true; 
         }
+
+
+        public boolean getKeyPrefixing() {
+            return keyPrefixing;
+        }
+
+
+        /**
+         * Whether BDB should store keys with their common prefix factored
+         * out, saving considerable space for sorted keys (like SURTs) 
+         * which share long prefixes.
+         */
+        public void setKeyPrefixing(boolean keyPrefixing) {
+            this.keyPrefixing = keyPrefixing;
+        }
     }
     
     protected ConfigPath dir = new ConfigPath("bdbmodule subdirectory","state");
@@ -185,6 +208,35 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         this.expectedConcurrency = expectedConcurrency;
     }
     
+    /**
+     * Estimated bytes of memory each eligible object cache (that of the
+     * frontier's queues) may hold instances in, beyond which the least
+     * recently used are written out and evicted by a background thread. 
+     * If 0 (the default), or for caches whose values are updated without
+     * holding their monitors (as for servers and hosts), instances are
+     * instead held by soft references, leaving eviction to the garbage 
+     * collector.
+     */
+    long objectCacheBudget = 0;
+    public long getObjectCacheBudget() {
+        return objectCacheBudget;
+    }
+    public void setObjectCacheBudget(long objectCacheBudget) {
+        this.objectCacheBudget = objectCacheBudget;
+    }
+    
+    /**
+     * Estimated bytes of memory per object cache entry, for comparison
+     * against objectCacheBudget. 
+     */
+    long objectCacheEntryWeight = 1024;
+    public long getObjectCacheEntryWeight() {
+        return objectCacheEntryWeight;
+    }
+    public void setObjectCacheEntryWeight(long objectCacheEntryWeight) {
+        this.objectCacheEntryWeight = objectCacheEntryWeight;
+    }
+    
     /**
      * Whether to use hard-links to log files to collect/retain
      * the BDB log files needed for a checkpoint. Default is true. 
@@ -397,6 +449,35 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         return oic;
     }
   
+    /**
+     * Get an ObjectIdentityBdbBoundedCache, holding instances within
+     * objectCacheBudget, backed by a BDB Database of the given name.
+     * 
+     * @param <V>
+     * @param dbName
+     * @param recycle
+     * @param valueClass
+     * @return
+     * @throws DatabaseException
+     */
+    public <V extends IdentityCacheable> ObjectIdentityBdbBoundedCache<V> getBoundedCache(String dbName, boolean recycle,
+            Class<? extends V> valueClass) 
+    throws DatabaseException {
+        if (!recycle) {
+            try {
+                bdbEnvironment.truncateDatabase(null, dbName, false);
+            } catch (DatabaseNotFoundException e) {
+                // ignored
+            }
+        }
+        ObjectIdentityBdbBoundedCache<V> oic = new ObjectIdentityBdbBoundedCache<V>();
+        oic.setBudget(getObjectCacheBudget());
+        oic.setWeigher(new ObjectIdentityBdbBoundedCache.FixedWeigher<V>(getObjectCacheEntryWeight()));
+        oic.initialize(bdbEnvironment, dbName, valueClass, classCatalog);
+        oiCaches.put(dbName, oic);
+        return oic;
+    }
+  
     public <V extends IdentityCacheable> ObjectIdentityCache<V> getObjectCache(String dbName, boolean recycle,
             Class<V> valueClass) 
     throws DatabaseException {
@@ -418,16 +499,159 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
      */
     public <V extends IdentityCacheable> ObjectIdentityCache<V> getObjectCache(String dbName, boolean recycle,
             Class<V> declaredClass, Class<? extends V> valueClass) 
+    throws DatabaseException {
+        return getObjectCache(dbName, recycle, declaredClass, valueClass, false);
+    }
+    
+    /**
+     * Get an ObjectIdentityCache, as above. If 'valuesLocked' is true 
+     * and objectCacheBudget is set, the cache holds instances within that
+     * budget, writing them behind while they are still in use; callers 
+     * must then update values only inside synchronized(value) blocks.
+     * 
+     * @param <V>
+     * @param dbName
+     * @param recycle
+     * @param declaredClass
+     * @param valueClass
+     * @param valuesLocked whether values are only updated while holding
+     * their own monitors
+     * @return
+     * @throws DatabaseException
+     */
+    public <V extends IdentityCacheable> ObjectIdentityCache<V> getObjectCache(String dbName, boolean recycle,
+            Class<V> declaredClass, Class<? extends V> valueClass, 
+            boolean valuesLocked) 
     throws DatabaseException {
         @SuppressWarnings("unchecked")
         ObjectIdentityCache<V> oic = oiCaches.get(dbName);
         if(oic!=null) {
             return oic; 
         }
-        oic =  getOIBCCache(dbName, recycle, valueClass);
+        if (valuesLocked && getObjectCacheBudget() > 0) {
+            oic = getBoundedCache(dbName, recycle, valueClass);
+        } else {
+            oic =  getOIBCCache(dbName, recycle, valueClass);
+        }
         return oic; 
     }
     
+    /**
+     * Cheaply-gathered ('fast') statistics of the BDB environment: cache
+     * size and hit ratio, cleaner backlog and total log size. 
+     * 
+     * @return map of statistics, or null if environment not open
+     */
+    public Map<String,Object> environmentStatsMap() {
+        if (bdbEnvironment == null) {
+            return null;
+        }
+        StatsConfig config = new StatsConfig();
+        config.setFast(true);
+        EnvironmentStats stats = bdbEnvironment.getStats(config);
+        long fetches = stats.getNLNsFetch() + stats.getNBINsFetch() 
+            + stats.getNUpperINsFetch();
+        long misses = stats.getNLNsFetchMiss() + stats.getNBINsFetchMiss() 
+            + stats.getNUpperINsFetchMiss();
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("cacheTotalBytes", stats.getCacheTotalBytes());
+        map.put("cacheDataBytes", stats.getCacheDataBytes());
+        map.put("fetches", fetches);
+        map.put("fetchMisses", misses);
+        map.put("cacheHitRatio", fetches == 0 ? 1.0 : 1.0 - ((double) misses / fetches));
+        map.put("cacheMisses", stats.getNCacheMiss());
+        map.put("notResident", stats.getNNotResident());
+        map.put("cleanerBacklog", stats.getCleanerBacklog());
+        map.put("fileDeletionBacklog", stats.getFileDeletionBacklog());
+        map.put("totalLogSize", stats.getTotalLogSize());
+        map.put("randomReads", stats.getNRandomReads());
+        map.put("randomReadBytes", stats.getNRandomReadBytes());
+        map.put("randomWrites", stats.getNRandomWrites());
+        map.put("randomWriteBytes", stats.getNRandomWriteBytes());
+        map.put("sequentialReads", stats.getNSequentialReads());
+        map.put("sequentialReadBytes", stats.getNSequentialReadBytes());
+        map.put("sequentialWrites", stats.getNSequentialWrites());
+        map.put("sequentialWriteBytes", stats.getNSequentialWriteBytes());
+        map.put("fsyncs", stats.getNFSyncs());
+        return map;
+    }
+    
+    /**
+     * @return bytes the JE cache may use -- for a shared cache, the whole
+     * shared cache -- or -1 if the environment isn't open
+     */
+    public long getCacheMaxBytes() {
+        if (bdbEnvironment == null) {
+            return -1;
+        }
+        return bdbEnvironment.getConfig().getCacheSize();
+    }
+    
+    /**
+     * Resize the JE cache (for a shared cache, the whole shared cache) 
+     * while the environment is open; if smaller, JE evicts down to the
+     * new size as it continues operating.
+     * 
+     * @param bytes new cache size
+     */
+    public void setCacheMaxBytes(long bytes) {
+        EnvironmentMutableConfig config = bdbEnvironment.getMutableConfig();
+        config.setCacheSize(bytes);
+        bdbEnvironment.setMutableConfig(config);
+    }
+    
+    /**
+     * @return bytes currently used by the JE cache (for a shared cache, 
+     * by all environments sharing it), or -1 if the environment isn't open
+     */
+    public long getCacheUsedBytes() {
+        if (bdbEnvironment == null) {
+            return -1;
+        }
+        StatsConfig config = new StatsConfig();
+        config.setFast(true);
+        EnvironmentStats stats = bdbEnvironment.getStats(config);
+        return getUseSharedCache() 
+            ? stats.getSharedCacheTotalBytes() 
+            : stats.getCacheTotalBytes();
+    }
+    
+    /**
+     * @return count of JE cache misses (fetches requiring disk reads) 
+     * since the environment was opened
+     */
+    public long getCacheMissCount() {
+        if (bdbEnvironment == null) {
+            return 0;
+        }
+        StatsConfig config = new StatsConfig();
+        config.setFast(true);
+        return bdbEnvironment.getStats(config).getNCacheMiss();
+    }
+    
+    /**
+     * @return count of JE cache fetches (of LNs, BINs and upper INs, 
+     * whether or not already in cache) since the environment was opened
+     */
+    public long getCacheFetchCount() {
+        if (bdbEnvironment == null) {
+            return 0;
+        }
+        StatsConfig config = new StatsConfig();
+        config.setFast(true);
+        EnvironmentStats stats = bdbEnvironment.getStats(config);
+        return stats.getNLNsFetch() + stats.getNBINsFetch() 
+            + stats.getNUpperINsFetch();
+    }
+    
+    /**
+     * @return all object caches created so far, by database name
+     */
+    @SuppressWarnings("rawtypes")
+    public Map<String,ObjectIdentityCache> getObjectCaches() {
+        return Collections.unmodifiableMap(oiCaches);
+    }
+    
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
     }
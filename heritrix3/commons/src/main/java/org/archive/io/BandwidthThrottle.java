@@ -0,0 +1,79 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import org.archive.util.TokenBucket;
+
+/**
+ * One fetch's view of the shared TokenBuckets (crawl-wide, per-IP, 
+ * per-server, etc.) it must stay within. 
+ * <p/>
+ * Bytes read are accumulated locally, and only charged to the shared 
+ * buckets once at least batchBytes have built up, so the many threads 
+ * reading many small chunks touch the (contended) shared buckets rarely.
+ * The wait to observe is the longest any one bucket requests. 
+ * <p/>
+ * Not threadsafe: intended for use by the single thread driving one 
+ * RecordingOutputStream.
+ */
+public class BandwidthThrottle {
+    protected TokenBucket[] buckets;
+    protected long batchBytes;
+    protected long pending = 0;
+
+    public BandwidthThrottle(TokenBucket[] buckets, long batchBytes) {
+        this.buckets = buckets;
+        this.batchBytes = batchBytes;
+    }
+
+    public TokenBucket[] getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Note bytes consumed; charge the buckets if a full batch has built up.
+     * 
+     * @param bytes count of newly-read bytes
+     * @return milliseconds the caller should sleep, possibly 0
+     */
+    public long consumed(long bytes) {
+        pending += bytes;
+        if(pending < batchBytes) {
+            return 0;
+        }
+        return flush();
+    }
+
+    /**
+     * Charge any pending bytes to all buckets. 
+     * 
+     * @return milliseconds the caller should sleep, possibly 0
+     */
+    public long flush() {
+        if(pending <= 0) {
+            return 0;
+        }
+        long waitNanos = 0;
+        for(TokenBucket bucket : buckets) {
+            waitNanos = Math.max(waitNanos, bucket.charge(pending));
+        }
+        pending = 0;
+        return waitNanos / 1000000L;
+    }
+}
@@ -0,0 +1,646 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpParser;
+import org.apache.commons.httpclient.StatusLine;
+import org.archive.io.arc.ARCReader;
+import org.archive.io.arc.ARCReaderFactory;
+import org.archive.io.arc.ARCRecord;
+import org.archive.io.arc.ARCRecordMetaData;
+import org.archive.io.warc.WARCConstants;
+import org.archive.io.warc.WARCReaderFactory;
+import org.archive.util.SURT;
+
+/**
+ * Builds one sorted CDX index from any number of ARC and WARC files, 
+ * using several threads.
+ * <p/>
+ * Work is divided by file and, for large gzipped files, further by
+ * gzip member: such a file is cut into spans of roughly splitBytes, and
+ * each span is indexed starting from the first record (gzip member) that
+ * begins within it. Each span's lines are sorted and written to a
+ * temporary run file; the runs are then merged into the final output, so
+ * memory use is bounded by the span size rather than the total index size.
+ * <p/>
+ * Output lines follow the common 11-field layout 
+ * "N b a m s k r M S V g": SURT-form URI key, 14-digit date, original
+ * URI, media type, response code, content digest, redirect (unfilled),
+ * meta tags (unfilled), compressed record length, compressed offset and
+ * file name. Only ARC content records and WARC response, revisit and 
+ * resource records are indexed.
+ */
+public class CDXIndexer {
+    private static final Logger logger =
+        Logger.getLogger(CDXIndexer.class.getName());
+
+    public static final String CDX_HEADER = " CDX N b a m s k r M S V g";
+
+    protected static final String CHARSET = "UTF-8";
+    
+    protected static final byte[] GZIP_MEMBER_MAGIC = 
+        {(byte)0x1f, (byte)0x8b, (byte)0x08};
+
+    /** number of indexing threads */
+    protected int threads = Runtime.getRuntime().availableProcessors();
+    public int getThreads() {
+        return threads;
+    }
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /** approximate bytes of a compressed file to index as one task */
+    protected long splitBytes = 256 * 1024 * 1024;
+    public long getSplitBytes() {
+        return splitBytes;
+    }
+    public void setSplitBytes(long splitBytes) {
+        this.splitBytes = splitBytes;
+    }
+
+    /** directory for temporary sorted runs; null for output's directory */
+    protected File tempDir = null;
+    public File getTempDir() {
+        return tempDir;
+    }
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    protected AtomicLong bytesIndexed = new AtomicLong(0);
+    protected AtomicLong linesIndexed = new AtomicLong(0);
+    protected long elapsedMs = 0;
+
+    /**
+     * Index the given archive files, and any ARC/WARC files directly 
+     * inside given directories, into the given output file.
+     * 
+     * @param inputs archive files and/or directories
+     * @param output sorted CDX file to write
+     * @return count of CDX lines written (excluding header)
+     * @throws IOException
+     */
+    public long index(List<File> inputs, File output) throws IOException {
+        long startTime = System.currentTimeMillis();
+        bytesIndexed.set(0);
+        linesIndexed.set(0);
+        File runDir = (tempDir != null) 
+            ? tempDir : output.getAbsoluteFile().getParentFile();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<File>> results = new ArrayList<Future<File>>();
+        try {
+            List<File> runs = new ArrayList<File>();
+            for (File f : expand(inputs)) {
+                for (Span span : spansFor(f)) {
+                    results.add(pool.submit(new SpanIndexer(span, runDir)));
+                }
+            }
+            for (Future<File> result : results) {
+                runs.add(result.get());
+            }
+            merge(runs, output);
+        } catch (InterruptedException e) {
+            throw new IOException("indexing interrupted"); 
+        } catch (ExecutionException e) {
+            IOException ioe = new IOException("problem indexing: " 
+                    + e.getCause());
+            ioe.initCause(e.getCause());
+            throw ioe;
+        } finally {
+            pool.shutdownNow();
+            // delete every run written, including those of tasks still
+            // finishing after another task's failure
+            awaitTermination(pool);
+            for (Future<File> result : results) {
+                if (result.isDone() && !result.isCancelled()) {
+                    try {
+                        result.get().delete();
+                    } catch (ExecutionException e) {
+                        // no run file written
+                    } catch (InterruptedException e) {
+                        // not reached: result is done
+                    }
+                }
+            }
+            elapsedMs = System.currentTimeMillis() - startTime;
+        }
+        return linesIndexed.get();
+    }
+
+    /**
+     * Wait for tasks already running in a shut-down pool to finish, 
+     * deferring any interrupt until then.
+     */
+    protected void awaitTermination(ExecutorService pool) {
+        boolean interrupted = false;
+        while (!pool.isTerminated()) {
+            try {
+                pool.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return archive files named or inside directories named, in order
+     */
+    protected List<File> expand(List<File> inputs) {
+        List<File> files = new ArrayList<File>();
+        for (File f : inputs) {
+            if (f.isDirectory()) {
+                File[] children = f.listFiles();
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.isFile() && isArchiveName(child.getName())) {
+                        files.add(child);
+                    }
+                }
+            } else {
+                files.add(f);
+            }
+        }
+        return files;
+    }
+
+    protected boolean isArchiveName(String name) {
+        return ARCReaderFactory.isARCSuffix(name) 
+            || WARCReaderFactory.isWARCSuffix(name);
+    }
+
+    /**
+     * Divide a file into spans to index separately. Only gzipped files
+     * can be divided, at gzip member (= record) boundaries.
+     */
+    protected List<Span> spansFor(File f) {
+        List<Span> spans = new ArrayList<Span>();
+        long length = f.length();
+        if (!f.getName().endsWith(ArchiveFileConstants.DOT_COMPRESSED_FILE_EXTENSION)
+                || splitBytes <= 0 || length <= splitBytes) {
+            spans.add(new Span(f, 0, length));
+            return spans;
+        }
+        for (long start = 0; start < length; start += splitBytes) {
+            spans.add(new Span(f, start, Math.min(start + splitBytes, length)));
+        }
+        return spans;
+    }
+
+    /**
+     * Find the offset of the first gzip member at or after 'from' and 
+     * before 'to' which begins a readable archive record.
+     * 
+     * @return offset, or -1 if none
+     */
+    protected long findMemberStart(File f, long from, long to) 
+    throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            byte[] buf = new byte[64 * 1024];
+            long pos = from;
+            while (pos < to) {
+                raf.seek(pos);
+                int n = raf.read(buf);
+                if (n < GZIP_MEMBER_MAGIC.length) {
+                    return -1;
+                }
+                for (int i = 0; i + GZIP_MEMBER_MAGIC.length <= n; i++) {
+                    if (buf[i] != GZIP_MEMBER_MAGIC[0]
+                            || buf[i + 1] != GZIP_MEMBER_MAGIC[1]
+                            || buf[i + 2] != GZIP_MEMBER_MAGIC[2]) {
+                        continue;
+                    }
+                    long candidate = pos + i;
+                    if (candidate >= to) {
+                        return -1;
+                    }
+                    if (isRecordStart(f, candidate)) {
+                        return candidate;
+                    }
+                }
+                pos += n - (GZIP_MEMBER_MAGIC.length - 1);
+            }
+            return -1;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return true if an archive record can be read at the given offset
+     * (rather than the gzip magic there being a coincidence)
+     */
+    protected boolean isRecordStart(File f, long offset) {
+        ArchiveReader reader = null;
+        try {
+            reader = ArchiveReaderFactory.get(f, offset);
+            ArchiveRecord record = reader.get();
+            return record != null && record.getHeader().getUrl() != null;
+        } catch (IOException e) {
+            return false;
+        } catch (RuntimeException e) {
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge sorted run files into the output, headed by the CDX legend.
+     */
+    protected void merge(List<File> runs, File output) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output), CHARSET));
+        try {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            writer.write(CDX_HEADER);
+            writer.write('\n');
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                writer.write(reader.current);
+                writer.write('\n');
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+            writer.close();
+        }
+    }
+
+    /**
+     * @return indexing throughput of the last index() call, in 
+     * MB (of archive file) per second
+     */
+    public double getMegabytesPerSecond() {
+        return (bytesIndexed.get() / (1024.0 * 1024.0)) 
+            / (Math.max(1, elapsedMs) / 1000.0);
+    }
+
+    public String throughputReport() {
+        double mbps = getMegabytesPerSecond();
+        return linesIndexed.get() + " lines from " 
+            + bytesIndexed.get() + " bytes in " + elapsedMs + "ms: "
+            + String.format("%.2f", mbps) + " MB/s, " 
+            + String.format("%.2f", mbps / threads) + " MB/s per thread ("
+            + threads + " threads)";
+    }
+
+    /** a portion of an archive file to index as one task */
+    protected static class Span {
+        protected File file;
+        protected long start;
+        protected long end;
+        protected Span(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Indexes one Span to a sorted temporary run file.
+     */
+    protected class SpanIndexer implements Callable<File> {
+        protected Span span;
+        protected File runDir;
+        protected List<String> lines = new ArrayList<String>();
+
+        protected SpanIndexer(Span span, File runDir) {
+            this.span = span;
+            this.runDir = runDir;
+        }
+
+        public File call() throws IOException {
+            long start = span.start;
+            if (start > 0) {
+                start = findMemberStart(span.file, span.start, span.end);
+            }
+            if (start >= 0) {
+                indexFrom(start);
+            }
+            bytesIndexed.addAndGet(span.end - span.start);
+            linesIndexed.addAndGet(lines.size());
+            Collections.sort(lines);
+            File run = File.createTempFile("cdx", ".run", runDir);
+            boolean written = false;
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(run), CHARSET));
+                try {
+                    for (String line : lines) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                } finally {
+                    writer.close();
+                }
+                written = true;
+            } finally {
+                if (!written) {
+                    run.delete();
+                }
+            }
+            return run;
+        }
+
+        protected void indexFrom(long start) throws IOException {
+            ArchiveReader reader = ArchiveReaderFactory.get(span.file, start);
+            reader.setStrict(false);
+            reader.setDigest(reader instanceof ARCReader);
+            // line awaiting the following record's offset, for its length
+            StringBuilder pending = null;
+            long pendingOffset = 0;
+            try {
+                Iterator<ArchiveRecord> iter = reader.iterator();
+                while (iter.hasNext()) {
+                    ArchiveRecord record = iter.next();
+                    long offset = record.getHeader().getOffset();
+                    if (pending != null) {
+                        finishLine(pending, offset - pendingOffset, 
+                                pendingOffset);
+                        pending = null;
+                    }
+                    if (offset >= span.end) {
+                        break;
+                    }
+                    pending = cdxLineStart(record);
+                    pendingOffset = offset;
+                }
+                if (pending != null) {
+                    finishLine(pending, span.file.length() - pendingOffset,
+                            pendingOffset);
+                }
+            } catch (RuntimeException e) {
+                // soldier on with what was indexed of this span
+                logger.log(Level.WARNING, "problem indexing " + span.file 
+                        + " after offset " + pendingOffset, e);
+            } finally {
+                reader.close();
+            }
+        }
+
+        /**
+         * Complete a line with its 'S' compressed length, 'V' offset and
+         * 'g' file name.
+         */
+        protected void finishLine(StringBuilder line, long length, 
+                long offset) {
+            appendField(line, Long.toString(length));
+            appendField(line, Long.toString(offset));
+            appendField(line, span.file.getName());
+            lines.add(line.toString());
+        }
+
+        /**
+         * @return CDX line for the record, lacking its final three 
+         * fields, or null if record is not to be indexed
+         */
+        protected StringBuilder cdxLineStart(ArchiveRecord record) 
+        throws IOException {
+            ArchiveRecordHeader h = record.getHeader();
+            String url = h.getUrl();
+            String mime;
+            String status = "-";
+            String digest = "-";
+            String redirect = "-";
+            if (record instanceof ARCRecord) {
+                if (url == null || url.startsWith("filedesc:")) {
+                    return null;
+                }
+                ARCRecord arcRecord = (ARCRecord) record;
+                arcRecord.close();
+                mime = h.getMimetype();
+                status = ((ARCRecordMetaData) h).getStatusCode();
+                digest = arcRecord.getDigestStr();
+                Header[] headers = arcRecord.getHttpHeaders();
+                if (headers != null) {
+                    for (Header header : headers) {
+                        if ("Location".equalsIgnoreCase(header.getName())) {
+                            redirect = header.getValue().trim();
+                        }
+                    }
+                }
+            } else {
+                String type = (String) h.getHeaderValue(
+                        WARCConstants.HEADER_KEY_TYPE);
+                if (url == null || !(WARCConstants.RESPONSE.equals(type)
+                        || WARCConstants.REVISIT.equals(type)
+                        || WARCConstants.RESOURCE.equals(type))) {
+                    return null;
+                }
+                mime = h.getMimetype();
+                String payloadDigest = (String) h.getHeaderValue(
+                        WARCConstants.HEADER_KEY_PAYLOAD_DIGEST);
+                if (payloadDigest != null) {
+                    digest = payloadDigest.substring(
+                            payloadDigest.indexOf(':') + 1);
+                }
+                if (!WARCConstants.RESOURCE.equals(type) && mime != null 
+                        && mime.startsWith("application/http")) {
+                    try {
+                        String statusLine = 
+                            HttpParser.readLine(record, "US-ASCII");
+                        if (statusLine != null 
+                                && StatusLine.startsWithHTTP(statusLine)) {
+                            status = Integer.toString(
+                                new StatusLine(statusLine).getStatusCode());
+                            mime = "unk";
+                            for (Header header : 
+                                HttpParser.parseHeaders(record, "US-ASCII")) {
+                                String name = header.getName();
+                                if ("Content-Type".equalsIgnoreCase(name)) {
+                                    mime = header.getValue().trim();
+                                } else if ("Location".equalsIgnoreCase(name)) {
+                                    redirect = header.getValue().trim();
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        // index without HTTP-level details
+                        logger.fine("unparseable HTTP headers in " 
+                                + h.getRecordIdentifier() + ": " + e);
+                    }
+                }
+                if (WARCConstants.REVISIT.equals(type)) {
+                    mime = "warc/revisit";
+                }
+            }
+            StringBuilder line = new StringBuilder(256);
+            appendField(line, SURT.fromURI(url));
+            appendField(line, fourteenDigits(h.getDate()));
+            appendField(line, url);
+            appendField(line, stripParams(mime));
+            appendField(line, status);
+            appendField(line, digest);
+            appendField(line, redirect);
+            appendField(line, "-");
+            return line;
+        }
+    }
+
+    protected static void appendField(StringBuilder line, String value) {
+        if (line.length() > 0) {
+            line.append(' ');
+        }
+        if (value == null || value.length() == 0) {
+            line.append('-');
+            return;
+        }
+        // fields are space-delimited; escape any embedded whitespace
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                line.append("%20");
+            } else {
+                line.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return 14-digit form of an ARC (already 14-digit) or WARC
+     * (ISO8601) date
+     */
+    protected static String fourteenDigits(String date) {
+        if (date == null) {
+            return null;
+        }
+        StringBuilder digits = new StringBuilder(14);
+        for (int i = 0; i < date.length() && digits.length() < 14; i++) {
+            if (Character.isDigit(date.charAt(i))) {
+                digits.append(date.charAt(i));
+            }
+        }
+        return digits.toString();
+    }
+
+    protected static String stripParams(String mime) {
+        if (mime == null) {
+            return null;
+        }
+        int semi = mime.indexOf(';');
+        return (semi < 0 ? mime : mime.substring(0, semi)).trim().toLowerCase();
+    }
+
+    /**
+     * Reader of one sorted run, ordered by its current line.
+     */
+    protected static class RunReader implements Comparable<RunReader> {
+        protected BufferedReader reader;
+        protected String current;
+
+        protected RunReader(File run) throws IOException {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(run), CHARSET));
+        }
+
+        protected boolean advance() throws IOException {
+            current = reader.readLine();
+            return current != null;
+        }
+
+        protected void close() throws IOException {
+            reader.close();
+        }
+
+        public int compareTo(RunReader other) {
+            return current.compareTo(other.current);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        CDXIndexer indexer = new CDXIndexer();
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            if (args[i].startsWith("--threads=")) {
+                indexer.setThreads(Integer.parseInt(
+                        args[i].substring("--threads=".length())));
+            } else if (args[i].startsWith("--split-mb=")) {
+                indexer.setSplitBytes(1024L * 1024L * Long.parseLong(
+                        args[i].substring("--split-mb=".length())));
+            } else {
+                i = args.length;
+            }
+        }
+        if (args.length - i < 2) {
+            System.err.println("Usage: CDXIndexer [--threads=N] "
+                    + "[--split-mb=N] OUTPUT.cdx ARC_WARC_OR_DIR...");
+            System.exit(1);
+        }
+        File output = new File(args[i++]);
+        List<File> inputs = new ArrayList<File>();
+        for (; i < args.length; i++) {
+            inputs.add(new File(args[i]));
+        }
+        indexer.index(inputs, output);
+        System.err.println(indexer.throughputReport());
+    }
+}
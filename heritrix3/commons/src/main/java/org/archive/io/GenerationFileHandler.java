@@ -23,10 +23,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.logging.ErrorManager;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
+import org.archive.util.ArchiveUtils;
 import org.archive.util.FileUtils;
 
 
@@ -41,6 +43,9 @@ import org.archive.util.FileUtils;
 public class GenerationFileHandler extends FileHandler {
     private LinkedList<String> filenameSeries = new LinkedList<String>();
     private boolean shouldManifest = false;
+    /** lines per block of sidecar {@link LogIndex}; 0 for no index */
+    private int indexInterval = 0;
+    private LogIndex.Builder indexBuilder = null;
 
     /**
      * @return Returns the filenameSeries.
@@ -107,13 +112,44 @@ public class GenerationFileHandler extends FileHandler {
             throw new IOException("Unable to move " + filename + " to " +
                 storeFilename);
         }
+        File activeIndex = LogIndex.indexFileFor(activeFile);
+        if (activeIndex.exists()) {
+            activeIndex.renameTo(LogIndex.indexFileFor(storeFile));
+        }
         filenameSeries.add(1, storeFilename);
         GenerationFileHandler newGfh = 
             new GenerationFileHandler(filenameSeries, shouldManifest);
         newGfh.setFormatter(this.getFormatter());
+        newGfh.setIndexInterval(indexInterval);
         return newGfh;
     }
     
+    /**
+     * Maintain (or stop maintaining) a sparse sidecar {@link LogIndex} of
+     * the current file, for fast seeking and searching by readers. Only
+     * meaningful for crawl.log-style lines.
+     * 
+     * @param interval lines per index block; 0 for no index
+     * @throws IOException
+     */
+    public synchronized void setIndexInterval(int interval) 
+    throws IOException {
+        if (indexBuilder != null) {
+            indexBuilder.close();
+            indexBuilder = null;
+        }
+        this.indexInterval = interval;
+        if (interval > 0) {
+            flush();
+            indexBuilder = new LogIndex.Builder(
+                    new File(filenameSeries.getFirst()), interval);
+        }
+    }
+    
+    public int getIndexInterval() {
+        return indexInterval;
+    }
+    
     /**
      * @return True if should manifest.
      */
@@ -133,7 +169,15 @@ public class GenerationFileHandler extends FileHandler {
      * @throws IOException
      */
     public static GenerationFileHandler makeNew(String filename, boolean append, boolean shouldManifest) throws SecurityException, IOException {
-        FileUtils.moveAsideIfExists(new File(filename));
+        File file = new File(filename);
+        File index = LogIndex.indexFileFor(file);
+        if (file.exists() && index.exists()) {
+            // keep with the moved-aside log
+            index.renameTo(LogIndex.indexFileFor(new File(
+                    file.getCanonicalPath() + "." 
+                    + ArchiveUtils.get14DigitDate(file.lastModified()))));
+        }
+        FileUtils.moveAsideIfExists(file);
         return new GenerationFileHandler(filename, append, shouldManifest);
     }
 
@@ -143,16 +187,78 @@ public class GenerationFileHandler extends FileHandler {
         // (our most involved UriProcessingFormatter can cache result)
         Formatter f = getFormatter(); 
         if(!(f instanceof Preformatter)) {
-            super.publish(record);
+            publishAndIndex(record);
         } else {
             try {
                 ((Preformatter)f).preformat(record); 
-                super.publish(record);
+                publishAndIndex(record);
             } finally {
                 ((Preformatter)f).clear();
             }
         }
     }
+    
+    protected void publishAndIndex(LogRecord record) {
+        if (indexBuilder == null) {
+            super.publish(record);
+            return;
+        }
+        if (!isLoggable(record)) {
+            return;
+        }
+        // (from cache, if preformatted)
+        String line = getFormatter().format(record);
+        int byteLength; 
+        try {
+            byteLength = byteLength(line);
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            return;
+        }
+        synchronized (this) {
+            super.publish(record);
+            LogIndex.Builder builder = indexBuilder;
+            if (builder != null) {
+                try {
+                    // one record may be several lines; note each
+                    int start = 0;
+                    int nl;
+                    while ((nl = line.indexOf('\n', start)) >= 0) {
+                        String one = line.substring(start, nl + 1);
+                        builder.noteLine(one, (start == 0 && nl + 1 == line.length()) 
+                                ? byteLength : byteLength(one));
+                        start = nl + 1;
+                    }
+                } catch (IOException e) {
+                    reportError(null, e, ErrorManager.WRITE_FAILURE);
+                }
+            }
+        }
+    }
+    
+    protected int byteLength(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                String encoding = getEncoding();
+                return (encoding == null) 
+                    ? s.getBytes().length : s.getBytes(encoding).length;
+            }
+        }
+        return s.length();
+    }
+    
+    @Override
+    public synchronized void close() throws SecurityException {
+        super.close();
+        if (indexBuilder != null) {
+            try {
+                indexBuilder.close();
+            } catch (IOException e) {
+                reportError(null, e, ErrorManager.CLOSE_FAILURE);
+            }
+            indexBuilder = null;
+        }
+    }
 //
 //    TODO: determine if there's another way to have this optimization without
 //    negative impact on log-following (esp. in web UI)
@@ -0,0 +1,94 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+
+/**
+ * A ReplayCharSequence holding all its (already decoded) characters in
+ * memory, which may thus be read by several threads at once -- unlike
+ * {@link GenericReplayCharSequence}, whose memory-mapped window moves 
+ * as it is read.
+ */
+public class ImmutableReplayCharSequence implements ReplayCharSequence {
+    protected final String content;
+    protected final Charset charset;
+    protected final long decodeExceptionCount;
+    protected final CharacterCodingException codingException;
+    protected volatile boolean isOpen = true;
+    
+    public ImmutableReplayCharSequence(String content, Charset charset,
+            long decodeExceptionCount, 
+            CharacterCodingException codingException) {
+        this.content = content;
+        this.charset = charset;
+        this.decodeExceptionCount = decodeExceptionCount;
+        this.codingException = codingException;
+    }
+    
+    /**
+     * @param original sequence to copy, read start to end
+     * @return in-memory copy of the given sequence
+     */
+    public static ImmutableReplayCharSequence copyOf(ReplayCharSequence original) {
+        StringBuilder sb = new StringBuilder(original.length());
+        sb.append(original);
+        return new ImmutableReplayCharSequence(sb.toString(), 
+                original.getCharset(), original.getDecodeExceptionCount(),
+                original.getCodingException());
+    }
+
+    public char charAt(int index) {
+        return content.charAt(index);
+    }
+
+    public int length() {
+        return content.length();
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return content.subSequence(start, end);
+    }
+    
+    @Override
+    public String toString() {
+        return content;
+    }
+
+    public void close() {
+        isOpen = false;
+    }
+
+    public long getDecodeExceptionCount() {
+        return decodeExceptionCount;
+    }
+
+    public CharacterCodingException getCodingException() {
+        return codingException;
+    }
+
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Sparse sidecar index of a crawl.log-style file: for each block of 
+ * (normally) a fixed number of lines, the block's first line number, 
+ * byte offset and length, the timestamp of its first line, and the set 
+ * of hosts appearing in it. Lets readers seek directly to a line number 
+ * or time, skip blocks without a given host, and split a file into 
+ * line-aligned ranges for parallel scanning.
+ * <p/>
+ * The index is a text file next to the log (see {@link #indexFileFor(File)}),
+ * one block per line:
+ * <pre>firstLine offset length lineCount firstTimestamp [host ...]</pre>
+ * Lines are assumed to start with a timestamp field, and to carry a URI
+ * as their fourth field, as in crawl.log. Lines past the last indexed
+ * block (as when the log is still being written) can still be found by
+ * scanning from the end of the last block.
+ */
+public class LogIndex {
+    private static final Logger logger = 
+        Logger.getLogger(LogIndex.class.getName());
+
+    /** suffix added to a log's filename to name its index */
+    public static final String INDEX_SUFFIX = ".idx";
+    
+    /** default count of lines per index block */
+    public static final int DEFAULT_INTERVAL = 1000;
+    
+    /**
+     * One indexed block of lines.
+     */
+    public static class Block {
+        public final long firstLine;
+        public final long offset;
+        public final long length;
+        public final int lineCount;
+        public final String firstTimestamp;
+        public final Set<String> hosts;
+        
+        public Block(long firstLine, long offset, long length, int lineCount,
+                String firstTimestamp, Set<String> hosts) {
+            this.firstLine = firstLine;
+            this.offset = offset;
+            this.length = length;
+            this.lineCount = lineCount;
+            this.firstTimestamp = firstTimestamp;
+            this.hosts = hosts;
+        }
+        
+        public long getEndOffset() {
+            return offset + length;
+        }
+        
+        public long getNextLine() {
+            return firstLine + lineCount;
+        }
+        
+        protected String toIndexLine() {
+            StringBuilder sb = new StringBuilder(64 + hosts.size() * 16);
+            sb.append(firstLine).append(' ')
+              .append(offset).append(' ')
+              .append(length).append(' ')
+              .append(lineCount).append(' ')
+              .append(firstTimestamp == null ? "-" : firstTimestamp);
+            for (String host : hosts) {
+                sb.append(' ').append(host);
+            }
+            return sb.toString();
+        }
+        
+        protected static Block fromIndexLine(String line) {
+            String[] fields = line.split(" ");
+            if (fields.length < 5) {
+                throw new IllegalArgumentException("short index line");
+            }
+            Set<String> hosts = new HashSet<String>();
+            for (int i = 5; i < fields.length; i++) {
+                hosts.add(fields[i]);
+            }
+            return new Block(Long.parseLong(fields[0]), 
+                    Long.parseLong(fields[1]), Long.parseLong(fields[2]), 
+                    Integer.parseInt(fields[3]), 
+                    "-".equals(fields[4]) ? null : fields[4], hosts);
+        }
+    }
+    
+    protected File logFile;
+    protected List<Block> blocks;
+    
+    protected LogIndex(File logFile, List<Block> blocks) {
+        this.logFile = logFile;
+        this.blocks = blocks;
+    }
+    
+    /**
+     * @param logFile a log file
+     * @return the file holding (or that would hold) the log's index
+     */
+    public static File indexFileFor(File logFile) {
+        return new File(logFile.getPath() + INDEX_SUFFIX);
+    }
+    
+    /**
+     * Load the index of the given log, if it has one consistent with the
+     * log's current size.
+     * 
+     * @param logFile log file
+     * @return LogIndex, or null if no usable index
+     * @throws IOException
+     */
+    public static LogIndex load(File logFile) throws IOException {
+        File indexFile = indexFileFor(logFile);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        List<Block> blocks = readBlocks(indexFile, null);
+        if (!blocks.isEmpty() && blocks.get(blocks.size() - 1).getEndOffset() 
+                > logFile.length()) {
+            // index of some other (since replaced) log
+            return null;
+        }
+        return new LogIndex(logFile, blocks);
+    }
+    
+    /**
+     * Read all well-formed blocks from an index file.
+     * 
+     * @param indexFile index to read
+     * @param goodLength if not null, receives in [0] the length of the 
+     * index's well-formed prefix
+     * @return blocks, in order
+     */
+    protected static List<Block> readBlocks(File indexFile, long[] goodLength) 
+    throws IOException {
+        List<Block> blocks = new ArrayList<Block>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(indexFile), "UTF-8"));
+        long good = 0;
+        try {
+            String line;
+            long expectedLine = 1;
+            long expectedOffset = 0;
+            while ((line = reader.readLine()) != null) {
+                Block block;
+                try {
+                    block = Block.fromIndexLine(line);
+                } catch (RuntimeException e) {
+                    // truncated final line, as after a crash
+                    break;
+                }
+                if (block.firstLine != expectedLine 
+                        || block.offset != expectedOffset) {
+                    break;
+                }
+                blocks.add(block);
+                expectedLine = block.getNextLine();
+                expectedOffset = block.getEndOffset();
+                good += line.getBytes("UTF-8").length + 1;
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        if (goodLength != null) {
+            goodLength[0] = good;
+        }
+        return blocks;
+    }
+    
+    public File getLogFile() {
+        return logFile;
+    }
+    
+    /**
+     * @return all indexed blocks, in file order
+     */
+    public List<Block> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+    
+    /**
+     * @return line number of the first line not covered by any block
+     */
+    public long getNextLine() {
+        return blocks.isEmpty() ? 1 : blocks.get(blocks.size() - 1).getNextLine();
+    }
+    
+    /**
+     * @return offset of the first byte not covered by any block
+     */
+    public long getEndOffset() {
+        return blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).getEndOffset();
+    }
+    
+    /**
+     * Find the index of the block containing the given line number. 
+     * 
+     * @param lineNumber 1-based line number
+     * @return index into {@link #getBlocks()}, or -1 if the line is past 
+     * all indexed blocks
+     */
+    public int findBlockForLine(long lineNumber) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Block block = blocks.get(mid);
+            if (lineNumber < block.firstLine) {
+                high = mid - 1;
+            } else if (lineNumber >= block.getNextLine()) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Find the index of the last block whose first timestamp is before
+     * the given one: any line at or after the timestamp is in that block 
+     * or later (given timestamps that increase through the log).
+     * 
+     * @param timestamp timestamp in the log's own (lexically ordered) format
+     * @return index into {@link #getBlocks()}; 0 if timestamp precedes all
+     * blocks; {@link #getBlocks()}.size() if there are no blocks
+     */
+    public int findBlockForTimestamp(String timestamp) {
+        if (blocks.isEmpty()) {
+            return 0;
+        }
+        int low = 0;
+        int high = blocks.size() - 1;
+        int result = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            String first = blocks.get(mid).firstTimestamp;
+            if (first != null && first.compareTo(timestamp) < 0) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * @param line a crawl.log-style line
+     * @return the line's leading timestamp field, or null
+     */
+    public static String timestampOf(String line) {
+        int space = line.indexOf(' ');
+        return space > 0 ? line.substring(0, space) : null;
+    }
+    
+    /**
+     * @param line a crawl.log-style line
+     * @return host of the URI in the line's fourth field, or null
+     */
+    public static String hostOf(String line) {
+        int start = 0;
+        for (int field = 0; field < 3; field++) {
+            start = line.indexOf(' ', start);
+            if (start < 0) {
+                return null;
+            }
+            // skip runs of spaces (padded fields)
+            while (start < line.length() && line.charAt(start) == ' ') {
+                start++;
+            }
+        }
+        int end = line.indexOf(' ', start);
+        if (end < 0) {
+            end = line.length();
+        }
+        int hostStart = line.indexOf("://", start);
+        if (hostStart < 0 || hostStart >= end) {
+            // dns:host and similar
+            int colon = line.indexOf(':', start);
+            return (colon > start && colon < end) 
+                ? line.substring(colon + 1, end).toLowerCase() : null;
+        }
+        hostStart += 3;
+        int hostEnd = hostStart;
+        while (hostEnd < end) {
+            char c = line.charAt(hostEnd);
+            if (c == '/' || c == ':' || c == '?' || c == '#') {
+                break;
+            }
+            hostEnd++;
+        }
+        int at = line.lastIndexOf('@', hostEnd);
+        if (at >= hostStart) {
+            hostStart = at + 1;
+        }
+        return hostEnd > hostStart 
+            ? line.substring(hostStart, hostEnd).toLowerCase() : null;
+    }
+    
+    /**
+     * Maintains a log's index as lines are appended to the log. On 
+     * opening, picks up from any existing index consistent with the log:
+     * dropping any damaged or stale tail of the index, and indexing any
+     * lines written since its last block (as after a crash). 
+     */
+    public static class Builder {
+        protected File logFile;
+        protected File indexFile;
+        protected int interval;
+        protected Writer indexWriter;
+        
+        protected long nextLine = 1;
+        protected long offset = 0;
+        
+        protected long blockFirstLine = 1;
+        protected long blockOffset = 0;
+        protected int blockLines = 0;
+        protected String blockTimestamp = null;
+        protected Set<String> blockHosts = new HashSet<String>();
+        
+        /**
+         * @param logFile log whose lines will be noted
+         * @param interval lines per block
+         * @throws IOException
+         */
+        public Builder(File logFile, int interval) throws IOException {
+            this.logFile = logFile;
+            this.indexFile = indexFileFor(logFile);
+            this.interval = interval;
+            recover();
+        }
+        
+        protected void recover() throws IOException {
+            List<Block> blocks = Collections.emptyList();
+            long[] goodLength = new long[1];
+            if (indexFile.exists()) {
+                blocks = readBlocks(indexFile, goodLength);
+                if (!blocks.isEmpty() && blocks.get(blocks.size() - 1)
+                        .getEndOffset() > logFile.length()) {
+                    // stale: log has been replaced or truncated
+                    blocks = Collections.emptyList();
+                    goodLength[0] = 0;
+                }
+                RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+                try {
+                    raf.setLength(goodLength[0]);
+                } finally {
+                    raf.close();
+                }
+            }
+            if (!blocks.isEmpty()) {
+                Block last = blocks.get(blocks.size() - 1);
+                nextLine = blockFirstLine = last.getNextLine();
+                offset = blockOffset = last.getEndOffset();
+            }
+            indexWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(indexFile, true), "UTF-8"));
+            if (logFile.length() > offset) {
+                indexTail();
+            }
+        }
+        
+        /**
+         * Note lines already in the log past the last indexed block.
+         */
+        protected void indexTail() throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+            try {
+                raf.seek(offset);
+                LineReader reader = new LineReader(raf, logFile.length());
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    noteLine(line, reader.getLastLineLength());
+                }
+            } finally {
+                raf.close();
+            }
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info("indexed " + (nextLine - 1) + " lines of " 
+                        + logFile);
+            }
+        }
+        
+        /**
+         * Note a line just appended to the log.
+         * 
+         * @param line the line
+         * @param byteLength length in bytes, including line terminator, of 
+         * the line as written
+         */
+        public synchronized void noteLine(String line, int byteLength) 
+        throws IOException {
+            if (blockLines == 0) {
+                blockFirstLine = nextLine;
+                blockOffset = offset;
+                blockTimestamp = timestampOf(line);
+            }
+            String host = hostOf(line);
+            if (host != null) {
+                blockHosts.add(host);
+            }
+            blockLines++;
+            nextLine++;
+            offset += byteLength;
+            if (blockLines >= interval) {
+                writeBlock();
+            }
+        }
+        
+        protected void writeBlock() throws IOException {
+            if (blockLines == 0) {
+                return;
+            }
+            Block block = new Block(blockFirstLine, blockOffset, 
+                    offset - blockOffset, blockLines, blockTimestamp, 
+                    blockHosts);
+            indexWriter.write(block.toIndexLine());
+            indexWriter.write('\n');
+            indexWriter.flush();
+            blockLines = 0;
+            blockHosts = new HashSet<String>();
+        }
+        
+        /**
+         * Index any partial block and close the index. 
+         */
+        public synchronized void close() throws IOException {
+            if (indexWriter == null) {
+                return;
+            }
+            try {
+                writeBlock();
+            } finally {
+                indexWriter.close();
+                indexWriter = null;
+            }
+        }
+    }
+    
+    /**
+     * Reads '\n'-terminated lines, as UTF-8, from a RandomAccessFile up 
+     * to a limit, reporting each line's length in bytes.
+     */
+    public static class LineReader {
+        protected RandomAccessFile raf;
+        protected long remaining;
+        protected byte[] buf = new byte[64 * 1024];
+        protected int pos = 0;
+        protected int limit = 0;
+        protected byte[] lineBuf = new byte[512];
+        protected int lastLineLength;
+        
+        /**
+         * @param raf file, positioned at the start of a line
+         * @param end offset at which to stop reading
+         */
+        public LineReader(RandomAccessFile raf, long end) throws IOException {
+            this.raf = raf;
+            this.remaining = end - raf.getFilePointer();
+        }
+        
+        /**
+         * @return next line, without terminator, or null at the limit; a 
+         * final unterminated line is returned as is
+         */
+        public String readLine() throws IOException {
+            int len = 0;
+            while (true) {
+                if (pos >= limit) {
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    limit = raf.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (limit <= 0) {
+                        remaining = 0;
+                        break;
+                    }
+                    remaining -= limit;
+                    pos = 0;
+                }
+                byte b = buf[pos++];
+                if (b == '\n') {
+                    lastLineLength = len + 1;
+                    return decode(len);
+                }
+                if (len == lineBuf.length) {
+                    byte[] larger = new byte[len * 2];
+                    System.arraycopy(lineBuf, 0, larger, 0, len);
+                    lineBuf = larger;
+                }
+                lineBuf[len++] = b;
+            }
+            if (len == 0) {
+                return null;
+            }
+            lastLineLength = len;
+            return decode(len);
+        }
+        
+        protected String decode(int len) throws IOException {
+            return new String(lineBuf, 0, len, "UTF-8");
+        }
+        
+        /**
+         * @return length in bytes, including any terminator, of the line 
+         * last returned by {@link #readLine()}
+         */
+        public int getLastLineLength() {
+            return lastLineLength;
+        }
+    }
+}
@@ -57,6 +57,14 @@ public class MiserOutputStream extends FilterOutputStream {
       return count;
     }
 
+    /** 
+     * Count bytes written to the ultimate destination by other means 
+     * (such as directly to its FileChannel). 
+     */
+    public void addCount(long bytes) {
+      count += bytes;
+    }
+
     @Override public void write(byte[] b, int off, int len) throws IOException {
       out.write(b, off, len);
       count += len;
@@ -0,0 +1,172 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Process-wide pool of threads which compress whole archive records, each
+ * into its own complete gzip member, on behalf of {@link WriterPoolMember}s
+ * writing in parallel-compression mode. 
+ * <p/>
+ * Members produced here are byte-for-byte the same as those written by 
+ * a GZIPOutputStream whose deflater is set to the same level, so files 
+ * are identical whichever way they were compressed. Each pool thread 
+ * reuses one Deflater per level, rather than allocating (and leaving to 
+ * finalization) native deflater state for every record.
+ * <p/>
+ * The pool grows to the largest thread count any writer has asked for;
+ * idle threads exit after a minute.
+ */
+public class ParallelGzipCompressor {
+    /** 
+     * gzip header exactly as this JVM's GZIPOutputStream writes it (some
+     * versions differ in the OS byte)
+     */
+    protected static final byte[] GZIP_HEADER;
+    static {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try {
+            new GZIPOutputStream(header).close();
+        } catch (IOException e) {
+            // impossible for an in-memory stream
+            throw new RuntimeException(e);
+        }
+        GZIP_HEADER = new byte[GzipHeader.MINIMAL_GZIP_HEADER_LENGTH];
+        System.arraycopy(header.toByteArray(), 0, GZIP_HEADER, 0, 
+                GZIP_HEADER.length);
+    }
+    
+    protected static ThreadPoolExecutor executor = null;
+    
+    protected static ThreadLocal<Deflater[]> deflaters = 
+        new ThreadLocal<Deflater[]>() {
+            @Override
+            protected Deflater[] initialValue() {
+                // one slot per level -1..9
+                return new Deflater[11];
+            }
+        };
+    
+    /**
+     * Ensure the shared pool has at least the given number of threads.
+     * 
+     * @param threads minimum thread count wanted
+     * @return the shared pool
+     */
+    protected static synchronized ThreadPoolExecutor getExecutor(int threads) {
+        if (executor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "GzipCompressor-" 
+                                    + threadNumber.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        } else if (executor.getMaximumPoolSize() < threads) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        }
+        return executor;
+    }
+    
+    /**
+     * Compress, in the shared pool, the first <code>len</code> bytes of 
+     * <code>buf</code> into one gzip member. The caller must not modify 
+     * <code>buf</code> until the returned Future completes.
+     * 
+     * @param buf uncompressed record bytes
+     * @param len count of bytes to compress
+     * @param level deflater level (-1 for the zlib default)
+     * @param threads thread count the pool should have
+     * @return Future of the complete gzip member
+     */
+    public static Future<byte[]> submit(final byte[] buf, final int len, 
+            final int level, int threads) {
+        return getExecutor(threads).submit(new Callable<byte[]>() {
+            public byte[] call() {
+                return gzip(buf, 0, len, level);
+            }
+        });
+    }
+    
+    /**
+     * Compress the given range of bytes into one complete gzip member, in
+     * the current thread. 
+     * 
+     * @param buf uncompressed bytes
+     * @param off offset of first byte
+     * @param len count of bytes
+     * @param level deflater level (-1 for the zlib default)
+     * @return gzip member
+     */
+    public static byte[] gzip(byte[] buf, int off, int len, int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION 
+                || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid level " + level);
+        }
+        Deflater[] cache = deflaters.get();
+        Deflater def = cache[level + 1];
+        if (def == null) {
+            def = new Deflater(level, true);
+            cache[level + 1] = def;
+        }
+        def.reset();
+        def.setInput(buf, off, len);
+        def.finish();
+        // records of markup compress to ~1/4; start there
+        ByteArrayOutputStream gz = 
+            new ByteArrayOutputStream(Math.max(64, len / 4));
+        gz.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        byte[] chunk = new byte[Math.min(64 * 1024, Math.max(512, len))];
+        while (!def.finished()) {
+            int n = def.deflate(chunk, 0, chunk.length);
+            gz.write(chunk, 0, n);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf, off, len);
+        writeIntLE(gz, (int) crc.getValue());
+        writeIntLE(gz, len);
+        return gz.toByteArray();
+    }
+    
+    protected static void writeIntLE(ByteArrayOutputStream out, int i) {
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+}
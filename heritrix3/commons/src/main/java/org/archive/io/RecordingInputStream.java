@@ -340,6 +340,15 @@ public class RecordingInputStream
         recordingOutputStream.setLimits(hardMax, timeoutMs, maxRateKBps);
     }
 
+    /**
+     * Set shared bandwidth limits to be enforced by internal recording-out
+     * 
+     * @see RecordingOutputStream#setBandwidthThrottle(BandwidthThrottle)
+     */
+    public void setBandwidthThrottle(BandwidthThrottle throttle) {
+        recordingOutputStream.setBandwidthThrottle(throttle);
+    }
+
     /**
      * Expose the amount of in-memory buffering used by the internal 
      * recording stream. 
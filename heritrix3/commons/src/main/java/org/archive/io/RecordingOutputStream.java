@@ -126,6 +126,10 @@ public class RecordingOutputStream extends OutputStream {
     protected long maxRateBytesPerMs = Long.MAX_VALUE;
     /** time recording begins for timeout, rate calculations */ 
     protected long startTime = Long.MAX_VALUE;
+    /** shared bandwidth limits to observe (adds delays), if any */
+    protected BandwidthThrottle bandwidthThrottle = null;
+    /** position through which bytes were reported to bandwidthThrottle */
+    protected long throttledPosition = 0;
     
     /**
      * When recording HTTP, where the content-body starts.
@@ -185,6 +189,7 @@ public class RecordingOutputStream extends OutputStream {
         this.position = 0;
         this.markPosition = 0;
         this.maxPosition = 0; 
+        this.throttledPosition = 0;
         this.size = 0;
         this.messageBodyBeginMark = -1;
         // ensure recording turned on
@@ -271,6 +276,19 @@ public class RecordingOutputStream extends OutputStream {
                         "bandwidth throttling sleep interrupted", e);
             } 
         }
+        // need to throttle to stay within shared (crawl-wide) limits? 
+        if(bandwidthThrottle != null && position > throttledPosition) {
+            long sleepMs = bandwidthThrottle.consumed(position - throttledPosition);
+            throttledPosition = position;
+            if(sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    logger.log(Level.WARNING,
+                            "bandwidth throttling sleep interrupted", e);
+                }
+            }
+        }
     }
 
     /**
@@ -353,6 +371,9 @@ public class RecordingOutputStream extends OutputStream {
             this.out.close();
             this.out = null;
         }
+        // a throttle applies to one recording only; don't let it linger
+        // to slow whatever this (per-thread) stream records next
+        setBandwidthThrottle(null);
         closeRecorder();
     }
     
@@ -556,6 +577,24 @@ public class RecordingOutputStream extends OutputStream {
         maxLength = Long.MAX_VALUE;
         timeoutMs = Long.MAX_VALUE;
         maxRateBytesPerMs = Long.MAX_VALUE;
+        setBandwidthThrottle(null);
+    }
+    
+    /**
+     * Set shared bandwidth limits to observe in addition to any per-stream
+     * rate limit. Any bytes still pending against a previously-set 
+     * throttle are charged to it (without waiting) first. The throttle is
+     * cleared when this stream is closed, so must be set for each 
+     * recording.
+     * 
+     * @param throttle BandwidthThrottle to consult; null for none
+     */
+    public void setBandwidthThrottle(BandwidthThrottle throttle) {
+        if(bandwidthThrottle != null) {
+            bandwidthThrottle.flush();
+        }
+        bandwidthThrottle = throttle;
+        throttledPosition = position;
     }
     
     /**
@@ -20,9 +20,12 @@
 package org.archive.io;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.apache.commons.io.IOUtils;
 import org.archive.util.ArchiveUtils;
@@ -41,6 +44,8 @@ public class ReplayInputStream extends SeekInputStream
 {
     private static final int DEFAULT_BUFFER_SIZE = 256*1024; // 256KiB
     private BufferedSeekInputStream diskStream;
+    /** file holding content beyond buffer, if any */
+    private File diskFile;
     private byte[] buffer;
     private long position;
 
@@ -100,6 +105,7 @@ public class ReplayInputStream extends SeekInputStream
     }
 
     protected void setupDiskStream(File backingFile) throws IOException {
+        diskFile = backingFile;
         RandomAccessInputStream rais = new RandomAccessInputStream(backingFile); 
         diskStream = new BufferedSeekInputStream(rais, 4096);
     }
@@ -200,6 +206,118 @@ public class ReplayInputStream extends SeekInputStream
         }
     }
     
+    /**
+     * Copy up to count bytes, from the current position, straight into 
+     * the given channel: the in-memory prefix in a single write from the
+     * buffer, and any remainder from the backing file by 
+     * FileChannel.transferTo (which, OS permitting, never brings the 
+     * bytes into user space). Leaves the stream positioned after the 
+     * copied bytes. 
+     * 
+     * @param target channel to write to, at its current position
+     * @param count maximum number of bytes to copy
+     * @return number of bytes copied
+     * @throws IOException
+     */
+    public long transferTo(FileChannel target, long count) 
+    throws IOException {
+        long start = position;
+        long remaining = Math.min(count, size - position);
+        long copied = 0;
+        if (remaining > 0 && position < buffer.length) {
+            int n = (int) Math.min(remaining, buffer.length - position);
+            ByteBuffer bb = ByteBuffer.wrap(buffer, (int) position, n);
+            while (bb.hasRemaining()) {
+                target.write(bb);
+            }
+            copied += n;
+            remaining -= n;
+        }
+        if (remaining > 0) {
+            FileInputStream fis = new FileInputStream(diskFile);
+            try {
+                FileChannel source = fis.getChannel();
+                long filePosition = start + copied - buffer.length;
+                while (remaining > 0) {
+                    long n = source.transferTo(filePosition, remaining, target);
+                    if (n <= 0) {
+                        throw new IOException("backing file " + diskFile 
+                                + " shorter than recorded size " + size);
+                    }
+                    filePosition += n;
+                    copied += n;
+                    remaining -= n;
+                }
+            } finally {
+                fis.close();
+            }
+        }
+        skipTo(start + copied);
+        return copied;
+    }
+
+    /**
+     * Copy up to count bytes, from the current position, to the given 
+     * stream: the in-memory prefix written directly from the buffer, and 
+     * any remainder read from the backing file's channel in scratch-sized
+     * chunks (rather than through the small-buffered disk stream). Leaves 
+     * the stream positioned after the copied bytes.
+     * 
+     * @param os stream to write to
+     * @param count maximum number of bytes to copy
+     * @param scratch buffer to use for backing-file chunks
+     * @return number of bytes copied
+     * @throws IOException
+     */
+    public long readTo(OutputStream os, long count, byte[] scratch) 
+    throws IOException {
+        long start = position;
+        long remaining = Math.min(count, size - position);
+        long copied = 0;
+        if (remaining > 0 && position < buffer.length) {
+            int n = (int) Math.min(remaining, buffer.length - position);
+            os.write(buffer, (int) position, n);
+            copied += n;
+            remaining -= n;
+        }
+        if (remaining > 0) {
+            FileInputStream fis = new FileInputStream(diskFile);
+            try {
+                FileChannel source = fis.getChannel();
+                long filePosition = start + copied - buffer.length;
+                ByteBuffer bb = ByteBuffer.wrap(scratch);
+                while (remaining > 0) {
+                    bb.clear();
+                    bb.limit((int) Math.min(scratch.length, remaining));
+                    int n = source.read(bb, filePosition);
+                    if (n <= 0) {
+                        throw new IOException("backing file " + diskFile 
+                                + " shorter than recorded size " + size);
+                    }
+                    os.write(scratch, 0, n);
+                    filePosition += n;
+                    copied += n;
+                    remaining -= n;
+                }
+            } finally {
+                fis.close();
+            }
+        }
+        skipTo(start + copied);
+        return copied;
+    }
+    
+    /**
+     * Move position forward after a bulk copy, keeping any disk stream
+     * in step. 
+     */
+    protected void skipTo(long p) throws IOException {
+        if (p > buffer.length && diskStream != null) {
+            diskStream.position(p - buffer.length);
+        }
+        this.position = p;
+    }
+    
     /*
      * Like 'readFullyTo', but only reads the header-part.
      * Starts from the beginning each time it is called.
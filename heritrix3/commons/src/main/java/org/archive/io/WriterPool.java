@@ -21,10 +21,20 @@ package org.archive.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -79,6 +89,35 @@ public abstract class WriterPool {
     /** system time when writer was last 'rolled over' (imminent creation of new file) */ 
     protected long lastWriterRolloverTime; 
     
+    /** fewest writers to shrink to, when shrinking is enabled */
+    protected int minActive = 1;
+    /** 
+     * ms without any borrower having to wait, after which returned 
+     * writers beyond minActive are closed and discarded; 0 never shrinks 
+     */
+    protected long shrinkAfterMs = 0;
+    /** 
+     * whether new files go to the output directory with the best measured
+     * write rate (adjusted for files already open there), rather than 
+     * round-robin 
+     */
+    protected boolean balanceStorePaths = false;
+    
+    /** all writers currently open (whether borrowed or idle) */
+    protected Set<WriterPoolMember> allWriters = 
+        Collections.synchronizedSet(new LinkedHashSet<WriterPoolMember>());
+    /** per output directory write-rate measurements */
+    protected Map<File,StorePathStats> storePathStats = 
+        Collections.synchronizedMap(new HashMap<File,StorePathStats>());
+    
+    protected AtomicLong borrows = new AtomicLong(0);
+    /** borrows which found no writer idle within maxWait */
+    protected AtomicLong contendedBorrows = new AtomicLong(0);
+    protected AtomicLong borrowWaitNanos = new AtomicLong(0);
+    protected AtomicLong maxBorrowWaitNanos = new AtomicLong(0);
+    protected AtomicLong writersCreated = new AtomicLong(0);
+    protected AtomicLong writersRetired = new AtomicLong(0);
+    
     /**
      * Constructor
      * @param serial  Used to generate unique filename sequences
@@ -118,6 +157,8 @@ public abstract class WriterPool {
 	 */
     public WriterPoolMember borrowFile()
     throws IOException {
+        long startNanos = System.nanoTime(); 
+        boolean contended = false; 
         WriterPoolMember writer = null;
         while(writer == null) {
             try {
@@ -126,9 +167,22 @@ public abstract class WriterPool {
                 // nothing to do but proceed
             }
             if(writer==null) {
+                contended = true; 
                 writer = makeNewWriterIfAppropriate(); 
             }
         }
+        long waitNanos = System.nanoTime() - startNanos; 
+        borrows.incrementAndGet();
+        if(contended) {
+            contendedBorrows.incrementAndGet();
+        }
+        borrowWaitNanos.addAndGet(waitNanos);
+        long max = maxBorrowWaitNanos.get();
+        while(waitNanos > max 
+                && !maxBorrowWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxBorrowWaitNanos.get();
+        }
+        writer.noteBorrowed();
         return writer;
     }
 
@@ -145,7 +199,11 @@ public abstract class WriterPool {
         if(currentActive < maxActive) {
             currentActive++;
             lastWriterRolloverTime = now; 
-            return makeWriter(); 
+            WriterPoolMember writer = makeWriter(); 
+            writer.setPool(this);
+            allWriters.add(writer);
+            writersCreated.incrementAndGet();
+            return writer; 
         }
         return null; 
     }
@@ -163,6 +221,7 @@ public abstract class WriterPool {
      */
     public synchronized void destroyWriter(WriterPoolMember writer) throws IOException {
         currentActive--; 
+        allWriters.remove(writer);
         writer.close();
     }
     /**
@@ -175,6 +234,7 @@ public abstract class WriterPool {
 	 */
     public void returnFile(WriterPoolMember writer)
     throws IOException {
+        noteReturned(writer);
         synchronized(this) {
             if(writer.isOversize()) {
             // maybe retire writer rather than recycle
@@ -186,6 +246,13 @@ public abstract class WriterPool {
                     // reuse writer instance, causing new file to be created
                     lastWriterRolloverTime = System.currentTimeMillis();
                 }
+            } else if(shrinkAfterMs > 0 && currentActive > minActive
+                    && System.currentTimeMillis() - lastWriterNeededTime 
+                        > shrinkAfterMs) {
+                // uncontended for a while: close surplus file
+                writersRetired.incrementAndGet();
+                destroyWriter(writer);
+                return;
             }
         }
         if(!availableWriters.offer(writer)) {
@@ -215,6 +282,185 @@ public abstract class WriterPool {
                 WriterPoolMember.INVALID_SUFFIX));
     }
 
+    /**
+     * Credit the bytes a writer wrote while borrowed, and the time it was
+     * out, to its own totals and its output directory's write rate. 
+     */
+    protected void noteReturned(WriterPoolMember writer) {
+        long[] borrowTotals = writer.noteReturned();
+        if(borrowTotals == null || borrowTotals[0] <= 0 
+                || writer.getFile() == null) {
+            return;
+        }
+        File dir = writer.getFile().getParentFile();
+        StorePathStats stats;
+        synchronized(storePathStats) {
+            stats = storePathStats.get(dir);
+            if(stats == null) {
+                stats = new StorePathStats();
+                storePathStats.put(dir, stats);
+            }
+        }
+        stats.update(borrowTotals[0], borrowTotals[1]);
+    }
+    
+    /**
+     * Order the given output directories from most to least preferred for
+     * a new file: by measured time per byte written there, multiplied by 
+     * one more than the number of other writers with files open there. 
+     * Directories not yet measured come first, so each gets tried.
+     * 
+     * @param dirs candidate directories
+     * @param chooser writer about to open a new file
+     * @return directories in order of preference
+     */
+    protected List<File> rankStorePaths(List<File> dirs, 
+            WriterPoolMember chooser) {
+        final Map<File,Double> scores = new HashMap<File,Double>();
+        final Map<File,Integer> openFiles = new HashMap<File,Integer>();
+        synchronized(allWriters) {
+            for(WriterPoolMember w : allWriters) {
+                File f = w.getFile();
+                if(w != chooser && f != null && w.out != null) {
+                    Integer n = openFiles.get(f.getParentFile());
+                    openFiles.put(f.getParentFile(), n == null ? 1 : n + 1);
+                }
+            }
+        }
+        for(File dir : dirs) {
+            StorePathStats stats = storePathStats.get(dir);
+            Integer open = openFiles.get(dir); 
+            double nanosPerByte = (stats == null) ? 0 : stats.getNanosPerByte();
+            scores.put(dir, nanosPerByte * (1 + (open == null ? 0 : open)));
+        }
+        List<File> ranked = new ArrayList<File>(dirs);
+        // stable, so ties keep configured order
+        Collections.sort(ranked, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Double.compare(scores.get(a), scores.get(b));
+            }
+        });
+        return ranked;
+    }
+    
+    public boolean isBalancingStorePaths() {
+        return balanceStorePaths;
+    }
+
+    public void setBalanceStorePaths(boolean balanceStorePaths) {
+        this.balanceStorePaths = balanceStorePaths;
+    }
+
+    public int getMinActive() {
+        return minActive;
+    }
+
+    public void setMinActive(int minActive) {
+        this.minActive = minActive;
+    }
+
+    public long getShrinkAfterMs() {
+        return shrinkAfterMs;
+    }
+
+    public void setShrinkAfterMs(long shrinkAfterMs) {
+        this.shrinkAfterMs = shrinkAfterMs;
+    }
+
+    public synchronized int getMaxActive() {
+        return maxActive;
+    }
+
+    /**
+     * Change the most writers the pool may open at once. Lowering it 
+     * takes effect as surplus writers roll over or are retired.
+     * 
+     * @param maxActive new maximum, up to LARGEST_MAX_ACTIVE
+     */
+    public synchronized void setMaxActive(int maxActive) {
+        this.maxActive = Math.min(maxActive, LARGEST_MAX_ACTIVE);
+    }
+
+    /**
+     * @return map of pool contention and per-writer/per-directory write
+     * rates, suitable for JSON/XML reporting
+     */
+    public Map<String,Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        synchronized(this) {
+            map.put("activeWriters", currentActive);
+            map.put("maxActive", maxActive);
+            map.put("minActive", minActive);
+        }
+        map.put("idleWriters", getNumIdle());
+        long borrowCount = borrows.get();
+        map.put("borrows", borrowCount);
+        map.put("contendedBorrows", contendedBorrows.get());
+        map.put("avgBorrowWaitMs", borrowCount == 0 ? 0 
+                : borrowWaitNanos.get() / 1000000d / borrowCount);
+        map.put("maxBorrowWaitMs", maxBorrowWaitNanos.get() / 1000000d);
+        map.put("writersCreated", writersCreated.get());
+        map.put("writersRetired", writersRetired.get());
+        
+        List<Map<String,Object>> writers = 
+            new ArrayList<Map<String,Object>>();
+        synchronized(allWriters) {
+            for(WriterPoolMember w : allWriters) {
+                writers.add(w.shortReportMap());
+            }
+        }
+        map.put("writers", writers);
+        
+        Map<String,Object> paths = new LinkedHashMap<String,Object>();
+        synchronized(storePathStats) {
+            for(Map.Entry<File,StorePathStats> entry 
+                    : storePathStats.entrySet()) {
+                paths.put(entry.getKey().getPath(), 
+                        entry.getValue().shortReportMap());
+            }
+        }
+        map.put("storePaths", paths);
+        return map;
+    }
+    
+    /**
+     * Write rate observed for one output directory: totals, and a moving
+     * average of time per byte written (as measured from borrow to 
+     * return of writers with files there).
+     */
+    public static class StorePathStats {
+        /** weight of newest observation in moving average */
+        protected static final double ALPHA = 0.1;
+        
+        protected long bytes = 0;
+        protected long busyNanos = 0;
+        protected double nanosPerByte = 0;
+        protected long samples = 0;
+        
+        public synchronized void update(long bytesWritten, long nanos) {
+            double rate = (double) nanos / bytesWritten;
+            nanosPerByte = (samples == 0) ? rate 
+                    : nanosPerByte + ALPHA * (rate - nanosPerByte);
+            bytes += bytesWritten;
+            busyNanos += nanos;
+            samples++;
+        }
+        
+        public synchronized double getNanosPerByte() {
+            return nanosPerByte;
+        }
+        
+        public synchronized Map<String,Object> shortReportMap() {
+            Map<String,Object> map = new LinkedHashMap<String,Object>();
+            map.put("bytes", bytes);
+            map.put("busyMs", busyNanos / 1000000);
+            map.put("recentBytesPerSec", nanosPerByte == 0 ? 0 
+                    : (long) (1000000000d / nanosPerByte));
+            map.put("samples", samples);
+            return map;
+        }
+    }
+
 	/**
 	 * @return Number of {@link WriterPoolMember}s checked out of pool.
 	 * @throws java.lang.UnsupportedOperationException
@@ -265,6 +511,10 @@ public abstract class WriterPool {
         buffer.append(maxActive);
         buffer.append(", idle ");
         buffer.append(getNumIdle());
+        buffer.append(", contended borrows ");
+        buffer.append(contendedBorrows.get());
+        buffer.append(" of ");
+        buffer.append(borrows.get());
         return buffer.toString();
     }
     
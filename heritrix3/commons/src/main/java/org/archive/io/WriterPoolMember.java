@@ -24,11 +24,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
@@ -83,6 +89,33 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
     /** reusable buffer for recycling scenarios */ 
     protected byte[] rebuf; 
     
+    /** buffering stream directly over the file, when we opened it */
+    protected OutputStream bufferedOut = null;
+    /** channel of the file, when we opened it; for direct transfers */
+    protected FileChannel fileChannel = null;
+    /** running count of bytes sent to file by direct channel transfer */
+    protected long directTransferBytes = 0;
+    
+    /** 
+     * When compressing in parallel: records handed to the shared 
+     * compression pool but not yet appended to the file, oldest first 
+     */
+    protected LinkedList<PendingMember> pendingMembers = 
+        new LinkedList<PendingMember>();
+    /** uncompressed length of all records in pendingMembers */
+    protected long pendingBytes = 0;
+    
+    /** pool this writer belongs to, if any */
+    protected WriterPool pool = null;
+    /** time, position and file at current borrow from pool */
+    protected long borrowNanos = -1;
+    protected long borrowPosition = 0;
+    protected File borrowFile = null;
+    /** totals over all borrows from pool */
+    protected long borrowedCount = 0;
+    protected long borrowedBytes = 0;
+    protected long borrowedNanos = 0;
+    
     protected WriterPoolSettings settings; 
     private final String extension;
 
@@ -116,6 +149,12 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
      * Buffer to reuse writing streams.
      */
     protected final byte [] scratchbuffer = new byte[4 * 1024];
+    
+    /**
+     * Larger buffer for direct copies of backing-file content; allocated
+     * on first need.
+     */
+    protected byte [] transferbuffer = null;
  
     
     /**
@@ -212,7 +251,9 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
         if(rebuf==null) {
             rebuf = new byte[settings.getWriteBufferSize()]; 
         }
-        this.countOut = new MiserOutputStream(new RecyclingFastBufferedOutputStream(fos,rebuf),settings.getFrequentFlushes());
+        this.bufferedOut = new RecyclingFastBufferedOutputStream(fos,rebuf);
+        this.fileChannel = fos.getChannel();
+        this.countOut = new MiserOutputStream(this.bufferedOut,settings.getFrequentFlushes());
         this.out = this.countOut; 
         logger.fine("Opened " + this.f.getAbsolutePath());
         return this.f.getName();
@@ -226,6 +267,15 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
      */
     protected File getNextDirectory(List<File> dirs)
     throws IOException {
+        if (pool != null && pool.isBalancingStorePaths() && dirs.size() > 1) {
+            for (File candidate : pool.rankStorePaths(dirs, this)) {
+                File d = checkWriteable(candidate);
+                if (d != null) {
+                    return d;
+                }
+            }
+            throw new IOException("Directories unusable.");
+        }
         if (WriterPoolMember.roundRobinIndex >= dirs.size()) {
             WriterPoolMember.roundRobinIndex = 0;
         }
@@ -336,10 +386,19 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
             createFile();
         }
         if (settings.getCompress()) {
-            // Wrap stream in GZIP Writer.
-            // The below construction immediately writes the GZIP 'default'
-            // header out on the underlying stream.
-            this.out = new CompressedStream(this.out);
+            if (settings.getCompressionThreads() > 0) {
+                // Collect the record, to be compressed into its own gzip
+                // member by the shared pool and appended in order later;
+                // meanwhile, append whatever earlier records are ready.
+                appendPendingMembers(false);
+                this.out = new RecordBuffer();
+            } else {
+                // Wrap stream in GZIP Writer.
+                // The below construction immediately writes the GZIP 
+                // 'default' header out on the underlying stream.
+                this.out = new CompressedStream(this.out, 
+                        settings.getCompressionLevel());
+            }
         }
     }
 
@@ -352,7 +411,10 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
      */
     protected void postWriteRecordTasks()
     throws IOException {
-        if (settings.getCompress()) {
+        if (this.out instanceof RecordBuffer) {
+            ((RecordBuffer)this.out).finishRecord();
+            this.out = this.countOut;
+        } else if (settings.getCompress()) {
             CompressedStream o = (CompressedStream)this.out;
             o.finish();
             o.flush();
@@ -364,6 +426,8 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
 	/**
      * Position in raw output (typically, physical file).
      * Used making accounting of bytes written.
+     * When compressing in parallel, excludes records not yet appended 
+     * (see {@link #getPendingBytes()}).
 	 * @return Position in final media (assuming all flushing completes)
 	 * @throws IOException
 	 */
@@ -407,6 +471,10 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
      */
     protected long copyFrom(final InputStream is, final long recordLength,
             boolean enforceLength) throws IOException {
+        if (is instanceof ReplayInputStream && settings.getDirectTransfer()) {
+            return copyFrom((ReplayInputStream) is, recordLength, 
+                    enforceLength);
+        }
         int read = scratchbuffer.length;
         long tot = 0;
         while ((tot < recordLength)
@@ -426,12 +494,163 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
         return tot;
     }
 
+    /**
+     * Copy bytes from a ReplayInputStream without the usual pass through
+     * the scratch buffer. When writing uncompressed to a file we opened, 
+     * pending output is flushed and the content goes straight to the 
+     * file's channel (via FileChannel.transferTo for any spilled-to-disk
+     * portion). Otherwise (as when compressing), the deflater is fed 
+     * directly from the replay buffer and in large backing-file chunks.
+     * 
+     * @see #copyFrom(InputStream, long, boolean)
+     */
+    protected long copyFrom(final ReplayInputStream ris, 
+            final long recordLength, boolean enforceLength) 
+    throws IOException {
+        long tot;
+        if (this.out == this.countOut && this.fileChannel != null) {
+            this.bufferedOut.flush();
+            tot = ris.transferTo(this.fileChannel, recordLength);
+            this.countOut.addCount(tot);
+            this.directTransferBytes += tot;
+        } else {
+            if (transferbuffer == null) {
+                transferbuffer = new byte[64 * 1024];
+            }
+            tot = ris.readTo(this.out, recordLength, transferbuffer);
+        }
+        if (enforceLength && tot != recordLength) {
+            // throw exception if desired for read vs. declared mismatches
+            throw new IOException("Read " + tot + " but expected "
+                    + recordLength);
+        }
+        return tot;
+    }
+    
+    /**
+     * Append compressed records from the shared pool to the file, in the
+     * order they were written. Unless <code>all</code> is true, stops at 
+     * the first record still being compressed, once the uncompressed size
+     * of those remaining is within the configured buffer limit. 
+     * 
+     * @param all whether to wait for and append every pending record
+     * @throws IOException
+     */
+    protected void appendPendingMembers(boolean all) throws IOException {
+        boolean appended = false;
+        while (!pendingMembers.isEmpty()) {
+            PendingMember head = pendingMembers.getFirst();
+            if (!all && !head.future.isDone()
+                    && pendingBytes <= settings.getCompressionBufferBytes()) {
+                break;
+            }
+            byte[] member;
+            try {
+                member = head.future.get();
+            } catch (InterruptedException e) {
+                IOException ioe = new IOException(
+                        "interrupted awaiting record compression");
+                ioe.initCause(e);
+                throw ioe;
+            } catch (ExecutionException e) {
+                IOException ioe = new IOException(
+                        "record compression failed: " + e.getCause());
+                ioe.initCause(e.getCause());
+                throw ioe;
+            }
+            pendingMembers.removeFirst();
+            pendingBytes -= head.length;
+            this.countOut.write(member);
+            appended = true;
+        }
+        if (appended) {
+            this.countOut.flush();
+        }
+    }
+    
+    /**
+     * @return uncompressed bytes of records still awaiting compression 
+     * and appending to the file; not yet reflected in 
+     * {@link #getPosition()}
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+    
+    void setPool(WriterPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * Note the start of a borrow from the pool.
+     */
+    void noteBorrowed() {
+        borrowNanos = System.nanoTime();
+        borrowPosition = getPosition();
+        borrowFile = f;
+    }
+    
+    /**
+     * Note the end of a borrow from the pool, adding it to this writer's
+     * totals.
+     * 
+     * @return bytes written to the current file and nanoseconds elapsed
+     * during the borrow, or null if not borrowed
+     */
+    long[] noteReturned() {
+        if (borrowNanos < 0) {
+            return null;
+        }
+        long nanos = System.nanoTime() - borrowNanos;
+        // after a rollover, count only bytes in the new file
+        long bytes = getPosition() 
+            - ((f == borrowFile) ? borrowPosition : 0);
+        borrowNanos = -1;
+        borrowedCount++;
+        borrowedBytes += bytes;
+        borrowedNanos += nanos;
+        return new long[] {bytes, nanos};
+    }
+    
+    /**
+     * @return map of this writer's current file and write totals while
+     * borrowed from its pool
+     */
+    public Map<String,Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        File file = f;
+        map.put("file", file == null ? null : file.getName());
+        map.put("position", getPosition());
+        map.put("pendingBytes", pendingBytes);
+        map.put("borrows", borrowedCount);
+        map.put("bytes", borrowedBytes);
+        map.put("busyMs", borrowedNanos / 1000000);
+        map.put("bytesPerSec", borrowedNanos == 0 ? 0 
+                : (long) (borrowedBytes * 1000000000d / borrowedNanos));
+        return map;
+    }
+    
+    /**
+     * @return count of bytes written to file by direct channel transfer
+     */
+    public long getDirectTransferBytes() {
+        return directTransferBytes;
+    }
+
     public void close() throws IOException {
         if (this.out == null) {
             return;
         }
-        this.out.close();
+        try {
+            appendPendingMembers(true);
+        } finally {
+            pendingMembers.clear();
+            pendingBytes = 0;
+            this.out.close();
+        }
         this.out = null;
+        this.bufferedOut = null;
+        this.fileChannel = null;
         if (this.f != null && this.f.exists()) {
             String path = this.f.getAbsolutePath();
             if (path.endsWith(OCCUPIED_SUFFIX)) {
@@ -462,9 +681,10 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
      * @author stack
      */
     private class CompressedStream extends GZIPOutputStream {
-        public CompressedStream(OutputStream out)
+        public CompressedStream(OutputStream out, int level)
         throws IOException {
             super(out);
+            def.setLevel(level);
         }
         
         /**
@@ -484,4 +704,84 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
             def.end();
         }
     }
+    
+    /**
+     * A record handed to the shared compression pool.
+     */
+    protected static class PendingMember {
+        final Future<byte[]> future;
+        final int length;
+        
+        PendingMember(Future<byte[]> future, int length) {
+            this.future = future;
+            this.length = length;
+        }
+    }
+    
+    /**
+     * Collects one record's bytes in memory for parallel compression. A
+     * record too large for the configured buffer limit instead 'spills':
+     * once all earlier records are appended, it is compressed in this 
+     * thread straight into the file, as when not compressing in parallel.
+     */
+    private class RecordBuffer extends OutputStream {
+        protected byte[] buf = new byte[8 * 1024];
+        protected int count = 0;
+        protected CompressedStream spill = null;
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spill == null && (long) count + len > limit()) {
+                appendPendingMembers(true);
+                spill = new CompressedStream(countOut, 
+                        settings.getCompressionLevel());
+                spill.write(buf, 0, count);
+                buf = null;
+            }
+            if (spill != null) {
+                spill.write(b, off, len);
+                return;
+            }
+            if (count + len > buf.length) {
+                byte[] larger = new byte[(int) Math.min(limit(),
+                        Math.max(count + len, 2L * buf.length))];
+                System.arraycopy(buf, 0, larger, 0, count);
+                buf = larger;
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+        
+        protected long limit() {
+            return Math.min(settings.getCompressionBufferBytes(),
+                    Integer.MAX_VALUE - 8);
+        }
+        
+        /**
+         * Finish a spilled record, or else queue the record for 
+         * compression and append any earlier records which are ready (or
+         * must be waited for, to stay within the buffer limit).
+         */
+        protected void finishRecord() throws IOException {
+            if (spill != null) {
+                spill.finish();
+                spill.flush();
+                spill.end();
+                return;
+            }
+            pendingMembers.add(new PendingMember(
+                    ParallelGzipCompressor.submit(buf, count, 
+                            settings.getCompressionLevel(),
+                            settings.getCompressionThreads()), 
+                    count));
+            pendingBytes += count;
+            buf = null;
+            appendPendingMembers(false);
+        }
+    }
 }
@@ -36,4 +36,8 @@ public interface WriterPoolSettings {
     public List<String> getMetadata();
     public boolean getFrequentFlushes();
     public int getWriteBufferSize();
+    public boolean getDirectTransfer();
+    public int getCompressionLevel();
+    public int getCompressionThreads();
+    public long getCompressionBufferBytes();
 }
\ No newline at end of file
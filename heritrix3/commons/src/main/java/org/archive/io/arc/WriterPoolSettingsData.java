@@ -20,6 +20,7 @@ package org.archive.io.arc;
 
 import java.io.File;
 import java.util.List;
+import java.util.zip.Deflater;
 
 import org.archive.io.WriterPoolSettings;
 
@@ -32,6 +33,10 @@ public class WriterPoolSettingsData implements WriterPoolSettings {
     List<String> metadata;
     boolean frequentFlushes = true;
     int writeBufferSize = 16*1024;
+    boolean directTransfer = true;
+    int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    int compressionThreads = 0;
+    long compressionBufferBytes = 16*1024*1024;
     
     public WriterPoolSettingsData(String prefix, String template,
             long maxFileSizeBytes, boolean compress, List<File> outputDirs,
@@ -77,4 +82,32 @@ public class WriterPoolSettingsData implements WriterPoolSettings {
     public int getWriteBufferSize() {
         return writeBufferSize;
     }
-}
\ No newline at end of file
+    @Override
+    public boolean getDirectTransfer() {
+        return directTransfer;
+    }
+    public void setDirectTransfer(boolean directTransfer) {
+        this.directTransfer = directTransfer;
+    }
+    @Override
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+    @Override
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+    @Override
+    public long getCompressionBufferBytes() {
+        return compressionBufferBytes;
+    }
+    public void setCompressionBufferBytes(long compressionBufferBytes) {
+        this.compressionBufferBytes = compressionBufferBytes;
+    }
+}
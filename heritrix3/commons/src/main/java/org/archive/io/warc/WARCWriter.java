@@ -62,6 +62,8 @@ implements WARCConstants {
     public static final String TOTAL_BYTES = "totalBytes";
     public static final String CONTENT_BYTES = "contentBytes";
     public static final String NUM_RECORDS = "numRecords";
+    public static final String WRITE_NANOS = "writeNanos";
+    public static final String DIRECT_BYTES = "directBytes";
 
     private static final Logger logger = 
         Logger.getLogger(WARCWriter.class.getName());
@@ -249,6 +251,8 @@ implements WARCConstants {
         long contentBytes = 0;
         long totalBytes = 0;
         long startPosition;
+        long startNanos = System.nanoTime();
+        long startDirectBytes = getDirectTransferBytes();
 
     	try {
     	    startPosition = getPosition();
@@ -278,6 +282,27 @@ implements WARCConstants {
         
         // TODO: should this be in the finally block?
         tally(type, contentBytes, totalBytes, getPosition() - startPosition);
+        tallyTiming(type, System.nanoTime() - startNanos, 
+                getDirectTransferBytes() - startDirectBytes);
+    }
+    
+    /**
+     * Add the time taken to write one record, and how many of its bytes
+     * went by direct transfer, to the stats for its type and the totals.
+     */
+    protected void tallyTiming(String recordType, long writeNanos, 
+            long directBytes) {
+        for (String key : new String[] {recordType, TOTALS}) {
+            Map<String, Long> substats = tmpStats.get(key);
+            addToStat(substats, WRITE_NANOS, writeNanos);
+            addToStat(substats, DIRECT_BYTES, directBytes);
+        }
+    }
+    
+    protected void addToStat(Map<String, Long> substats, String subkey, 
+            long value) {
+        Long prior = substats.get(subkey);
+        substats.put(subkey, prior == null ? value : prior + value);
     }
     
     // if compression is enabled, sizeOnDisk means compressed bytes; if not, it
@@ -0,0 +1,245 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.net;
+
+import java.util.BitSet;
+
+/**
+ * Single-pass fixup of the most common shape of URI string met while
+ * crawling: an all-ASCII, printable, absolute http(s) URI, or an
+ * all-ASCII relative reference with neither scheme nor authority.
+ * <p/>
+ * For any input it accepts, returns exactly what UURIFactory's general
+ * regex-based fixup would return, but without regex matching or the
+ * intermediate substrings. Any input with features needing the general
+ * treatment -- whitespace, backslashes, non-ASCII, userinfo, unusual
+ * schemes or scheme case, odd ports, leading '/../', characters needing
+ * escaping, or hosts needing IDN or dot cleanup -- is declined (null 
+ * return), leaving the caller to use the general path.
+ */
+class AsciiHttpUriFixup {
+    private static final String HTTP_PREFIX = "http://";
+    private static final String HTTPS_PREFIX = "https://";
+    private static final String SLASHDOTDOTSLASH = "/../";
+
+    private AsciiHttpUriFixup() {
+    }
+
+    /**
+     * @param uri candidate URI string
+     * @param haveBase whether a base is available to resolve against
+     * @return fixed-up URI string, or null if the general path is required
+     */
+    static String fixup(String uri, boolean haveBase) {
+        int len = uri.length();
+        if (len == 0 || len > UURI.MAX_URL_LENGTH) {
+            return null;
+        }
+        // single scan: reject anything outside printable ASCII (including
+        // whitespace that would be trimmed or escaped), any backslash
+        // (converted to '/' by the general path), and note the boundaries
+        // of the query and fragment
+        int fragmentStart = len;
+        int queryStart = -1;
+        for (int i = 0; i < len; i++) {
+            char c = uri.charAt(i);
+            if (c <= ' ' || c >= 0x7f || c == '\\') {
+                return null;
+            }
+            if (c == '#') {
+                if (fragmentStart == len) {
+                    fragmentStart = i;
+                }
+            } else if (c == '?') {
+                if (queryStart < 0 && fragmentStart == len) {
+                    queryStart = i;
+                }
+            }
+        }
+        int pathEnd = (queryStart < 0) ? fragmentStart : queryStart;
+
+        if (uri.startsWith(HTTP_PREFIX)) {
+            return fixupAbsolute(uri, false, HTTP_PREFIX.length(), 
+                    pathEnd, queryStart, fragmentStart);
+        } else if (uri.startsWith(HTTPS_PREFIX)) {
+            return fixupAbsolute(uri, true, HTTPS_PREFIX.length(),
+                    pathEnd, queryStart, fragmentStart);
+        } else if (haveBase) {
+            return fixupRelative(uri, pathEnd, queryStart, fragmentStart);
+        }
+        return null;
+    }
+
+    private static String fixupAbsolute(String uri, boolean https, 
+            int authorityStart, int pathEnd, int queryStart, 
+            int fragmentStart) {
+        // authority runs to first '/', or to query or fragment
+        int authorityEnd = uri.indexOf('/', authorityStart);
+        if (authorityEnd < 0 || authorityEnd > pathEnd) {
+            authorityEnd = pathEnd;
+        }
+        int colon = -1;
+        char previous = '.';
+        for (int i = authorityStart; i < authorityEnd; i++) {
+            char c = uri.charAt(i);
+            if (c == ':') {
+                colon = i;
+                break;
+            }
+            if (c == '.') {
+                if (previous == '.') {
+                    // leading dot or empty label
+                    return null;
+                }
+            } else if (!isHostChar(c)) {
+                return null;
+            }
+            previous = c;
+        }
+        int hostEnd = (colon < 0) ? authorityEnd : colon;
+        if (hostEnd == authorityStart || previous == '.') {
+            // empty host or trailing dot
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(fragmentStart + 1);
+        sb.append(https ? HTTPS_PREFIX : HTTP_PREFIX);
+        for (int i = authorityStart; i < hostEnd; i++) {
+            sb.append(Character.toLowerCase(uri.charAt(i)));
+        }
+
+        if (colon >= 0) {
+            // port: digits only, leading zeros dropped, default dropped
+            int digitsStart = colon + 1;
+            if (digitsStart == authorityEnd) {
+                return null;
+            }
+            for (int i = digitsStart; i < authorityEnd; i++) {
+                char c = uri.charAt(i);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+            }
+            while (digitsStart < authorityEnd - 1 
+                    && uri.charAt(digitsStart) == '0') {
+                digitsStart++;
+            }
+            if (authorityEnd - digitsStart > 5) {
+                return null;
+            }
+            int port = 0;
+            for (int i = digitsStart; i < authorityEnd; i++) {
+                port = port * 10 + (uri.charAt(i) - '0');
+            }
+            if (port <= 0 || port > 65535) {
+                return null;
+            }
+            if (port != (https ? 443 : 80)) {
+                sb.append(':').append(uri, digitsStart, authorityEnd);
+            }
+        }
+
+        if (authorityEnd == pathEnd) {
+            // root URLs always get their '/'
+            sb.append('/');
+        } else if (!appendPath(sb, uri, authorityEnd, pathEnd)) {
+            return null;
+        }
+        if (!appendQuery(sb, uri, queryStart, fragmentStart)) {
+            return null;
+        }
+        return sb.toString();
+    }
+
+    private static String fixupRelative(String uri, int pathEnd, 
+            int queryStart, int fragmentStart) {
+        if (uri.startsWith("//")) {
+            // network-path reference
+            return null;
+        }
+        for (int i = 0; i < pathEnd; i++) {
+            char c = uri.charAt(i);
+            if (c == '/') {
+                break;
+            }
+            if (c == ':') {
+                // possible scheme
+                return null;
+            }
+        }
+        StringBuilder sb = new StringBuilder(fragmentStart);
+        if (!appendPath(sb, uri, 0, pathEnd)
+                || !appendQuery(sb, uri, queryStart, fragmentStart)
+                || sb.length() == 0) {
+            return null;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append path, if it needs no escaping nor leading '/../' removal.
+     * 
+     * @return false if the general path is required
+     */
+    private static boolean appendPath(StringBuilder sb, String uri, 
+            int start, int end) {
+        if (uri.startsWith(SLASHDOTDOTSLASH, start) 
+                && end - start >= SLASHDOTDOTSLASH.length()) {
+            return false;
+        }
+        return appendIfSafe(sb, uri, start, end, 
+                LaxURLCodec.EXPANDED_URI_SAFE);
+    }
+
+    /**
+     * Append '?' and query, if present, nonempty, and needing no escaping.
+     * 
+     * @return false if the general path is required
+     */
+    private static boolean appendQuery(StringBuilder sb, String uri, 
+            int queryStart, int fragmentStart) {
+        if (queryStart < 0 || queryStart + 1 == fragmentStart) {
+            // absent or empty query is dropped
+            return true;
+        }
+        sb.append('?');
+        return appendIfSafe(sb, uri, queryStart + 1, fragmentStart, 
+                LaxURLCodec.QUERY_SAFE);
+    }
+
+    private static boolean appendIfSafe(StringBuilder sb, String uri, 
+            int start, int end, BitSet safe) {
+        for (int i = start; i < end; i++) {
+            if (!safe.get(uri.charAt(i))) {
+                return false;
+            }
+        }
+        sb.append(uri, start, end);
+        return true;
+    }
+
+    /**
+     * Host characters which IDN-punycoding leaves unchanged (or 
+     * rejects in a way UURIFactory tolerates).
+     */
+    private static boolean isHostChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+            || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+}
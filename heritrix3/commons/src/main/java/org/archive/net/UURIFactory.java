@@ -217,6 +217,13 @@ public class UURIFactory extends URI {
      */
     final static Pattern MULTIPLE_SLASHES = Pattern.compile("//+");
     
+    /**
+     * Whether to try the single-pass fixup for common URI forms before
+     * the general regex-based fixup. Both give identical results; the
+     * switch exists for benchmarking and diagnosis.
+     */
+    static boolean fastFixup = true;
+    
     /**
      * Protected constructor.
      */
@@ -347,6 +354,15 @@ public class UURIFactory extends URI {
                 ": " + uri);
         }
         
+        if (fastFixup) {
+            // common all-ASCII http(s) and relative forms, in a single
+            // pass without regexes; null if general treatment needed
+            String fixed = AsciiHttpUriFixup.fixup(uri, base != null);
+            if (fixed != null) {
+                return fixed;
+            }
+        }
+        
         // Replace nbsp with normal spaces (so that they get stripped if at
         // ends, or encoded if in middle)
         if (uri.indexOf(NBSP) >= 0) {
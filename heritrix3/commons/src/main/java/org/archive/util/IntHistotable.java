@@ -0,0 +1,417 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import it.unimi.dsi.fastutil.ints.Int2LongRBTreeMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.archive.bdb.AutoKryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.SerializationException;
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.LongSerializer;
+import com.esotericsoftware.kryo.serialize.MapSerializer;
+import com.esotericsoftware.kryo.serialize.SimpleSerializer;
+
+/**
+ * Frequency counts of primitive int keys, kept in key order: a 
+ * primitive-specialized alternative to Histotable&lt;Integer&gt; for uses
+ * where very many instances are alive (or persisted) at once, such as 
+ * per-queue precedence tracking. 
+ * <p/>
+ * While holding few keys, counts live in a pair of small sorted arrays 
+ * (binary-searched); past UPGRADE_SIZE keys they move to a fastutil 
+ * red-black tree, and move back to arrays if the key count later falls 
+ * well below that. No boxed Integer or Long objects are created in 
+ * either case. As with Histotable, keys whose count reaches zero are 
+ * removed, and a count may be negative. 
+ * <p/>
+ * Kryo serialization (via autoregisterTo) writes just the key count 
+ * followed by delta-encoded keys and variable-length counts. 
+ */
+public class IntHistotable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** key count beyond which counts move from arrays to a tree */
+    protected static final int UPGRADE_SIZE = 32;
+    /** key count below which counts move from a tree back to arrays */
+    protected static final int DOWNGRADE_SIZE = UPGRADE_SIZE / 4;
+
+    /** sorted keys, while small; null when empty or using tree */
+    protected int[] keys;
+    /** counts parallel to keys */
+    protected long[] counts;
+    /** number of keys in use in the arrays */
+    protected int size;
+    /** counts once large; null otherwise */
+    protected Int2LongRBTreeMap tree;
+
+    /**
+     * Record one more occurrence of the given key.
+     */
+    public void tally(int key) {
+        tally(key, 1L);
+    }
+
+    /**
+     * Record <i>count</i> more (or, if negative, fewer) occurrence(s) of
+     * the given key.
+     */
+    public synchronized void tally(int key, long count) {
+        if(count == 0) {
+            return;
+        }
+        if(tree != null) {
+            long tally = tree.get(key) + count;
+            if(tally != 0) {
+                tree.put(key, tally);
+            } else {
+                tree.remove(key);
+                if(tree.size() < DOWNGRADE_SIZE) {
+                    downgrade();
+                }
+            }
+            return;
+        }
+        int i = indexOf(key);
+        if(i >= 0) {
+            counts[i] += count;
+            if(counts[i] == 0) {
+                removeAt(i);
+            }
+            return;
+        }
+        if(size >= UPGRADE_SIZE) {
+            upgrade();
+            tree.put(key, count);
+            return;
+        }
+        insertAt(-(i + 1), key, count);
+    }
+
+    /**
+     * @return count for the given key, or 0 if none
+     */
+    public synchronized long get(int key) {
+        if(tree != null) {
+            return tree.get(key);
+        }
+        int i = indexOf(key);
+        return i >= 0 ? counts[i] : 0;
+    }
+
+    public synchronized boolean containsKey(int key) {
+        return tree != null ? tree.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    public synchronized int size() {
+        return tree != null ? tree.size() : size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return lowest key with a nonzero count
+     * @throws NoSuchElementException if empty
+     */
+    public synchronized int firstKey() {
+        if(tree != null) {
+            return tree.firstIntKey();
+        }
+        if(size == 0) {
+            throw new NoSuchElementException();
+        }
+        return keys[0];
+    }
+
+    /**
+     * @return highest key with a nonzero count
+     * @throws NoSuchElementException if empty
+     */
+    public synchronized int lastKey() {
+        if(tree != null) {
+            return tree.lastIntKey();
+        }
+        if(size == 0) {
+            throw new NoSuchElementException();
+        }
+        return keys[size - 1];
+    }
+
+    /**
+     * @return all keys, ascending (a copy)
+     */
+    public synchronized int[] keys() {
+        int[] result = new int[size()];
+        if(tree != null) {
+            IntIterator iter = tree.keySet().iterator();
+            for(int i = 0; i < result.length; i++) {
+                result[i] = iter.nextInt();
+            }
+        } else if(size > 0) {
+            System.arraycopy(keys, 0, result, 0, size);
+        }
+        return result;
+    }
+
+    /**
+     * @return all counts, in the same (ascending key) order as keys()
+     */
+    public synchronized long[] counts() {
+        long[] result = new long[size()];
+        if(tree != null) {
+            LongIterator iter = tree.values().iterator();
+            for(int i = 0; i < result.length; i++) {
+                result[i] = iter.nextLong();
+            }
+        } else if(size > 0) {
+            System.arraycopy(counts, 0, result, 0, size);
+        }
+        return result;
+    }
+
+    /**
+     * @return total of all tallies
+     */
+    public long getTotal() {
+        long total = 0;
+        for(long count : counts()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Return the largest value of any key that is larger than 0. If no 
+     * values or no value larger than zero, return zero. 
+     * 
+     * @return long largest value or zero if none larger than zero
+     */
+    public long getLargestValue() {
+        long largest = 0;
+        for(long count : counts()) {
+            if(count > largest) {
+                largest = count;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Add all the given histotable's counts to this one. 
+     * 
+     * @return net change in total
+     */
+    public long add(IntHistotable other) {
+        int[] otherKeys = other.keys();
+        long[] otherCounts = other.counts();
+        long net = 0;
+        for(int i = 0; i < otherKeys.length; i++) {
+            tally(otherKeys[i], otherCounts[i]);
+            net += otherCounts[i];
+        }
+        return net;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        int[] k = keys();
+        long[] c = counts();
+        for(int i = 0; i < k.length; i++) {
+            if(i > 0) {
+                sb.append(", ");
+            }
+            sb.append(k[i]).append('=').append(c[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /** @return index of key in arrays, or (-(insertion point) - 1) */
+    protected int indexOf(int key) {
+        int low = 0;
+        int high = size - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = keys[mid];
+            if(midKey < key) {
+                low = mid + 1;
+            } else if(midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    protected void insertAt(int i, int key, long count) {
+        if(keys == null) {
+            keys = new int[2];
+            counts = new long[2];
+        } else if(size == keys.length) {
+            int capacity = Math.min(UPGRADE_SIZE, size + (size >> 1) + 1);
+            int[] newKeys = new int[capacity];
+            long[] newCounts = new long[capacity];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(counts, 0, newCounts, 0, size);
+            keys = newKeys;
+            counts = newCounts;
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(counts, i, counts, i + 1, size - i);
+        keys[i] = key;
+        counts[i] = count;
+        size++;
+    }
+
+    protected void removeAt(int i) {
+        size--;
+        if(size == 0) {
+            // empty: hold no arrays at all
+            keys = null;
+            counts = null;
+            return;
+        }
+        System.arraycopy(keys, i + 1, keys, i, size - i);
+        System.arraycopy(counts, i + 1, counts, i, size - i);
+    }
+
+    protected void upgrade() {
+        tree = new Int2LongRBTreeMap();
+        for(int i = 0; i < size; i++) {
+            tree.put(keys[i], counts[i]);
+        }
+        keys = null;
+        counts = null;
+        size = 0;
+    }
+
+    protected void downgrade() {
+        int[] newKeys = keys();
+        long[] newCounts = counts();
+        tree = null;
+        size = newKeys.length;
+        keys = size > 0 ? newKeys : null;
+        counts = size > 0 ? newCounts : null;
+    }
+
+    /**
+     * Replace all contents with the given (ascending, nonzero) counts.
+     */
+    protected synchronized void setAll(int[] newKeys, long[] newCounts) {
+        tree = null;
+        keys = null;
+        counts = null;
+        size = 0;
+        if(newKeys.length > UPGRADE_SIZE) {
+            tree = new Int2LongRBTreeMap(newKeys, newCounts);
+        } else if(newKeys.length > 0) {
+            keys = newKeys;
+            counts = newCounts;
+            size = newKeys.length;
+        }
+    }
+
+    // Kryo support
+    public static void autoregisterTo(AutoKryo kryo) {
+        kryo.register(IntHistotable.class, new IntHistotableSerializer());
+        kryo.register(Histotable.class, new LegacyHistotableSerializer(kryo));
+    }
+
+    /**
+     * Compact Kryo serialization: key count, then the first key and the 
+     * (positive) gaps between successive keys, each followed by its count,
+     * all as variable-length integers.
+     */
+    public static class IntHistotableSerializer 
+    extends SimpleSerializer<IntHistotable> {
+        @Override
+        public void write(ByteBuffer buffer, IntHistotable histotable) {
+            int[] k = histotable.keys();
+            long[] c = histotable.counts();
+            IntSerializer.put(buffer, k.length, true);
+            int prior = 0;
+            for(int i = 0; i < k.length; i++) {
+                if(i == 0) {
+                    IntSerializer.put(buffer, k[i], false);
+                } else {
+                    IntSerializer.put(buffer, k[i] - prior, true);
+                }
+                prior = k[i];
+                LongSerializer.put(buffer, c[i], false);
+            }
+        }
+
+        @Override
+        public IntHistotable read(ByteBuffer buffer) {
+            int length = IntSerializer.get(buffer, true);
+            int[] k = new int[length];
+            long[] c = new long[length];
+            int prior = 0;
+            for(int i = 0; i < length; i++) {
+                k[i] = (i == 0) 
+                    ? IntSerializer.get(buffer, false)
+                    : prior + IntSerializer.get(buffer, true);
+                prior = k[i];
+                c[i] = LongSerializer.get(buffer, false);
+            }
+            IntHistotable histotable = new IntHistotable();
+            histotable.setAll(k, c);
+            return histotable;
+        }
+    }
+
+    /**
+     * Reads an integer-keyed Histotable, as persisted (in Kryo's plain 
+     * Map form) where an IntHistotable is now expected -- for example in
+     * queues' precedence providers from before they used IntHistotable
+     * -- as the equivalent IntHistotable. Writes as any Map.
+     */
+    public static class LegacyHistotableSerializer extends MapSerializer {
+        public LegacyHistotableSerializer(Kryo kryo) {
+            super(kryo);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T readObjectData(ByteBuffer buffer, Class<T> type) {
+            Map<Object,Long> legacy = (Map<Object,Long>) super.readObjectData(buffer, type);
+            IntHistotable histotable = new IntHistotable();
+            for(Map.Entry<Object,Long> entry : legacy.entrySet()) {
+                if(!(entry.getKey() instanceof Integer)) {
+                    throw new SerializationException(
+                            "persisted Histotable has non-integer key " 
+                            + entry.getKey() + "; cannot read as IntHistotable");
+                }
+                histotable.tally((Integer) entry.getKey(), entry.getValue());
+            }
+            return (T) histotable;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative long values (such as latencies in nanoseconds,
+ * or sizes in bytes) in power-of-two buckets, cheap enough to record into 
+ * on every URI in every thread.
+ * <p/>
+ * Each recording thread tallies into its own 'stripe' of counts, which 
+ * only it writes, so recording involves no locks or contended cache 
+ * lines. Readers merge all stripes on demand; the results are approximate
+ * in that a value recorded concurrently may or may not be included, and
+ * percentiles are only resolved to the upper bound of their bucket. 
+ */
+public class LogHistogram {
+    /** bucket i holds values in [2^(i-1), 2^i); bucket 0 holds zero */
+    protected static final int BUCKETS = 64;
+    protected static final int TOTAL = BUCKETS;
+    protected static final int MAX = BUCKETS + 1;
+    protected static final int SLOTS = BUCKETS + 2;
+    
+    /** stripes of all threads that have recorded (and not since died) */
+    protected CopyOnWriteArrayList<Stripe> stripes = 
+        new CopyOnWriteArrayList<Stripe>();
+    
+    /** tallies of threads that have died */
+    protected Stripe retired = new Stripe(null);
+    
+    protected ThreadLocal<Stripe> localStripe = new ThreadLocal<Stripe>() {
+        @Override
+        protected Stripe initialValue() {
+            Stripe stripe = new Stripe(Thread.currentThread());
+            stripes.add(stripe);
+            return stripe;
+        }
+    };
+    
+    /**
+     * Record one value. Negative values are recorded as zero. 
+     * 
+     * @param value
+     */
+    public void record(long value) {
+        localStripe.get().record(value < 0 ? 0 : value);
+    }
+    
+    protected static int bucketFor(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+    
+    /**
+     * @return merged counts (as BUCKETS counts, then total and max)
+     */
+    protected long[] snapshot() {
+        long[] merged = new long[SLOTS];
+        retired.addTo(merged);
+        Iterator<Stripe> iter = stripes.iterator();
+        while (iter.hasNext()) {
+            Stripe stripe = iter.next();
+            stripe.addTo(merged);
+            if (!stripe.isOwnerAlive()) {
+                // fold dead thread's tallies, so its stripe may be dropped
+                synchronized (retired) {
+                    if (stripes.remove(stripe)) {
+                        long[] dead = new long[SLOTS];
+                        stripe.addTo(dead);
+                        retired.add(dead);
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+    
+    public long getCount() {
+        return count(snapshot());
+    }
+    
+    protected static long count(long[] snap) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += snap[i];
+        }
+        return count;
+    }
+    
+    /**
+     * Value at the given percentile, as the upper bound of the bucket 
+     * containing it (never more than the maximum value recorded).
+     * 
+     * @param percentile 0-100
+     * @return approximate value at percentile, or 0 if none recorded
+     */
+    public long getPercentile(double percentile) {
+        return percentile(snapshot(), percentile);
+    }
+    
+    protected static long percentile(long[] snap, double percentile) {
+        long count = count(snap);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100d);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snap[i];
+            if (seen >= rank) {
+                long upper = (i == 0) ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upper, snap[MAX]);
+            }
+        }
+        return snap[MAX];
+    }
+    
+    /**
+     * Summary of count, mean, median, 90th, 99th percentiles and max, 
+     * with all but the count divided by the given divisor (as for example
+     * 1000000 to report nanosecond values as milliseconds).
+     * 
+     * @param divisor
+     * @return map of summary values
+     */
+    public Map<String,Object> summaryMap(long divisor) {
+        long[] snap = snapshot();
+        long count = count(snap);
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("count", count);
+        map.put("mean", count == 0 ? 0 : snap[TOTAL] / count / divisor);
+        map.put("p50", percentile(snap, 50) / divisor);
+        map.put("p90", percentile(snap, 90) / divisor);
+        map.put("p99", percentile(snap, 99) / divisor);
+        map.put("max", snap[MAX] / divisor);
+        return map;
+    }
+    
+    /**
+     * @param divisor as for summaryMap()
+     * @return one-line summary, as "count=N mean=N p50=N ..."
+     */
+    public String summaryLine(long divisor) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String,Object> entry : summaryMap(divisor).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * One thread's tallies. Only the owning thread records, so updates 
+     * need no atomic read-modify-write; lazySet publishes them to 
+     * readers cheaply.
+     */
+    protected static class Stripe {
+        protected WeakReference<Thread> owner;
+        protected AtomicLongArray slots = new AtomicLongArray(SLOTS);
+        
+        protected Stripe(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+        
+        protected void record(long value) {
+            int bucket = bucketFor(value);
+            slots.lazySet(bucket, slots.get(bucket) + 1);
+            slots.lazySet(TOTAL, slots.get(TOTAL) + value);
+            if (value > slots.get(MAX)) {
+                slots.lazySet(MAX, value);
+            }
+        }
+        
+        protected void addTo(long[] merged) {
+            for (int i = 0; i < BUCKETS + 1; i++) {
+                merged[i] += slots.get(i);
+            }
+            merged[MAX] = Math.max(merged[MAX], slots.get(MAX));
+        }
+        
+        /** fold in other tallies; only for the retired stripe */
+        protected void add(long[] other) {
+            for (int i = 0; i < BUCKETS + 1; i++) {
+                slots.addAndGet(i, other[i]);
+            }
+            if (other[MAX] > slots.get(MAX)) {
+                slots.set(MAX, other[MAX]);
+            }
+        }
+        
+        protected boolean isOwnerAlive() {
+            Thread t = owner.get();
+            return t != null && t.isAlive();
+        }
+    }
+}
@@ -59,6 +59,14 @@ public class LongToIntConsistentHash {
         }
     }
 
+    /**
+     * @return bucket-number boundary (exclusive) for which replicas are
+     * installed; lookups up to it do not modify this instance
+     */
+    public int getReplicasInstalledUpTo() {
+        return replicasInstalledUpTo;
+    }
+
     private void installReplicas(int bucket) {
         for(int i = 0; i < numReplicas; i++) {
             circle.put(
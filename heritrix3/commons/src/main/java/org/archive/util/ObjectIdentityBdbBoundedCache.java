@@ -0,0 +1,624 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.bdb.KryoBinding;
+
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+
+/**
+ * A BDB JE backed object cache holding instances strongly, up to an 
+ * explicit memory budget, rather than through soft references.
+ * <p/>
+ * Each entry's memory is estimated by a {@link Weigher}; once the total
+ * exceeds the budget, a background thread evicts entries in CLOCK 
+ * (second-chance) order, writing dirty ones to BDB first. So the heap 
+ * held stays near the budget, and entries are paged out gradually 
+ * rather than in the bursts of a GC clearing many soft references at 
+ * once. The same thread writes dirtied entries behind, every 
+ * flushIntervalMs, so evictions rarely wait on writes and little is 
+ * left for sync() to do.
+ * <p/>
+ * Evicted instances are still weakly remembered: if one is still in use 
+ * elsewhere when next requested, that same instance is returned (and
+ * readmitted) rather than a new copy being read from BDB, so as with 
+ * other ObjectIdentityCaches all requests share one live instance.
+ * <p/>
+ * As values are written while still in use, a value is only written 
+ * while holding its monitor; callers must likewise mutate values only 
+ * inside synchronized(value) blocks, or a write may capture a 
+ * half-made change.
+ */
+public class ObjectIdentityBdbBoundedCache<V extends IdentityCacheable> 
+implements ObjectIdentityCache<V>, Closeable, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger =
+        Logger.getLogger(ObjectIdentityBdbBoundedCache.class.getName());
+    
+    /**
+     * Estimates the memory held by a cache entry.
+     */
+    public interface Weigher<V> {
+        long weigh(String key, V value);
+    }
+    
+    /**
+     * Weigher giving every entry the same weight, plus its key's chars.
+     */
+    public static class FixedWeigher<V> implements Weigher<V>, Serializable {
+        private static final long serialVersionUID = 1L;
+        protected long entryWeight;
+        public FixedWeigher(long entryWeight) {
+            this.entryWeight = entryWeight;
+        }
+        public long weigh(String key, V value) {
+            return entryWeight + 2 * key.length();
+        }
+    }
+    
+    /**
+     * A resident entry.
+     */
+    protected static class Node<V> {
+        protected final String key;
+        protected final V value;
+        protected final long weight;
+        /** CLOCK reference bit: set on use, cleared as the hand passes */
+        protected volatile boolean referenced = true;
+        /** whether in memMap (false once evicted) */
+        protected volatile boolean resident = true;
+        /** whether in the dirty queue, awaiting a write */
+        protected final AtomicBoolean queued = new AtomicBoolean(false);
+        /** bumped on each dirtying */
+        protected final AtomicLong dirtyVersion = new AtomicLong(0);
+        /** dirtyVersion as of last write */
+        protected long flushedVersion = 0;
+        
+        protected Node(String key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+        
+        protected boolean isDirty() {
+            return dirtyVersion.get() != flushedVersion;
+        }
+    }
+    
+    /**
+     * Weak reference to an evicted instance, remembering its key.
+     */
+    protected static class EvictedReference<V> extends WeakReference<V> {
+        protected final String key;
+        protected EvictedReference(String key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    /** The BDB JE database used for this instance. */
+    protected transient Database db;
+
+    /** The Collection view of the BDB JE database used for this instance. */
+    protected transient StoredSortedMap<String, V> diskMap;
+    
+    /** resident entries */
+    protected transient ConcurrentHashMap<String,Node<V>> memMap;
+    
+    /** resident entries in CLOCK order; the head is under the hand */
+    protected transient ConcurrentLinkedQueue<Node<V>> clock;
+    
+    /** entries dirtied since last written */
+    protected transient ConcurrentLinkedQueue<Node<V>> dirtyQueue;
+    
+    /** evicted entries, which may still be in use elsewhere */
+    protected transient ConcurrentHashMap<String,EvictedReference<V>> evicted;
+    protected transient ReferenceQueue<V> evictedQueue;
+    
+    protected transient Thread flusher; 
+    protected transient volatile boolean running;
+    
+    protected AtomicLong count;
+    
+    /** estimated memory held by resident entries */
+    protected AtomicLong weight = new AtomicLong(0);
+    
+    /** memory budget, in bytes (as estimated); may change while in use */
+    protected volatile long budget = 64 * 1024 * 1024;
+    public long getBudget() {
+        return budget;
+    }
+    public void setBudget(long budget) {
+        long prior = this.budget;
+        this.budget = budget;
+        if (budget < prior && flusher != null) {
+            // evict down to the new budget promptly
+            wakeFlusher();
+        }
+    }
+    
+    /**
+     * @return estimated memory currently held by resident entries
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+    
+    /**
+     * @return count of lookups (gets) so far
+     */
+    public long getLookupCount() {
+        return countOfGets.get();
+    }
+    
+    /**
+     * @return count of entries evicted to stay within budget so far
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+    
+    protected Weigher<V> weigher = new FixedWeigher<V>(1024);
+    public Weigher<V> getWeigher() {
+        return weigher;
+    }
+    public void setWeigher(Weigher<V> weigher) {
+        this.weigher = weigher;
+    }
+    
+    /** most time a dirtied entry waits to be written */
+    protected long flushIntervalMs = 1000;
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+    
+    //
+    // USAGE STATS
+    //
+    /** Count of times the {@link #getOrUse} method was called */
+    protected AtomicLong countOfGets = new AtomicLong(0);
+    /** Count of times an entry was resident */
+    protected AtomicLong hits = new AtomicLong(0);
+    /** Count of times an evicted but still-live instance was readmitted */
+    protected AtomicLong readmits = new AtomicLong(0);
+    /** Count of times an entry was read from BDB */
+    protected AtomicLong loads = new AtomicLong(0);
+    /** Count of times Supplier was used for new object */
+    protected AtomicLong supplierUsed = new AtomicLong(0);
+    /** Count of evictions */
+    protected AtomicLong evictions = new AtomicLong(0);
+    /** Count of writes of dirty entries */
+    protected AtomicLong flushes = new AtomicLong(0);
+    /** total and worst time taken by writes */
+    protected AtomicLong flushNanos = new AtomicLong(0);
+    protected AtomicLong maxFlushNanos = new AtomicLong(0);
+    
+    public ObjectIdentityBdbBoundedCache() {
+        super();
+    }
+    
+    /**
+     * Open the backing database and start the background flusher; 
+     * required before use.
+     * 
+     * @param env
+     * @param dbName
+     * @param valueClass
+     * @param classCatalog
+     * @throws DatabaseException
+     */
+    @SuppressWarnings("unchecked")
+    public void initialize(final Environment env, String dbName,
+            final Class valueClass, final StoredClassCatalog classCatalog)
+    throws DatabaseException {
+        this.memMap = new ConcurrentHashMap<String,Node<V>>(8192, 0.75f, 64);
+        this.clock = new ConcurrentLinkedQueue<Node<V>>();
+        this.dirtyQueue = new ConcurrentLinkedQueue<Node<V>>();
+        this.evicted = new ConcurrentHashMap<String,EvictedReference<V>>();
+        this.evictedQueue = new ReferenceQueue<V>();
+        this.db = openDatabase(env, dbName);
+        this.diskMap = createDiskMap(this.db, classCatalog, valueClass);
+        this.count = new AtomicLong(diskMap.size());
+        this.running = true; 
+        this.flusher = new Thread("ObjectIdentityBdbBoundedCache-" + dbName) {
+            public void run() {
+                flusherLoop();
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected StoredSortedMap<String, V> createDiskMap(Database database,
+            StoredClassCatalog classCatalog, Class valueClass) {
+        EntryBinding keyBinding = TupleBinding.getPrimitiveBinding(String.class);
+        EntryBinding valueBinding = TupleBinding.getPrimitiveBinding(valueClass);
+        if(valueBinding == null) {
+            valueBinding = new KryoBinding<V>(valueClass);
+        }
+        return new StoredSortedMap<String,V>(database, keyBinding, valueBinding, true);
+    }
+
+    protected Database openDatabase(final Environment environment,
+            final String dbName) throws DatabaseException {
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(false);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setDeferredWrite(true);
+        return environment.openDatabase(null, dbName, dbConfig);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.archive.util.ObjectIdentityCache#close()
+     */
+    public synchronized void close() {
+        if (this.db == null) {
+            return;
+        }
+        running = false;
+        synchronized (this.flusher) {
+            flusher.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sync(); 
+            this.db.close();
+        } catch (DatabaseException e) {
+            logger.log(Level.WARNING,"problem closing ObjectIdentityBdbBoundedCache",e);
+        } finally {
+            this.db = null;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.util.ObjectIdentityCache#get(java.lang.String)
+     */
+    public V get(final String key) {
+        return getOrUse(key,null); 
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.util.ObjectIdentityCache#getOrUse(java.lang.String, org.archive.util.Supplier)
+     */
+    public V getOrUse(final String key, Supplier<V> supplierOrNull) {
+        if (countOfGets.incrementAndGet() % 10000 == 0) {
+            logCacheSummary();
+        }
+        Node<V> node = memMap.get(key);
+        if (node != null) {
+            // the concurrent garden path: resident
+            hits.incrementAndGet();
+            node.referenced = true;
+            node.value.setIdentityCache(this);
+            return node.value;
+        }
+        node = readmit(key);
+        if (node != null) {
+            return node.value;
+        }
+        V val = diskMap.get(key);
+        if (val == null) {
+            // never yet created, consider creating
+            if (supplierOrNull == null) {
+                return null;
+            }
+            val = supplierOrNull.get();
+            supplierUsed.incrementAndGet();
+            // putting initial value directly into diskMap
+            // (rather than just the memMap until eviction)
+            // ensures diskMap.keySet() provides complete view
+            V prevVal = diskMap.putIfAbsent(key, val); 
+            if (prevVal != null) {
+                // we lost a race; discard our local creation in favor of disk version
+                loads.incrementAndGet();
+                val = prevVal;
+            } else {
+                // we uniquely added a new key
+                count.incrementAndGet();
+            }
+        } else {
+            loads.incrementAndGet();
+        }
+        return admit(key, val).value;
+    }
+    
+    /**
+     * Make the given instance resident, unless another for the same key
+     * already is.
+     * 
+     * @return resident Node for key
+     */
+    protected Node<V> admit(String key, V val) {
+        Node<V> node = new Node<V>(key, val, weigher.weigh(key, val));
+        Node<V> prev = memMap.putIfAbsent(key, node);
+        if (prev != null) {
+            // lost race gracefully
+            prev.referenced = true;
+            node = prev;
+        } else {
+            clock.offer(node);
+            if (weight.addAndGet(node.weight) > budget) {
+                wakeFlusher();
+            }
+        }
+        node.value.setIdentityCache(this);
+        return node;
+    }
+    
+    /**
+     * If an evicted instance for the key is still alive, make it 
+     * resident again.
+     * 
+     * @return resident Node, or null if none was alive
+     */
+    protected Node<V> readmit(String key) {
+        EvictedReference<V> ref = evicted.get(key);
+        if (ref == null) {
+            return null;
+        }
+        V val = ref.get();
+        if (val == null) {
+            evicted.remove(key, ref);
+            return null;
+        }
+        Node<V> node = admit(key, val);
+        // only forget the evicted reference once resident again, so that
+        // a racing get() finds the instance one place or the other
+        evicted.remove(key, ref);
+        readmits.incrementAndGet();
+        return node;
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.util.ObjectIdentityCache#dirtyKey(java.lang.String)
+     */
+    public void dirtyKey(String key) {
+        Node<V> node = memMap.get(key);
+        if (node == null) {
+            node = readmit(key);
+        }
+        if (node == null) {
+            logger.severe("dirty key not in memory should be impossible");
+            return;
+        }
+        node.dirtyVersion.incrementAndGet();
+        if (node.queued.compareAndSet(false, true)) {
+            dirtyQueue.offer(node);
+        }
+    }
+    
+    /**
+     * Write the node's value to BDB, if changed since last written. The
+     * value is serialized under its own monitor, so never mid-mutation.
+     */
+    protected void flush(Node<V> node) {
+        node.queued.set(false);
+        synchronized (node) {
+            long version;
+            long nanos;
+            synchronized (node.value) {
+                version = node.dirtyVersion.get();
+                if (version == node.flushedVersion) {
+                    return;
+                }
+                long start = System.nanoTime();
+                diskMap.put(node.key, node.value);
+                nanos = System.nanoTime() - start;
+            }
+            node.flushedVersion = version;
+            flushes.incrementAndGet();
+            flushNanos.addAndGet(nanos);
+            long max = maxFlushNanos.get();
+            while (nanos > max && !maxFlushNanos.compareAndSet(max, nanos)) {
+                max = maxFlushNanos.get();
+            }
+        }
+    }
+    
+    protected void flushDirty() {
+        Node<V> node;
+        while ((node = dirtyQueue.poll()) != null) {
+            flush(node);
+        }
+    }
+    
+    /**
+     * Evict entries, in CLOCK order, until within budget.
+     */
+    protected void evictToBudget() {
+        // each resident entry may be passed over at most once (having its
+        // reference bit cleared) before eviction
+        long passes = 2L * memMap.size() + 1;
+        while (weight.get() > budget && passes-- > 0) {
+            Node<V> node = clock.poll();
+            if (node == null) {
+                return;
+            }
+            if (node.referenced) {
+                node.referenced = false;
+                clock.offer(node);
+                continue;
+            }
+            evict(node);
+        }
+    }
+    
+    protected void evict(Node<V> node) {
+        if (node.isDirty()) {
+            flush(node);
+        }
+        // remember weakly before removing, so a racing get() finds it
+        evicted.put(node.key, 
+                new EvictedReference<V>(node.key, node.value, evictedQueue));
+        memMap.remove(node.key, node);
+        node.resident = false;
+        weight.addAndGet(-node.weight);
+        evictions.incrementAndGet();
+        if (node.isDirty()) {
+            // dirtied while being evicted
+            flush(node);
+        }
+    }
+    
+    /**
+     * Forget evicted instances that have since been collected.
+     */
+    @SuppressWarnings("unchecked")
+    protected void expungeCollected() {
+        Reference<? extends V> ref;
+        while ((ref = evictedQueue.poll()) != null) {
+            EvictedReference<V> evictedRef = (EvictedReference<V>) ref;
+            evicted.remove(evictedRef.key, evictedRef);
+        }
+    }
+    
+    protected void wakeFlusher() {
+        synchronized (flusher) {
+            flusher.notifyAll();
+        }
+    }
+    
+    protected void flusherLoop() {
+        while (running) {
+            try {
+                synchronized (flusher) {
+                    if (running && weight.get() <= budget) {
+                        flusher.wait(flushIntervalMs);
+                    }
+                }
+                flushDirty();
+                evictToBudget();
+                expungeCollected();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "flushing " + getDatabaseName(), e);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.util.ObjectIdentityCache#keySet()
+     */
+    public Set<String> keySet() {
+        return diskMap.keySet();
+    }
+    
+    /* (non-Javadoc)
+     * @see org.archive.util.ObjectIdentityCache#size()
+     */
+    public int size() {
+        if(db==null) {
+            return 0; 
+        }
+        return (int) count.get();
+    }
+    
+    /**
+     * Write all dirty entries to BDB, and sync the database. 
+     */
+    public synchronized void sync() {
+        flushDirty();
+        try {
+            this.db.sync();
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    protected String getDatabaseName() {
+        String name = "DbName-Lookup-Failed";
+        try {
+            if (this.db != null) {
+                name = this.db.getDatabaseName();
+            }
+        } catch (DatabaseException e) {
+            // Ignore.
+        }
+        return name;
+    }
+    
+    /**
+     * Summary to log, if at FINE level
+     */
+    private void logCacheSummary() {
+        if (logger.isLoggable((Level.FINE))) {
+            logger.fine(composeCacheSummary());
+        }
+    }
+    
+    public Map<String,Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("gets", countOfGets.get());
+        map.put("hits", hits.get());
+        map.put("readmits", readmits.get());
+        map.put("loads", loads.get());
+        map.put("supplieds", supplierUsed.get());
+        map.put("resident", memMap.size());
+        map.put("weight", weight.get());
+        map.put("budget", budget);
+        map.put("evictions", evictions.get());
+        map.put("evictedAlive", evicted.size());
+        map.put("dirtyQueued", dirtyQueue.size());
+        map.put("flushes", flushes.get());
+        long n = flushes.get();
+        map.put("avgFlushMicros", n == 0 ? 0 : flushNanos.get() / n / 1000);
+        map.put("maxFlushMicros", maxFlushNanos.get() / 1000);
+        return map;
+    }
+    
+    String composeCacheSummary() {
+        StringBuilder sb = new StringBuilder(200);
+        sb.append("DB name:").append(getDatabaseName());
+        for (Map.Entry<String,Object> e : shortReportMap().entrySet()) {
+            sb.append(' ').append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+}
@@ -296,6 +296,13 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
         return sb.toString();
     }
 
+    /**
+     * @return count of instances currently held (softly) in memory
+     */
+    public int getResidentCount() {
+        return memMap == null ? 0 : memMap.size();
+    }
+
     /* (non-Javadoc)
      * @see org.archive.util.ObjectIdentityCache#size()
      */
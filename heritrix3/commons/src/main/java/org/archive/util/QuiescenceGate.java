@@ -0,0 +1,242 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets many threads mark themselves as inside some critical span of 
+ * work, at nearly no cost, while allowing one thread at a time to 
+ * occasionally close the gate and wait until all those threads have 
+ * left (that is, until activity has 'quiesced'). 
+ * <p/>
+ * Serves the role of a ReentrantReadWriteLock whose write lock is
+ * rarely taken: {@link #enter()}/{@link #exit()} correspond to the read
+ * lock, {@link #quiesce()}/{@link #resume()} to the write lock. But where
+ * every read-lock acquisition updates a single shared (and, if fair,
+ * queue-checked) state word, here each thread only writes its own
+ * counter (on its own cache line) and reads one rarely-changed flag. 
+ * The cost is shifted to quiesce(), which must scan all threads' 
+ * counters and wait (polling) for them to reach zero.
+ * <p/>
+ * Threads entering while the gate is closed wait until it reopens; the
+ * quiescing thread itself may enter freely. Entry is reentrant, as is 
+ * quiescing. 
+ */
+public class QuiescenceGate {
+    /** whether closed to new entries; written only under quiescer lock */
+    protected volatile boolean closed = false;
+    
+    /** held by the thread that has closed the gate */
+    protected ReentrantLock quiescer = new ReentrantLock();
+    
+    /** monitor for threads waiting on a closed gate */
+    protected final Object reopened = new Object();
+    
+    /** counters of all threads that have entered (and not since died) */
+    protected CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<Slot>();
+    
+    protected ThreadLocal<Slot> localSlot = new ThreadLocal<Slot>() {
+        @Override
+        protected Slot initialValue() {
+            Slot slot = new Slot(Thread.currentThread());
+            slots.add(slot);
+            return slot;
+        }
+    };
+    
+    /**
+     * Mark the current thread as inside the gate, first waiting 
+     * (uninterruptibly) for the gate to be open. 
+     */
+    public void enter() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                enterInterruptibly();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Mark the current thread as inside the gate, first waiting for the
+     * gate to be open. 
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void enterInterruptibly() throws InterruptedException {
+        Slot slot = localSlot.get();
+        if (slot.depth > 0) {
+            // reentry; no need to recheck gate
+            slot.depth++;
+            return; 
+        }
+        while (true) {
+            // announce entry, then check gate: quiesce() does the converse
+            // (close gate, then check announcements), so with both volatile 
+            // at least one of the two will see the other
+            slot.active = 1;
+            if (!closed || quiescer.isHeldByCurrentThread()) {
+                slot.depth = 1;
+                return;
+            }
+            slot.active = 0;
+            synchronized (reopened) {
+                while (closed) {
+                    reopened.wait();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Mark the current thread as having left the gate (once for each 
+     * time it entered). 
+     */
+    public void exit() {
+        Slot slot = localSlot.get();
+        if (slot.depth <= 0) {
+            throw new IllegalStateException("exit() without enter()");
+        }
+        if (--slot.depth == 0) {
+            slot.active = 0;
+        }
+    }
+    
+    /**
+     * Close the gate, then wait (uninterruptibly) until no other thread 
+     * is inside. Returns holding the gate closed until a matching 
+     * {@link #resume()}.
+     */
+    public void quiesce() {
+        quiescer.lock();
+        if (quiescer.getHoldCount() > 1) {
+            // already quiesced by this thread
+            return;
+        }
+        closed = true;
+        boolean interrupted = false;
+        for (int spins = 0; ; spins++) {
+            if (countActive() == 0) {
+                break;
+            }
+            if (spins < 100) {
+                Thread.yield();
+            } else {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Count threads other than the quiescer inside the gate, forgetting 
+     * those that have died. 
+     */
+    protected int countActive() {
+        Thread me = Thread.currentThread();
+        int active = 0;
+        Iterator<Slot> iter = slots.iterator();
+        while (iter.hasNext()) {
+            Slot slot = iter.next();
+            if (!slot.isOwnerAlive()) {
+                slots.remove(slot);
+                continue;
+            }
+            if (slot.active != 0 && slot.owner.get() != me) {
+                active++;
+            }
+        }
+        return active;
+    }
+    
+    /**
+     * Undo one {@link #quiesce()}, reopening the gate when none remain. 
+     */
+    public void resume() {
+        if (quiescer.getHoldCount() == 1) {
+            closed = false;
+            synchronized (reopened) {
+                reopened.notifyAll();
+            }
+        }
+        quiescer.unlock();
+    }
+    
+    /**
+     * @return whether the current thread holds the gate closed
+     */
+    public boolean isQuiescedByCurrentThread() {
+        return quiescer.isHeldByCurrentThread();
+    }
+    
+    /**
+     * @return number of threads now inside the gate (a snapshot, for 
+     * reporting)
+     */
+    public int getActiveCount() {
+        int active = 0;
+        for (Slot slot : slots) {
+            if (slot.active != 0) {
+                active++;
+            }
+        }
+        return active;
+    }
+    
+    /**
+     * One thread's entry status. Padded so that threads' frequent writes 
+     * to their own slots don't contend for the same cache line.
+     */
+    protected static class Slot {
+        @SuppressWarnings("unused")
+        protected long p0, p1, p2, p3, p4, p5, p6;
+        /** nonzero while owner is inside the gate; read by quiescer */
+        protected volatile int active = 0;
+        @SuppressWarnings("unused")
+        protected long q0, q1, q2, q3, q4, q5, q6;
+        /** owner's reentry depth; only accessed by owner */
+        protected int depth = 0;
+        protected WeakReference<Thread> owner;
+        
+        protected Slot(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+        
+        protected boolean isOwnerAlive() {
+            Thread t = owner.get();
+            return t != null && t.isAlive();
+        }
+    }
+}
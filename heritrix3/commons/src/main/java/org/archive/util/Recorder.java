@@ -37,6 +37,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.archive.io.GenericReplayCharSequence;
+import org.archive.io.ImmutableReplayCharSequence;
 import org.archive.io.RecordingInputStream;
 import org.archive.io.RecordingOutputStream;
 import org.archive.io.ReplayCharSequence;
@@ -105,6 +106,9 @@ public class Recorder {
     protected String contentEncoding = null; 
     
     private ReplayCharSequence replayCharSequence;
+    
+    /** whether the content ReplayCharSequence may be read concurrently */
+    private boolean sharedReplays = false;
 
    
     /**
@@ -376,7 +380,8 @@ public class Recorder {
      * @throws IOException
      * @see {@link #endReplays()}
      */
-    public ReplayCharSequence getContentReplayCharSequence() throws IOException {
+    public synchronized ReplayCharSequence getContentReplayCharSequence() 
+    throws IOException {
         if (replayCharSequence == null || !replayCharSequence.isOpen() 
                 || !replayCharSequence.getCharset().equals(charset)) {
             if(replayCharSequence!=null && replayCharSequence.isOpen()) {
@@ -384,10 +389,50 @@ public class Recorder {
                 replayCharSequence.close(); 
             }
             replayCharSequence = getContentReplayCharSequence(this.charset);
+            if (sharedReplays) {
+                shareReplayCharSequence();
+            }
         }
         return replayCharSequence;
     }
     
+    /**
+     * Set whether the content ReplayCharSequence handed out by 
+     * {@link #getContentReplayCharSequence()} must be safe to read from 
+     * several threads at once (as when extractors run in parallel). If so,
+     * it is decoded entirely into memory; so only enable this for content 
+     * of bounded size. The in-memory sequence remains in use (until 
+     * {@link #endReplays()}) after sharing is disabled.
+     * 
+     * @param shared true to share replays among threads
+     * @throws IOException
+     */
+    public synchronized void setSharedReplays(boolean shared) 
+    throws IOException {
+        this.sharedReplays = shared;
+        if (shared && replayCharSequence != null 
+                && replayCharSequence.isOpen()) {
+            shareReplayCharSequence();
+        }
+    }
+    
+    public synchronized boolean getSharedReplays() {
+        return sharedReplays;
+    }
+    
+    /**
+     * Replace the current content ReplayCharSequence with an in-memory 
+     * copy, if it is not one already.
+     */
+    protected void shareReplayCharSequence() throws IOException {
+        if (replayCharSequence instanceof ImmutableReplayCharSequence) {
+            return;
+        }
+        ReplayCharSequence original = replayCharSequence;
+        replayCharSequence = ImmutableReplayCharSequence.copyOf(original);
+        original.close();
+    }
+    
     
     /**
      * @param characterEncoding Encoding of recorded stream.
@@ -574,7 +619,7 @@ public class Recorder {
         return rec;
     }
 
-    public void endReplays() {
+    public synchronized void endReplays() {
         ArchiveUtils.closeQuietly(replayCharSequence);
         replayCharSequence = null;
     }
@@ -0,0 +1,188 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket limiting some quantity (usually bytes) to a 
+ * sustained rate, while allowing short bursts of up to a configured 
+ * number of nanoseconds' worth of credit. 
+ * <p/>
+ * Implemented by 'virtual scheduling': rather than refilling a count of 
+ * tokens, the bucket tracks the (nanoTime) instant at which all credit 
+ * granted so far will have been earned. Each charge() advances that 
+ * instant by the cost of the amount charged, with a single CAS, and 
+ * reports how long the caller should wait for its charge to fall within
+ * the allowed burst. Callers always receive their amount; limiting is 
+ * purely by the wait they're asked to observe, so a bucket never blocks 
+ * nor holds a lock.
+ * <p/>
+ * The rate may be changed at any time, rescaling any debt so that the
+ * same amount is owed at the new rate; a rate of 
+ * zero (or less) means unlimited, in which case charges are only 
+ * counted, and any debt is forgiven. Totals of all 
+ * amounts charged and of all waits requested are kept for reporting 
+ * observed rates.
+ */
+public class TokenBucket {
+    /** sustained rate, in units per second; 0 or less means unlimited */
+    protected volatile long ratePerSecond;
+    /** how much credit (in nanoseconds' worth at the current rate) may be
+     * banked for bursts */
+    protected volatile long burstNanos;
+
+    /** nanoTime at which all credit granted so far is earned */
+    protected AtomicLong nextFreeNanos = new AtomicLong(System.nanoTime());
+    /** total units ever charged */
+    protected AtomicLong totalCharged = new AtomicLong(0);
+    /** total nanoseconds of waiting ever requested of callers */
+    protected AtomicLong totalWaitNanos = new AtomicLong(0);
+    /** nanoTime of most recent charge, for idleness checks */
+    protected volatile long lastChargeNanos = System.nanoTime();
+
+    // observed-rate sampling
+    protected long sampleNanos = System.nanoTime();
+    protected long sampleCharged = 0;
+    protected volatile long observedPerSecond = 0;
+
+    public TokenBucket(long ratePerSecond, long burstMs) {
+        this.ratePerSecond = ratePerSecond;
+        this.burstNanos = burstMs * 1000000L;
+    }
+
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+    /**
+     * Change the rate. Time owed for amounts already charged is rescaled
+     * to the new rate, so that raising the rate shortens the wait a 
+     * backlog implies (and lowering it lengthens it); switching to or 
+     * from unlimited starts afresh.
+     * 
+     * @param ratePerSecond new rate; 0 or less means unlimited
+     */
+    public synchronized void setRatePerSecond(long ratePerSecond) {
+        long oldRate = this.ratePerSecond;
+        while(true) {
+            long now = System.nanoTime();
+            long free = nextFreeNanos.get();
+            long debt = Math.max(free - now, 0);
+            long next = (oldRate <= 0 || ratePerSecond <= 0)
+                ? now
+                : now + (long) (debt * ((double) oldRate / ratePerSecond));
+            if(nextFreeNanos.compareAndSet(free, next)) {
+                break;
+            }
+        }
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public long getBurstMs() {
+        return burstNanos / 1000000L;
+    }
+    public void setBurstMs(long burstMs) {
+        this.burstNanos = burstMs * 1000000L;
+    }
+
+    public boolean isLimited() {
+        return ratePerSecond > 0;
+    }
+
+    /**
+     * Charge the given amount against this bucket. 
+     * 
+     * @param amount units consumed
+     * @return nanoseconds the caller should wait to stay within the rate
+     */
+    public long charge(long amount) {
+        long now = System.nanoTime();
+        lastChargeNanos = now;
+        totalCharged.addAndGet(amount);
+        long rate = ratePerSecond;
+        if(rate <= 0) {
+            return 0;
+        }
+        long cost = (long) (amount * (1000000000d / rate));
+        long burst = burstNanos;
+        long next;
+        while(true) {
+            long free = nextFreeNanos.get();
+            // an idle bucket restarts from now, so its burst allowance
+            // (applied to the wait below) is granted once, however long
+            // it was idle
+            next = Math.max(free, now) + cost;
+            if(nextFreeNanos.compareAndSet(free, next)) {
+                break;
+            }
+        }
+        long wait = next - now - burst;
+        if(wait <= 0) {
+            return 0;
+        }
+        totalWaitNanos.addAndGet(wait);
+        return wait;
+    }
+
+    public long getTotalCharged() {
+        return totalCharged.get();
+    }
+
+    public long getTotalWaitMs() {
+        return totalWaitNanos.get() / 1000000L;
+    }
+
+    /**
+     * @param nowNanos current System.nanoTime()
+     * @return nanoseconds since last charge
+     */
+    public long idleNanos(long nowNanos) {
+        return nowNanos - lastChargeNanos;
+    }
+
+    /**
+     * Take a new sample of the observed rate, over the interval since the
+     * previous sample (or since creation). Intended to be called on one 
+     * periodic schedule, as each call starts a new interval; calls less 
+     * than a second apart keep the prior interval's rate. Readers should
+     * use {@link #getObservedRate()}.
+     * 
+     * @return observed units per second
+     */
+    public synchronized long sampleObservedRate() {
+        long now = System.nanoTime();
+        long elapsed = now - sampleNanos;
+        if(elapsed >= 1000000000L) {
+            long charged = totalCharged.get();
+            observedPerSecond = 
+                (long) ((charged - sampleCharged) * (1000000000d / elapsed));
+            sampleCharged = charged;
+            sampleNanos = now;
+        }
+        return observedPerSecond;
+    }
+
+    /**
+     * @return observed units per second as of the latest 
+     * {@link #sampleObservedRate()}
+     */
+    public long getObservedRate() {
+        return observedPerSecond;
+    }
+}
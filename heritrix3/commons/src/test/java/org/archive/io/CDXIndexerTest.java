@@ -0,0 +1,149 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.io.warc.WARCConstants;
+import org.archive.io.warc.WARCWriter;
+import org.archive.io.warc.WARCWriterPoolSettingsData;
+import org.archive.uid.UUIDGenerator;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.anvl.ANVLRecord;
+
+public class CDXIndexerTest extends TmpDirTestCase {
+    
+    private static final AtomicInteger SERIAL_NO = new AtomicInteger();
+
+    protected File writeWarc(String prefix, int recordCount) 
+    throws IOException {
+        cleanUpOldFiles(prefix);
+        File[] dirs = {getTmpDir()};
+        UUIDGenerator generator = new UUIDGenerator();
+        WARCWriter w = new WARCWriter(SERIAL_NO, 
+            new WARCWriterPoolSettingsData(prefix, "${prefix}", 
+                WARCConstants.DEFAULT_MAX_WARC_FILE_SIZE, true, 
+                Arrays.asList(dirs), null, generator));
+        for (int i = 0; i < recordCount; i++) {
+            // write in reverse of sorted order
+            int n = recordCount - i;
+            byte[] content = ("HTTP/1.1 200 OK\r\n" 
+                + "Content-Type: text/html; charset=UTF-8\r\n\r\n"
+                + "<html><body>Page #" + n + "</body></html>").getBytes();
+            ANVLRecord fields = new ANVLRecord(1);
+            fields.addLabelValue(WARCConstants.HEADER_KEY_PAYLOAD_DIGEST, 
+                    "sha1:DIGEST" + n);
+            w.writeResponseRecord("http://www.example.com/page" + n, 
+                ArchiveUtils.get14DigitDate(), 
+                WARCConstants.HTTP_RESPONSE_MIMETYPE, 
+                generator.getRecordID(),
+                fields, new ByteArrayInputStream(content), content.length);
+        }
+        w.close();
+        return w.getFile();
+    }
+
+    public void testSplitMatchesWhole() throws Exception {
+        File warc = writeWarc("cdxIndexer", 200);
+        
+        CDXIndexer whole = new CDXIndexer();
+        whole.setThreads(1);
+        File wholeCdx = new File(getTmpDir(), "cdxIndexer-whole.cdx");
+        assertEquals(200, whole.index(Arrays.asList(warc), wholeCdx));
+        
+        CDXIndexer split = new CDXIndexer();
+        split.setThreads(4);
+        split.setSplitBytes(warc.length() / 7);
+        File splitCdx = new File(getTmpDir(), "cdxIndexer-split.cdx");
+        assertEquals(200, split.index(Arrays.asList(warc), splitCdx));
+
+        String cdx = FileUtils.readFileToString(wholeCdx);
+        assertEquals(cdx, FileUtils.readFileToString(splitCdx));
+        
+        String[] lines = cdx.split("\n");
+        assertEquals(CDXIndexer.CDX_HEADER, lines[0]);
+        assertTrue(lines[1].startsWith("http://(com,example,www,)/page1 "));
+        String[] fields = lines[1].split(" ");
+        assertEquals(11, fields.length);
+        assertEquals("text/html", fields[3]);
+        assertEquals("200", fields[4]);
+        assertEquals("DIGEST1", fields[5]);
+        assertEquals(warc.getName(), fields[10]);
+        for (int i = 2; i < lines.length; i++) {
+            assertTrue("unsorted", lines[i - 1].compareTo(lines[i]) <= 0);
+        }
+        wholeCdx.delete();
+        splitCdx.delete();
+    }
+
+    public void testFailedSpanLeavesNoRuns() throws Exception {
+        File warc = writeWarc("cdxIndexerFail", 200);
+        final File runDir = new File(getTmpDir(), "cdxIndexerFail-runs");
+        FileUtils.deleteDirectory(runDir);
+        runDir.mkdirs();
+        final File bad = new File(getTmpDir(), "cdxIndexerFail-bad.warc.gz");
+        
+        // the bad span fails only once the good one has written its run,
+        // so that run is not among those collected before the failure
+        CDXIndexer indexer = new CDXIndexer() {
+            @Override
+            protected List<Span> spansFor(File f) {
+                if (f.equals(bad)) {
+                    return Collections.singletonList(new Span(f, 1, 2));
+                }
+                return super.spansFor(f);
+            }
+            @Override
+            protected long findMemberStart(File f, long from, long to)
+            throws IOException {
+                if (f.equals(bad)) {
+                    try {
+                        while (runDir.list().length == 0) {
+                            Thread.sleep(10);
+                        }
+                    } catch (InterruptedException e) {
+                        // fail now
+                    }
+                    throw new IOException("bad span");
+                }
+                return super.findMemberStart(f, from, to);
+            }
+        };
+        indexer.setThreads(2);
+        indexer.setTempDir(runDir);
+        File cdx = new File(getTmpDir(), "cdxIndexerFail.cdx");
+        try {
+            indexer.index(Arrays.asList(bad, warc), cdx);
+            fail("bad span indexed");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, runDir.list().length);
+        FileUtils.deleteDirectory(runDir);
+    }
+}
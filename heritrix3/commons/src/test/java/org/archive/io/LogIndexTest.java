@@ -0,0 +1,152 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.archive.io.LogIndex.Block;
+import org.archive.util.TmpDirTestCase;
+
+public class LogIndexTest extends TmpDirTestCase {
+    
+    protected static String line(int i) {
+        return String.format("2010-06-01T12:%02d:%02d.000Z   200 %5d " 
+                + "http://host%d.example.com/page%d - - text/html #001",
+                i / 60 % 60, i % 60, i, i % 3, i);
+    }
+    
+    protected GenerationFileHandler makeHandler(File log) throws IOException {
+        GenerationFileHandler gfh = 
+            new GenerationFileHandler(log.getAbsolutePath(), true, false);
+        gfh.setFormatter(new Formatter() {
+            public String format(LogRecord record) {
+                return record.getMessage() + "\n";
+            }
+        });
+        return gfh;
+    }
+    
+    protected void publish(GenerationFileHandler gfh, int from, int to) {
+        for (int i = from; i < to; i++) {
+            gfh.publish(new LogRecord(Level.INFO, line(i)));
+        }
+    }
+    
+    public void testHostOf() {
+        assertEquals("host1.example.com", LogIndex.hostOf(line(1)));
+        assertEquals("example.org", LogIndex.hostOf(
+                "2010-06-01T12:00:00.000Z     1     55 dns:example.org P "
+                + "http://example.org/ text/dns #002"));
+        assertEquals("www.example.net", LogIndex.hostOf(
+                "2010-06-01T12:00:00.000Z   200    100 "
+                + "https://user@WWW.Example.NET:8443/x - - text/html #002"));
+        assertNull(LogIndex.hostOf("garbage"));
+    }
+    
+    public void testHandlerIndexing() throws IOException {
+        File log = new File(getTmpDir(), "indexing-crawl.log");
+        cleanUpOldFiles("indexing-crawl.log");
+        GenerationFileHandler gfh = makeHandler(log);
+        gfh.setIndexInterval(10);
+        publish(gfh, 0, 35);
+        gfh.close();
+        
+        LogIndex index = LogIndex.load(log);
+        assertNotNull(index);
+        List<Block> blocks = index.getBlocks();
+        assertEquals(4, blocks.size());
+        assertEquals(36, index.getNextLine());
+        assertEquals(log.length(), index.getEndOffset());
+        assertEquals(21, blocks.get(2).firstLine);
+        assertTrue(blocks.get(2).hosts.contains("host2.example.com"));
+        assertEquals(2, index.findBlockForLine(25));
+        assertEquals(-1, index.findBlockForLine(36));
+        
+        // block offsets land on the lines they claim
+        RandomAccessFile raf = new RandomAccessFile(log, "r");
+        try {
+            raf.seek(blocks.get(3).offset);
+            assertEquals(line(30), 
+                    new LogIndex.LineReader(raf, log.length()).readLine());
+        } finally {
+            raf.close();
+        }
+        assertEquals(3, index.findBlockForTimestamp(
+                LogIndex.timestampOf(line(33))));
+    }
+    
+    public void testRecovery() throws IOException {
+        File log = new File(getTmpDir(), "recovery-crawl.log");
+        cleanUpOldFiles("recovery-crawl.log");
+        GenerationFileHandler gfh = makeHandler(log);
+        gfh.setIndexInterval(10);
+        publish(gfh, 0, 25);
+        gfh.close();
+        
+        // lines appended with no index maintenance, as after a crash
+        FileWriter w = new FileWriter(log, true);
+        for (int i = 25; i < 42; i++) {
+            w.write(line(i) + "\n");
+        }
+        w.close();
+        LogIndex partial = LogIndex.load(log);
+        assertEquals("prefix index unusable", 26, partial.getNextLine());
+        assertTrue(partial.getEndOffset() < log.length());
+        
+        gfh = makeHandler(log);
+        gfh.setIndexInterval(10);
+        publish(gfh, 42, 50);
+        gfh.close();
+        LogIndex index = LogIndex.load(log);
+        assertNotNull(index);
+        assertEquals(51, index.getNextLine());
+        assertEquals(log.length(), index.getEndOffset());
+        long expect = 1;
+        for (Block block : index.getBlocks()) {
+            assertEquals(expect, block.firstLine);
+            expect = block.getNextLine();
+        }
+    }
+    
+    public void testRotation() throws IOException {
+        File log = new File(getTmpDir(), "rotate-crawl.log");
+        cleanUpOldFiles("rotate-crawl");
+        GenerationFileHandler gfh = makeHandler(log);
+        gfh.setIndexInterval(10);
+        publish(gfh, 0, 15);
+        GenerationFileHandler next = gfh.rotate(".00001.log", ".log");
+        publish(next, 15, 20);
+        next.close();
+        
+        File stored = new File(getTmpDir(), "rotate-crawl.00001.log");
+        LogIndex storedIndex = LogIndex.load(stored);
+        assertNotNull(storedIndex);
+        assertEquals(16, storedIndex.getNextLine());
+        LogIndex activeIndex = LogIndex.load(log);
+        assertNotNull(activeIndex);
+        assertEquals(6, activeIndex.getNextLine());
+    }
+}
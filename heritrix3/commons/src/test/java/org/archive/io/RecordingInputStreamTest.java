@@ -26,6 +26,7 @@ import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 
 import org.archive.util.TmpDirTestCase;
+import org.archive.util.TokenBucket;
 
 
 /**
@@ -111,6 +112,54 @@ public class RecordingInputStreamTest extends TmpDirTestCase
         ris.close();
     }
 
+    /**
+     * Test throttling by shared TokenBuckets.
+     * 
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void testBandwidthThrottle() throws IOException, InterruptedException
+    {
+        RecordingInputStream ris = new RecordingInputStream(16384, (new File(
+                getTmpDir(), "testBandwidthThrottle").getAbsolutePath()));
+        ris.open(new ByteArrayInputStream(new byte[30*1024]));
+        // 10KB/sec, no burst, charged per 1KB 
+        TokenBucket bucket = new TokenBucket(10*1024, 0);
+        ris.setBandwidthThrottle(
+                new BandwidthThrottle(new TokenBucket[] {bucket}, 1024));
+        long startTime = System.currentTimeMillis();
+        ris.readFullyOrUntil(0);
+        long duration = System.currentTimeMillis() - startTime;
+        ris.close();
+        assertTrue("read too fast: "+duration,duration>=2500);
+        assertEquals(30*1024,bucket.getTotalCharged());
+    }
+
+    public void testBandwidthThrottleNotCarriedOver() 
+    throws IOException, InterruptedException
+    {
+        RecordingInputStream ris = new RecordingInputStream(16384, (new File(
+                getTmpDir(), "testBandwidthThrottleNotCarriedOver").getAbsolutePath()));
+        // 10KB/sec, 1 sec burst: first recording fits within the burst
+        TokenBucket bucket = new TokenBucket(10*1024, 1000);
+        ris.open(new ByteArrayInputStream(new byte[10*1024]));
+        ris.setBandwidthThrottle(
+                new BandwidthThrottle(new TokenBucket[] {bucket}, 1024));
+        ris.readFullyOrUntil(0);
+        ris.close();
+        assertEquals(10*1024,bucket.getTotalCharged());
+        
+        // next recording on same stream, without a throttle set: neither
+        // charged nor slowed
+        ris.open(new ByteArrayInputStream(new byte[30*1024]));
+        long startTime = System.currentTimeMillis();
+        ris.readFullyOrUntil(0);
+        long duration = System.currentTimeMillis() - startTime;
+        ris.close();
+        assertTrue("read too slow: "+duration,duration<1000);
+        assertEquals(10*1024,bucket.getTotalCharged());
+    }
+
     protected void trickle(final byte[] bytes, final PipedOutputStream pout) {
         new Thread() {
             public void run() {
@@ -22,6 +22,8 @@ package org.archive.io.arc;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import org.archive.io.WriterPool;
 import org.archive.io.WriterPoolMember;
@@ -109,6 +111,70 @@ public class ARCWriterPoolTest extends TmpDirTestCase {
         pool.close();
     }
     
+    public void testShrinkAndReport() throws Exception {
+        final int MAX_ACTIVE = 3;
+        cleanUpOldFiles(PREFIX);
+        WriterPool pool = new ARCWriterPool(getSettings(true), MAX_ACTIVE, 10);
+        WriterPoolMember [] writers = new WriterPoolMember[MAX_ACTIVE];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write("Any old content".getBytes());
+        for (int i = 0; i < MAX_ACTIVE; i++) {
+            writers[i] = pool.borrowFile();
+            ((ARCWriter)writers[i]).write("http://one.two.three", "no-type",
+                "0.0.0.0", 1234567890, baos.size(), baos);
+        }
+        for (int i = 0; i < MAX_ACTIVE; i++) {
+            pool.returnFile(writers[i]);
+        }
+        Map<String,Object> report = pool.shortReportMap();
+        assertEquals(3L, report.get("borrows"));
+        assertEquals(3L, report.get("contendedBorrows"));
+        assertEquals(3, ((List<?>)report.get("writers")).size());
+        assertEquals(1, ((Map<?,?>)report.get("storePaths")).size());
+        
+        // no contention since: surplus writers retired as returned
+        pool.setShrinkAfterMs(1);
+        Thread.sleep(20);
+        for (int i = 0; i < MAX_ACTIVE; i++) {
+            pool.returnFile(pool.borrowFile());
+        }
+        report = pool.shortReportMap();
+        assertEquals(2L, report.get("writersRetired"));
+        assertEquals(1, report.get("activeWriters"));
+        pool.close();
+    }
+    
+    public void testBalanceStorePaths() throws Exception {
+        cleanUpOldFiles(PREFIX);
+        File dirA = new File(getTmpDir(), "balanceA");
+        File dirB = new File(getTmpDir(), "balanceB");
+        WriterPool pool = new ARCWriterPool(new WriterPoolSettingsData(
+                PREFIX, "${prefix}-${timestamp17}-${serialno}", 
+                ARCConstants.DEFAULT_MAX_ARC_FILE_SIZE, true,
+                Arrays.asList(new File[] {dirA, dirB}), null), 2, 10);
+        pool.setBalanceStorePaths(true);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write("Any old content".getBytes());
+        
+        WriterPoolMember first = pool.borrowFile();
+        ((ARCWriter)first).write("http://one.two.three", "no-type",
+            "0.0.0.0", 1234567890, baos.size(), baos);
+        // neither measured: configured order
+        assertEquals(dirA, first.getFile().getParentFile());
+        pool.returnFile(first);
+        
+        // dirA now measured, and busy with first writer's file: prefer
+        // unmeasured dirB
+        first = pool.borrowFile();
+        WriterPoolMember second = pool.borrowFile();
+        ((ARCWriter)second).write("http://one.two.three", "no-type",
+            "0.0.0.0", 1234567890, baos.size(), baos);
+        assertEquals(dirB, second.getFile().getParentFile());
+        pool.returnFile(first);
+        pool.returnFile(second);
+        pool.close();
+    }
+    
     private WriterPoolSettings getSettings(final boolean isCompressed) {
         File [] files = {getTmpDir()};
         return new WriterPoolSettingsData(
@@ -25,14 +25,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.archive.io.ArchiveRecord;
 import org.archive.io.ArchiveRecordHeader;
+import org.archive.io.ReplayInputStream;
 import org.archive.io.UTF8Bytes;
 import org.archive.io.WriterPoolMember;
 import org.archive.uid.RecordIDGenerator;
@@ -475,4 +478,142 @@ extends TmpDirTestCase implements WARCConstants {
 			assertTrue(totalRead > 0);
 		}
 	}
-}
\ No newline at end of file
+
+    public void testDirectTransfer() throws Exception {
+        // larger than the replay buffer, so part comes from a backing file
+        byte[] content = new byte[600 * 1024];
+        new Random(1).nextBytes(content);
+        for (boolean compress : new boolean[] {false, true}) {
+            for (boolean direct : new boolean[] {false, true}) {
+                String baseName = "directTransfer-" + compress + "-" + direct;
+                cleanUpOldFiles(baseName);
+                File [] files = {getTmpDir()};
+                WARCWriterPoolSettingsData settings = 
+                    new WARCWriterPoolSettingsData(baseName + '-' + SUFFIX, 
+                        "${prefix}", DEFAULT_MAX_WARC_FILE_SIZE, compress, 
+                        Arrays.asList(files), null, generator);
+                settings.setDirectTransfer(direct);
+                WARCWriter w = new WARCWriter(SERIAL_NO, settings);
+                w.checkSize();
+                ReplayInputStream ris = new ReplayInputStream(
+                        new ByteArrayInputStream(content));
+                try {
+                    w.writeResourceRecord(SOME_URL, 
+                            ArchiveUtils.get14DigitDate(), 
+                            "application/octet-stream", 
+                            generator.getRecordID(), null, ris, 
+                            content.length);
+                } finally {
+                    ris.destroy();
+                }
+                w.close();
+                assertEquals(baseName, direct && !compress 
+                        ? content.length : 0, 
+                        w.getDirectTransferBytes());
+                
+                WARCReader reader = WARCReaderFactory.get(w.getFile());
+                Iterator<ArchiveRecord> iter = reader.iterator();
+                iter.next(); // warcinfo
+                assertTrue(iter.hasNext());
+                ArchiveRecord record = iter.next();
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                record.dump(baos);
+                reader.close();
+                assertTrue(baseName, Arrays.equals(content, baos.toByteArray()));
+            }
+        }
+    }
+    
+    public void testDirectTransferLongerReplay() throws Exception {
+        // replay holds more than the declared length, which is all written
+        byte[] content = new byte[600 * 1024];
+        new Random(3).nextBytes(content);
+        int declared = 500 * 1024;
+        for (boolean compress : new boolean[] {false, true}) {
+            String baseName = "directTransferLonger-" + compress;
+            cleanUpOldFiles(baseName);
+            File [] files = {getTmpDir()};
+            WARCWriterPoolSettingsData settings = 
+                new WARCWriterPoolSettingsData(baseName + '-' + SUFFIX, 
+                    "${prefix}", DEFAULT_MAX_WARC_FILE_SIZE, compress, 
+                    Arrays.asList(files), null, generator);
+            settings.setDirectTransfer(true);
+            WARCWriter w = new WARCWriter(SERIAL_NO, settings);
+            w.checkSize();
+            ReplayInputStream ris = new ReplayInputStream(
+                    new ByteArrayInputStream(content));
+            try {
+                w.writeResourceRecord(SOME_URL, 
+                        ArchiveUtils.get14DigitDate(), 
+                        "application/octet-stream", 
+                        generator.getRecordID(), null, ris, declared);
+            } finally {
+                ris.destroy();
+            }
+            w.close();
+            
+            WARCReader reader = WARCReaderFactory.get(w.getFile());
+            Iterator<ArchiveRecord> iter = reader.iterator();
+            iter.next(); // warcinfo
+            assertTrue(iter.hasNext());
+            ArchiveRecord record = iter.next();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            record.dump(baos);
+            reader.close();
+            assertTrue(baseName, Arrays.equals(
+                    Arrays.copyOf(content, declared), baos.toByteArray()));
+        }
+    }
+    
+    public void testParallelCompression() throws Exception {
+        byte[] large = new byte[300 * 1024];
+        new Random(2).nextBytes(large);
+        List<String> serialContents = null;
+        for (int threads : new int[] {0, 3}) {
+            String baseName = "parallelCompression-" + threads;
+            cleanUpOldFiles(baseName);
+            File [] files = {getTmpDir()};
+            WARCWriterPoolSettingsData settings = 
+                new WARCWriterPoolSettingsData(baseName + '-' + SUFFIX, 
+                    "${prefix}", DEFAULT_MAX_WARC_FILE_SIZE, true, 
+                    Arrays.asList(files), null, generator);
+            settings.setCompressionThreads(threads);
+            settings.setCompressionLevel(1);
+            // small enough that the large record spills, and that 
+            // writing must sometimes wait on the pool
+            settings.setCompressionBufferBytes(64 * 1024);
+            WARCWriter w = new WARCWriter(SERIAL_NO, settings);
+            w.checkSize();
+            for (int i = 0; i < 200; i++) {
+                writeRandomHTTPRecord(w, i);
+                if (i == 100) {
+                    w.writeResourceRecord(SOME_URL, 
+                            ArchiveUtils.get14DigitDate(), 
+                            "application/octet-stream", 
+                            generator.getRecordID(), null, 
+                            new ByteArrayInputStream(large), large.length);
+                }
+            }
+            w.close();
+            assertEquals(0, w.getPendingBytes());
+            validate(w.getFile(), 202);
+            
+            List<String> contents = new ArrayList<String>();
+            WARCReader reader = WARCReaderFactory.get(w.getFile());
+            for (ArchiveRecord record : reader) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                record.dump(baos);
+                contents.add(record.getHeader().getUrl() + " " 
+                        + baos.size() + " " + baos.toString("ISO-8859-1"));
+            }
+            reader.close();
+            // skip warcinfo, which names the file
+            contents = contents.subList(1, contents.size());
+            if (serialContents == null) {
+                serialContents = contents;
+            } else {
+                assertEquals(serialContents, contents);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.net;
+
+import org.apache.commons.httpclient.URIException;
+
+/**
+ * Simple benchmarking of UURIFactory with and without its single-pass
+ * fixup of common URI forms, over a mix of absolute and relative links
+ * typical of extracted outlinks.
+ * 
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on test machine may affect 
+ * relative time tallies in unpredictable ways.
+ */
+public class BenchmarkUURIFactory {
+    
+    protected static final String[] LINKS = {
+        "http://www.example.com/",
+        "http://www.example.com/news/2009/10/story.html",
+        "https://secure.example.com/login?next=%2Faccount",
+        "http://images.example.com:8080/img/logo.png",
+        "http://WWW.Example.COM/Mixed/Case.html#section",
+        "/css/site.css",
+        "/search?q=heritrix&page=2",
+        "article.php?id=12345&lang=en",
+        "../up/one.html",
+        "http://www.example.com/a path/with spaces.html",
+        "javascript:void(0)",
+        "mailto:someone@example.com",
+    };
+
+    public static void main(String[] args) throws URIException {
+        int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        int iterations = 
+            (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+        UURI base = UURIFactory.getInstance("http://www.example.com/dir/page");
+        for (int r = 0; r < reps; r++) {
+            for (boolean fast : new boolean[] {false, true}) {
+                UURIFactory.fastFixup = fast;
+                long start = System.nanoTime();
+                int failures = 0;
+                for (int i = 0; i < iterations; i++) {
+                    for (String link : LINKS) {
+                        try {
+                            UURIFactory.getInstance(base, link);
+                        } catch (URIException e) {
+                            failures++;
+                        }
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                long count = (long) iterations * LINKS.length;
+                System.out.println((fast ? "fast   " : "general") 
+                        + " rep " + r + ": " + (elapsed / count) 
+                        + "ns/uri (" + count + " uris, " 
+                        + failures + " failures)");
+            }
+        }
+        UURIFactory.fastFixup = true;
+    }
+}
@@ -25,6 +25,7 @@ import org.archive.bdb.BdbModule;
 import org.archive.checkpointing.Checkpoint;
 import org.archive.spring.ConfigPath;
 import org.archive.util.IdentityCacheableWrapper;
+import org.archive.util.ObjectIdentityBdbBoundedCache;
 import org.archive.util.ObjectIdentityBdbManualCache;
 import org.archive.util.Supplier;
 import org.archive.util.TmpDirTestCase;
@@ -114,4 +115,28 @@ public class BdbModuleTest extends TmpDirTestCase {
         bdb2.stop();
         bdb2.destroy();
     }
+    
+    public void testBudgetOnlyForLockedValues() throws Exception {
+        ConfigPath basePath = new ConfigPath("testBase",getTmpDir().getAbsolutePath());
+        ConfigPath bdbDir = new ConfigPath("bdb","bdbBudget"); 
+        bdbDir.setBase(basePath); 
+        FileUtils.deleteDirectory(bdbDir.getFile());
+
+        BdbModule bdb = new BdbModule();
+        bdb.setDir(bdbDir);
+        bdb.setObjectCacheBudget(1024 * 1024);
+        bdb.start();
+        try {
+            assertTrue(bdb.getObjectCache("unlocked", false, 
+                    IdentityCacheableWrapper.class) 
+                    instanceof ObjectIdentityBdbManualCache);
+            assertTrue(bdb.getObjectCache("locked", false, 
+                    IdentityCacheableWrapper.class, 
+                    IdentityCacheableWrapper.class, true)
+                    instanceof ObjectIdentityBdbBoundedCache);
+        } finally {
+            bdb.stop();
+            bdb.destroy();
+        }
+    }
 }
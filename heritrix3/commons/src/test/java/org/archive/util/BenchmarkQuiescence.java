@@ -0,0 +1,185 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Simple benchmarking of many threads repeatedly passing through the 
+ * frontier's outbound and disposition 'in progress' guards, as with 
+ * ToeThreads calling next(), beginDisposition() and endDisposition(), 
+ * while another thread occasionally holds them all (as for a checkpoint), 
+ * comparing the fair ReentrantReadWriteLocks formerly used against
+ * QuiescenceGates. 
+ * 
+ * Arguments: threads (default 1000), seconds per trial (default 10), 
+ * milliseconds between holds (default 1000), trials (default 3). 
+ * 
+ * Take care when interpreting results; the effect of GC, dynamic 
+ * compilation, and any other activity on test machine may affect 
+ * relative tallies in unpredictable ways.
+ */
+public class BenchmarkQuiescence {
+    
+    interface Guard {
+        void enter() throws InterruptedException;
+        void exit();
+        void hold();
+        void release();
+    }
+    
+    static class FairLockGuard implements Guard {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+        public void enter() throws InterruptedException {
+            lock.readLock().lockInterruptibly();
+        }
+        public void exit() {
+            lock.readLock().unlock();
+        }
+        public void hold() {
+            lock.writeLock().lock();
+        }
+        public void release() {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    static class GateGuard implements Guard {
+        QuiescenceGate gate = new QuiescenceGate();
+        public void enter() throws InterruptedException {
+            gate.enterInterruptibly();
+        }
+        public void exit() {
+            gate.exit();
+        }
+        public void hold() {
+            gate.quiesce();
+        }
+        public void release() {
+            gate.resume();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkQuiescence()).instanceMain(args);
+    }
+    
+    public void instanceMain(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int holdIntervalMs = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        int trials = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+        System.out.println("threads=" + threads + " seconds=" + seconds
+                + " holdIntervalMs=" + holdIntervalMs + " trials=" + trials);
+        for (int t = 0; t < trials; t++) {
+            trial("fair RW locks", new FairLockGuard(), new FairLockGuard(), 
+                    threads, seconds, holdIntervalMs);
+            trial("quiescence gates", new GateGuard(), new GateGuard(), 
+                    threads, seconds, holdIntervalMs);
+        }
+    }
+    
+    protected void trial(String name, final Guard outbound, 
+            final Guard disposition, int threads, int seconds, 
+            final int holdIntervalMs) throws Exception {
+        final AtomicLong cycles = new AtomicLong(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] perThread = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    long local = 0;
+                    long sink = 0;
+                    try {
+                        start.await();
+                        while (!isInterrupted()) {
+                            // as in next()
+                            outbound.enter();
+                            sink += spin(n);
+                            outbound.exit();
+                            // as in beginDisposition()...endDisposition()
+                            disposition.enter();
+                            sink += spin(n);
+                            disposition.exit();
+                            local++;
+                        }
+                    } catch (InterruptedException e) {
+                        // done
+                    } finally {
+                        perThread[n] = local + (sink == 42 ? 1 : 0);
+                    }
+                }
+            };
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        final AtomicLong holds = new AtomicLong(0);
+        final AtomicLong holdNanos = new AtomicLong(0);
+        Thread holder = new Thread() {
+            public void run() {
+                try {
+                    start.await();
+                    while (!isInterrupted()) {
+                        Thread.sleep(holdIntervalMs);
+                        long begin = System.nanoTime();
+                        disposition.hold();
+                        holdNanos.addAndGet(System.nanoTime() - begin);
+                        holds.incrementAndGet();
+                        disposition.release();
+                    }
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        };
+        holder.start();
+        
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        holder.interrupt();
+        holder.join();
+        for (Thread w : workers) {
+            w.interrupt();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        for (long c : perThread) {
+            cycles.addAndGet(c);
+        }
+        System.out.println(name + ": " + (cycles.get() / seconds) 
+                + " cycles/sec; " + holds.get() + " holds, avg " 
+                + (holds.get() == 0 ? 0 : holdNanos.get() / holds.get() / 1000)
+                + "us to hold");
+    }
+    
+    /** a little work, standing in for frontier activity */
+    protected static long spin(int seed) {
+        long x = seed;
+        for (int i = 0; i < 50; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.archive.bdb.AutoKryo;
+
+public class IntHistotableTest extends TestCase {
+
+    public void testTallyAndRemoveAtZero() {
+        IntHistotable ht = new IntHistotable();
+        assertTrue(ht.isEmpty());
+        ht.tally(5);
+        ht.tally(-3, 2);
+        ht.tally(5);
+        assertEquals(2, ht.size());
+        assertEquals(-3, ht.firstKey());
+        assertEquals(5, ht.lastKey());
+        assertEquals(2, ht.get(5));
+        assertEquals(0, ht.get(4));
+        ht.tally(-3, -2);
+        assertFalse(ht.containsKey(-3));
+        assertEquals(5, ht.firstKey());
+        assertEquals(2, ht.getTotal());
+    }
+
+    /**
+     * Compare against Histotable through upgrade to tree and back.
+     */
+    public void testMatchesHistotable() {
+        IntHistotable ht = new IntHistotable();
+        Histotable<Integer> reference = new Histotable<Integer>();
+        Random random = new Random(0);
+        for(int i = 0; i < 20000; i++) {
+            // wander from few keys to many and back to few
+            int range = (i < 10000) ? 1 + i / 100 : 1 + (20000 - i) / 100;
+            int key = random.nextInt(range) - range / 2;
+            long count = random.nextBoolean() ? 1 : -1;
+            ht.tally(key, count);
+            reference.tally(key, count);
+        }
+        assertEquals(reference.size(), ht.size());
+        assertEquals(toTreeMap(ht), reference);
+        assertEquals(reference.getTotal(), ht.getTotal());
+        assertEquals(reference.getLargestValue(), ht.getLargestValue());
+    }
+
+    public void testKryoRoundTrip() {
+        AutoKryo kryo = new AutoKryo();
+        kryo.autoregister(IntHistotable.class);
+        for(int size : new int[] {0, 3, 100}) {
+            IntHistotable ht = new IntHistotable();
+            for(int i = 0; i < size; i++) {
+                ht.tally(i * 7 - 50, i + 1);
+            }
+            ht.tally(Integer.MIN_VALUE);
+            ht.tally(Integer.MAX_VALUE, Long.MIN_VALUE);
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            kryo.writeObject(buffer, ht);
+            buffer.flip();
+            IntHistotable ht2 = kryo.readObject(buffer, IntHistotable.class);
+            assertTrue(Arrays.equals(ht.keys(), ht2.keys()));
+            assertTrue(Arrays.equals(ht.counts(), ht2.counts()));
+        }
+    }
+
+    /**
+     * A Histotable persisted where an IntHistotable is now expected (as
+     * in queues' precedence providers) is read as an IntHistotable.
+     */
+    public void testKryoReadsLegacyHistotable() {
+        Histotable<Integer> legacy = new Histotable<Integer>();
+        legacy.tally(3, 5);
+        legacy.tally(-1, 2);
+        legacy.tally(40, 1);
+        // as registered by BdbWorkQueue before IntHistotable existed
+        AutoKryo oldKryo = new AutoKryo();
+        oldKryo.autoregister(HashSet.class);
+        oldKryo.setRegistrationOptional(true);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        oldKryo.writeClassAndObject(buffer, legacy);
+        buffer.flip();
+        
+        AutoKryo kryo = new AutoKryo();
+        kryo.autoregister(IntHistotable.class);
+        kryo.setRegistrationOptional(true);
+        Object read = kryo.readClassAndObject(buffer);
+        assertTrue(read instanceof IntHistotable);
+        assertEquals(legacy, toTreeMap((IntHistotable) read));
+        assertEquals(-1, ((IntHistotable) read).firstKey());
+    }
+
+    protected TreeMap<Integer,Long> toTreeMap(IntHistotable ht) {
+        TreeMap<Integer,Long> map = new TreeMap<Integer,Long>();
+        int[] keys = ht.keys();
+        long[] counts = ht.counts();
+        for(int i = 0; i < keys.length; i++) {
+            map.put(keys[i], counts[i]);
+        }
+        return map;
+    }
+}
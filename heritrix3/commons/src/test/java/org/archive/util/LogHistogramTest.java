@@ -0,0 +1,76 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class LogHistogramTest extends TestCase {
+
+    public void testPercentiles() {
+        LogHistogram hist = new LogHistogram();
+        assertEquals(0, hist.getCount());
+        assertEquals(0, hist.getPercentile(50));
+        for (int i = 1; i <= 100; i++) {
+            hist.record(i);
+        }
+        assertEquals(100, hist.getCount());
+        // 50th value (50) is in bucket [32,64)
+        assertEquals(63, hist.getPercentile(50));
+        // 99th value (99) is in bucket [64,128), capped at max
+        assertEquals(100, hist.getPercentile(99));
+        assertEquals(1, hist.getPercentile(0));
+        
+        Map<String,Object> map = hist.summaryMap(1);
+        assertEquals(100L, map.get("count"));
+        assertEquals(50L, map.get("mean"));
+        assertEquals(100L, map.get("max"));
+        
+        hist.record(-5);
+        assertEquals(0, hist.getPercentile(0));
+    }
+    
+    public void testMergedAcrossThreads() throws Exception {
+        final LogHistogram hist = new LogHistogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        hist.record(n * 1000);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(80000, hist.getCount());
+        assertEquals("dead threads' stripes not folded", 0, hist.stripes.size());
+        // still counted after folding
+        assertEquals(80000, hist.getCount());
+        assertEquals(7000L, hist.summaryMap(1).get("max"));
+        hist.record(1);
+        assertEquals(80001, hist.getCount());
+    }
+}
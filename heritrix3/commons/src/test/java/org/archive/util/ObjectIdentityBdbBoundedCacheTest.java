@@ -0,0 +1,145 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+public class ObjectIdentityBdbBoundedCacheTest extends TmpDirTestCase {
+    EnhancedEnvironment env; 
+    private ObjectIdentityBdbBoundedCache<IdentityCacheableWrapper<HashMap<String,Integer>>> cache;
+    
+    @SuppressWarnings("unchecked")
+    protected void setUp() throws Exception {
+        super.setUp();
+        File envDir = new File(getTmpDir(),"ObjectIdentityBdbBoundedCacheTest");
+        org.archive.util.FileUtils.ensureWriteableDirectory(envDir);
+        FileUtils.deleteDirectory(envDir);
+        org.archive.util.FileUtils.ensureWriteableDirectory(envDir);
+        env = EnhancedEnvironment.getTestEnvironment(envDir); 
+        this.cache = new ObjectIdentityBdbBoundedCache<IdentityCacheableWrapper<HashMap<String,Integer>>>();
+        // room for about 10 entries
+        this.cache.setWeigher(
+                new ObjectIdentityBdbBoundedCache.FixedWeigher<IdentityCacheableWrapper<HashMap<String,Integer>>>(100));
+        this.cache.setBudget(1000);
+        this.cache.initialize(env,"boundedCache",IdentityCacheableWrapper.class, env.getClassCatalog());
+    }
+    
+    protected void tearDown() throws Exception {
+        this.cache.close();
+        File envDir = env.getHome();
+        env.close(); 
+        FileUtils.deleteDirectory(envDir);
+        super.tearDown();
+    }
+    
+    protected IdentityCacheableWrapper<HashMap<String,Integer>> getOrCreate(String key) {
+        return cache.getOrUse(key, 
+                new Supplier<IdentityCacheableWrapper<HashMap<String,Integer>>>(
+                        new IdentityCacheableWrapper<HashMap<String,Integer>>(
+                                key, new HashMap<String,Integer>())));
+    }
+    
+    public void testDirtyWrittenBeforeEviction() throws Exception {
+        int keyCount = 500; 
+        for (int i = 0; i < keyCount; i++) {
+            IdentityCacheableWrapper<HashMap<String,Integer>> wrap = getOrCreate("" + i);
+            wrap.get().put("n", i * 2);
+            wrap.makeDirty();
+        }
+        cache.flushDirty();
+        cache.evictToBudget();
+        assertTrue("over budget", cache.weight.get() <= cache.getBudget());
+        assertTrue("no evictions", cache.evictions.get() > 0);
+        assertEquals(keyCount, cache.size());
+        
+        // forget evicted instances, so values must come from disk
+        TestUtils.forceScarceMemory();
+        cache.expungeCollected();
+        for (int i = 0; i < keyCount; i++) {
+            assertEquals("lost update key " + i, i * 2, (int) cache.get("" + i).get().get("n"));
+        }
+        assertTrue("no loads", cache.loads.get() > 0);
+    }
+    
+    public void testIdentityKeptAcrossEviction() throws Exception {
+        IdentityCacheableWrapper<HashMap<String,Integer>> held = getOrCreate("held");
+        for (int i = 0; i < 100; i++) {
+            getOrCreate("" + i);
+        }
+        cache.evictToBudget();
+        assertFalse("held not evicted", cache.memMap.containsKey("held"));
+        
+        IdentityCacheableWrapper<HashMap<String,Integer>> again = cache.get("held");
+        assertSame("identity lost", held, again);
+        assertEquals(1, cache.readmits.get());
+        assertTrue(cache.memMap.containsKey("held"));
+        
+        // changes made via an evicted-but-live instance are kept
+        again.get().put("n", 42);
+        again.makeDirty();
+        cache.sync();
+        assertEquals(42, (int) cache.diskMap.get("held").get().get("n"));
+    }
+    
+    public void testMutateWhileFlushing() throws Exception {
+        final IdentityCacheableWrapper<HashMap<String,Integer>> wrap = 
+            getOrCreate("busy");
+        final AtomicReference<Throwable> failure = 
+            new AtomicReference<Throwable>();
+        Thread writer = new Thread("writer") {
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        cache.flushDirty();
+                        // every written state must be a whole mutation
+                        HashMap<String,Integer> written = 
+                            cache.diskMap.get("busy").get();
+                        Integer count = written.get("count");
+                        assertEquals(count == null ? 0 : count + 1, 
+                                written.size());
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        writer.start();
+        for (int i = 0; i < 5000 && failure.get() == null; i++) {
+            synchronized (wrap) {
+                wrap.get().put("k" + i, i);
+                Thread.yield();
+                wrap.get().put("count", i + 1);
+            }
+            wrap.makeDirty();
+        }
+        writer.interrupt();
+        writer.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        cache.sync();
+        assertEquals(5001, cache.diskMap.get("busy").get().size());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class QuiescenceGateTest extends TestCase {
+
+    public void testQuiesceWaitsForActive() throws Exception {
+        final QuiescenceGate gate = new QuiescenceGate();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean exited = new AtomicBoolean(false);
+        Thread worker = new Thread() {
+            public void run() {
+                gate.enter();
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // fall through
+                }
+                exited.set(true);
+                gate.exit();
+            }
+        };
+        worker.start();
+        entered.await();
+        assertEquals(1, gate.getActiveCount());
+        
+        Thread releaser = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // fall through
+                }
+                release.countDown();
+            }
+        };
+        releaser.start();
+        gate.quiesce();
+        assertTrue("quiesced while worker active", exited.get());
+        assertEquals(0, gate.getActiveCount());
+        gate.resume();
+        worker.join();
+    }
+    
+    public void testEnterBlockedWhileQuiesced() throws Exception {
+        final QuiescenceGate gate = new QuiescenceGate();
+        gate.quiesce();
+        // quiescer itself may enter, and quiesce reentrantly
+        gate.enter();
+        gate.exit();
+        gate.quiesce();
+        assertTrue(gate.isQuiescedByCurrentThread());
+        
+        final CountDownLatch passed = new CountDownLatch(1);
+        Thread worker = new Thread() {
+            public void run() {
+                gate.enter();
+                gate.enter();
+                gate.exit();
+                passed.countDown();
+                gate.exit();
+            }
+        };
+        worker.start();
+        assertFalse("entered closed gate", passed.await(200, TimeUnit.MILLISECONDS));
+        gate.resume();
+        assertFalse("entered after partial resume", passed.await(200, TimeUnit.MILLISECONDS));
+        gate.resume();
+        assertFalse(gate.isQuiescedByCurrentThread());
+        assertTrue("not reopened", passed.await(5, TimeUnit.SECONDS));
+        worker.join();
+        assertEquals(0, gate.getActiveCount());
+    }
+    
+    public void testDeadThreadIgnored() throws Exception {
+        final QuiescenceGate gate = new QuiescenceGate();
+        Thread leaker = new Thread() {
+            public void run() {
+                gate.enter();
+                // dies without exit()
+            }
+        };
+        leaker.start();
+        leaker.join();
+        gate.quiesce();
+        gate.resume();
+        assertEquals(0, gate.slots.size());
+    }
+    
+    public void testUnbalancedExit() {
+        QuiescenceGate gate = new QuiescenceGate();
+        try {
+            gate.exit();
+            fail("no exception on unbalanced exit");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import junit.framework.TestCase;
+
+public class TokenBucketTest extends TestCase {
+
+    public void testUnlimitedOnlyCounts() {
+        TokenBucket bucket = new TokenBucket(0, 1000);
+        assertEquals(0, bucket.charge(1000000));
+        assertEquals(1000000, bucket.getTotalCharged());
+        assertEquals(0, bucket.getTotalWaitMs());
+    }
+
+    public void testBurstThenWait() {
+        // 10000/sec, 1 sec burst: first 10000 free, next 10000 costs ~1 sec
+        TokenBucket bucket = new TokenBucket(10000, 1000);
+        assertEquals(0, bucket.charge(10000));
+        long waitNanos = bucket.charge(10000);
+        assertTrue("wait too short: " + waitNanos, 
+                waitNanos > 900 * 1000000L);
+        assertTrue("wait too long: " + waitNanos, 
+                waitNanos <= 1000 * 1000000L);
+    }
+
+    public void testIdleBucketGrantsOneBurst() throws InterruptedException {
+        // 10000/sec, 100ms burst: after idling, only 1000 is free
+        TokenBucket bucket = new TokenBucket(10000, 100);
+        Thread.sleep(300);
+        assertEquals(0, bucket.charge(1000));
+        long waitNanos = bucket.charge(1000);
+        assertTrue("wait too short: " + waitNanos, 
+                waitNanos > 90 * 1000000L);
+        assertTrue("wait too long: " + waitNanos, 
+                waitNanos <= 100 * 1000000L);
+    }
+
+    public void testLiveRateChange() {
+        TokenBucket bucket = new TokenBucket(1000, 0);
+        bucket.charge(1000);
+        bucket.setRatePerSecond(0);
+        assertEquals("unlimited after rate cleared", 0, bucket.charge(1000000));
+    }
+
+    public void testRaiseRateRescalesDebt() {
+        // 1000/sec, no burst: 10000 charged means ~10 sec owed
+        TokenBucket bucket = new TokenBucket(1000, 0);
+        assertTrue(bucket.charge(10000) > 9000 * 1000000L);
+        // at 100x the rate, that backlog is only ~100ms
+        bucket.setRatePerSecond(100000);
+        long waitNanos = bucket.charge(1);
+        assertTrue("wait too long: " + waitNanos, 
+                waitNanos <= 110 * 1000000L);
+        assertTrue("wait too short: " + waitNanos, 
+                waitNanos > 80 * 1000000L);
+        // and back down, ~10 sec again
+        bucket.setRatePerSecond(1000);
+        waitNanos = bucket.charge(1);
+        assertTrue("wait too short: " + waitNanos, 
+                waitNanos > 9000 * 1000000L);
+    }
+}
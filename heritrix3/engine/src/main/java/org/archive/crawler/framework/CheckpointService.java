@@ -20,6 +20,8 @@ package org.archive.crawler.framework;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
@@ -33,6 +35,7 @@ import java.util.logging.Logger;
 
 import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.archive.bdb.BdbModule;
 import org.archive.checkpointing.Checkpoint;
 import org.archive.checkpointing.Checkpointable;
 import org.archive.crawler.reporting.CrawlStatSnapshot;
@@ -235,8 +238,20 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
 //            long duration = System.currentTimeMillis() - startMs; 
 //            System.err.println("all startCheckpoint() completed in "+duration+"ms");
             
-            // flush/write
+            // flush/write; any several BDB environments in parallel
+            List<BdbModule> environments = new ArrayList<BdbModule>();
             for(Checkpointable c : toCheckpoint.values()) {
+                if(c instanceof BdbModule) {
+                    environments.add((BdbModule)c);
+                }
+            }
+            for(Checkpointable c : toCheckpoint.values()) {
+                if(c instanceof BdbModule) {
+                    if(c == environments.get(0)) {
+                        checkpointEnvironments(environments);
+                    }
+                    continue;
+                }
 //                long doMs = System.currentTimeMillis();
                 c.doCheckpoint(checkpointInProgress);
 //                long doDuration = System.currentTimeMillis() - doMs; 
@@ -271,6 +286,49 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
         return this.checkpointInProgress != null;
     }
 
+    /**
+     * Checkpoint the given BDB environments, each in its own thread if 
+     * there are several: they are independent (and often on separate 
+     * disks), so their syncing and log-file copying may overlap.
+     * 
+     * @param environments BdbModules to checkpoint
+     * @throws IOException first failure of any environment's checkpoint
+     * @throws InterruptedException
+     */
+    protected void checkpointEnvironments(List<BdbModule> environments) 
+    throws IOException, InterruptedException {
+        if(environments.size() == 1) {
+            environments.get(0).doCheckpoint(checkpointInProgress);
+            return;
+        }
+        final Checkpoint checkpoint = checkpointInProgress; 
+        final List<Exception> failures = 
+            Collections.synchronizedList(new LinkedList<Exception>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for(final BdbModule env : environments) {
+            Thread t = new Thread("checkpoint "+env.getDir().getPath()) {
+                public void run() {
+                    try {
+                        env.doCheckpoint(checkpoint);
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        for(Thread t : threads) {
+            t.join();
+        }
+        if(!failures.isEmpty()) {
+            Exception e = failures.get(0);
+            throw (e instanceof IOException) 
+                ? (IOException) e 
+                : new IOException(e);
+        }
+    }
+    
     /**
      * Note that a checkpoint failed
      *
@@ -50,10 +50,17 @@ import org.apache.commons.collections.MapUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.archive.crawler.event.CrawlStateEvent;
+import org.archive.crawler.event.StatSnapshotEvent;
 import org.archive.crawler.framework.CrawlController.StopCompleteEvent;
+import org.archive.crawler.monitor.MemoryBudgetMonitor;
 import org.archive.crawler.reporting.AlertThreadGroup;
 import org.archive.crawler.reporting.CrawlStatSnapshot;
+import org.archive.crawler.reporting.MetricsRegistry;
 import org.archive.crawler.reporting.StatisticsTracker;
+import org.archive.modules.Processor;
+import org.archive.modules.ProcessorChain;
+import org.archive.modules.fetcher.BandwidthShaper;
+import org.archive.modules.writer.WriterPoolProcessor;
 import org.archive.spring.ConfigPath;
 import org.archive.spring.ConfigPathConfigurer;
 import org.archive.spring.PathSharingContext;
@@ -502,6 +509,23 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         return (CrawlController) ac.getBean("crawlController");
     }
 
+    /** metrics of the current crawl; built on demand, dropped at teardown */
+    protected transient MetricsRegistry metricsRegistry;
+    
+    /**
+     * @return registry of the current crawl's metrics, or null if there 
+     * is no crawl
+     */
+    public synchronized MetricsRegistry getMetricsRegistry() {
+        if (ac == null) {
+            return null;
+        }
+        if (metricsRegistry == null) {
+            metricsRegistry = MetricsRegistry.forCrawl(getCrawlController(), ac);
+        }
+        return metricsRegistry;
+    }
+
     public boolean isPausable() {
         CrawlController cc = getCrawlController(); 
         if(cc==null) {
@@ -576,6 +600,7 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         } finally {
             // all this stuff should happen even in case ac.close() bugs out
             ac = null;
+            metricsRegistry = null;
             
             xmlOkAt = new DateTime(0);
             
@@ -674,7 +699,9 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
     }
 
     /** 
-     * Log note of all ApplicationEvents.
+     * Log note of all ApplicationEvents. Also samples bandwidth rates on
+     * each statistics snapshot, so that all reports share one sampling 
+     * interval.
      * 
      * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
      */
@@ -693,6 +720,13 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         if(event instanceof CheckpointSuccessEvent) {
             getJobLogger().log(Level.INFO, "CHECKPOINTED "+((CheckpointSuccessEvent)event).getCheckpoint().getName());
         }
+        
+        if(event instanceof StatSnapshotEvent) {
+            BandwidthShaper shaper = getBandwidthShaper();
+            if(shaper != null) {
+                shaper.sampleObservedRates();
+            }
+        }
     }
 
     /**
@@ -902,6 +936,81 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         return cc.getFrontier().shortReportMap();
     }
 
+    /**
+     * @return map, by bean name, of each processor's count and latency 
+     * and size summaries, in chain order
+     */
+    public Map<String,Object> processorReportData() {
+        CrawlController cc = getCrawlController();
+        if (cc == null) {
+            return null;
+        }
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        for (ProcessorChain chain : new ProcessorChain[] {
+                cc.getCandidateChain(), cc.getFetchChain(), cc.getDispositionChain()}) {
+            for (Processor p : chain) {
+                map.put(p.getBeanName(), p.latencyReportMap());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return map, by bean name, of each archive writer's pool contention 
+     * and write rates
+     */
+    public synchronized Map<String,Object> writerReportData() {
+        if (ac == null) {
+            return null;
+        }
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        Map<String, WriterPoolProcessor> writers = 
+            getJobContext().getBeansOfType(WriterPoolProcessor.class);
+        for (Map.Entry<String, WriterPoolProcessor> entry : writers.entrySet()) {
+            Map<String,Object> poolReport = entry.getValue().poolReportMap();
+            if (poolReport != null) {
+                map.put(entry.getKey(), poolReport);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return memory budget and per-consumer usage, if a 
+     * MemoryBudgetMonitor is configured; otherwise null
+     */
+    public synchronized Map<String,Object> memoryBudgetReportData() {
+        MemoryBudgetMonitor monitor = getMemoryBudgetMonitor();
+        return monitor == null ? null : monitor.shortReportMap();
+    }
+
+    public synchronized String memoryBudgetReport() {
+        MemoryBudgetMonitor monitor = getMemoryBudgetMonitor();
+        return monitor == null ? null : monitor.shortReportLine();
+    }
+
+    protected MemoryBudgetMonitor getMemoryBudgetMonitor() {
+        if (ac == null) {
+            return null;
+        }
+        Map<String,MemoryBudgetMonitor> monitors = 
+            getJobContext().getBeansOfType(MemoryBudgetMonitor.class);
+        return monitors.isEmpty() ? null : monitors.values().iterator().next();
+    }
+
+    /**
+     * @return the job's BandwidthShaper, or null if none configured (or 
+     * the job not built)
+     */
+    public synchronized BandwidthShaper getBandwidthShaper() {
+        if (ac == null) {
+            return null;
+        }
+        Map<String,BandwidthShaper> shapers = 
+            getJobContext().getBeansOfType(BandwidthShaper.class);
+        return shapers.isEmpty() ? null : shapers.values().iterator().next();
+    }
+
     public String frontierReport() {
         CrawlController cc = getCrawlController();
         if(cc==null) {
@@ -910,6 +1019,32 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         return cc.getFrontierReportShort();
     }
 
+    public Map<String,Object> seedsReportData() {
+        CrawlController cc = getCrawlController();
+        if (cc == null || cc.getSeeds() == null) {
+            return null;
+        }
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("announcedSeedCount", cc.getSeeds().getAnnouncedSeedCount());
+        map.put("announcing", cc.getSeeds().isAnnouncing());
+        return map;
+    }
+
+    public String seedsReport() {
+        Map<String,Object> seeds = seedsReportData();
+        if (seeds == null) {
+            return "<i>n/a</i>";
+        }
+        StringBuilder sb = new StringBuilder(64);
+        sb
+         .append(seeds.get("announcedSeedCount"))
+         .append(" seeds announced");
+        if((Boolean)seeds.get("announcing")) {
+            sb.append(" (still loading)");
+        }
+        return sb.toString();
+    }
+
     public void terminate() {
         getCrawlController().requestCrawlStop();
     }
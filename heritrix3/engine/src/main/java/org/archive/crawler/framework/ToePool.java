@@ -30,6 +30,7 @@ import org.apache.commons.lang.StringUtils;
 import org.archive.crawler.reporting.AlertThreadGroup;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.Histotable;
+import org.archive.util.LogHistogram;
 import org.archive.util.MultiReporter;
 
 /**
@@ -50,6 +51,40 @@ public class ToePool extends ThreadGroup implements MultiReporter {
     protected CrawlController controller;
     protected int nextSerialNumber = 1;
     protected int targetSize = 0; 
+    
+    /** time ToeThreads spend waiting in Frontier.next(), in nanoseconds */
+    protected LogHistogram nextNanos = new LogHistogram();
+    /** time ToeThreads spend in the fetch chain, in nanoseconds */
+    protected LogHistogram fetchChainNanos = new LogHistogram();
+    /** time ToeThreads spend in the disposition chain, in nanoseconds */
+    protected LogHistogram dispositionChainNanos = new LogHistogram();
+    /** time ToeThreads spend in Frontier.finished(), in nanoseconds */
+    protected LogHistogram finishedNanos = new LogHistogram();
+    
+    public LogHistogram getNextNanos() {
+        return nextNanos;
+    }
+    public LogHistogram getFetchChainNanos() {
+        return fetchChainNanos;
+    }
+    public LogHistogram getDispositionChainNanos() {
+        return dispositionChainNanos;
+    }
+    public LogHistogram getFinishedNanos() {
+        return finishedNanos;
+    }
+    
+    /**
+     * @return map, by step, of latency summaries (in ms)
+     */
+    public Map<String,Object> stepLatencyMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("frontierNext", nextNanos.summaryMap(1000000));
+        map.put("fetchChain", fetchChainNanos.summaryMap(1000000));
+        map.put("dispositionChain", dispositionChainNanos.summaryMap(1000000));
+        map.put("frontierFinished", finishedNanos.summaryMap(1000000));
+        return map;
+    }
 
     /**
      * Constructor. Creates a pool of ToeThreads. 
@@ -219,7 +254,12 @@ public class ToePool extends ThreadGroup implements MultiReporter {
         writer.print(" Job being crawled: "
                 + this.controller.getMetadata().getJobName() + "\n");
         writer.print(" Number of toe threads in pool: " + getToeCount() + " ("
-                + getActiveToeCount() + " active)\n\n");
+                + getActiveToeCount() + " active)\n");
+        writer.print(" Step latencies (ms):\n");
+        writer.print("  frontier next():     " + nextNanos.summaryLine(1000000) + "\n");
+        writer.print("  fetch chain:         " + fetchChainNanos.summaryLine(1000000) + "\n");
+        writer.print("  disposition chain:   " + dispositionChainNanos.summaryLine(1000000) + "\n");
+        writer.print("  frontier finished(): " + finishedNanos.summaryLine(1000000) + "\n\n");
 
         Thread[] toes = this.getToes();
         synchronized (toes) {
@@ -286,6 +326,7 @@ public class ToePool extends ThreadGroup implements MultiReporter {
         data.put("toeCount", getToeCount());
         data.put("steps", steps.getSortedByCounts());
         data.put("processors", processors.getSortedByCounts());
+        data.put("stepLatencyMs", stepLatencyMap());
         
         return data;
     }
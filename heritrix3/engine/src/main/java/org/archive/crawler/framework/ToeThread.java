@@ -85,6 +85,8 @@ implements MultiReporter, ProgressStatisticsReporter,
     
     private String coreName;
     private CrawlURI currentCuri;
+    /** pool, recording step latencies of all its threads */
+    private ToePool toePool;
     private long lastStartTime;
     private long lastFinishTime;
 
@@ -107,6 +109,7 @@ implements MultiReporter, ProgressStatisticsReporter,
         super(g,"ToeThread #" + sn);
         coreName="ToeThread #" + sn + ": ";
         controller = g.getController();
+        toePool = g;
         serialNumber = sn;
         setPriority(DEFAULT_PRIORITY);
         int outBufferSize = controller.getRecorderOutBufferBytes();
@@ -130,7 +133,9 @@ implements MultiReporter, ProgressStatisticsReporter,
                 
                 setStep(Step.ABOUT_TO_GET_URI, null);
 
+                long stepStart = System.nanoTime();
                 CrawlURI curi = controller.getFrontier().next();
+                toePool.getNextNanos().record(System.nanoTime() - stepStart);
                 
                 
                 synchronized(this) {
@@ -144,11 +149,15 @@ implements MultiReporter, ProgressStatisticsReporter,
                 try {
                     KeyedProperties.loadOverridesFrom(curi);
                     
+                    stepStart = System.nanoTime();
                     controller.getFetchChain().process(curi,this);
+                    toePool.getFetchChainNanos().record(System.nanoTime() - stepStart);
                     
                     controller.getFrontier().beginDisposition(curi);
                     
+                    stepStart = System.nanoTime();
                     controller.getDispositionChain().process(curi,this);
+                    toePool.getDispositionChainNanos().record(System.nanoTime() - stepStart);
   
                 } catch (RuntimeExceptionWrapper e) {
                     // Workaround to get cause from BDB
@@ -182,11 +191,13 @@ implements MultiReporter, ProgressStatisticsReporter,
                 setStep(Step.ABOUT_TO_RETURN_URI, null);
                 ArchiveUtils.continueCheck();
 
+                stepStart = System.nanoTime();
                 synchronized(this) {
                     controller.getFrontier().finished(currentCuri);
                     controller.getFrontier().endDisposition();
                     setCurrentCuri(null);
                 }
+                toePool.getFinishedNanos().record(System.nanoTime() - stepStart);
                 curi = null;
                 
                 setStep(Step.FINISHING_PROCESS, null);
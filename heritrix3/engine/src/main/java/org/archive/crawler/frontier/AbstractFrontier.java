@@ -42,8 +42,8 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -61,15 +61,17 @@ import org.archive.crawler.spring.SheetOverlaysManager;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.DecideRule;
 import org.archive.modules.extractor.ExtractorParameters;
+import org.archive.modules.fetcher.FetchStatsBatcher;
 import org.archive.modules.fetcher.FetchStats.Stage;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.ServerCache;
-import org.archive.modules.seeds.SeedListener;
+import org.archive.modules.seeds.BulkSeedListener;
 import org.archive.modules.seeds.SeedModule;
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.QuiescenceGate;
 import org.archive.util.iterator.LineReadingIterator;
 import org.archive.util.iterator.RegexLineIterator;
 import org.json.JSONException;
@@ -85,7 +87,7 @@ import org.springframework.context.ApplicationListener;
  */
 public abstract class AbstractFrontier 
     implements Frontier,
-               SeedListener, 
+               BulkSeedListener, 
                HasKeyedProperties,
                ExtractorParameters,
                CrawlUriReceiver,
@@ -221,6 +223,20 @@ public abstract class AbstractFrontier
         this.serverCache = serverCache;
     }
     
+    /**
+     * Batcher of per-server and per-host FetchStats tallies, letting each
+     * worker thread accumulate tallies privately for a while before 
+     * folding them into the shared CrawlServer/CrawlHost instances. 
+     * Set its maxBatchTallies to 1 for immediate (unbatched) tallying.
+     */
+    protected FetchStatsBatcher substatsBatcher = new FetchStatsBatcher();
+    public FetchStatsBatcher getSubstatsBatcher() {
+        return this.substatsBatcher;
+    }
+    public void setSubstatsBatcher(FetchStatsBatcher batcher) {
+        this.substatsBatcher = batcher;
+    }
+    
     /** ordinal numbers to assign to created CrawlURIs */
     protected AtomicLong nextOrdinal = new AtomicLong(1);
 
@@ -286,11 +302,10 @@ public abstract class AbstractFrontier
     }
 
     /** 
-     * lock to allow holding all worker ToeThreads from taking URIs already
-     * on the outbound queue; they acquire read permission before take()ing;
-     * frontier can acquire write permission to hold threads */
-    protected ReentrantReadWriteLock outboundLock = 
-        new ReentrantReadWriteLock(true);
+     * gate to allow holding all worker ToeThreads from taking URIs already
+     * on the outbound queue; they enter() before take()ing; frontier can 
+     * quiesce() to hold threads */
+    protected QuiescenceGate outboundGate = new QuiescenceGate();
     
     
     /**
@@ -352,9 +367,9 @@ public abstract class AbstractFrontier
                     case EMPTY:
                         reachedState = State.EMPTY; 
                     case RUN:
-                        // enable outbound takes if previously locked
-                        while(outboundLock.isWriteLockedByCurrentThread()) {
-                            outboundLock.writeLock().unlock();
+                        // enable outbound takes if previously held
+                        while(outboundGate.isQuiescedByCurrentThread()) {
+                            outboundGate.resume();
                         }
                         if(reachedState==null) {
                             reachedState = State.RUN; 
@@ -363,6 +378,9 @@ public abstract class AbstractFrontier
                         
                         Thread.sleep(1000);
                         
+                        // surface tallies batched by now-idle threads
+                        substatsBatcher.foldStale();
+                        
                         if(isEmpty()&&targetState==State.RUN) {
                             requestState(State.EMPTY); 
                         } else if (!isEmpty()&&targetState==State.EMPTY) {
@@ -374,10 +392,11 @@ public abstract class AbstractFrontier
                     case PAUSE:
                         // pausing
                         // prevent all outbound takes
-                        outboundLock.writeLock().lock();
+                        outboundGate.quiesce();
                         // process all inbound
                         while (targetState == State.PAUSE) {
                             if (getInProcessCount()==0) {
+                                substatsBatcher.foldAll();
                                 reachedState(State.PAUSE);
                             }
                             
@@ -386,12 +405,13 @@ public abstract class AbstractFrontier
                         break;
                     case FINISH:
                         // prevent all outbound takes
-                        outboundLock.writeLock().lock();
+                        outboundGate.quiesce();
                         // process all inbound
                         while (getInProcessCount()>0) {
                             Thread.sleep(1000);
                         }
 
+                        substatsBatcher.foldAll();
                         finalTasks(); 
                         // TODO: more cleanup?
                         reachedState(State.FINISH);
@@ -411,8 +431,8 @@ public abstract class AbstractFrontier
         
         // try to leave in safely restartable state: 
         targetState = State.PAUSE;
-        while(outboundLock.isWriteLockedByCurrentThread()) {
-            outboundLock.writeLock().unlock();
+        while(outboundGate.isQuiescedByCurrentThread()) {
+            outboundGate.resume();
         }
         //TODO: ensure all other structures are cleanly reset on restart
         
@@ -447,10 +467,13 @@ public abstract class AbstractFrontier
     public CrawlURI next() throws InterruptedException {
         CrawlURI crawlable = null;
         while(crawlable==null) {
-            outboundLock.readLock().lockInterruptibly();
-            // try filling outbound until we get something to work on
-            crawlable = findEligibleURI();
-            outboundLock.readLock().unlock();
+            outboundGate.enterInterruptibly();
+            try {
+                // try filling outbound until we get something to work on
+                crawlable = findEligibleURI();
+            } finally {
+                outboundGate.exit();
+            }
         }
         return crawlable;
     }
@@ -613,16 +636,15 @@ public abstract class AbstractFrontier
      * @param stage
      */
     protected void tally(CrawlURI curi, Stage stage) {
-        // Tally per-server, per-host, per-frontier-class running totals
+        // Tally per-server, per-host, per-frontier-class running totals;
+        // server and host (shared by many queues and threads) via batches
         CrawlServer server = getServerCache().getServerFor(curi.getUURI());
         if (server != null) {
-            server.getSubstats().tally(curi, stage);
-            server.makeDirty(); 
+            substatsBatcher.tally(server, curi, stage);
         }
         CrawlHost host = getServerCache().getHostFor(curi.getUURI());
         if (host != null) {
-            host.getSubstats().tally(curi, stage);
-            host.makeDirty();
+            substatsBatcher.tally(host, curi, stage);
         }
         FrontierGroup group = getGroup(curi);
         group.tally(curi, stage);
@@ -790,6 +812,18 @@ public abstract class AbstractFrontier
     public void addedSeed(CrawlURI puri) {
         schedule(puri);
     }
+
+    /**
+     * When notified of a batch of seeds via the BulkSeedListener 
+     * interface, schedule each.
+     * 
+     * @see org.archive.modules.seeds.BulkSeedListener#addedSeeds(java.util.List)
+     */
+    public void addedSeeds(List<CrawlURI> curis) {
+        for(CrawlURI curi : curis) {
+            schedule(curi);
+        }
+    }
     
     /** 
      * Do nothing with non-seed lines
@@ -1148,10 +1182,10 @@ public abstract class AbstractFrontier
         }
     }
     
-    /** lock allowing steps of outside processing that need to complete 
-     * all-or-nothing to signal their in-progress status */
-    protected ReentrantReadWriteLock dispositionInProgressLock = 
-        new ReentrantReadWriteLock(true);
+    /** gate allowing steps of outside processing that need to complete 
+     * all-or-nothing to signal their in-progress status, and checkpointing
+     * to wait for those in progress to complete */
+    protected QuiescenceGate dispositionInProgressGate = new QuiescenceGate();
     /** remembers a disposition-in-progress, so that extra endDisposition()
      *  calls are harmless */
     protected ThreadLocal<CrawlURI> dispositionPending = new ThreadLocal<CrawlURI>(); 
@@ -1162,7 +1196,7 @@ public abstract class AbstractFrontier
     @Override
     public void beginDisposition(CrawlURI curi) {
         dispositionPending.set(curi); 
-        dispositionInProgressLock.readLock().lock();
+        dispositionInProgressGate.enter();
     }
     
     /* (non-Javadoc)
@@ -1173,7 +1207,7 @@ public abstract class AbstractFrontier
         // avoid a mismatched unlock; allows callers to be less complicated, 
         // calling endDisposition 'just in case' a begin happened
         if(dispositionPending.get()!=null) {
-            dispositionInProgressLock.readLock().unlock();
+            dispositionInProgressGate.exit();
             dispositionPending.set(null); 
         }
     }
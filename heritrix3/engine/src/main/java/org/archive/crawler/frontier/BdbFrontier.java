@@ -21,6 +21,11 @@ package org.archive.crawler.frontier;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.SortedMap;
 import java.util.Map.Entry;
@@ -49,6 +54,8 @@ import org.json.JSONObject;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import st.ata.util.FPGenerator;
+
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseException;
 
@@ -77,8 +84,11 @@ implements Checkpointable, BeanNameAware {
      */
     protected StoredQueue<String> retiredQueues;
     
-    /** all URIs scheduled to be crawled */
-    protected transient BdbMultipleWorkQueues pendingUris;
+    /** 
+     * all URIs scheduled to be crawled, partitioned by classKey across 
+     * one or more shards 
+     */
+    protected transient BdbMultipleWorkQueues[] pendingUris;
 
     protected BdbModule bdb;
     @Autowired
@@ -86,6 +96,23 @@ implements Checkpointable, BeanNameAware {
         this.bdb = bdb;
     }
     
+    /**
+     * BdbModules (each typically with its dir on a different disk) across
+     * which to partition pending URIs, by hash of their queue's classKey.
+     * Each shard's environment has its own cache, cleaner threads and 
+     * checkpoint files; environments are checkpointed in parallel. If
+     * empty (the default), all pending URIs are kept in the main 
+     * bdbModule's environment. The list (and its order) must stay the 
+     * same across resumes from checkpoint.
+     */
+    List<BdbModule> pendingShards = new ArrayList<BdbModule>();
+    public List<BdbModule> getPendingShards() {
+        return pendingShards;
+    }
+    public void setPendingShards(List<BdbModule> pendingShards) {
+        this.pendingShards = pendingShards;
+    }
+    
     String beanName; 
     public void setBeanName(String name) {
         this.beanName = name;
@@ -99,6 +126,34 @@ implements Checkpointable, BeanNameAware {
         this.dumpPendingAtClose = dumpPendingAtClose;
     }
 
+    /**
+     * Whether, when resuming from a checkpoint, to restore the active 
+     * queues lazily: in the background, in parallel, while crawling
+     * resumes (from the first restored queues). Otherwise all are 
+     * restored before the crawl may start. 
+     */
+    boolean lazyResume = false; 
+    public boolean getLazyResume() {
+        return lazyResume;
+    }
+    public void setLazyResume(boolean lazyResume) {
+        this.lazyResume = lazyResume;
+    }
+    
+    /**
+     * Number of threads loading queues during a lazy resume.
+     */
+    int resumeLoaderThreads = 4; 
+    public int getResumeLoaderThreads() {
+        return resumeLoaderThreads;
+    }
+    public void setResumeLoaderThreads(int resumeLoaderThreads) {
+        this.resumeLoaderThreads = resumeLoaderThreads;
+    }
+    
+    /** restorer of active queues during a lazy resume, if any */
+    protected transient LazyQueueLoader queueLoader;
+
     /* (non-Javadoc)
      * @see org.archive.crawler.frontier.WorkQueueFrontier#getInactiveQueuesByPrecedence()
      */
@@ -116,24 +171,40 @@ implements Checkpointable, BeanNameAware {
     }
     
     /**
-     * Create the single object (within which is one BDB database)
-     * inside which all the other queues live. 
+     * Create the objects (each holding one BDB database) inside which all
+     * the other queues live: one per configured shard, or just one in the
+     * main environment. 
      * 
      * @return the created BdbMultipleWorkQueues
      * @throws DatabaseException
      */
-    protected BdbMultipleWorkQueues createMultipleWorkQueues()
+    protected BdbMultipleWorkQueues[] createMultipleWorkQueues()
     throws DatabaseException {
-        Database db;
         boolean recycle = (recoveryCheckpoint != null);
-
-        BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
-        dbConfig.setAllowCreate(!recycle);
-        // Make database deferred write: URLs that are added then removed 
-        // before a page-out is required need never cause disk IO.
-        db = bdb.openDatabase("pending", dbConfig, recycle);
-        
-        return new BdbMultipleWorkQueues(db, bdb.getClassCatalog());
+        List<BdbModule> modules = getShardModules();
+        BdbMultipleWorkQueues[] shards = 
+            new BdbMultipleWorkQueues[modules.size()];
+        for(int i = 0; i < shards.length; i++) {
+            BdbModule module = modules.get(i);
+            BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
+            dbConfig.setAllowCreate(!recycle);
+            // Make database deferred write: URLs that are added then removed 
+            // before a page-out is required need never cause disk IO.
+            Database db = module.openDatabase("pending", dbConfig, recycle);
+            shards[i] = new BdbMultipleWorkQueues(db, module.getClassCatalog());
+        }
+        return shards;
+    }
+    
+    /**
+     * @return BdbModules holding pending URIs: the configured 
+     * pendingShards, or else only the main bdbModule
+     */
+    protected List<BdbModule> getShardModules() {
+        if(getPendingShards() == null || getPendingShards().isEmpty()) {
+            return Arrays.asList(bdb);
+        }
+        return getPendingShards();
     }
 
 
@@ -174,7 +245,33 @@ implements Checkpointable, BeanNameAware {
             int numberOfMatches, String pattern, final boolean verbose) {
         try {
             Pattern p = Pattern.compile(pattern);
-            return pendingUris.getFrom(marker, numberOfMatches, p, verbose);
+            if(pendingUris.length == 1) {
+                return pendingUris[0].getFrom(marker, numberOfMatches, p, verbose);
+            }
+            // sharded: marker is 'shardIndex:shardMarker'
+            int shard = 0;
+            String m = null; 
+            if(marker != null) {
+                int colon = marker.indexOf(':');
+                shard = Integer.parseInt(marker.substring(0, colon));
+                m = marker.substring(colon + 1);
+                m = (m.length() == 0) ? null : m;
+            }
+            List<String> results = new ArrayList<String>(numberOfMatches);
+            while(shard < pendingUris.length && results.size() < numberOfMatches) {
+                CompositeData cd = pendingUris[shard].getFrom(
+                        m, numberOfMatches - results.size(), p, verbose);
+                results.addAll(Arrays.asList((String[]) cd.get("list")));
+                m = (String) cd.get("marker");
+                if(m == null) {
+                    shard++;
+                }
+            }
+            String nextMarker = (shard < pendingUris.length) 
+                ? shard + ":" + (m == null ? "" : m) 
+                : null;
+            return BdbMultipleWorkQueues.uriListData(
+                    results.toArray(new String[results.size()]), nextMarker);
         } catch (DatabaseException e) {
             throw new IllegalStateException(e);
         }
@@ -202,12 +299,56 @@ implements Checkpointable, BeanNameAware {
      */
     @Override 
     public void close() {
-        ArchiveUtils.closeQuietly(pendingUris);
+        if (queueLoader != null) {
+            queueLoader.stop();
+        }
+        if (pendingUris != null) {
+            for (BdbMultipleWorkQueues shard : pendingUris) {
+                ArchiveUtils.closeQuietly(shard);
+            }
+        }
         super.close(); 
     }
         
-    protected BdbMultipleWorkQueues getWorkQueues() {
-        return pendingUris;
+    @Override
+    public Map<String, Object> shortReportMap() {
+        Map<String,Object> map = super.shortReportMap();
+        if (map != null && queueLoader != null) {
+            map.put("resumeProgress", queueLoader.progressMap());
+        }
+        if (map != null && pendingUris != null && pendingUris.length > 1) {
+            map.put("shards", shardsReportList());
+        }
+        return map;
+    }
+    
+    /**
+     * @return for each pending-URI shard, its directory plus its 
+     * environment's cache and I/O statistics
+     */
+    protected List<Map<String,Object>> shardsReportList() {
+        List<Map<String,Object>> shards = new ArrayList<Map<String,Object>>();
+        for (BdbModule module : getShardModules()) {
+            Map<String,Object> shard = new LinkedHashMap<String,Object>();
+            shard.put("dir", module.getDir().getFile().getAbsolutePath());
+            Map<String,Object> stats = module.environmentStatsMap();
+            if (stats != null) {
+                shard.putAll(stats);
+            }
+            shards.add(shard);
+        }
+        return shards;
+    }
+        
+    /**
+     * @return the shard of pending URIs holding the given queue's URIs
+     */
+    protected BdbMultipleWorkQueues getWorkQueues(String classKey) {
+        if (pendingUris.length == 1) {
+            return pendingUris[0];
+        }
+        long fp = FPGenerator.std64.fp(classKey);
+        return pendingUris[(int) Math.abs(fp % pendingUris.length)];
     }
 
     protected boolean workQueueDataOnDisk() {
@@ -219,13 +360,25 @@ implements Checkpointable, BeanNameAware {
     }
     
     public void startCheckpoint(Checkpoint checkpointInProgress) {
-        dispositionInProgressLock.writeLock().lock();
+        if (queueLoader != null) {
+            // checkpoint's active queues list must be complete
+            try {
+                queueLoader.awaitActive();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dispositionInProgressGate.quiesce();
+        // ensure batched server/host tallies reach their (to be synced) owners
+        substatsBatcher.foldAll();
     }
 
     public void doCheckpoint(Checkpoint checkpointInProgress) {
         // An explicit sync on any deferred write dbs is needed to make the
         // db recoverable. Sync'ing the environment is insufficient
-        this.pendingUris.sync();
+        for (BdbMultipleWorkQueues shard : pendingUris) {
+            shard.sync();
+        }
         // object caches will be sync()d by BdbModule
         
         // save simple instance fields & inactive-levels summary
@@ -273,7 +426,7 @@ implements Checkpointable, BeanNameAware {
     }
 
     public void finishCheckpoint(Checkpoint checkpointInProgress) {
-        dispositionInProgressLock.writeLock().unlock();
+        dispositionInProgressGate.resume();
     }
 
     Checkpoint recoveryCheckpoint;
@@ -285,7 +438,10 @@ implements Checkpointable, BeanNameAware {
     @Override
     protected void initAllQueues() throws DatabaseException {
         boolean isRecovery = (recoveryCheckpoint != null);
-        this.allQueues = bdb.getObjectCache("allqueues", isRecovery, WorkQueue.class, BdbWorkQueue.class);
+        // WorkQueue state only changes in its synchronized methods, so
+        // queues may be written behind within any objectCacheBudget
+        this.allQueues = bdb.getObjectCache("allqueues", isRecovery, 
+                WorkQueue.class, BdbWorkQueue.class, true);
         if(isRecovery) {
             // restore simple instance fields 
             JSONObject json = recoveryCheckpoint.loadJson(beanName);
@@ -311,6 +467,17 @@ implements Checkpointable, BeanNameAware {
             
             // restore ready queues (those not already on inactive, retired)
             BufferedReader activeQueuesReader = null;
+            if (getLazyResume()) {
+                try {
+                    activeQueuesReader = recoveryCheckpoint.loadReader(beanName,"active");
+                } catch (IOException ioe) {
+                    throw new RuntimeException(ioe); 
+                }
+                queueLoader = new LazyQueueLoader(
+                        this, activeQueuesReader, getResumeLoaderThreads());
+                queueLoader.start();
+                return;
+            }
             try {
                 activeQueuesReader = recoveryCheckpoint.loadReader(beanName,"active");
                 String line; 
@@ -381,7 +548,9 @@ implements Checkpointable, BeanNameAware {
                 log((CrawlURI) curi);
             }
         };
-        pendingUris.forAllPendingDo(tolog);
+        for (BdbMultipleWorkQueues shard : pendingUris) {
+            shard.forAllPendingDo(tolog);
+        }
     }
     
     /**
@@ -390,8 +559,8 @@ implements Checkpointable, BeanNameAware {
      * so should only be run while crawl is running. 
      */
     public void consistencyCheck() {
-//        outboundLock.writeLock().lock(); 
-        dispositionInProgressLock.writeLock().lock();
+//        outboundGate.quiesce(); 
+        dispositionInProgressGate.quiesce();
         System.err.println("<<<CHECKING FRONTIER CONSISTENCY");
         DisposableStoredSortedMap<String,String> queueSummaries = 
             bdb.getStoredMap(
@@ -446,8 +615,8 @@ implements Checkpointable, BeanNameAware {
         System.err.println("END CHECKING FRONTIER>>>");
         
         queueSummaries.dispose();
-        dispositionInProgressLock.writeLock().unlock();
-//        outboundLock.writeLock().unlock(); 
+        dispositionInProgressGate.resume();
+//        outboundGate.resume(); 
     }
     protected void consistencyMarkup(
             DisposableStoredSortedMap<String, String> queueSummaries,
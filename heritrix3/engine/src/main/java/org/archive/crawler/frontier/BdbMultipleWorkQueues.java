@@ -201,6 +201,15 @@ public class BdbMultipleWorkQueues {
         }
         
         String[] arr = results.toArray(new String[results.size()]);
+        return uriListData(arr, m);
+    }
+    
+    /**
+     * @param arr URIs (or URI report lines) listed
+     * @param m marker from which to continue listing, or null if done
+     * @return CompositeData as returned by getFrom()
+     */
+    protected static CompositeData uriListData(String[] arr, String m) {
         CompositeData cd;
         try {
             cd = new CompositeDataSupport(
@@ -30,6 +30,7 @@ import org.archive.crawler.frontier.precedence.SimplePrecedenceProvider;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.fetcher.FetchStats;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.IntHistotable;
 
 import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
@@ -65,14 +66,14 @@ implements Serializable {
         }
         // add the queue-front 'cap' entry; see...
         // http://sourceforge.net/tracker/index.php?func=detail&aid=1262665&group_id=73833&atid=539102
-        frontier.getWorkQueues().addCap(origin);
+        frontier.getWorkQueues(classKey).addCap(origin);
     }
 
     protected long deleteMatchingFromQueue(final WorkQueueFrontier frontier,
             final String match) throws IOException {
         try {
             final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
-                .getWorkQueues();
+                .getWorkQueues(classKey);
             return queues.deleteMatchingFromQueue(match, classKey,
                 new DatabaseEntry(origin));
         } catch (DatabaseException e) {
@@ -84,7 +85,7 @@ implements Serializable {
             final CrawlURI peekItem) throws IOException {
         try {
             final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
-                .getWorkQueues();
+                .getWorkQueues(classKey);
              queues.delete(peekItem);
         } catch (DatabaseException e) {
             throw new IOException(e);
@@ -94,7 +95,7 @@ implements Serializable {
     protected CrawlURI peekItem(final WorkQueueFrontier frontier)
     throws IOException {
         final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
-            .getWorkQueues();
+            .getWorkQueues(classKey);
         DatabaseEntry key = new DatabaseEntry(origin);
         CrawlURI curi = null;
         int tries = 1;
@@ -140,7 +141,7 @@ implements Serializable {
             final CrawlURI curi, boolean overwriteIfPresent) throws IOException {
         try {
             final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
-                .getWorkQueues();
+                .getWorkQueues(classKey);
             queues.put(curi, overwriteIfPresent);
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.fine("Inserted into " + getPrefixClassKey(this.origin) +
@@ -178,6 +179,9 @@ implements Serializable {
         kryo.autoregister(HashSet.class);
         kryo.autoregister(SimplePrecedenceProvider.class);
         kryo.autoregister(byte[].class);
+        // after earlier registrations, so as not to renumber them; also
+        // reads the Histotables of queues persisted before IntHistotable
+        kryo.autoregister(IntHistotable.class);
         kryo.setRegistrationOptional(true); 
     }
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracker of in-flight fetches per resolved IP address and per enclosing
+ * subnet (/24 for IPv4, /64 for IPv6), able to refuse a new fetch that 
+ * would exceed a configured maximum for either. 
+ * <p/>
+ * Lets a frontier that assigns queues by hostname keep its parallelism
+ * across distinct servers while not piling many simultaneous fetches
+ * onto one shared-hosting address from its many virtual-host queues.
+ * A maximum of zero (or less) means no limit.
+ */
+public class IPConcurrencyBudget {
+    protected ConcurrentMap<String,AtomicInteger> inFlightByIp = 
+        new ConcurrentHashMap<String,AtomicInteger>();
+    protected ConcurrentMap<String,AtomicInteger> inFlightBySubnet = 
+        new ConcurrentHashMap<String,AtomicInteger>();
+    
+    /** count of refusals since start */
+    protected AtomicLong refusals = new AtomicLong(0);
+    
+    /**
+     * Reserve a fetch slot for the given address if both its IP and 
+     * subnet are under their maximums. 
+     * 
+     * @param address resolved address of the server about to be fetched
+     * @param maxPerIp maximum in-flight fetches per IP; 0 for no limit
+     * @param maxPerSubnet maximum in-flight fetches per subnet; 0 for 
+     * no limit
+     * @return the IP key to later pass to release(), or null if the 
+     * fetch would exceed the budget (and nothing was reserved)
+     */
+    public String tryAcquire(InetAddress address, int maxPerIp, 
+            int maxPerSubnet) {
+        String ipKey = address.getHostAddress();
+        AtomicInteger ipCount = counterFor(inFlightByIp, ipKey);
+        if (!increment(ipCount, maxPerIp)) {
+            refusals.incrementAndGet();
+            return null; 
+        }
+        AtomicInteger subnetCount = 
+            counterFor(inFlightBySubnet, subnetKeyFor(address));
+        if (!increment(subnetCount, maxPerSubnet)) {
+            ipCount.decrementAndGet();
+            refusals.incrementAndGet();
+            return null;
+        }
+        return ipKey;
+    }
+    
+    /**
+     * Release a slot previously reserved by tryAcquire().
+     * 
+     * @param ipKey key returned by tryAcquire()
+     */
+    public void release(String ipKey) {
+        AtomicInteger ipCount = inFlightByIp.get(ipKey);
+        if (ipCount != null) {
+            ipCount.decrementAndGet();
+        }
+        AtomicInteger subnetCount = inFlightBySubnet.get(subnetKeyFor(ipKey));
+        if (subnetCount != null) {
+            subnetCount.decrementAndGet();
+        }
+    }
+    
+    /**
+     * @param ipKey IP address as from InetAddress.getHostAddress()
+     * @return current in-flight count for that IP
+     */
+    public int getInFlight(String ipKey) {
+        AtomicInteger count = inFlightByIp.get(ipKey);
+        return count == null ? 0 : count.get(); 
+    }
+    
+    public long getRefusals() {
+        return refusals.get();
+    }
+    
+    /**
+     * Increment the counter unless already at max. 
+     */
+    protected boolean increment(AtomicInteger counter, int max) {
+        while (true) {
+            int current = counter.get();
+            if (max > 0 && current >= max) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    protected AtomicInteger counterFor(ConcurrentMap<String,AtomicInteger> map,
+            String key) {
+        // counters are never removed; the number of distinct IPs crawled is
+        // modest next to other per-host structures
+        AtomicInteger counter = map.get(key);
+        if (counter == null) {
+            counter = new AtomicInteger(0);
+            AtomicInteger prior = map.putIfAbsent(key, counter);
+            if (prior != null) {
+                counter = prior;
+            }
+        }
+        return counter;
+    }
+
+    protected String subnetKeyFor(InetAddress address) {
+        return subnetKeyFor(address.getHostAddress());
+    }
+    
+    /**
+     * @param ipKey IP address as from InetAddress.getHostAddress()
+     * @return key for the /24 (IPv4) or /64 (IPv6) containing the IP
+     */
+    protected String subnetKeyFor(String ipKey) {
+        if (ipKey.indexOf(':') >= 0) {
+            // IPv6: first four of eight groups
+            int end = -1;
+            for (int i = 0; i < 4; i++) {
+                end = ipKey.indexOf(':', end + 1);
+                if (end < 0) {
+                    return ipKey;
+                }
+            }
+            return ipKey.substring(0, end) + "::/64";
+        }
+        int lastDot = ipKey.lastIndexOf('.');
+        return lastDot < 0 ? ipKey : ipKey.substring(0, lastDot) + ".0/24";
+    }
+
+    /**
+     * Print a one-line summary of the busiest IP and overall state.
+     */
+    public void shortReportLineTo(PrintWriter w) {
+        String busiest = null; 
+        int busiestCount = 0; 
+        for (String ip : inFlightByIp.keySet()) {
+            int count = getInFlight(ip);
+            if (count > busiestCount) {
+                busiest = ip;
+                busiestCount = count;
+            }
+        }
+        w.print(inFlightByIp.size());
+        w.print(" IPs seen; busiest ");
+        w.print(busiest == null ? "-" : busiest);
+        w.print(" (");
+        w.print(busiestCount);
+        w.print(" in-flight); ");
+        w.print(refusals.get());
+        w.print(" refusals");
+    }
+}
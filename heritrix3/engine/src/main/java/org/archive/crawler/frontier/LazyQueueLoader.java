@@ -0,0 +1,269 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+import com.sleepycat.collections.StoredIterator;
+
+/**
+ * Restores a BdbFrontier's active queues from a checkpoint in the 
+ * background, so that crawling may resume before all are restored. 
+ * <p/>
+ * One thread reads the checkpoint's list of active queue keys, in 
+ * batches; a pool of loader threads faults each batch's WorkQueues in
+ * from BDB (in parallel), and only then offers their keys as ready, so 
+ * that ToeThreads start on the first restored queues immediately without
+ * themselves waiting on queue loads. Once all active queues are ready, 
+ * the first few queues at each inactive precedence (in precedence order, 
+ * as they will be activated) are also faulted in. 
+ * <p/>
+ * Reading runs only a few batches ahead of loading, so memory use stays
+ * bounded however long the list. A queue which fails to load is logged
+ * and still offered as ready, to be faulted in again when first used.
+ */
+public class LazyQueueLoader {
+    private static final Logger logger = 
+        Logger.getLogger(LazyQueueLoader.class.getName());
+    
+    protected BdbFrontier frontier;
+    protected BufferedReader activeQueuesReader;
+    protected int threads;
+    protected int batchSize = 1000;
+    protected int inactiveWarmPerPrecedence = 1000;
+    
+    protected ThreadPoolExecutor pool; 
+    protected Thread reader; 
+    /** limits batches read but not yet loaded */
+    protected Semaphore outstanding;
+    
+    protected AtomicLong activeRead = new AtomicLong(0);
+    protected AtomicLong activeLoaded = new AtomicLong(0);
+    protected AtomicLong loadFailures = new AtomicLong(0);
+    protected AtomicLong inactiveWarmed = new AtomicLong(0);
+    /** released once all active queues are ready, or restore ends */
+    protected CountDownLatch activeReady = new CountDownLatch(1);
+    protected volatile boolean activeDone = false;
+    protected volatile boolean done = false;
+    protected long startTime;
+    protected volatile long activeDoneTime;
+    protected volatile long doneTime;
+    
+    public LazyQueueLoader(BdbFrontier frontier, 
+            BufferedReader activeQueuesReader, int threads) {
+        this.frontier = frontier;
+        this.activeQueuesReader = activeQueuesReader;
+        this.threads = Math.max(1, threads);
+    }
+    
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setInactiveWarmPerPrecedence(int inactiveWarmPerPrecedence) {
+        this.inactiveWarmPerPrecedence = inactiveWarmPerPrecedence;
+    }
+
+    public void start() {
+        startTime = System.currentTimeMillis();
+        outstanding = new Semaphore(threads * 2);
+        final AtomicInteger serial = new AtomicInteger(0);
+        pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, 
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "LazyQueueLoader-" + serial.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        reader = new Thread("LazyQueueLoader-reader") {
+            public void run() {
+                try {
+                    readAll();
+                } catch (InterruptedException e) {
+                    logger.info("queue restore interrupted");
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "queue restore failed", e);
+                } finally {
+                    IOUtils.closeQuietly(activeQueuesReader);
+                    pool.shutdown();
+                    done = true;
+                    doneTime = System.currentTimeMillis();
+                    activeReady.countDown();
+                    logger.info("queue restore done: " + progressMap());
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    protected void readAll() throws InterruptedException {
+        List<String> batch = new ArrayList<String>(batchSize);
+        try {
+            String line; 
+            while ((line = activeQueuesReader.readLine()) != null) {
+                batch.add(line);
+                if (activeRead.incrementAndGet() % 1000000 == 0) {
+                    logger.info("restoring active queues: " + progressMap());
+                }
+                if (batch.size() >= batchSize) {
+                    submit(batch, true);
+                    batch = new ArrayList<String>(batchSize);
+                }
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        submit(batch, true);
+        // wait for all ready before warming inactive queues
+        outstanding.acquire(threads * 2);
+        outstanding.release(threads * 2);
+        activeDone = true;
+        activeDoneTime = System.currentTimeMillis();
+        activeReady.countDown();
+        logger.info("active queues restored: " + progressMap());
+        
+        if (inactiveWarmPerPrecedence <= 0) {
+            return;
+        }
+        for (Queue<String> inactive : frontier.getInactiveQueuesByPrecedence().values()) {
+            batch = new ArrayList<String>(batchSize);
+            Iterator<String> iter = inactive.iterator();
+            try {
+                for (int i = 0; i < inactiveWarmPerPrecedence && iter.hasNext(); i++) {
+                    batch.add(iter.next());
+                    if (batch.size() >= batchSize) {
+                        submit(batch, false);
+                        batch = new ArrayList<String>(batchSize);
+                    }
+                }
+            } finally {
+                StoredIterator.close(iter);
+            }
+            submit(batch, false);
+        }
+        outstanding.acquire(threads * 2);
+        outstanding.release(threads * 2);
+    }
+    
+    /**
+     * Hand a batch of queue keys to the loader threads: each queue is 
+     * faulted in and, if active, then offered as ready (even if loading
+     * it failed).
+     */
+    protected void submit(final List<String> batch, final boolean active) 
+    throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        outstanding.acquire();
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    for (String key : batch) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        try {
+                            frontier.getQueueFor(key);
+                        } catch (RuntimeException e) {
+                            loadFailures.incrementAndGet();
+                            logger.log(Level.SEVERE, 
+                                    "problem restoring queue " + key, e);
+                        }
+                        if (active) {
+                            frontier.readyClassQueues.add(key);
+                            activeLoaded.incrementAndGet();
+                        } else {
+                            inactiveWarmed.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    outstanding.release();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Wait until all active queues have been offered as ready; required
+     * before checkpointing, so that the checkpoint's list of active 
+     * queues is complete. 
+     * 
+     * @throws InterruptedException
+     */
+    public void awaitActive() throws InterruptedException {
+        activeReady.await();
+    }
+    
+    public boolean isDone() {
+        return done;
+    }
+    
+    /**
+     * Abandon any restoring still in progress. 
+     */
+    public void stop() {
+        if (reader != null) {
+            reader.interrupt();
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * @return map of restore progress: counts of active queue keys read 
+     * and restored, inactive queues warmed, and elapsed times
+     */
+    public Map<String,Object> progressMap() {
+        long now = System.currentTimeMillis();
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("activeQueuesRead", activeRead.get());
+        map.put("activeQueuesRestored", activeLoaded.get());
+        map.put("loadFailures", loadFailures.get());
+        map.put("activeDone", activeDone);
+        map.put("activeElapsedMs", (activeDone ? activeDoneTime : now) - startTime);
+        map.put("inactiveQueuesWarmed", inactiveWarmed.get());
+        map.put("done", done);
+        map.put("elapsedMs", (done ? doneTime : now) - startTime);
+        return map;
+    }
+}
@@ -72,6 +72,9 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     /** Time to wake, if snoozed */
     protected long wakeTime = 0;
 
+    /** Politeness delay (ms) chosen at the last URI completion */
+    protected long lastPolitenessDelay = 0;
+
     /** assigned precedence */
     protected PrecedenceProvider precedenceProvider = new SimplePrecedenceProvider(1);
             
@@ -97,6 +100,10 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     /** The next item to be returned */
     transient protected CrawlURI peekItem = null;
 
+    /** IP key of any per-IP concurrency budget held by the in-process 
+     * item, to be released when it finishes */
+    transient protected String heldIpBudgetKey = null;
+
     /** Last URI enqueued */
     protected String lastQueued;
 
@@ -211,7 +218,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * 
      * @param balance to use
      */
-    void setSessionBudget(int budget) {
+    synchronized void setSessionBudget(int budget) {
         this.sessionBudget = budget;
     }
 
@@ -248,7 +255,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * 
      * @param budget
      */
-    void setTotalBudget(long budget) {
+    synchronized void setTotalBudget(long budget) {
         this.totalBudget = budget;
     }
 
@@ -290,7 +297,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * @param amount tp decrement
      * @return updated budget value
      */
-    public void expend(int amount) {
+    public synchronized void expend(int amount) {
         this.totalExpenditure = this.totalExpenditure + amount;
         if(amount >= 0) {
             this.lastCost = amount;
@@ -305,7 +312,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * Note an error and assess an extra penalty. 
      * @param penalty additional amount to deduct
      */
-    public void noteError(int penalty) {
+    public synchronized void noteError(int penalty) {
         this.totalExpenditure = this.totalExpenditure + penalty;
         errorCount++;
     }
@@ -313,7 +320,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     /**
      * @param l
      */
-    public void setWakeTime(long l) {
+    public synchronized void setWakeTime(long l) {
         wakeTime = l;
     }
 
@@ -324,6 +331,20 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         return wakeTime;
     }
 
+    /**
+     * @param delay politeness delay (ms) chosen for the last finished URI
+     */
+    public synchronized void setLastPolitenessDelay(long delay) {
+        lastPolitenessDelay = delay;
+    }
+
+    /**
+     * @return politeness delay (ms) chosen for the last finished URI
+     */
+    public long getLastPolitenessDelay() {
+        return lastPolitenessDelay;
+    }
+
     /**
      * @return classKey, the 'identifier', for this queue.
      */
@@ -485,6 +506,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         } else {
             map.put("lastDequeueTime", null);
         }
+        map.put("lastPolitenessDelay", lastPolitenessDelay);
         map.put("totalExpenditure", totalExpenditure);
         map.put("totalBudget", totalBudget);
         map.put("errorCount", errorCount);
@@ -572,6 +594,8 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         if (wakeTime != 0) {
             writer.print("\n   wakes in: "+ArchiveUtils.formatMillisecondsToConventional(wakeTime - System.currentTimeMillis()));
         }
+        writer.print("\n   last politeness delay: ");
+        writer.print(ArchiveUtils.formatMillisecondsToConventional(lastPolitenessDelay));
         writer.print("\n    last enqueued: ");
         writer.print(lastQueued);
         writer.print("\n      last peeked: ");
@@ -609,7 +633,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * 
      * @param b new value for retired status
      */
-    void setRetired(boolean b) {
+    synchronized void setRetired(boolean b) {
         this.retired = b;
     }
     
@@ -627,7 +651,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     /**
      * @param precedenceProvider the precedenceProvider to set
      */
-    public void setPrecedenceProvider(PrecedenceProvider precedenceProvider) {
+    public synchronized void setPrecedenceProvider(PrecedenceProvider precedenceProvider) {
         this.precedenceProvider = precedenceProvider;
     }
     
@@ -641,7 +665,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     /* (non-Javadoc)
      * @see org.archive.modules.fetcher.FetchStats.HasFetchStats#tally(org.archive.modules.CrawlURI, org.archive.modules.fetcher.FetchStats.Stage)
      */
-    public void tally(CrawlURI curi, Stage stage) {
+    public synchronized void tally(CrawlURI curi, Stage stage) {
         substats.tally(curi, stage);
         precedenceProvider.tally(curi, stage);
     }
@@ -33,8 +33,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -58,6 +60,7 @@ import org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy;
 import org.archive.crawler.frontier.precedence.QueuePrecedencePolicy;
 import org.archive.crawler.util.TopNSet;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.net.CrawlHost;
 import org.archive.spring.KeyedProperties;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.ObjectIdentityCache;
@@ -169,6 +172,40 @@ implements Closeable,
         this.precedenceFloor = floor;
     }
 
+    /** maximum simultaneous fetches, across all queues, to any one 
+     * resolved server IP address; 0 means no limit */
+    protected int maxConcurrentFetchesPerIp = 0; 
+    public int getMaxConcurrentFetchesPerIp() {
+        return this.maxConcurrentFetchesPerIp;
+    }
+    public void setMaxConcurrentFetchesPerIp(int max) {
+        this.maxConcurrentFetchesPerIp = max;
+    }
+
+    /** maximum simultaneous fetches, across all queues, to any one
+     * /24 (IPv4) or /64 (IPv6) subnet; 0 means no limit */
+    protected int maxConcurrentFetchesPerSubnet = 0; 
+    public int getMaxConcurrentFetchesPerSubnet() {
+        return this.maxConcurrentFetchesPerSubnet;
+    }
+    public void setMaxConcurrentFetchesPerSubnet(int max) {
+        this.maxConcurrentFetchesPerSubnet = max;
+    }
+
+    /** how long to snooze a queue whose next URI would exceed the 
+     * per-IP or per-subnet fetch maximums */
+    protected long ipBudgetSnoozeMs = 1000; 
+    public long getIpBudgetSnoozeMs() {
+        return this.ipBudgetSnoozeMs;
+    }
+    public void setIpBudgetSnoozeMs(long snooze) {
+        this.ipBudgetSnoozeMs = snooze;
+    }
+    
+    /** in-flight fetches by IP/subnet, when limits are set */
+    transient protected IPConcurrencyBudget ipBudget = 
+        new IPConcurrencyBudget();
+
     /** truncate reporting of queues at this large but not unbounded number */
     protected int maxQueuesPerReportCategory = 2000; 
     public int getMaxQueuesPerReportCategory() {
@@ -199,7 +236,25 @@ implements Closeable,
     transient protected DelayQueue<DelayedWorkQueue> snoozedClassQueues;
     protected StoredSortedMap<Long,DelayedWorkQueue> snoozedOverflow; 
     protected AtomicInteger snoozedOverflowCount = new AtomicInteger(0); 
-    protected static int MAX_SNOOZED_IN_MEMORY = 10000; 
+    
+    /**
+     * Maximum number of snoozed queues to hold in memory (in wake-time
+     * order); any more are kept in a BDB-backed overflow map instead.
+     */
+    protected int maxSnoozedInMemory = 10000; 
+    public int getMaxSnoozedInMemory() {
+        return maxSnoozedInMemory;
+    }
+    public void setMaxSnoozedInMemory(int maxSnoozedInMemory) {
+        this.maxSnoozedInMemory = maxSnoozedInMemory;
+    }
+    
+    /**
+     * @return number of snoozed queues currently held in memory
+     */
+    public int getSnoozedInMemoryCount() {
+        return snoozedClassQueues == null ? 0 : snoozedClassQueues.size();
+    }
     
     /** URIs scheduled to be re-enqueued at future date */
     protected StoredSortedMap<Long, CrawlURI> futureUris; 
@@ -358,6 +413,38 @@ implements Closeable,
         }
     }
 
+    /**
+     * When notified of a batch of seeds via the BulkSeedListener 
+     * interface, assign each its queue, then schedule them grouped by
+     * queue, so that consecutive insertions land near each other in
+     * the queue store. 
+     * 
+     * @see org.archive.modules.seeds.BulkSeedListener#addedSeeds(java.util.List)
+     */
+    @Override
+    public void addedSeeds(List<CrawlURI> curis) {
+        List<CrawlURI> sorted = new ArrayList<CrawlURI>(curis);
+        for(CrawlURI curi : sorted) {
+            if(curi.getClassKey()==null) {
+                sheetOverlaysManager.applyOverlaysTo(curi);
+                try {
+                    KeyedProperties.loadOverridesFrom(curi);
+                    preparer.prepare(curi);
+                } finally {
+                    KeyedProperties.clearOverridesFrom(curi); 
+                }
+            }
+        }
+        Collections.sort(sorted, new Comparator<CrawlURI>() {
+            public int compare(CrawlURI a, CrawlURI b) {
+                return a.getClassKey().compareTo(b.getClassKey());
+            }
+        });
+        for(CrawlURI curi : sorted) {
+            schedule(curi);
+        }
+    }
+    
     /**
      * Arrange for the given CrawlURI to be visited, if it is not
      * already scheduled/completed.
@@ -672,7 +759,16 @@ implements Closeable,
                         KeyedProperties.clearOverridesFrom(curi); 
                     }
                     if (currentQueueKey.equals(curi.getClassKey())) {
-                        // curi was in right queue, emit
+                        // curi was in right queue; emit unless its
+                        // server's IP already has its fill of fetches
+                        if (!reserveIpBudget(curi, readyQ)) {
+                            inProcessQueues.remove(readyQ);
+                            snoozeQueue(readyQ, System.currentTimeMillis(), 
+                                    getIpBudgetSnoozeMs());
+                            readyQ.makeDirty();
+                            readyQ = null;
+                            continue findauri;
+                        }
                         noteAboutToEmit(curi, readyQ);
                         return curi;
                     }
@@ -725,6 +821,54 @@ implements Closeable,
     // temporary debugging support
     int depthFindEligibleURI = 0; 
 
+    /**
+     * Reserve a slot in the per-IP/per-subnet concurrency budget for 
+     * fetching the given CrawlURI from the given queue, if limits are
+     * set and the URI's host IP is known. The reservation is remembered
+     * on the queue (which has only one URI out at a time) until 
+     * releaseIpBudget(). 
+     * 
+     * @param curi CrawlURI about to be emitted
+     * @param wq its queue
+     * @return false if emitting would exceed a limit; true otherwise
+     */
+    protected boolean reserveIpBudget(CrawlURI curi, WorkQueue wq) {
+        if (getMaxConcurrentFetchesPerIp() <= 0 
+                && getMaxConcurrentFetchesPerSubnet() <= 0) {
+            return true; 
+        }
+        if (!curi.getUURI().getScheme().startsWith("http")) {
+            // dns: and other non-fetches don't load the server 
+            return true;
+        }
+        CrawlHost host = getServerCache().getHostFor(curi.getUURI());
+        if (host == null || host.getIP() == null) {
+            // not yet resolved; allow prerequisites to proceed
+            return true;
+        }
+        String ipKey = ipBudget.tryAcquire(host.getIP(), 
+                getMaxConcurrentFetchesPerIp(), 
+                getMaxConcurrentFetchesPerSubnet());
+        if (ipKey == null) {
+            return false;
+        }
+        wq.heldIpBudgetKey = ipKey;
+        return true;
+    }
+    
+    /**
+     * Release any per-IP concurrency budget held by the given queue. 
+     * 
+     * @param wq queue whose URI has finished
+     */
+    protected void releaseIpBudget(WorkQueue wq) {
+        String ipKey = wq.heldIpBudgetKey;
+        if (ipKey != null) {
+            wq.heldIpBudgetKey = null;
+            ipBudget.release(ipKey);
+        }
+    }
+
     /**
      * Check for any future-scheduled URIs now eligible for reenqueuing
      */
@@ -981,6 +1125,7 @@ implements Closeable,
         wq.expend(holderCost); // successes & failures charge cost to queue
         
         long delay_ms = curi.getPolitenessDelay();
+        wq.setLastPolitenessDelay(delay_ms);
         handleQueue(wq,curi.includesRetireDirective(),now,delay_ms);
         wq.makeDirty();
         
@@ -1007,6 +1152,7 @@ implements Closeable,
      */
     protected void handleQueue(WorkQueue wq, boolean forceRetire, long now, long delay_ms) {
         inProcessQueues.remove(wq);
+        releaseIpBudget(wq);
         if(forceRetire) {
             retireQueue(wq);
         } else if (delay_ms > 0) {
@@ -1028,7 +1174,7 @@ implements Closeable,
         long nextTime = now + delay_ms;
         wq.setWakeTime(nextTime);
         DelayedWorkQueue dq = new DelayedWorkQueue(wq);
-        if(snoozedClassQueues.size()<MAX_SNOOZED_IN_MEMORY) {
+        if(snoozedClassQueues.size()<getMaxSnoozedInMemory()) {
             snoozedClassQueues.add(dq);
         } else {
             synchronized(snoozedOverflow) {
@@ -1391,6 +1537,12 @@ implements Closeable,
         w.print("          Exhausted queues: ");
         w.print(exhaustedCount);
         w.print("\n");
+        if (getMaxConcurrentFetchesPerIp() > 0 
+                || getMaxConcurrentFetchesPerSubnet() > 0) {
+            w.print("     IP concurrency budget: ");
+            ipBudget.shortReportLineTo(w);
+            w.print("\n");
+        }
         
         State last = lastReachedState;
         w.print("\n             Last state: "+last);        
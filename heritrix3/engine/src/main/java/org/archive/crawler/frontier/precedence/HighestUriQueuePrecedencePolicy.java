@@ -23,7 +23,7 @@ import java.io.PrintWriter;
 import org.archive.crawler.frontier.WorkQueue;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.fetcher.FetchStats.Stage;
-import org.archive.util.Histotable;
+import org.archive.util.IntHistotable;
 
 /**
  * QueuePrecedencePolicy that sets a uri-queue's precedence to that of the
@@ -31,7 +31,8 @@ import org.archive.util.Histotable;
  * base-precedence. 
  * 
  * It does this by maintaining a count of the included URIs at each 
- * URI-precedence, updated on each URI add or remove. 
+ * URI-precedence, updated on each URI add or remove. (The counts are kept
+ * in a primitive IntHistotable, as there is one per queue.)
  */
 public class HighestUriQueuePrecedencePolicy extends BaseQueuePrecedencePolicy {
     private static final long serialVersionUID = -8652293180921419601L;
@@ -53,7 +54,7 @@ public class HighestUriQueuePrecedencePolicy extends BaseQueuePrecedencePolicy {
     public class HighestUriPrecedenceProvider extends SimplePrecedenceProvider {
         private static final long serialVersionUID = 5545297542888582745L;
         
-        protected Histotable<Integer> enqueuedCounts = new Histotable<Integer>();
+        protected IntHistotable enqueuedCounts = new IntHistotable();
         public HighestUriPrecedenceProvider(int base) {
             super(base);
         }
@@ -86,7 +87,7 @@ public class HighestUriQueuePrecedencePolicy extends BaseQueuePrecedencePolicy {
         @Override
         public int getPrecedence() {
             // base plus highest URI still in queue
-            Integer delta = (enqueuedCounts.size() > 0) ? enqueuedCounts.firstKey() : 0;
+            int delta = enqueuedCounts.isEmpty() ? 0 : enqueuedCounts.firstKey();
             return super.getPrecedence() + delta;
         }
 
@@ -98,7 +99,7 @@ public class HighestUriQueuePrecedencePolicy extends BaseQueuePrecedencePolicy {
             StringBuilder sb = new StringBuilder();
             sb.append(super.shortReportLegend());
             sb.append(":");
-            for(Integer p : enqueuedCounts.keySet()) {
+            for(int p : enqueuedCounts.keys()) {
                 sb.append(" p");
                 sb.append(p);
             }
@@ -108,7 +109,7 @@ public class HighestUriQueuePrecedencePolicy extends BaseQueuePrecedencePolicy {
         @Override
         public void shortReportLineTo(PrintWriter writer) {
             boolean betwixt = false; 
-            for(Long count : enqueuedCounts.values()) {
+            for(long count : enqueuedCounts.counts()) {
                 if(betwixt) writer.print(" ");
                 writer.print(count);
                 betwixt = true;
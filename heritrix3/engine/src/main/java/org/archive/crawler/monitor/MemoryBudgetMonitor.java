@@ -0,0 +1,547 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.monitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.archive.bdb.BdbModule;
+import org.archive.crawler.event.StatSnapshotEvent;
+import org.archive.crawler.framework.CrawlController;
+import org.archive.crawler.framework.Frontier;
+import org.archive.crawler.frontier.WorkQueueFrontier;
+import org.archive.crawler.util.BloomUriUniqFilter;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.ObjectIdentityBdbBoundedCache;
+import org.archive.util.ObjectIdentityBdbManualCache;
+import org.archive.util.ObjectIdentityCache;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * Tracks the heap used by the crawl's major memory consumers -- BDB-JE 
+ * caches, object caches (of servers, hosts, queues), per-thread Recorder
+ * buffers, in-memory snoozed queues, and any BloomFilter -- and keeps the
+ * adjustable ones within a single overall budget.
+ * <p>
+ * Each {@link StatSnapshotEvent} (by default every 20 sec.), the fixed
+ * consumers' current usage is subtracted from the budget, and the 
+ * remainder is divided among the adjustable consumers (JE caches and 
+ * budgeted object caches, see BdbModule.objectCacheBudget) in proportion
+ * to their current allowances. Then, if some adjustable consumers are 
+ * under pressure -- since the last check, at least pressurePercent of 
+ * their lookups were JE cache misses, or object cache evictions -- and 
+ * others aren't, a step of rebalanceStepPercent of the budget is moved 
+ * from the latter to the former. JE caches are resized in place with 
+ * Environment.setMutableConfig().
+ * <p>
+ * Soft-reference object caches are reported but not counted against
+ * the budget, as the garbage collector reclaims them under pressure.
+ * <p>
+ * With a budgetPercent of 0 (the default), usage is only reported. 
+ */
+public class MemoryBudgetMonitor 
+implements ApplicationListener, ApplicationContextAware {
+    private static final Logger logger = 
+        Logger.getLogger(MemoryBudgetMonitor.class.getName());
+
+    /** How a consumer is treated with respect to the budget. */
+    public enum Kind { FIXED, ADJUSTABLE, RECLAIMABLE }
+
+    /** 
+     * One consumer of heap memory, as seen by the monitor. 
+     */
+    public interface Consumer {
+        String getName();
+        Kind getKind();
+        /** @return estimated bytes currently used */
+        long getUsedBytes();
+        /** @return bytes this consumer may use, or -1 if uncapped */
+        long getAllowedBytes();
+    }
+
+    /**
+     * A consumer whose allowance the monitor may change; its kind is
+     * ADJUSTABLE.
+     */
+    public interface AdjustableConsumer extends Consumer {
+        /** change allowance */
+        void setAllowedBytes(long bytes);
+        /** 
+         * @return ever-increasing count of lookups, some of which may 
+         * be pressure events
+         */
+        long getLookupCount();
+        /** 
+         * @return ever-increasing count of events suggesting more memory
+         * would help (such as cache misses or evictions)
+         */
+        long getPressureCount();
+    }
+
+    /**
+     * Percentage of the maximum heap the crawl's memory consumers, in 
+     * total, should use. 0 (the default) means only report usage.
+     */
+    int budgetPercent = 0;
+    public int getBudgetPercent() {
+        return budgetPercent;
+    }
+    public void setBudgetPercent(int budgetPercent) {
+        this.budgetPercent = budgetPercent;
+    }
+
+    /**
+     * Percentage of the budget moved, per check, from adjustable 
+     * consumers not under pressure to those under pressure.
+     */
+    int rebalanceStepPercent = 5;
+    public int getRebalanceStepPercent() {
+        return rebalanceStepPercent;
+    }
+    public void setRebalanceStepPercent(int rebalanceStepPercent) {
+        this.rebalanceStepPercent = rebalanceStepPercent;
+    }
+
+    /**
+     * Percentage of an adjustable consumer's lookups, since the last 
+     * check, which must have been misses or evictions for it to count as 
+     * under pressure.
+     */
+    int pressurePercent = 2;
+    public int getPressurePercent() {
+        return pressurePercent;
+    }
+    public void setPressurePercent(int pressurePercent) {
+        this.pressurePercent = pressurePercent;
+    }
+
+    /** Smallest allowance, in bytes, any adjustable consumer is given. */
+    long minAllowanceBytes = 16 * 1024 * 1024;
+    public long getMinAllowanceBytes() {
+        return minAllowanceBytes;
+    }
+    public void setMinAllowanceBytes(long minAllowanceBytes) {
+        this.minAllowanceBytes = minAllowanceBytes;
+    }
+
+    /** 
+     * Estimated bytes held per object cache entry or in-memory snoozed 
+     * queue, for soft-reference caches and snoozed queues. 
+     */
+    long estimatedEntryBytes = 1024;
+    public long getEstimatedEntryBytes() {
+        return estimatedEntryBytes;
+    }
+    public void setEstimatedEntryBytes(long estimatedEntryBytes) {
+        this.estimatedEntryBytes = estimatedEntryBytes;
+    }
+
+    CrawlController controller;
+    /** Autowire access to CrawlController **/
+    @Autowired
+    public void setCrawlController(CrawlController controller) {
+        this.controller = controller;
+    }
+    public CrawlController getCrawlController() {
+        return this.controller;
+    }
+
+    ApplicationContext appCtx;
+    public void setApplicationContext(ApplicationContext appCtx) 
+    throws BeansException {
+        this.appCtx = appCtx;
+    }
+
+    /** each adjustable consumer's lookup and pressure counts at last check */
+    protected Map<String,long[]> lastCounts = new HashMap<String,long[]>();
+    protected long rebalances = 0; 
+
+    /**
+     * Rebalances on {@link StatSnapshotEvent}s.
+     */
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof StatSnapshotEvent) {
+            rebalance();
+        }
+    }
+
+    /**
+     * @return overall budget in bytes, or 0 if only reporting
+     */
+    public long getBudgetBytes() {
+        return Runtime.getRuntime().maxMemory() / 100 * getBudgetPercent();
+    }
+
+    /**
+     * Fit adjustable consumers' allowances to the budget left after fixed
+     * consumers, shifting a step toward those under pressure. 
+     */
+    public synchronized void rebalance() {
+        long budget = getBudgetBytes();
+        if (budget <= 0) {
+            return;
+        }
+        long fixed = 0;
+        List<AdjustableConsumer> adjustable = new ArrayList<AdjustableConsumer>();
+        for (Consumer c : findConsumers()) {
+            if (c.getKind() == Kind.FIXED) {
+                fixed += Math.max(0, c.getUsedBytes());
+            } else if (c instanceof AdjustableConsumer) {
+                adjustable.add((AdjustableConsumer) c);
+            }
+        }
+        int n = adjustable.size();
+        if (n == 0) {
+            return;
+        }
+        long floor = getMinAllowanceBytes();
+        long available = budget - fixed;
+        if (available < floor * n) {
+            logger.warning("memory budget " + budget + " exceeded by fixed "
+                    + "consumers (" + fixed + " bytes); giving adjustable "
+                    + "consumers their minimum allowance");
+            available = floor * n;
+        }
+
+        // each gets its floor, plus a share of the rest in proportion to
+        // how far its current allowance is above the floor
+        long[] allowed = new long[n];
+        double total = 0; 
+        for (int i = 0; i < n; i++) {
+            allowed[i] = Math.max(1, adjustable.get(i).getAllowedBytes() - floor);
+            total += allowed[i];
+        }
+        double share = (available - floor * n) / total;
+        for (int i = 0; i < n; i++) {
+            allowed[i] = floor + (long) (allowed[i] * share);
+        }
+
+        // shift a step toward consumers newly under pressure
+        boolean[] pressured = new boolean[n];
+        int pressuredCount = 0;
+        for (int i = 0; i < n; i++) {
+            pressured[i] = isPressured(adjustable.get(i));
+            if (pressured[i]) {
+                pressuredCount++;
+            }
+        }
+        if (pressuredCount > 0 && pressuredCount < n) {
+            long give = budget / 100 * getRebalanceStepPercent() 
+                / (n - pressuredCount);
+            long freed = 0;
+            for (int i = 0; i < n; i++) {
+                if (!pressured[i]) {
+                    long amount = Math.max(0, Math.min(give, allowed[i] - floor));
+                    allowed[i] -= amount;
+                    freed += amount;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (pressured[i]) {
+                    allowed[i] += freed / pressuredCount;
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            AdjustableConsumer c = adjustable.get(i);
+            if (allowed[i] != c.getAllowedBytes()) {
+                logger.fine(c.getName() + " allowance " + c.getAllowedBytes() 
+                        + " -> " + allowed[i]);
+                c.setAllowedBytes(allowed[i]);
+            }
+        }
+        rebalances++;
+    }
+
+    /**
+     * @return true if, since the last check, at least pressurePercent of
+     * the consumer's lookups were pressure events (misses or evictions)
+     */
+    protected boolean isPressured(AdjustableConsumer c) {
+        long[] counts = new long[] {c.getLookupCount(), c.getPressureCount()};
+        long[] prior = lastCounts.put(c.getName(), counts);
+        if (prior == null) {
+            return false;
+        }
+        long lookups = counts[0] - prior[0];
+        long pressure = counts[1] - prior[1];
+        return pressure > 0 && pressure * 100 >= lookups * getPressurePercent();
+    }
+
+    /**
+     * @return all consumers currently known: JE caches (one per 
+     * environment, or one for all sharing a cache), object caches, 
+     * recorder buffers, snoozed queues, and BloomFilter
+     */
+    protected List<Consumer> findConsumers() {
+        List<Consumer> consumers = new ArrayList<Consumer>();
+        if (appCtx != null) {
+            boolean sharedCacheFound = false;
+            for (Map.Entry<String,BdbModule> entry 
+                    : appCtx.getBeansOfType(BdbModule.class).entrySet()) {
+                BdbModule bdb = entry.getValue();
+                if (bdb.getCacheMaxBytes() < 0) {
+                    continue; // not open
+                }
+                if (!bdb.getUseSharedCache()) {
+                    consumers.add(new JeCache("bdbCache." + entry.getKey(), bdb));
+                } else if (!sharedCacheFound) {
+                    consumers.add(new JeCache("bdbSharedCache", bdb));
+                    sharedCacheFound = true;
+                }
+                addObjectCaches(consumers, bdb);
+            }
+        }
+        if (controller != null) {
+            consumers.add(new Recorders(controller));
+            Frontier frontier = controller.getFrontier();
+            if (frontier instanceof WorkQueueFrontier) {
+                WorkQueueFrontier wqf = (WorkQueueFrontier) frontier;
+                consumers.add(new SnoozedQueues(wqf));
+                if (wqf.getUriUniqFilter() instanceof BloomUriUniqFilter) {
+                    consumers.add(new Bloom(
+                            (BloomUriUniqFilter) wqf.getUriUniqFilter()));
+                }
+            }
+        }
+        return consumers;
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected void addObjectCaches(List<Consumer> consumers, BdbModule bdb) {
+        for (Map.Entry<String,ObjectIdentityCache> entry 
+                : bdb.getObjectCaches().entrySet()) {
+            ObjectIdentityCache cache = entry.getValue();
+            String name = "objectCache." + entry.getKey();
+            if (cache instanceof ObjectIdentityBdbBoundedCache) {
+                consumers.add(new BoundedCache(name, 
+                        (ObjectIdentityBdbBoundedCache) cache));
+            } else if (cache instanceof ObjectIdentityBdbManualCache) {
+                consumers.add(new SoftCache(name, 
+                        (ObjectIdentityBdbManualCache) cache));
+            }
+        }
+    }
+
+    public synchronized Map<String,Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        long fixed = 0;
+        long adjustable = 0; 
+        Map<String,Object> consumers = new LinkedHashMap<String,Object>();
+        for (Consumer c : findConsumers()) {
+            Map<String,Object> cmap = new LinkedHashMap<String,Object>();
+            cmap.put("kind", c.getKind().toString().toLowerCase());
+            cmap.put("usedBytes", c.getUsedBytes());
+            cmap.put("allowedBytes", c.getAllowedBytes());
+            consumers.put(c.getName(), cmap);
+            if (c.getKind() == Kind.FIXED) {
+                fixed += Math.max(0, c.getUsedBytes());
+            } else if (c.getKind() == Kind.ADJUSTABLE) {
+                adjustable += Math.max(0, c.getAllowedBytes());
+            }
+        }
+        map.put("budgetBytes", getBudgetBytes());
+        map.put("fixedBytes", fixed);
+        map.put("adjustableBytes", adjustable);
+        map.put("rebalances", rebalances);
+        map.put("consumers", consumers);
+        return map;
+    }
+
+    /**
+     * @return one-line summary of budget and each consumer's usage
+     */
+    public String shortReportLine() {
+        StringBuilder sb = new StringBuilder();
+        long budget = getBudgetBytes();
+        sb.append(budget > 0 
+                ? ArchiveUtils.formatBytesForDisplay(budget) + " budget"
+                : "no budget");
+        for (Consumer c : findConsumers()) {
+            sb.append("; ").append(c.getName()).append(' ')
+              .append(ArchiveUtils.formatBytesForDisplay(
+                      Math.max(0, c.getUsedBytes())));
+            if (c.getAllowedBytes() >= 0) {
+                sb.append('/').append(
+                        ArchiveUtils.formatBytesForDisplay(c.getAllowedBytes()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** A BDB-JE environment's cache (or a cache shared by several). */
+    protected static class JeCache implements AdjustableConsumer {
+        String name;
+        BdbModule bdb;
+        JeCache(String name, BdbModule bdb) {
+            this.name = name;
+            this.bdb = bdb;
+        }
+        public String getName() {
+            return name;
+        }
+        public Kind getKind() {
+            return Kind.ADJUSTABLE;
+        }
+        public long getUsedBytes() {
+            return bdb.getCacheUsedBytes();
+        }
+        public long getAllowedBytes() {
+            return bdb.getCacheMaxBytes();
+        }
+        public void setAllowedBytes(long bytes) {
+            bdb.setCacheMaxBytes(bytes);
+        }
+        public long getLookupCount() {
+            return bdb.getCacheFetchCount();
+        }
+        public long getPressureCount() {
+            return bdb.getCacheMissCount();
+        }
+    }
+
+    /** An object cache holding instances up to a memory budget. */
+    @SuppressWarnings("rawtypes")
+    protected static class BoundedCache implements AdjustableConsumer {
+        String name;
+        ObjectIdentityBdbBoundedCache cache;
+        BoundedCache(String name, ObjectIdentityBdbBoundedCache cache) {
+            this.name = name;
+            this.cache = cache;
+        }
+        public String getName() {
+            return name;
+        }
+        public Kind getKind() {
+            return Kind.ADJUSTABLE;
+        }
+        public long getUsedBytes() {
+            return cache.getWeight();
+        }
+        public long getAllowedBytes() {
+            return cache.getBudget();
+        }
+        public void setAllowedBytes(long bytes) {
+            cache.setBudget(bytes);
+        }
+        public long getLookupCount() {
+            return cache.getLookupCount();
+        }
+        public long getPressureCount() {
+            return cache.getEvictionCount();
+        }
+    }
+
+    /** An object cache holding instances by soft reference. */
+    @SuppressWarnings("rawtypes")
+    protected class SoftCache implements Consumer {
+        String name;
+        ObjectIdentityBdbManualCache cache;
+        SoftCache(String name, ObjectIdentityBdbManualCache cache) {
+            this.name = name;
+            this.cache = cache;
+        }
+        public String getName() {
+            return name;
+        }
+        public Kind getKind() {
+            return Kind.RECLAIMABLE;
+        }
+        public long getUsedBytes() {
+            return cache.getResidentCount() * getEstimatedEntryBytes();
+        }
+        public long getAllowedBytes() {
+            return -1;
+        }
+    }
+
+    /** Every ToeThread's Recorder in/out buffers. */
+    protected static class Recorders implements Consumer {
+        CrawlController controller;
+        Recorders(CrawlController controller) {
+            this.controller = controller;
+        }
+        public String getName() {
+            return "recorders";
+        }
+        public Kind getKind() {
+            return Kind.FIXED;
+        }
+        public long getUsedBytes() {
+            return (long) controller.getToeCount() 
+                * (controller.getRecorderInBufferBytes() 
+                        + controller.getRecorderOutBufferBytes());
+        }
+        public long getAllowedBytes() {
+            return (long) controller.getMaxToeThreads()
+                * (controller.getRecorderInBufferBytes() 
+                        + controller.getRecorderOutBufferBytes());
+        }
+    }
+
+    /** Snoozed queues held in memory rather than in overflow. */
+    protected class SnoozedQueues implements Consumer {
+        WorkQueueFrontier frontier;
+        SnoozedQueues(WorkQueueFrontier frontier) {
+            this.frontier = frontier;
+        }
+        public String getName() {
+            return "snoozedQueues";
+        }
+        public Kind getKind() {
+            return Kind.FIXED;
+        }
+        public long getUsedBytes() {
+            return frontier.getSnoozedInMemoryCount() * getEstimatedEntryBytes();
+        }
+        public long getAllowedBytes() {
+            return frontier.getMaxSnoozedInMemory() * getEstimatedEntryBytes();
+        }
+    }
+
+    /** A BloomFilter serving as the already-seen filter. */
+    protected static class Bloom implements Consumer {
+        BloomUriUniqFilter filter;
+        Bloom(BloomUriUniqFilter filter) {
+            this.filter = filter;
+        }
+        public String getName() {
+            return "bloomFilter";
+        }
+        public Kind getKind() {
+            return Kind.FIXED;
+        }
+        public long getUsedBytes() {
+            return filter.getBloomFilter().getSizeBytes();
+        }
+        public long getAllowedBytes() {
+            return getUsedBytes();
+        }
+    }
+}
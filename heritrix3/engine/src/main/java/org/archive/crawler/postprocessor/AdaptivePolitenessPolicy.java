@@ -0,0 +1,172 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.postprocessor;
+
+import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_FAILED;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_LOST;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_TIMEOUT;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.net.CrawlServer;
+import org.archive.modules.net.ServerResponseStats;
+import org.archive.spring.HasKeyedProperties;
+import org.archive.spring.KeyedProperties;
+
+/**
+ * PolitenessPolicy which adapts to each server's recent health, as 
+ * tracked by exponentially-weighted moving averages of fetch duration and
+ * error rate kept in the CrawlServer's ServerResponseStats. 
+ * <p/>
+ * While a server is healthy -- few recent errors, and the latest fetch 
+ * not markedly slower than average -- the delay is the (smaller) 
+ * healthyDelayFactor times the average duration, and may go as low as 
+ * healthyMinDelayMs. Once latency rises or errors (connection failures, 
+ * timeouts, 5XX and 429 responses) appear, the usual delayFactor applies 
+ * to the larger of the latest and average duration, further multiplied 
+ * in proportion to the recent error rate, so that the crawler backs off 
+ * quickly. The DispositionProcessor's maxDelayMs always caps the delay.
+ */
+public class AdaptivePolitenessPolicy extends PolitenessPolicy 
+implements HasKeyedProperties {
+    private static final long serialVersionUID = 1L;
+
+    protected KeyedProperties kp = new KeyedProperties();
+    public KeyedProperties getKeyedProperties() {
+        return kp;
+    }
+    
+    /** weight (0.0-1.0) of each newest fetch in the moving averages */
+    {
+        setSmoothingFactor(0.2f);
+    }
+    public float getSmoothingFactor() {
+        return (Float) kp.get("smoothingFactor");
+    }
+    public void setSmoothingFactor(float alpha) {
+        kp.put("smoothingFactor",alpha);
+    }
+    
+    /** multiple of average fetch duration to wait on healthy servers */
+    {
+        setHealthyDelayFactor(2.0f);
+    }
+    public float getHealthyDelayFactor() {
+        return (Float) kp.get("healthyDelayFactor");
+    }
+    public void setHealthyDelayFactor(float factor) {
+        kp.put("healthyDelayFactor",factor);
+    }
+    
+    /** minimum delay on healthy servers; may be below usual minDelayMs */
+    {
+        setHealthyMinDelayMs(500);
+    }
+    public int getHealthyMinDelayMs() {
+        return (Integer) kp.get("healthyMinDelayMs");
+    }
+    public void setHealthyMinDelayMs(int minDelay) {
+        kp.put("healthyMinDelayMs",minDelay);
+    }
+    
+    /** highest recent error rate (0.0-1.0) still considered healthy */
+    {
+        setHealthyMaxErrorRate(0.02f);
+    }
+    public float getHealthyMaxErrorRate() {
+        return (Float) kp.get("healthyMaxErrorRate");
+    }
+    public void setHealthyMaxErrorRate(float rate) {
+        kp.put("healthyMaxErrorRate",rate);
+    }
+    
+    /** ratio of latest to average fetch duration beyond which a server is
+     * considered to be slowing down, and so no longer healthy */
+    {
+        setLatencyRiseThreshold(1.5f);
+    }
+    public float getLatencyRiseThreshold() {
+        return (Float) kp.get("latencyRiseThreshold");
+    }
+    public void setLatencyRiseThreshold(float threshold) {
+        kp.put("latencyRiseThreshold",threshold);
+    }
+    
+    /** unhealthy delay is multiplied by (1 + errorRate*errorBackoffFactor);
+     * so with the default 20, a server failing half the time sees delays 
+     * 11 times longer */
+    {
+        setErrorBackoffFactor(20.0f);
+    }
+    public float getErrorBackoffFactor() {
+        return (Float) kp.get("errorBackoffFactor");
+    }
+    public void setErrorBackoffFactor(float factor) {
+        kp.put("errorBackoffFactor",factor);
+    }
+
+    @Override
+    public long politenessDelayFor(DispositionProcessor disposition,
+            CrawlURI curi) {
+        long durationTaken = 
+            curi.getFetchCompletedTime() - curi.getFetchBeginTime();
+        long minDelay = disposition.getMinDelayMs();
+        long maxDelay = disposition.getMaxDelayMs();
+        
+        CrawlServer server = 
+            disposition.getServerCache().getServerFor(curi.getUURI());
+        if (server == null) {
+            // no per-server history possible; behave traditionally
+            return clamp((long)(disposition.getDelayFactor() * durationTaken),
+                    minDelay, maxDelay);
+        }
+        
+        // (server is marked dirty when its fetch stats are tallied)
+        ServerResponseStats stats = server.getResponseStats();
+        stats.update(durationTaken, isServerError(curi), 
+                curi.getContentSize(), getSmoothingFactor());
+        double avgDuration = stats.getAvgDurationMs();
+        double errorRate = stats.getErrorRate();
+        
+        double delay;
+        if (errorRate <= getHealthyMaxErrorRate() 
+                && durationTaken <= avgDuration * getLatencyRiseThreshold()) {
+            // healthy and steady: allow more throughput
+            delay = getHealthyDelayFactor() * avgDuration;
+            minDelay = Math.min(minDelay, getHealthyMinDelayMs());
+        } else {
+            // slowing or erroring: back off
+            delay = disposition.getDelayFactor() 
+                * Math.max(avgDuration, durationTaken);
+            delay *= 1 + errorRate * getErrorBackoffFactor();
+        }
+        return clamp((long)delay, minDelay, maxDelay);
+    }
+
+    /**
+     * Whether the given CrawlURI's outcome suggests server distress. 
+     */
+    protected boolean isServerError(CrawlURI curi) {
+        int status = curi.getFetchStatus();
+        return status == S_CONNECT_FAILED 
+            || status == S_CONNECT_LOST
+            || status == S_TIMEOUT
+            || status == 429 
+            || status >= 500;
+    }
+}
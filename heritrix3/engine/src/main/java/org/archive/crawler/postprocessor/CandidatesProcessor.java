@@ -117,6 +117,19 @@ public class CandidatesProcessor extends Processor {
         this.sheetOverlaysManager = sheetOverlaysManager;
     }
     
+    /**
+     * Optional detector of crawl traps, which notes each page's outlinks 
+     * before its candidates are processed. Candidates are judged by a
+     * CandidateTrapChecker in the CandidateChain sharing this detector.
+     */
+    protected CrawlTrapDetector trapDetector;
+    public CrawlTrapDetector getTrapDetector() {
+        return trapDetector;
+    }
+    public void setTrapDetector(CrawlTrapDetector trapDetector) {
+        this.trapDetector = trapDetector;
+    }
+    
     /**
      * Usual no-argument constructor
      */
@@ -163,6 +176,10 @@ public class CandidatesProcessor extends Processor {
             return;
         }
 
+        CrawlTrapDetector detector = getTrapDetector();
+        if (detector != null) {
+            detector.notePage(curi);
+        }
         for (Link wref: curi.getOutLinks()) {
             CrawlURI candidate;
             try {
@@ -210,6 +227,14 @@ public class CandidatesProcessor extends Processor {
         curi.getOutLinks().clear();
     }
     
+    @Override
+    public String report() {
+        if (getTrapDetector() == null) {
+            return super.report();
+        }
+        return super.report() + getTrapDetector().report();
+    }
+    
     /**
      * Check if the URI needs special 'discovered seed' treatment.
      * 
@@ -0,0 +1,710 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.postprocessor;
+
+import static org.archive.modules.SchedulingConstants.NORMAL;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.Link;
+import org.archive.util.Reporter;
+
+/**
+ * Notices likely crawl traps -- calendars, session-id URIs, endlessly
+ * self-similar pages -- by keeping compact per-host structures in bounded
+ * memory, and judges each candidate outlink against them:
+ * 
+ * <ul>
+ * <li>path templates (the path with digit runs and long IDs generalized,
+ * plus the sorted query parameter names), each with a sketch estimating
+ * how many distinct URIs of that template have been discovered</li>
+ * <li>for each query parameter name, a sketch estimating how many 
+ * distinct values it has been seen with</li>
+ * <li>for each page template, a SimHash of the last such page's outlink
+ * templates, and a count of how often successive pages of that template
+ * had near-identical link sets</li>
+ * </ul>
+ * 
+ * Candidates whose template or parameters exceed the configured 
+ * cardinalities are deprioritized -- demoted to NORMAL scheduling and 
+ * charged deprioritizedCost against their queue's budget, which a 
+ * CostUriPrecedencePolicy also turns into a worse precedence within the 
+ * queue; past rejectMultiple times those 
+ * cardinalities, rejected outright. Links between pages of a template 
+ * found to be self-similar are judged against the (lower) 
+ * selfSimilarTemplateThreshold. Hosts and their templates are tracked 
+ * LRU, up to maxHosts and maxTemplatesPerHost; each template costs on 
+ * the order of 200 bytes.
+ * <p>
+ * Configure as a top-level bean, set it as the trapDetector of the
+ * CandidatesProcessor, and add a CandidateTrapChecker using it to the 
+ * CandidateChain ahead of the FrontierPreparer. (The deprecated 
+ * LinksScoper, whose candidates are prepared only when scheduled, needs
+ * only its trapDetector set.)
+ */
+public class CrawlTrapDetector implements Reporter {
+    
+    /** Judgement of a candidate URI. */
+    public enum Verdict { NONE, DEPRIORITIZE, REJECT }
+    
+    /** annotation added to deprioritized candidates */
+    public static final String TRAP_ANNOTATION = "trap";
+    
+    /** most hosts to track at once; least-recently-used are forgotten */
+    protected int maxHosts = 2000;
+    public int getMaxHosts() {
+        return maxHosts;
+    }
+    public void setMaxHosts(int maxHosts) {
+        this.maxHosts = maxHosts;
+    }
+
+    /** most templates to track per host */
+    protected int maxTemplatesPerHost = 64;
+    public int getMaxTemplatesPerHost() {
+        return maxTemplatesPerHost;
+    }
+    public void setMaxTemplatesPerHost(int maxTemplatesPerHost) {
+        this.maxTemplatesPerHost = maxTemplatesPerHost;
+    }
+
+    /** most query parameter names to track per host */
+    protected int maxParamsPerHost = 32;
+    public int getMaxParamsPerHost() {
+        return maxParamsPerHost;
+    }
+    public void setMaxParamsPerHost(int maxParamsPerHost) {
+        this.maxParamsPerHost = maxParamsPerHost;
+    }
+
+    /** 
+     * distinct URIs of one path template beyond which further ones are 
+     * deprioritized; 0 to ignore template cardinality 
+     */
+    protected long templateThreshold = 5000;
+    public long getTemplateThreshold() {
+        return templateThreshold;
+    }
+    public void setTemplateThreshold(long templateThreshold) {
+        this.templateThreshold = templateThreshold;
+    }
+
+    /** 
+     * distinct URIs of a self-similar template beyond which links among
+     * its pages are deprioritized; 0 to ignore self-similarity
+     */
+    protected long selfSimilarTemplateThreshold = 500;
+    public long getSelfSimilarTemplateThreshold() {
+        return selfSimilarTemplateThreshold;
+    }
+    public void setSelfSimilarTemplateThreshold(long threshold) {
+        this.selfSimilarTemplateThreshold = threshold;
+    }
+
+    /** 
+     * distinct values of one query parameter beyond which URIs carrying 
+     * it are deprioritized; 0 to ignore parameter cardinality 
+     */
+    protected long paramCardinalityThreshold = 5000;
+    public long getParamCardinalityThreshold() {
+        return paramCardinalityThreshold;
+    }
+    public void setParamCardinalityThreshold(long threshold) {
+        this.paramCardinalityThreshold = threshold;
+    }
+    
+    /** 
+     * multiple of a threshold beyond which candidates are rejected rather 
+     * than deprioritized; 0 never to reject
+     */
+    protected int rejectMultiple = 4;
+    public int getRejectMultiple() {
+        return rejectMultiple;
+    }
+    public void setRejectMultiple(int rejectMultiple) {
+        this.rejectMultiple = rejectMultiple;
+    }
+
+    /** 
+     * queue-budget cost to charge deprioritized candidates, in place of
+     * the frontier's cost assignment; should not exceed 255
+     */
+    protected int deprioritizedCost = 10;
+    public int getDeprioritizedCost() {
+        return deprioritizedCost;
+    }
+    public void setDeprioritizedCost(int deprioritizedCost) {
+        this.deprioritizedCost = deprioritizedCost;
+    }
+
+    /** most differing bits for two link-set SimHashes to be near-identical */
+    protected int nearDuplicateBits = 3;
+    public int getNearDuplicateBits() {
+        return nearDuplicateBits;
+    }
+    public void setNearDuplicateBits(int nearDuplicateBits) {
+        this.nearDuplicateBits = nearDuplicateBits;
+    }
+
+    /** 
+     * run of near-identical link sets after which a template is considered
+     * self-similar 
+     */
+    protected int nearDuplicateRun = 20;
+    public int getNearDuplicateRun() {
+        return nearDuplicateRun;
+    }
+    public void setNearDuplicateRun(int nearDuplicateRun) {
+        this.nearDuplicateRun = nearDuplicateRun;
+    }
+    
+    /** fewest outlinks for a page's link set to be compared */
+    protected static final int MIN_LINKS_FOR_SIMHASH = 5;
+    /** longest template kept; longer are truncated */
+    protected static final int MAX_TEMPLATE_LENGTH = 200;
+    /** most hosts shown in the full report */
+    protected static final int REPORT_HOSTS = 20;
+    
+    protected AtomicLong deprioritized = new AtomicLong();
+    protected AtomicLong rejected = new AtomicLong();
+    
+    @SuppressWarnings("serial")
+    protected Map<String,HostState> hosts = 
+        new LinkedHashMap<String,HostState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String,HostState> eldest) {
+                return size() > getMaxHosts();
+            }
+        };
+    
+    /**
+     * Note the outlinks of a fetched page, before its candidates are
+     * assessed, updating its template's self-similarity.
+     * 
+     * @param source fetched CrawlURI, with outlinks
+     */
+    public void notePage(CrawlURI source) {
+        String host = hostOf(source.getURI());
+        if (host == null || source.getOutLinks().size() < MIN_LINKS_FOR_SIMHASH) {
+            return;
+        }
+        Set<String> templates = new HashSet<String>();
+        for (Link link : source.getOutLinks()) {
+            templates.add(templateOf(link.getDestination().toString()));
+        }
+        long simHash = simHash(templates);
+        HostState state = hostState(host);
+        synchronized (state) {
+            state.pages++;
+            TemplateState template = state.template(
+                    templateOf(source.getURI()), getMaxTemplatesPerHost());
+            template.noteLinkSet(simHash, getNearDuplicateBits());
+        }
+    }
+    
+    /**
+     * Tally a candidate outlink and judge whether it looks like part of a
+     * trap.
+     * 
+     * @param source CrawlURI the candidate was discovered on
+     * @param candidate candidate CrawlURI
+     * @return Verdict
+     */
+    public Verdict assess(CrawlURI source, CrawlURI candidate) {
+        String path = candidate.getPathFromSeed();
+        if (candidate.isSeed() 
+                || (path != null && path.endsWith(Hop.REFER.getHopString()))) {
+            return Verdict.NONE;
+        }
+        String uri = candidate.getURI();
+        String host = hostOf(uri);
+        if (host == null) {
+            return Verdict.NONE;
+        }
+        String template = templateOf(uri);
+        HostState state = hostState(host);
+        Verdict verdict;
+        synchronized (state) {
+            TemplateState ts = state.template(template, getMaxTemplatesPerHost());
+            ts.uris.add(hash(stripFragment(uri)));
+            long estimate = ts.uris.estimate();
+            verdict = judge(estimate, getTemplateThreshold());
+            if (ts.nearDuplicateRun >= getNearDuplicateRun()
+                    && host.equals(hostOf(source.getURI()))
+                    && template.equals(templateOf(source.getURI()))) {
+                verdict = max(verdict, 
+                        judge(estimate, getSelfSimilarTemplateThreshold()));
+            }
+            for (String[] param : paramsOf(uri)) {
+                Sketch values = state.param(param[0], getMaxParamsPerHost());
+                values.add(hash(param[1]));
+                verdict = max(verdict, 
+                        judge(values.estimate(), getParamCardinalityThreshold()));
+            }
+            if (verdict == Verdict.DEPRIORITIZE) {
+                state.deprioritized++;
+            } else if (verdict == Verdict.REJECT) {
+                state.rejected++;
+            }
+        }
+        if (verdict == Verdict.DEPRIORITIZE) {
+            deprioritized.incrementAndGet();
+        } else if (verdict == Verdict.REJECT) {
+            rejected.incrementAndGet();
+        }
+        return verdict;
+    }
+    
+    /**
+     * Assess the candidate and act on the verdict: deprioritized 
+     * candidates get NORMAL scheduling, a holderCost of at least 
+     * deprioritizedCost, and a 'trap' annotation. Apply before the 
+     * candidate is prepared: the FrontierPreparer then keeps that cost
+     * rather than recalculating it, and derives precedence from it.
+     * 
+     * @param source CrawlURI the candidate was discovered on
+     * @param candidate candidate CrawlURI
+     * @return false if the candidate should be dropped
+     */
+    public boolean apply(CrawlURI source, CrawlURI candidate) {
+        switch (assess(source, candidate)) {
+        case REJECT:
+            return false;
+        case DEPRIORITIZE:
+            candidate.setSchedulingDirective(NORMAL);
+            candidate.setHolderCost(Math.max(
+                    candidate.getHolderCost(), getDeprioritizedCost()));
+            candidate.getAnnotations().add(TRAP_ANNOTATION);
+            return true;
+        default:
+            return true;
+        }
+    }
+    
+    protected Verdict judge(long estimate, long threshold) {
+        if (threshold <= 0 || estimate <= threshold) {
+            return Verdict.NONE;
+        }
+        if (getRejectMultiple() > 0 
+                && estimate > threshold * getRejectMultiple()) {
+            return Verdict.REJECT;
+        }
+        return Verdict.DEPRIORITIZE;
+    }
+    
+    protected static Verdict max(Verdict a, Verdict b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+    
+    protected HostState hostState(String host) {
+        synchronized (hosts) {
+            HostState state = hosts.get(host);
+            if (state == null) {
+                state = new HostState(host);
+                hosts.put(host, state);
+            }
+            return state;
+        }
+    }
+    
+    /**
+     * @return host (lowercased, without userinfo or port) of an absolute 
+     * URI, or null
+     */
+    protected static String hostOf(String uri) {
+        int start = uri.indexOf("://");
+        if (start < 0) {
+            return null;
+        }
+        start += 3;
+        int end = start;
+        while (end < uri.length()) {
+            char c = uri.charAt(end);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            end++;
+        }
+        int at = uri.lastIndexOf('@', end - 1);
+        if (at >= start) {
+            start = at + 1;
+        }
+        int colon = uri.indexOf(':', start);
+        if (colon >= 0 && colon < end) {
+            end = colon;
+        }
+        return end > start ? uri.substring(start, end).toLowerCase() : null;
+    }
+    
+    protected static String stripFragment(String uri) {
+        int hash = uri.indexOf('#');
+        return hash < 0 ? uri : uri.substring(0, hash);
+    }
+    
+    /**
+     * Generalize a URI (or relative reference) to its path template: 
+     * the path, with runs of digits as '#' and long segments containing
+     * digits (IDs, hashes, session tokens) as '*', followed by the sorted
+     * names of any query parameters.
+     * 
+     * @param uri URI or relative reference
+     * @return template
+     */
+    protected static String templateOf(String uri) {
+        uri = stripFragment(uri);
+        int start = uri.indexOf("://");
+        if (start >= 0) {
+            start = uri.indexOf('/', start + 3);
+            if (start < 0) {
+                int query = uri.indexOf('?');
+                if (query < 0) {
+                    return "/";
+                }
+                start = query;
+            }
+        } else {
+            start = 0;
+        }
+        int query = uri.indexOf('?', start);
+        String path = uri.substring(start, query < 0 ? uri.length() : query);
+        StringBuilder template = new StringBuilder();
+        for (String segment : path.split("/", -1)) {
+            if (template.length() > 0 || path.startsWith("/")) {
+                template.append('/');
+            }
+            if (segment.length() == 0) {
+                continue;
+            }
+            if (segment.length() >= 16 && containsDigit(segment)) {
+                template.append('*');
+                continue;
+            }
+            boolean inDigits = false;
+            for (int i = 0; i < segment.length(); i++) {
+                char c = segment.charAt(i);
+                if (Character.isDigit(c)) {
+                    if (!inDigits) {
+                        template.append('#');
+                    }
+                    inDigits = true;
+                } else {
+                    template.append(c);
+                    inDigits = false;
+                }
+            }
+        }
+        if (path.startsWith("/") && template.length() > 1) {
+            // split() yields a leading empty segment
+            template.deleteCharAt(0);
+        }
+        if (query >= 0) {
+            List<String> names = new ArrayList<String>();
+            for (String[] param : paramsOf(uri)) {
+                names.add(param[0]);
+            }
+            Collections.sort(names);
+            template.append('?');
+            for (int i = 0; i < names.size(); i++) {
+                if (i > 0) {
+                    template.append('&');
+                }
+                template.append(names.get(i));
+            }
+        }
+        if (template.length() > MAX_TEMPLATE_LENGTH) {
+            template.setLength(MAX_TEMPLATE_LENGTH);
+        }
+        return template.toString();
+    }
+    
+    protected static boolean containsDigit(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isDigit(s.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return name/value pairs of the URI's query, if any
+     */
+    protected static List<String[]> paramsOf(String uri) {
+        uri = stripFragment(uri);
+        int query = uri.indexOf('?');
+        if (query < 0 || query == uri.length() - 1) {
+            return Collections.emptyList();
+        }
+        List<String[]> params = new ArrayList<String[]>();
+        for (String pair : uri.substring(query + 1).split("[&;]")) {
+            if (pair.length() == 0) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            params.add(equals < 0 
+                    ? new String[] {pair, ""}
+                    : new String[] {pair.substring(0, equals), 
+                            pair.substring(equals + 1)});
+        }
+        return params;
+    }
+    
+    /**
+     * 64-bit FNV-1a hash of the string's chars, with a final avalanche 
+     * so that all bits are usable by the sketches.
+     */
+    protected static long hash(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    /**
+     * @return SimHash of the given strings: similar sets give hashes
+     * differing in few bits
+     */
+    protected static long simHash(Set<String> features) {
+        int[] weights = new int[64];
+        for (String feature : features) {
+            long h = hash(feature);
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((h >>> bit) & 1) != 0 ? 1 : -1;
+            }
+        }
+        long simHash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                simHash |= 1L << bit;
+            }
+        }
+        return simHash;
+    }
+    
+    /**
+     * Tiny HyperLogLog cardinality estimator: 64 registers, so about 13% 
+     * standard error in 64 bytes.
+     */
+    protected static class Sketch {
+        protected byte[] registers = new byte[64];
+        
+        public void add(long hash) {
+            int index = (int) (hash & 63);
+            long rest = hash >>> 6;
+            byte rank = (byte) (Long.numberOfLeadingZeros(rest) - 5);
+            if (rank > registers[index]) {
+                registers[index] = rank;
+            }
+        }
+        
+        public long estimate() {
+            double sum = 0;
+            int zeros = 0;
+            for (byte r : registers) {
+                sum += 1.0 / (1L << r);
+                if (r == 0) {
+                    zeros++;
+                }
+            }
+            double m = registers.length;
+            double estimate = 0.709 * m * m / sum;
+            if (estimate <= 2.5 * m && zeros > 0) {
+                // small-range correction: linear counting
+                estimate = m * Math.log(m / zeros);
+            }
+            return Math.round(estimate);
+        }
+    }
+    
+    /**
+     * A host's URIs of one path template.
+     */
+    protected static class TemplateState {
+        protected Sketch uris = new Sketch();
+        protected long lastLinkSimHash;
+        protected boolean hasLinkSimHash = false;
+        /** near-identical link sets in a row (decaying on misses) */
+        protected int nearDuplicateRun = 0;
+        
+        protected void noteLinkSet(long simHash, int maxBits) {
+            if (hasLinkSimHash) {
+                if (Long.bitCount(simHash ^ lastLinkSimHash) <= maxBits) {
+                    nearDuplicateRun++;
+                } else {
+                    nearDuplicateRun /= 2;
+                }
+            }
+            lastLinkSimHash = simHash;
+            hasLinkSimHash = true;
+        }
+    }
+    
+    /**
+     * All that is tracked for one host. 
+     */
+    protected static class HostState {
+        protected String host;
+        protected long pages = 0;
+        protected long deprioritized = 0;
+        protected long rejected = 0;
+        protected LinkedHashMap<String,TemplateState> templates = 
+            new LinkedHashMap<String,TemplateState>(16, 0.75f, true);
+        protected LinkedHashMap<String,Sketch> params = 
+            new LinkedHashMap<String,Sketch>(16, 0.75f, true);
+        
+        protected HostState(String host) {
+            this.host = host;
+        }
+        
+        protected TemplateState template(String template, int max) {
+            TemplateState state = templates.get(template);
+            if (state == null) {
+                state = new TemplateState();
+                templates.put(template, state);
+                evict(templates, max);
+            }
+            return state;
+        }
+        
+        protected Sketch param(String name, int max) {
+            Sketch sketch = params.get(name);
+            if (sketch == null) {
+                sketch = new Sketch();
+                params.put(name, sketch);
+                evict(params, max);
+            }
+            return sketch;
+        }
+        
+        protected static void evict(LinkedHashMap<String,?> map, int max) {
+            while (map.size() > max) {
+                map.remove(map.keySet().iterator().next());
+            }
+        }
+        
+        protected synchronized long flaggedCount() {
+            return deprioritized + rejected;
+        }
+    }
+    
+    //
+    // Reporter
+    //
+    public void reportTo(PrintWriter writer) {
+        writer.print("Crawl trap detector: ");
+        shortReportLineTo(writer);
+        writer.println();
+        HostState[] states;
+        synchronized (hosts) {
+            states = hosts.values().toArray(new HostState[hosts.size()]);
+        }
+        Arrays.sort(states, new Comparator<HostState>() {
+            public int compare(HostState a, HostState b) {
+                long diff = b.flaggedCount() - a.flaggedCount();
+                return diff > 0 ? 1 : diff < 0 ? -1 : 0;
+            }
+        });
+        for (int i = 0; i < states.length && i < REPORT_HOSTS; i++) {
+            HostState state = states[i];
+            synchronized (state) {
+                if (state.deprioritized + state.rejected == 0) {
+                    break;
+                }
+                writer.println(" " + state.host + ": " + state.pages 
+                        + " pages, " + state.deprioritized + " deprioritized, " 
+                        + state.rejected + " rejected");
+                for (Map.Entry<String,TemplateState> e 
+                        : state.templates.entrySet()) {
+                    TemplateState ts = e.getValue();
+                    long estimate = ts.uris.estimate();
+                    if (judge(estimate, getTemplateThreshold()) != Verdict.NONE
+                            || (ts.nearDuplicateRun >= getNearDuplicateRun() 
+                                && judge(estimate, 
+                                   getSelfSimilarTemplateThreshold()) 
+                                   != Verdict.NONE)) {
+                        writer.println("  template " + e.getKey() + " ~" 
+                                + estimate + " URIs" 
+                                + (ts.nearDuplicateRun >= getNearDuplicateRun() 
+                                        ? ", self-similar" : ""));
+                    }
+                }
+                for (Map.Entry<String,Sketch> e : state.params.entrySet()) {
+                    long estimate = e.getValue().estimate();
+                    if (judge(estimate, getParamCardinalityThreshold()) 
+                            != Verdict.NONE) {
+                        writer.println("  param " + e.getKey() + " ~" 
+                                + estimate + " values");
+                    }
+                }
+            }
+        }
+    }
+    
+    public String report() {
+        StringWriter sw = new StringWriter();
+        reportTo(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    public void shortReportLineTo(PrintWriter pw) {
+        Map<String,Object> map = shortReportMap();
+        pw.print(map.get("hosts"));
+        pw.print(" hosts ");
+        pw.print(map.get("deprioritized"));
+        pw.print(" deprioritized ");
+        pw.print(map.get("rejected"));
+        pw.print(" rejected");
+    }
+
+    public Map<String, Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String, Object>();
+        synchronized (hosts) {
+            map.put("hosts", hosts.size());
+        }
+        map.put("deprioritized", deprioritized.get());
+        map.put("rejected", rejected.get());
+        return map;
+    }
+
+    public String shortReportLegend() {
+        return "hosts deprioritized rejected";
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.postprocessor;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * PolitenessPolicy which waits a fixed multiple (the DispositionProcessor's
+ * delayFactor) of the last fetch's duration, bounded by the 
+ * DispositionProcessor's minDelayMs and maxDelayMs. The traditional 
+ * (and default) behavior. 
+ */
+public class DelayFactorPolitenessPolicy extends PolitenessPolicy {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public long politenessDelayFor(DispositionProcessor disposition,
+            CrawlURI curi) {
+        long durationTaken = 
+            curi.getFetchCompletedTime() - curi.getFetchBeginTime();
+        long durationToWait = 
+            (long)(disposition.getDelayFactor() * durationTaken);
+        return clamp(durationToWait, 
+                disposition.getMinDelayMs(), disposition.getMaxDelayMs());
+    }
+}
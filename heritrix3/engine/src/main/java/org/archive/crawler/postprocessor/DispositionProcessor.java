@@ -120,6 +120,23 @@ public class DispositionProcessor extends Processor {
         kp.put("maxDelayMs",maxDelay);
     }    
 
+    /**
+     * Policy choosing the base politeness delay (before any robots.txt
+     * crawl-delay or bandwidth-limit extension) after each fetch. The 
+     * default waits delayFactor times the last fetch's duration, within 
+     * minDelayMs and maxDelayMs; an AdaptivePolitenessPolicy instead 
+     * speeds up or backs off based on each server's recent health.
+     */
+    {
+        setPolitenessPolicy(new DelayFactorPolitenessPolicy());
+    }
+    public PolitenessPolicy getPolitenessPolicy() {
+        return (PolitenessPolicy) kp.get("politenessPolicy");
+    }
+    public void setPolitenessPolicy(PolitenessPolicy policy) {
+        kp.put("politenessPolicy",policy);
+    }
+
     /** maximum per-host bandwidth usage */
     {
         setMaxPerHostBandwidthUsageKbSec(0);
@@ -234,21 +251,7 @@ public class DispositionProcessor extends Processor {
         if (cdata.containsKey(A_FETCH_BEGAN_TIME)
                 && cdata.containsKey(A_FETCH_COMPLETED_TIME)) {
 
-            long completeTime = curi.getFetchCompletedTime();
-            long durationTaken = (completeTime - curi.getFetchBeginTime());
-            durationToWait = (long)(getDelayFactor() * durationTaken);
-
-            long minDelay = getMinDelayMs();
-            if (minDelay > durationToWait) {
-                // wait at least the minimum
-                durationToWait = minDelay;
-            }
-
-            long maxDelay = getMaxDelayMs();
-            if (durationToWait > maxDelay) {
-                // wait no more than the maximum
-                durationToWait = maxDelay;
-            }
+            durationToWait = getPolitenessPolicy().politenessDelayFor(this, curi);
             
             long respectThreshold = getRespectCrawlDelayUpToSeconds() * 1000;
             if (durationToWait<respectThreshold) {
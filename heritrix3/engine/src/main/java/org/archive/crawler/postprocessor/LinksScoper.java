@@ -108,6 +108,19 @@ public class LinksScoper extends Scoper {
         kp.put("preferenceDepthHops",depth);
     }
     
+    /**
+     * Optional detector of crawl traps, consulted for each in-scope 
+     * outlink: those it judges likely trap URIs are deprioritized or 
+     * dropped.
+     */
+    protected CrawlTrapDetector trapDetector;
+    public CrawlTrapDetector getTrapDetector() {
+        return trapDetector;
+    }
+    public void setTrapDetector(CrawlTrapDetector trapDetector) {
+        this.trapDetector = trapDetector;
+    }
+    
     /**
      * @param name Name of this filter.
      */
@@ -149,6 +162,10 @@ public class LinksScoper extends Scoper {
         CrawlURI curi = (CrawlURI)puri;
         final boolean redirectsNewSeeds = getSeedsRedirectNewSeeds(); 
         int preferenceDepthHops = getPreferenceDepthHops(); 
+        CrawlTrapDetector detector = getTrapDetector();
+        if (detector != null) {
+            detector.notePage(curi);
+        }
         
         for (Link wref: curi.getOutLinks()) try {
             int directive = getSchedulingFor(curi, wref, preferenceDepthHops);
@@ -156,6 +173,9 @@ public class LinksScoper extends Scoper {
                     wref, directive, 
                     considerAsSeed(curi, wref, redirectsNewSeeds));
             if (isInScope(caURI)) {
+                if (detector != null && !detector.apply(curi, caURI)) {
+                    continue;
+                }
                 curi.getOutCandidates().add(caURI);
             }
         } catch (URIException e) {
@@ -165,6 +185,14 @@ public class LinksScoper extends Scoper {
         curi.getOutLinks().clear();
     }
     
+    @Override
+    public String report() {
+        if (getTrapDetector() == null) {
+            return super.report();
+        }
+        return super.report() + getTrapDetector().report();
+    }
+    
     /**
      * The CrawlURI has a prerequisite; apply scoping and update
      * Link to CrawlURI in manner analogous to outlink handling. 
@@ -0,0 +1,60 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.postprocessor;
+
+import java.io.Serializable;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * Superclass for PolitenessPolicies, which choose the base delay (in ms)
+ * before the queue of a just-finished CrawlURI may again be contacted.
+ * The DispositionProcessor may further extend the chosen delay to honor
+ * robots.txt crawl-delay or per-host bandwidth limits.
+ */
+abstract public class PolitenessPolicy implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Choose a politeness delay for the given fetched CrawlURI, which
+     * is guaranteed to have fetch begin and completion times.
+     * 
+     * @param disposition DispositionProcessor supplying common 
+     * delayFactor, minDelayMs, maxDelayMs settings
+     * @param curi CrawlURI just fetched
+     * @return millisecond politeness delay
+     */
+    abstract public long politenessDelayFor(DispositionProcessor disposition,
+            CrawlURI curi);
+    
+    /**
+     * Utility to constrain the given delay to the given bounds. 
+     */
+    protected long clamp(long delay, long minDelay, long maxDelay) {
+        if (minDelay > delay) {
+            // wait at least the minimum
+            delay = minDelay;
+        }
+        if (delay > maxDelay) {
+            // wait no more than the maximum
+            delay = maxDelay;
+        }
+        return delay;
+    }
+}
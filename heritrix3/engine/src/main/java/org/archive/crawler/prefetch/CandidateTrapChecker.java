@@ -0,0 +1,71 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.prefetch;
+
+import static org.archive.modules.fetcher.FetchStatusCodes.S_BLOCKED_BY_CUSTOM_PROCESSOR;
+
+import org.archive.crawler.postprocessor.CrawlTrapDetector;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.ProcessResult;
+import org.archive.modules.Processor;
+
+/**
+ * Candidate-chain processor judging each in-scope candidate against a
+ * CrawlTrapDetector. Likely trap URIs are deprioritized, or blocked 
+ * (fetch status -5002) and skip the rest of the chain.
+ * <p/>
+ * Place after the CandidateScoper and before the FrontierPreparer, so
+ * that a deprioritized candidate's raised cost is reflected in the
+ * precedence the preparer assigns. The same detector should also be set
+ * as the CandidatesProcessor's trapDetector, which notes each fetched 
+ * page's outlinks for the detector's self-similarity checks.
+ * 
+ * @see CrawlTrapDetector
+ */
+public class CandidateTrapChecker extends Processor {
+    private static final long serialVersionUID = 1L;
+
+    protected CrawlTrapDetector trapDetector;
+    public CrawlTrapDetector getTrapDetector() {
+        return trapDetector;
+    }
+    public void setTrapDetector(CrawlTrapDetector trapDetector) {
+        this.trapDetector = trapDetector;
+    }
+
+    @Override
+    protected boolean shouldProcess(CrawlURI curi) {
+        return getTrapDetector() != null && curi.getFullVia() != null;
+    }
+
+    @Override
+    protected ProcessResult innerProcessResult(CrawlURI curi) {
+        if (!getTrapDetector().apply(curi.getFullVia(), curi)) {
+            curi.setFetchStatus(S_BLOCKED_BY_CUSTOM_PROCESSOR);
+            return ProcessResult.FINISH;
+        }
+        return ProcessResult.PROCEED;
+    }
+
+    @Override
+    protected void innerProcess(CrawlURI curi) {
+        assert false;
+    }
+}
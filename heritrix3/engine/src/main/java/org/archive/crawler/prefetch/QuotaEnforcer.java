@@ -24,6 +24,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.archive.crawler.framework.Frontier;
+import org.archive.crawler.frontier.AbstractFrontier;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
 import org.archive.modules.Processor;
@@ -350,6 +351,13 @@ public class QuotaEnforcer extends Processor {
             }
             return false;
         }
+        if (CAT != GROUP && hasQuota(CAT) 
+                && frontier instanceof AbstractFrontier) {
+            // server/host tallies are otherwise batched per thread, and
+            // could overshoot the quota by up to a batch per thread
+            ((AbstractFrontier)frontier).getSubstatsBatcher()
+                .requireExact(hasStats);
+        }
         FetchStats substats = hasStats.getSubstats();
         long[] actuals = new long[] {
                 substats.getFetchSuccesses(),
@@ -366,6 +374,19 @@ public class QuotaEnforcer extends Processor {
         return false; 
     }
 
+    /**
+     * @param CAT category index (SERVER, HOST, or GROUP)
+     * @return true if any quota of the category is in effect 
+     */
+    protected boolean hasQuota(final int CAT) {
+        for(int q=SUCCESSES; q<=RESPONSE_KB; q++) {
+            if ((Long)kp.get(keys[CAT][q]) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Apply the quota specified by the given key against the actual 
      * value provided. If the quota and actual values rule out processing the 
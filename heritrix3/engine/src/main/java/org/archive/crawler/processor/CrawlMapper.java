@@ -59,6 +59,8 @@ import st.ata.util.FPGenerator;
  *
  * <p>If using the JMX importUris operation importing URLs dropped by
  * a {@link CrawlMapper} instance, use <code>recoveryLog</code> style.
+ * Alternatively, a {@link UriHandoff} may be configured to deliver
+ * diverted URIs straight to the other crawlers' frontiers.
  * 
  * @author gojomo
  * @version $Date$, $Revision$
@@ -153,6 +155,20 @@ public abstract class CrawlMapper extends Processor implements Lifecycle {
         this.rotationDigits = digits; 
     }
 
+    /**
+     * Transport for handing diverted URIs directly to the crawlers they
+     * map to. If set, URIs for any crawler configured as one of its peers
+     * are sent there rather than written to diversion logs; URIs for other
+     * crawlers are still logged.
+     */
+    UriHandoff handoff = null;
+    public UriHandoff getHandoff() {
+        return this.handoff;
+    }
+    public void setHandoff(UriHandoff handoff) {
+        this.handoff = handoff;
+    }
+
     /**
      * Mapping of target crawlers to logs (PrintWriters)
      */
@@ -273,20 +289,30 @@ public abstract class CrawlMapper extends Processor implements Lifecycle {
 
     
     /**
-     * Note the given CrawlURI in the appropriate diversion log. 
+     * Hand off the given CrawlURI to its target crawler, if a handoff 
+     * transport reaching that crawler is configured, or else note it in
+     * the appropriate diversion log. 
      * 
      * @param cauri CrawlURI to append to a diversion log
      * @param target String node name (log name) to receive URI
      */
-    protected synchronized void divertLog(CrawlURI cauri, String target) {
-        if(recentlySeen(cauri)) {
+    protected void divertLog(CrawlURI cauri, String target) {
+        synchronized (this) {
+            if(recentlySeen(cauri)) {
+                return;
+            }
+        }
+        // outside lock: may block while target's handoff queue is full
+        if(handoff != null && handoff.divert(target, cauri)) {
             return;
         }
-        PrintWriter diversionLog = getDiversionLog(target);
-        diversionLog.print(cauri.getClassKey());
-        diversionLog.print(" ");
-        cauri.shortReportLineTo(diversionLog);
-        diversionLog.println();
+        synchronized (this) {
+            PrintWriter diversionLog = getDiversionLog(target);
+            diversionLog.print(cauri.getClassKey());
+            diversionLog.print(" ");
+            cauri.shortReportLineTo(diversionLog);
+            diversionLog.println();
+        }
     }
     
     /**
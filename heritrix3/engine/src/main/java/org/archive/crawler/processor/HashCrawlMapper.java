@@ -23,6 +23,7 @@ import java.util.regex.Matcher;
 import org.archive.crawler.framework.Frontier;
 import org.archive.modules.CrawlURI;
 import org.archive.net.PublicSuffixes;
+import org.archive.util.LongToIntConsistentHash;
 import org.archive.util.TextUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -89,6 +90,26 @@ public class HashCrawlMapper extends CrawlMapper {
         kp.put("reducePrefixRegex",regex);
     }
     
+    /**
+     * Whether to assign mapping keys to crawlers by consistent hashing,
+     * rather than by a simple modulus of the key's fingerprint. With 
+     * consistent hashing, changing crawlerCount reassigns only about 1/N 
+     * of all keys, rather than nearly all of them. 
+     */
+    boolean useConsistentHashing = false;
+    public boolean getUseConsistentHashing() {
+        return this.useConsistentHashing;
+    }
+    public void setUseConsistentHashing(boolean useConsistentHashing) {
+        this.useConsistentHashing = useConsistentHashing;
+    }
+    
+    /** 
+     * consistent hash in use; never modified once published, only 
+     * replaced by one with replicas for more crawlers 
+     */
+    protected volatile LongToIntConsistentHash conhash;
+    
     /**
      * Constructor.
      */
@@ -107,9 +128,35 @@ public class HashCrawlMapper extends CrawlMapper {
         // get classKey, via frontier to generate if necessary
         String key = frontier.getClassKey(cauri);
         String reduceRegex = getReduceRegex(cauri);
+        if(getUseConsistentHashing()) {
+            return mapStringConsistent(key, reduceRegex, getConsistentHash(),
+                    (int) getCrawlerCount());
+        }
         return mapString(key, reduceRegex, getCrawlerCount()); 
     }
 
+    /**
+     * @return consistent hash with replicas installed for all crawlers, so
+     * that lookups only read it; if crawlerCount has grown, a new one is
+     * built and published rather than the shared one modified
+     */
+    protected LongToIntConsistentHash getConsistentHash() {
+        int count = (int) getCrawlerCount();
+        LongToIntConsistentHash current = conhash;
+        if(current != null && current.getReplicasInstalledUpTo() >= count) {
+            return current;
+        }
+        synchronized(this) {
+            current = conhash;
+            if(current == null || current.getReplicasInstalledUpTo() < count) {
+                current = new LongToIntConsistentHash();
+                current.installReplicasUpTo(count);
+                conhash = current;
+            }
+            return current;
+        }
+    }
+
     protected String getReduceRegex(CrawlURI cauri) {
         if(getUsePublicSuffixesRegex()) {
             return PublicSuffixes.getTopmostAssignedSurtPrefixRegex();
@@ -120,7 +167,18 @@ public class HashCrawlMapper extends CrawlMapper {
 
     public static String mapString(String key, String reducePattern,
             long bucketCount) {
+        long fp = FPGenerator.std64.fp(reduce(key, reducePattern));
+        long bucket = fp % bucketCount;
+        return Long.toString(bucket >= 0 ? bucket : -bucket);
+    }
+
+    public static String mapStringConsistent(String key, String reducePattern,
+            LongToIntConsistentHash conhash, int bucketCount) {
+        return Integer.toString(
+                conhash.bucketFor(reduce(key, reducePattern), bucketCount));
+    }
 
+    protected static String reduce(String key, String reducePattern) {
         if (reducePattern != null && reducePattern.length()>0) {
             Matcher matcher = TextUtils.getMatcher(reducePattern,key);
             if(matcher.find()) {
@@ -128,8 +186,6 @@ public class HashCrawlMapper extends CrawlMapper {
             }
             TextUtils.recycleMatcher(matcher);
         }
-        long fp = FPGenerator.std64.fp(key);
-        long bucket = fp % bucketCount;
-        return Long.toString(bucket >= 0 ? bucket : -bucket);
+        return key;
     }
 }
\ No newline at end of file
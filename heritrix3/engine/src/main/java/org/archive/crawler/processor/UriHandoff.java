@@ -0,0 +1,718 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.io.IOUtils;
+import org.archive.crawler.framework.Frontier;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+
+/**
+ * Direct crawler-to-crawler transport for URIs a {@link CrawlMapper} 
+ * assigns to other crawlers, as an alternative to diversion logs which
+ * must be shipped and imported by hand.
+ * 
+ * <p>Each configured peer gets a sender thread, which gathers diverted 
+ * URIs into batches (of up to batchSize URIs, or whatever arrived within
+ * lingerMs), deflates them, and writes them over a persistent TCP 
+ * connection. A batch counts as delivered only once the peer acknowledges
+ * it, after scheduling every URI in it. While a peer is unreachable, 
+ * batches are appended to a per-peer spool file instead, and the spool 
+ * is resent (before any new batches) once the peer can be reached again.
+ * Resent batches may repeat URIs the peer already has; its frontier's 
+ * already-included filter discards those. If a batch can be neither sent
+ * nor spooled (as when the disk is full), the sender keeps it and retries
+ * every retryIntervalMs; meanwhile divert() refuses that peer's URIs, so 
+ * callers fall back to their diversion logs rather than block.
+ * 
+ * <p>If listenPort is set, this node also accepts batches from its peers,
+ * feeding each received URI straight into the local frontier via 
+ * {@link Frontier#schedule(CrawlURI)}.
+ * 
+ * <p>Wire format: each batch is a frame of (long sequence number, int URI
+ * count, int byte length, deflated bytes), where the bytes are UTF-8 lines
+ * of tab-separated uri, hops path and via; the receiver answers each frame
+ * with its sequence number. Spool files hold the same frames.
+ */
+public class UriHandoff implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(UriHandoff.class.getName());
+
+    /**
+     * Peer crawlers to which URIs may be handed off, as a map from crawler
+     * name (as returned by a CrawlMapper's map()) to 'host:port'.
+     */
+    protected Map<String,String> peers = new LinkedHashMap<String,String>();
+    public Map<String,String> getPeers() {
+        return peers;
+    }
+    public void setPeers(Map<String,String> peers) {
+        this.peers = peers;
+    }
+
+    /**
+     * Port on which to accept URIs from peers; -1 (the default) means this
+     * node only sends. 0 picks any free port (see getLocalPort()).
+     */
+    protected int listenPort = -1;
+    public int getListenPort() {
+        return listenPort;
+    }
+    public void setListenPort(int listenPort) {
+        this.listenPort = listenPort;
+    }
+
+    /** Local address on which to listen; empty means all addresses. */
+    protected String bindAddress = "";
+    public String getBindAddress() {
+        return bindAddress;
+    }
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /** Directory for spool files of batches awaiting unreachable peers. */
+    protected ConfigPath spoolDir = 
+        new ConfigPath("handoff spool subdirectory","handoff-spool");
+    public ConfigPath getSpoolDir() {
+        return spoolDir;
+    }
+    public void setSpoolDir(ConfigPath spoolDir) {
+        this.spoolDir = spoolDir;
+    }
+
+    /** Maximum number of URIs per batch. */
+    protected int batchSize = 1000;
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /** Longest time (in ms) to hold a partial batch before sending it. */
+    protected long lingerMs = 500;
+    public long getLingerMs() {
+        return lingerMs;
+    }
+    public void setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    /** Time (in ms) to wait between attempts to reach a down peer. */
+    protected long retryIntervalMs = 10000;
+    public long getRetryIntervalMs() {
+        return retryIntervalMs;
+    }
+    public void setRetryIntervalMs(long retryIntervalMs) {
+        this.retryIntervalMs = retryIntervalMs;
+    }
+
+    /** Socket connect and read timeout (in ms). */
+    protected int socketTimeoutMs = 60000;
+    public int getSocketTimeoutMs() {
+        return socketTimeoutMs;
+    }
+    public void setSocketTimeoutMs(int socketTimeoutMs) {
+        this.socketTimeoutMs = socketTimeoutMs;
+    }
+
+    /**
+     * Maximum URIs queued for one peer before divert() blocks, waiting for
+     * that peer's sender to send or spool them (unless the sender is 
+     * failing to spool).
+     */
+    protected int maxQueuedPerPeer = 10000;
+    public int getMaxQueuedPerPeer() {
+        return maxQueuedPerPeer;
+    }
+    public void setMaxQueuedPerPeer(int maxQueuedPerPeer) {
+        this.maxQueuedPerPeer = maxQueuedPerPeer;
+    }
+
+    protected Frontier frontier;
+    public Frontier getFrontier() {
+        return this.frontier;
+    }
+    @Autowired
+    public void setFrontier(Frontier frontier) {
+        this.frontier = frontier;
+    }
+
+    protected Map<String,PeerSender> senders = 
+        new ConcurrentHashMap<String,PeerSender>();
+    protected ServerSocket serverSocket;
+    protected Thread acceptor; 
+    protected List<Socket> inbound = 
+        Collections.synchronizedList(new ArrayList<Socket>());
+    protected volatile boolean running = false;
+
+    protected AtomicLong batchesReceived = new AtomicLong(0);
+    protected AtomicLong urisReceived = new AtomicLong(0);
+    protected AtomicLong badUrisReceived = new AtomicLong(0);
+
+    public synchronized void start() {
+        if(isRunning()) {
+            return;
+        }
+        running = true;
+        for(Map.Entry<String,String> peer : getPeers().entrySet()) {
+            PeerSender sender = new PeerSender(peer.getKey(), peer.getValue());
+            senders.put(peer.getKey(), sender);
+            sender.start();
+        }
+        if(getListenPort() >= 0) {
+            try {
+                serverSocket = new ServerSocket();
+                serverSocket.setReuseAddress(true);
+                serverSocket.bind(getBindAddress().length() > 0
+                        ? new InetSocketAddress(getBindAddress(), getListenPort())
+                        : new InetSocketAddress(getListenPort()));
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                        "unable to listen on port " + getListenPort(), e);
+            }
+            acceptor = new Thread("UriHandoff-acceptor") {
+                public void run() {
+                    acceptLoop();
+                }
+            };
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop accepting and sending; URIs still queued for any peer are
+     * spooled, to be sent when this node next starts. (A divert() racing
+     * with stop() whose URI misses that final spooling returns false.)
+     */
+    public synchronized void stop() {
+        if(!isRunning()) {
+            return;
+        }
+        running = false;
+        if(serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        synchronized (inbound) {
+            for(Socket s : inbound) {
+                closeQuietly(s);
+            }
+        }
+        for(PeerSender sender : senders.values()) {
+            sender.interrupt();
+        }
+        for(PeerSender sender : senders.values()) {
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        senders.clear();
+    }
+
+    /**
+     * @return port actually listened on, or -1 if not listening
+     */
+    public int getLocalPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    /**
+     * Queue the given URI for delivery to the named crawler, blocking if
+     * that crawler's queue is full.
+     * 
+     * @param target crawler name
+     * @param curi URI to hand off
+     * @return false if target is not a configured peer, its sender is 
+     * unable to spool, or this handoff is stopping and the URI could not
+     * be queued in time to be spooled (so the caller should dispose of 
+     * the URI some other way); true otherwise
+     */
+    public boolean divert(String target, CrawlURI curi) {
+        PeerSender sender = senders.get(target);
+        if(sender == null || sender.spoolFailing) {
+            return false;
+        }
+        String line = curi.getUURI().toString() + "\t" 
+            + curi.getPathFromSeed() + "\t" + curi.flattenVia();
+        try {
+            while(!sender.queue.offer(line, 
+                    getRetryIntervalMs(), TimeUnit.MILLISECONDS)) {
+                if(sender.spoolFailing || !running) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if(!running) {
+            // stopping: the sender's final drain may already have passed.
+            // Exactly one of that drain or this remove takes the line.
+            return !sender.queue.remove(line);
+        }
+        return true;
+    }
+
+    /**
+     * Schedule a URI received from a peer. 
+     */
+    protected void schedule(CrawlURI curi) {
+        frontier.schedule(curi);
+    }
+
+    protected void acceptLoop() {
+        while(running) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if(running) {
+                    logger.log(Level.WARNING, "accept failed", e);
+                }
+                continue;
+            }
+            inbound.add(socket);
+            Thread reader = new Thread("UriHandoff-from-" 
+                    + socket.getRemoteSocketAddress()) {
+                public void run() {
+                    try {
+                        receiveFrom(socket);
+                    } catch (EOFException e) {
+                        // peer closed connection; normal
+                    } catch (IOException e) {
+                        if(running) {
+                            logger.log(Level.WARNING, 
+                                "receive from " + socket + " failed", e);
+                        }
+                    } finally {
+                        inbound.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            };
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    protected void receiveFrom(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        while(running) {
+            long seq = in.readLong();
+            List<String> lines = readFrameBody(in);
+            for(String line : lines) {
+                try {
+                    schedule(fromLine(line));
+                    urisReceived.incrementAndGet();
+                } catch (URIException e) {
+                    badUrisReceived.incrementAndGet();
+                    logger.log(Level.WARNING, "bad handoff line: " + line, e);
+                }
+            }
+            batchesReceived.incrementAndGet();
+            out.writeLong(seq);
+            out.flush();
+        }
+    }
+
+    protected static CrawlURI fromLine(String line) throws URIException {
+        String[] fields = line.split("\t", -1);
+        UURI uuri = UURIFactory.getInstance(fields[0]);
+        String hops = fields.length > 1 ? fields[1] : "";
+        UURI via = (fields.length > 2 && fields[2].length() > 0)
+            ? UURIFactory.getInstance(fields[2]) 
+            : null;
+        return new CrawlURI(uuri, hops, via, null);
+    }
+
+    protected static void closeQuietly(Socket socket) {
+        if(socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Write one frame: sequence number, URI count, then length-prefixed
+     * deflated UTF-8 lines.
+     */
+    protected static void writeFrame(DataOutputStream out, long seq, 
+            List<String> lines) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(bytes);
+        for(String line : lines) {
+            deflater.write(line.getBytes("UTF-8"));
+            deflater.write('\n');
+        }
+        deflater.close();
+        out.writeLong(seq);
+        out.writeInt(lines.size());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Read the remainder of a frame whose sequence number has already 
+     * been read.
+     */
+    protected static List<String> readFrameBody(DataInputStream in) 
+    throws IOException {
+        int count = in.readInt();
+        byte[] deflated = new byte[in.readInt()];
+        in.readFully(deflated);
+        InputStream inflater = new InflaterInputStream(
+                new ByteArrayInputStream(deflated));
+        String text = IOUtils.toString(inflater, "UTF-8");
+        List<String> lines = new ArrayList<String>(count);
+        int start = 0;
+        for(int i = 0; i < count; i++) {
+            int end = text.indexOf('\n', start);
+            if(end < 0) {
+                throw new IOException("truncated handoff frame");
+            }
+            lines.add(text.substring(start, end));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Sends batches to one peer, spooling them while it is unreachable.
+     */
+    protected class PeerSender extends Thread {
+        protected String name;
+        protected String hostPort;
+        protected LinkedBlockingQueue<String> queue;
+        protected File spoolFile;
+        protected DataOutputStream spoolOut;
+        protected Socket socket;
+        protected DataInputStream in;
+        protected DataOutputStream out;
+        protected long nextAttempt = 0;
+        protected long seq = 0;
+        /** whether the last batch could be neither sent nor spooled */
+        protected volatile boolean spoolFailing = false;
+
+        protected AtomicLong urisSent = new AtomicLong(0);
+        protected AtomicLong batchesSent = new AtomicLong(0);
+        protected AtomicLong bytesSent = new AtomicLong(0);
+        protected AtomicLong urisSpooled = new AtomicLong(0);
+        protected AtomicLong failures = new AtomicLong(0);
+        protected AtomicLong spoolFailures = new AtomicLong(0);
+
+        protected PeerSender(String name, String hostPort) {
+            super("UriHandoff-to-" + name);
+            setDaemon(true);
+            this.name = name;
+            this.hostPort = hostPort;
+            this.queue = new LinkedBlockingQueue<String>(getMaxQueuedPerPeer());
+            File dir = getSpoolDir().getFile();
+            dir.mkdirs();
+            this.spoolFile = new File(dir, name + ".spool");
+        }
+
+        public void run() {
+            List<String> batch = new ArrayList<String>(getBatchSize());
+            try {
+                while(running) {
+                    try {
+                        fillBatch(batch);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    try {
+                        sendSpool();
+                        if(!batch.isEmpty()) {
+                            deliver(batch);
+                            batch.clear();
+                        }
+                        spoolFailing = false;
+                    } catch (IOException e) {
+                        // keep the batch, and retry after a pause
+                        spoolFailures.incrementAndGet();
+                        if(!spoolFailing) {
+                            logger.log(Level.SEVERE, "unable to spool " 
+                                    + "handoff batch for " + name 
+                                    + "; refusing its URIs until retry "
+                                    + "succeeds", e);
+                        }
+                        spoolFailing = true;
+                        closeSpool();
+                        try {
+                            Thread.sleep(getRetryIntervalMs());
+                        } catch (InterruptedException ie) {
+                            break;
+                        }
+                    }
+                }
+                // shutting down: keep everything still queued for next time
+                queue.drainTo(batch);
+                if(!batch.isEmpty()) {
+                    spool(batch);
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "unable to spool handoff batch " 
+                        + "for " + name + "; " + batch.size() 
+                        + " URIs lost", e);
+            } finally {
+                closeSpool();
+                disconnect();
+            }
+        }
+
+        /**
+         * Wait for a first URI (up to lingerMs), then gather more until the
+         * batch is full or lingerMs has passed.
+         */
+        protected void fillBatch(List<String> batch) 
+        throws InterruptedException {
+            long deadline = System.currentTimeMillis() + getLingerMs();
+            while(batch.size() < getBatchSize()) {
+                long wait = deadline - System.currentTimeMillis();
+                if(wait <= 0) {
+                    break;
+                }
+                String line = queue.poll(wait, TimeUnit.MILLISECONDS);
+                if(line == null) {
+                    break;
+                }
+                batch.add(line);
+                queue.drainTo(batch, getBatchSize() - batch.size());
+            }
+        }
+
+        protected void deliver(List<String> batch) throws IOException {
+            if(connected() && !spoolFile.exists()) {
+                try {
+                    send(batch);
+                    return;
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+            spool(batch);
+        }
+
+        protected void send(List<String> batch) throws IOException {
+            long thisSeq = seq++;
+            int before = out.size();
+            writeFrame(out, thisSeq, batch);
+            out.flush();
+            if(in.readLong() != thisSeq) {
+                throw new IOException("unexpected handoff ack from " + name);
+            }
+            urisSent.addAndGet(batch.size());
+            batchesSent.incrementAndGet();
+            bytesSent.addAndGet(out.size() - before);
+        }
+
+        /**
+         * Resend all spooled batches, if the peer is reachable; the spool
+         * is only discarded once every batch in it has been acknowledged.
+         */
+        protected void sendSpool() throws IOException {
+            if(!spoolFile.exists() || !connected()) {
+                return;
+            }
+            closeSpool();
+            DataInputStream spoolIn = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(spoolFile)));
+            try {
+                while(true) {
+                    List<String> batch;
+                    try {
+                        spoolIn.readLong();
+                        batch = readFrameBody(spoolIn);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    send(batch);
+                }
+            } catch (IOException e) {
+                failed(e);
+                return;
+            } finally {
+                IOUtils.closeQuietly(spoolIn);
+            }
+            spoolFile.delete();
+            logger.info("sent spooled handoff URIs to " + name);
+        }
+
+        /**
+         * Append a batch to the spool file. On failure, any partly 
+         * written frame is cut off, so a later append leaves the spool 
+         * readable.
+         */
+        protected void spool(List<String> batch) throws IOException {
+            long before = spoolFile.length();
+            try {
+                if(spoolOut == null) {
+                    OutputStream os = new FileOutputStream(spoolFile, true);
+                    spoolOut = new DataOutputStream(new BufferedOutputStream(os));
+                }
+                writeFrame(spoolOut, 0, batch);
+                spoolOut.flush();
+            } catch (IOException e) {
+                closeSpool();
+                if(spoolFile.isFile() && spoolFile.length() > before) {
+                    RandomAccessFile raf = new RandomAccessFile(spoolFile, "rw");
+                    try {
+                        raf.setLength(before);
+                    } finally {
+                        raf.close();
+                    }
+                }
+                throw e;
+            }
+            urisSpooled.addAndGet(batch.size());
+        }
+
+        protected void closeSpool() {
+            IOUtils.closeQuietly(spoolOut);
+            spoolOut = null;
+        }
+
+        /**
+         * @return true if connected to peer, connecting first if 
+         * disconnected and the retry interval has passed
+         */
+        protected boolean connected() {
+            if(socket != null) {
+                return true;
+            }
+            if(System.currentTimeMillis() < nextAttempt) {
+                return false;
+            }
+            int colon = hostPort.lastIndexOf(':');
+            try {
+                Socket s = new Socket();
+                s.connect(new InetSocketAddress(hostPort.substring(0, colon),
+                        Integer.parseInt(hostPort.substring(colon + 1))),
+                        getSocketTimeoutMs());
+                s.setSoTimeout(getSocketTimeoutMs());
+                s.setTcpNoDelay(true);
+                socket = s;
+                in = new DataInputStream(
+                        new BufferedInputStream(s.getInputStream()));
+                out = new DataOutputStream(
+                        new BufferedOutputStream(s.getOutputStream()));
+                return true;
+            } catch (IOException e) {
+                failed(e);
+                return false;
+            }
+        }
+
+        protected void failed(IOException e) {
+            failures.incrementAndGet();
+            logger.log(Level.FINE, "handoff peer " + name + " unreachable", e);
+            disconnect();
+            nextAttempt = System.currentTimeMillis() + getRetryIntervalMs();
+        }
+
+        protected void disconnect() {
+            closeQuietly(socket);
+            socket = null;
+            in = null;
+            out = null;
+        }
+
+        protected Map<String,Object> shortReportMap() {
+            Map<String,Object> map = new LinkedHashMap<String,Object>();
+            map.put("connected", socket != null);
+            map.put("queued", queue.size());
+            map.put("urisSent", urisSent.get());
+            map.put("batchesSent", batchesSent.get());
+            map.put("bytesSent", bytesSent.get());
+            map.put("urisSpooled", urisSpooled.get());
+            map.put("spoolBytes", spoolFile.length());
+            map.put("failures", failures.get());
+            map.put("spoolFailing", spoolFailing);
+            map.put("spoolFailures", spoolFailures.get());
+            return map;
+        }
+    }
+
+    public Map<String,Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("urisReceived", urisReceived.get());
+        map.put("batchesReceived", batchesReceived.get());
+        map.put("badUrisReceived", badUrisReceived.get());
+        for(PeerSender sender : senders.values()) {
+            map.put("to." + sender.name, sender.shortReportMap());
+        }
+        return map;
+    }
+}
@@ -41,6 +41,7 @@ import org.archive.crawler.io.UriErrorFormatter;
 import org.archive.crawler.io.UriProcessingFormatter;
 import org.archive.crawler.util.Logs;
 import org.archive.io.GenerationFileHandler;
+import org.archive.io.LogIndex;
 import org.archive.modules.SimpleFileLoggerProvider;
 import org.archive.modules.extractor.UriErrorLoggerModule;
 import org.archive.net.UURI;
@@ -84,6 +85,19 @@ public class CrawlerLoggerModule
         this.logExtraInfo = logExtraInfo;
     }
     
+    /**
+     * Lines per block of the sparse index (crawl.log.idx) kept beside 
+     * crawl.log, which lets log readers seek by line number, time or host
+     * and search in parallel. 0 disables the index.
+     */
+    int crawlLogIndexInterval = LogIndex.DEFAULT_INTERVAL;
+    public int getCrawlLogIndexInterval() {
+        return crawlLogIndexInterval;
+    }
+    public void setCrawlLogIndexInterval(int crawlLogIndexInterval) {
+        this.crawlLogIndexInterval = crawlLogIndexInterval;
+    }
+    
     // manifest support
     /** abbreviation label for config files in manifest */
     public static final char MANIFEST_CONFIG_FILE = 'C';
@@ -248,6 +262,8 @@ public class CrawlerLoggerModule
         setupLogFile(uriProcessing,
             getCrawlLogPath().getFile().getAbsolutePath(),
             new UriProcessingFormatter(getLogExtraInfo()), true);
+        ((GenerationFileHandler)fileHandlers.get(uriProcessing))
+            .setIndexInterval(getCrawlLogIndexInterval());
 
         setupLogFile(runtimeErrors,
             getRuntimeErrorsLogPath().getFile().getAbsolutePath(),
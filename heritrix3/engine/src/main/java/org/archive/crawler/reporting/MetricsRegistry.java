@@ -0,0 +1,254 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.bdb.BdbModule;
+import org.archive.crawler.framework.CrawlController;
+import org.archive.crawler.monitor.MemoryBudgetMonitor;
+import org.archive.modules.Processor;
+import org.archive.modules.ProcessorChain;
+import org.archive.modules.fetcher.BandwidthShaper;
+import org.archive.modules.writer.WriterPoolProcessor;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Registry of named sources of crawl metrics, rendered as a simple
+ * line-oriented text format for frequent polling by monitoring tools:
+ * one "name value" line per numeric metric, with names formed by joining
+ * source name and (possibly nested) map keys with '.'; for example 
+ * "frontier.readyQueues 12". 
+ * <p/>
+ * Sources are consulted afresh on each rendering, and should only report
+ * values that are cheap to gather (counters and collection sizes already
+ * maintained) so that polling every second does not disturb the crawl. 
+ * Non-numeric values are skipped; booleans are rendered as 0 or 1.
+ */
+public class MetricsRegistry {
+    private static final Logger logger = 
+        Logger.getLogger(MetricsRegistry.class.getName());
+    
+    /**
+     * A source of metrics: a (possibly nested) map of values.
+     */
+    public interface MetricSource {
+        /** @return map of metrics, or null if none currently available */
+        Map<String,?> metrics();
+    }
+    
+    protected Map<String,MetricSource> sources = 
+        new LinkedHashMap<String,MetricSource>();
+    
+    public synchronized void register(String name, MetricSource source) {
+        sources.put(name, source);
+    }
+    
+    public synchronized void unregister(String name) {
+        sources.remove(name);
+    }
+    
+    /**
+     * Write all current metrics, preceded by a "timestamp" line (in 
+     * epoch milliseconds). A source which fails is logged and skipped. 
+     * 
+     * @param writer
+     */
+    public synchronized void writeTo(PrintWriter writer) {
+        writer.print("timestamp ");
+        writer.println(System.currentTimeMillis());
+        for (Map.Entry<String,MetricSource> entry : sources.entrySet()) {
+            Map<String,?> metrics;
+            try {
+                metrics = entry.getValue().metrics();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "metric source " + entry.getKey(), e);
+                continue;
+            }
+            writeTo(writer, entry.getKey(), metrics);
+        }
+        writer.flush();
+    }
+    
+    protected void writeTo(PrintWriter writer, String prefix, Map<?,?> metrics) {
+        if (metrics == null) {
+            return;
+        }
+        for (Map.Entry<?,?> entry : metrics.entrySet()) {
+            String name = prefix + "." + entry.getKey();
+            Object value = entry.getValue();
+            if (value instanceof Map<?,?>) {
+                writeTo(writer, name, (Map<?,?>) value);
+            } else if (value instanceof Number) {
+                writeLine(writer, name, value);
+            } else if (value instanceof Boolean) {
+                writeLine(writer, name, ((Boolean) value) ? 1 : 0);
+            }
+        }
+    }
+    
+    protected void writeLine(PrintWriter writer, String name, Object value) {
+        // names must stay single tokens
+        writer.print(name.replace(' ', '_'));
+        writer.print(' ');
+        writer.println(value);
+    }
+    
+    /**
+     * Create a registry with the standard sources for the given crawl: 
+     * overall crawl progress, frontier, toe threads, processors, archive
+     * writers, BDB environment, and JVM.
+     * 
+     * @param controller
+     * @param appCtx crawl's context, for locating BdbModule and writers
+     * @return new MetricsRegistry
+     */
+    public static MetricsRegistry forCrawl(final CrawlController controller,
+            ApplicationContext appCtx) {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.register("crawl", new MetricSource() {
+            public Map<String, ?> metrics() {
+                StatisticsTracker stats = controller.getStatisticsTracker();
+                if (stats == null) {
+                    return null;
+                }
+                CrawlStatSnapshot snapshot = stats.getSnapshot();
+                Map<String,Object> map = new LinkedHashMap<String,Object>();
+                map.put("discoveredUriCount", snapshot.discoveredUriCount);
+                map.put("queuedUriCount", snapshot.queuedUriCount);
+                map.put("futureUriCount", snapshot.futureUriCount);
+                map.put("finishedUriCount", snapshot.finishedUriCount);
+                map.put("downloadedUriCount", snapshot.downloadedUriCount);
+                map.put("downloadFailures", snapshot.downloadFailures);
+                map.put("downloadDisregards", snapshot.downloadDisregards);
+                map.put("bytesProcessed", snapshot.bytesProcessed);
+                map.put("elapsedMilliseconds", snapshot.elapsedMilliseconds);
+                map.put("docsPerSecond", snapshot.docsPerSecond);
+                map.put("currentDocsPerSecond", snapshot.currentDocsPerSecond);
+                map.put("totalKiBPerSec", snapshot.totalKiBPerSec);
+                map.put("currentKiBPerSec", snapshot.currentKiBPerSec);
+                map.put("busyThreads", snapshot.busyThreads);
+                map.put("congestionRatio", snapshot.congestionRatio);
+                map.put("deepestUri", snapshot.deepestUri);
+                map.put("averageDepth", snapshot.averageDepth);
+                return map;
+            }
+        });
+        registry.register("frontier", new MetricSource() {
+            public Map<String, ?> metrics() {
+                return controller.getFrontier().shortReportMap();
+            }
+        });
+        registry.register("threads", new MetricSource() {
+            public Map<String, ?> metrics() {
+                Map<String,Object> map = controller.getToeThreadReportShortData();
+                if (map != null) {
+                    map.put("activeToeCount", controller.getActiveToeCount());
+                }
+                return map;
+            }
+        });
+        registry.register("processors", new MetricSource() {
+            public Map<String, ?> metrics() {
+                Map<String,Object> map = new LinkedHashMap<String,Object>();
+                for (ProcessorChain chain : new ProcessorChain[] {
+                        controller.getCandidateChain(), 
+                        controller.getFetchChain(), 
+                        controller.getDispositionChain()}) {
+                    for (Processor p : chain) {
+                        map.put(p.getBeanName(), p.latencyReportMap());
+                    }
+                }
+                return map;
+            }
+        });
+        for (final Map.Entry<String,WriterPoolProcessor> entry 
+                : appCtx.getBeansOfType(WriterPoolProcessor.class).entrySet()) {
+            registry.register("writer." + entry.getKey(), new MetricSource() {
+                public Map<String, ?> metrics() {
+                    return entry.getValue().poolReportMap();
+                }
+            });
+        }
+        Map<String,BdbModule> environments = 
+            appCtx.getBeansOfType(BdbModule.class);
+        for (final Map.Entry<String,BdbModule> entry 
+                : environments.entrySet()) {
+            String name = (environments.size() == 1) 
+                ? "bdb" 
+                : "bdb." + entry.getKey();
+            registry.register(name, new MetricSource() {
+                public Map<String, ?> metrics() {
+                    return entry.getValue().environmentStatsMap();
+                }
+            });
+        }
+        for (final MemoryBudgetMonitor monitor 
+                : appCtx.getBeansOfType(MemoryBudgetMonitor.class).values()) {
+            registry.register("memory", new MetricSource() {
+                public Map<String, ?> metrics() {
+                    return monitor.shortReportMap();
+                }
+            });
+        }
+        for (final BandwidthShaper shaper 
+                : appCtx.getBeansOfType(BandwidthShaper.class).values()) {
+            registry.register("bandwidth", new MetricSource() {
+                public Map<String, ?> metrics() {
+                    return shaper.shortReportMap();
+                }
+            });
+        }
+        registry.register("jvm", new MetricSource() {
+            public Map<String, ?> metrics() {
+                return jvmMetrics();
+            }
+        });
+        return registry;
+    }
+    
+    /**
+     * @return heap, thread and garbage-collection metrics of this JVM
+     */
+    public static Map<String,Object> jvmMetrics() {
+        Runtime rt = Runtime.getRuntime();
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("heapUsedBytes", rt.totalMemory() - rt.freeMemory());
+        map.put("heapTotalBytes", rt.totalMemory());
+        map.put("heapMaxBytes", rt.maxMemory());
+        map.put("threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        map.put("uptimeMs", ManagementFactory.getRuntimeMXBean().getUptime());
+        Map<String,Object> gcs = new LinkedHashMap<String,Object>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Map<String,Object> gcMap = new LinkedHashMap<String,Object>();
+            gcMap.put("count", gc.getCollectionCount());
+            gcMap.put("timeMs", gc.getCollectionTime());
+            gcs.put(gc.getName(), gcMap);
+        }
+        map.put("gc", gcs);
+        return map;
+    }
+}
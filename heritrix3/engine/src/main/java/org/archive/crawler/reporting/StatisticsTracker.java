@@ -49,6 +49,7 @@ import org.archive.crawler.event.CrawlURIDispositionEvent;
 import org.archive.crawler.event.StatSnapshotEvent;
 import org.archive.crawler.framework.CrawlController;
 import org.archive.crawler.framework.Engine;
+import org.archive.crawler.frontier.AbstractFrontier;
 import org.archive.crawler.util.CrawledBytesHistotable;
 import org.archive.crawler.util.TopNSet;
 import org.archive.modules.CrawlURI;
@@ -216,6 +217,22 @@ public class StatisticsTracker
         this.trackSources = trackSources;
     }
             
+    /**
+     * Whether, when resuming from a checkpoint, to restore the (possibly
+     * very large) hosts-per-source-tag records in the background, rather
+     * than before the crawl may start. Tallies made meanwhile are kept. 
+     */
+    boolean lazyResume = false;
+    public boolean getLazyResume() {
+        return this.lazyResume;
+    }
+    public void setLazyResume(boolean lazyResume) {
+        this.lazyResume = lazyResume;
+    }
+    
+    /** restorer of sourceHostDistribution during a lazy resume, if any */
+    protected transient Thread sourceHostRestorer;
+            
     /**
      * The interval between writing progress information to log.
      */
@@ -384,13 +401,21 @@ public class StatisticsTracker
                     json.getJSONObject("statusCodeDistribution"));
           
 
-                JSONObject shd = json.getJSONObject("sourceHostDistribution");
-                Iterator<String> keyIter = shd.keys();
-                for(; keyIter.hasNext();) {
-                    String source = keyIter.next();
-                    ConcurrentHashMap<String, AtomicLong> hostUriCount = new ConcurrentHashMap<String, AtomicLong>();
-                    JSONUtils.putAllAtomicLongs(hostUriCount,shd.getJSONObject(source));
-                    sourceHostDistribution.put(source, hostUriCount);
+                final JSONObject shd = json.getJSONObject("sourceHostDistribution");
+                if (getLazyResume()) {
+                    sourceHostRestorer = new Thread("StatisticsTracker-resume") {
+                        public void run() {
+                            try {
+                                restoreSourceHostDistribution(shd);
+                            } catch (JSONException e) {
+                                logger.log(Level.SEVERE, "problem restoring source stats", e);
+                            }
+                        }
+                    };
+                    sourceHostRestorer.setDaemon(true);
+                    sourceHostRestorer.start();
+                } else {
+                    restoreSourceHostDistribution(shd);
                 }
                 
                 JSONUtils.putAllLongs(
@@ -407,6 +432,32 @@ public class StatisticsTracker
         executor.scheduleAtFixedRate(this, 0, getIntervalSeconds(), TimeUnit.SECONDS);
     }
 
+    /**
+     * Add the checkpointed hosts-per-source-tag counts to any already 
+     * tallied.
+     */
+    @SuppressWarnings("unchecked")
+    protected void restoreSourceHostDistribution(JSONObject shd) throws JSONException {
+        Iterator<String> keyIter = shd.keys();
+        for(; keyIter.hasNext();) {
+            String source = keyIter.next();
+            ConcurrentMap<String, AtomicLong> hostUriCount = sourceHostDistribution.get(source);
+            if (hostUriCount == null) {
+                hostUriCount = new ConcurrentHashMap<String, AtomicLong>();
+                ConcurrentMap<String,AtomicLong> prevVal = sourceHostDistribution.putIfAbsent(source, hostUriCount);
+                if (prevVal != null) {
+                    hostUriCount = prevVal; 
+                }
+            }
+            JSONObject hosts = shd.getJSONObject(source);
+            Iterator<String> hostIter = hosts.keys();
+            while (hostIter.hasNext()) {
+                String host = hostIter.next();
+                incrementMapCount(hostUriCount, host, hosts.getLong(host));
+            }
+        }
+    }
+
     /**
      * Do activity. Is called by ScheduledExecutorService at intervals specified by
      * intervalSeconds
@@ -903,6 +954,13 @@ public class StatisticsTracker
             return f;
         }
         
+        // surface server/host tallies still batched per thread
+        if (controller != null 
+                && controller.getFrontier() instanceof AbstractFrontier) {
+            ((AbstractFrontier)controller.getFrontier())
+                .getSubstatsBatcher().foldAll();
+        }
+        
         try {
             FileUtils.ensureWriteableDirectory(f.getParentFile());
             PrintWriter bw = new PrintWriter(new FileWriter(f));
@@ -1059,7 +1117,16 @@ public class StatisticsTracker
     }
     
     // Checkpointable
-    public void startCheckpoint(Checkpoint checkpointInProgress) {}
+    public void startCheckpoint(Checkpoint checkpointInProgress) {
+        if (sourceHostRestorer != null) {
+            // checkpoint must include all restored source stats
+            try {
+                sourceHostRestorer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
     public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
         JSONObject json = new JSONObject();
         try {
@@ -0,0 +1,120 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.restlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.archive.crawler.reporting.MetricsRegistry;
+import org.archive.crawler.reporting.MetricsRegistry.MetricSource;
+import org.archive.modules.fetcher.BandwidthShaper;
+import org.restlet.Context;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.resource.Representation;
+import org.restlet.resource.ResourceException;
+import org.restlet.resource.Variant;
+import org.restlet.resource.WriterRepresentation;
+
+/**
+ * Restlet Resource for a job's crawl-wide bandwidth limits. GET reports
+ * current limits and observed rates, one "name value" per line as with
+ * the metrics resource. POST changes limits immediately, taking any of
+ * the form fields "globalMaxKBSec", "perIpMaxKBSec", "perServerMaxKBSec",
+ * or "ip" or "server" together with "maxKBSec" (0 to clear an individual
+ * IP or server limit). 
+ * 
+ * @see BandwidthShaper
+ */
+public class BandwidthResource extends JobRelatedResource {
+
+    public BandwidthResource(Context ctx, Request req, Response res) throws ResourceException {
+        super(ctx, req, res);
+        setModifiable(true);
+        getVariants().add(new Variant(MediaType.TEXT_PLAIN));
+    }
+
+    protected BandwidthShaper getShaper() throws ResourceException {
+        BandwidthShaper shaper = cj.getBandwidthShaper();
+        if (shaper == null) {
+            // no crawl built, or no shaping configured
+            throw new ResourceException(404);
+        }
+        return shaper;
+    }
+
+    public Representation represent(Variant variant) throws ResourceException {
+        final BandwidthShaper shaper = getShaper();
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.register("bandwidth", new MetricSource() {
+            public Map<String, ?> metrics() {
+                return shaper.shortReportMap();
+            }
+        });
+        Representation representation = new WriterRepresentation(MediaType.TEXT_PLAIN) {
+            public void write(Writer writer) throws IOException {
+                registry.writeTo(new PrintWriter(writer));
+            }
+        };
+        representation.setCharacterSet(CharacterSet.UTF_8);
+        return representation;
+    }
+
+    @Override
+    public void acceptRepresentation(Representation entity) throws ResourceException {
+        BandwidthShaper shaper = getShaper();
+        Form form = getRequest().getEntityAsForm();
+        try {
+            String value = form.getFirstValue("globalMaxKBSec");
+            if (StringUtils.isNotEmpty(value)) {
+                shaper.setGlobalMaxKBSec(Integer.parseInt(value.trim()));
+            }
+            value = form.getFirstValue("perIpMaxKBSec");
+            if (StringUtils.isNotEmpty(value)) {
+                shaper.setPerIpMaxKBSec(Integer.parseInt(value.trim()));
+            }
+            value = form.getFirstValue("perServerMaxKBSec");
+            if (StringUtils.isNotEmpty(value)) {
+                shaper.setPerServerMaxKBSec(Integer.parseInt(value.trim()));
+            }
+            value = form.getFirstValue("maxKBSec");
+            if (StringUtils.isNotEmpty(value)) {
+                int maxKBSec = Integer.parseInt(value.trim());
+                String ip = form.getFirstValue("ip");
+                if (StringUtils.isNotEmpty(ip)) {
+                    shaper.setIpMaxKBSec(ip.trim(), maxKBSec);
+                }
+                String server = form.getFirstValue("server");
+                if (StringUtils.isNotEmpty(server)) {
+                    shaper.setServerMaxKBSec(server.trim(), maxKBSec);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new ResourceException(400, e);
+        }
+        // redirect to GET self
+        getResponse().redirectSeeOther(getRequest().getOriginalRef());
+    }
+}
@@ -156,8 +156,12 @@ public class JobResource extends BaseResource {
             info.put("loadReport", cj.loadReportData());
             info.put("elapsedReport", cj.elapsedReportData());
             info.put("threadReport", cj.threadReportData());
+            info.put("processorReport", cj.processorReportData());
             info.put("frontierReport", cj.frontierReportData());
+            info.put("writerReport", cj.writerReportData());
+            info.put("seedsReport", cj.seedsReportData());
             info.put("heapReport", getEngine().heapReportData());
+            info.put("memoryBudgetReport", cj.memoryBudgetReportData());
             
             if ((cj.isRunning() || (cj.hasApplicationContext() && !cj.isLaunchable()))
                     && cj.getCrawlController().getLoggerModule().getCrawlLogPath().getFile().exists()) {
@@ -392,8 +396,15 @@ public class JobResource extends BaseResource {
             pw.println("<br/><a href='report/FrontierSummaryReport'><b>Frontier</b></a><br/>&nbsp;&nbsp;");
             pw.println(cj.frontierReport());
             
+            pw.println("<br/><b>Seeds</b><br/>&nbsp;&nbsp;");
+            pw.println(cj.seedsReport());
+            
             pw.println("<br/><b>Memory</b><br/>&nbsp;&nbsp;");
             pw.println(getEngine().heapReport());
+            if(cj.memoryBudgetReport()!=null) {
+                pw.println("<br/>&nbsp;&nbsp;");
+                pw.println(cj.memoryBudgetReport());
+            }
             
             if ((cj.isRunning() || (cj.hasApplicationContext() && !cj.isLaunchable()))
                     && cj.getCrawlController().getLoggerModule().getCrawlLogPath().getFile().exists()) {
@@ -0,0 +1,64 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.restlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import org.archive.crawler.reporting.MetricsRegistry;
+import org.restlet.Context;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.resource.Representation;
+import org.restlet.resource.ResourceException;
+import org.restlet.resource.Variant;
+import org.restlet.resource.WriterRepresentation;
+
+/**
+ * Restlet Resource serving a job's current metrics, one "name value" 
+ * per line, for frequent polling by monitoring tools. 
+ * 
+ * @see MetricsRegistry
+ */
+public class MetricsResource extends JobRelatedResource {
+
+    public MetricsResource(Context ctx, Request req, Response res) throws ResourceException {
+        super(ctx, req, res);
+        getVariants().add(new Variant(MediaType.TEXT_PLAIN));
+    }
+
+    public Representation represent(Variant variant) throws ResourceException {
+        final MetricsRegistry registry = cj.getMetricsRegistry();
+        if (registry == null) {
+            // no crawl built
+            throw new ResourceException(404);
+        }
+        Representation representation = new WriterRepresentation(MediaType.TEXT_PLAIN) {
+            public void write(Writer writer) throws IOException {
+                registry.writeTo(new PrintWriter(writer));
+            }
+        };
+        representation.setCharacterSet(CharacterSet.UTF_8);
+        return representation;
+    }
+}
@@ -19,16 +19,32 @@
 
 package org.archive.crawler.util;
 
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import org.apache.commons.httpclient.HttpStatus;
 import org.archive.modules.CoreAttributeConstants;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.recrawl.IdenticalDigestDecideRule;
 import org.archive.util.ArchiveUtils;
-import org.archive.util.Histotable;
 
-public class CrawledBytesHistotable extends Histotable<String> 
-implements CoreAttributeConstants {
-    private static final long serialVersionUID = 7923431123239026213L;
+/**
+ * Tallies of bytes and URIs crawled, split into novel, duplicate-by-hash,
+ * and not-modified. 
+ * <p/>
+ * Presents the same read-only sorted-map view (absent or zero keys 
+ * omitted, get() of absent keys returning 0) as the Histotable it once 
+ * was, but counts into a primitive AtomicLongArray over the fixed set of 
+ * keys, so the per-URI accumulate() neither boxes nor locks.
+ */
+public class CrawledBytesHistotable extends AbstractMap<String,Long> 
+implements CoreAttributeConstants, Serializable {
+    private static final long serialVersionUID = 7923431123239026214L;
     
     public static final String NOTMODIFIED = "notModified";
     public static final String DUPLICATE = "dupByHash";
@@ -37,21 +53,99 @@ implements CoreAttributeConstants {
     public static final String DUPLICATECOUNT = "dupByHashCount";
     public static final String NOVELCOUNT = "novelCount";
     
+    /** all keys, in index order of counts */
+    protected static final String[] KEYS = {
+        NOTMODIFIED, DUPLICATE, NOVEL, 
+        NOTMODIFIEDCOUNT, DUPLICATECOUNT, NOVELCOUNT };
+    protected static final int NOTMODIFIED_INDEX = 0;
+    protected static final int DUPLICATE_INDEX = 1;
+    protected static final int NOVEL_INDEX = 2;
+    protected static final int COUNT_OFFSET = 3;
+    
+    protected AtomicLongArray counts = new AtomicLongArray(KEYS.length);
+    
     public CrawledBytesHistotable() {
         super();
     }
 
     public void accumulate(CrawlURI curi) {
+        int index;
         if(curi.getFetchStatus()==HttpStatus.SC_NOT_MODIFIED) {
-            tally(NOTMODIFIED, curi.getContentSize());
-            tally(NOTMODIFIEDCOUNT,1);
+            index = NOTMODIFIED_INDEX;
         } else if (IdenticalDigestDecideRule.hasIdenticalDigest(curi)) {
-            tally(DUPLICATE,curi.getContentSize());
-            tally(DUPLICATECOUNT,1);
+            index = DUPLICATE_INDEX;
         } else {
-            tally(NOVEL,curi.getContentSize());
-            tally(NOVELCOUNT,1);
+            index = NOVEL_INDEX;
+        }
+        counts.addAndGet(index, curi.getContentSize());
+        counts.incrementAndGet(index + COUNT_OFFSET);
+    }
+    
+    /**
+     * Record <i>count</i> more of the given key, which must be one of 
+     * the constants of this class.
+     * 
+     * @param key String key
+     * @param count amount to add
+     * @throws IllegalArgumentException if key not one of this class's
+     */
+    public void tally(String key, long count) {
+        int i = indexOf(key);
+        if(i < 0) {
+            throw new IllegalArgumentException("unknown key: " + key);
+        }
+        counts.addAndGet(i, count);
+    }
+    
+    protected static int indexOf(Object key) {
+        for(int i = 0; i < KEYS.length; i++) {
+            if(KEYS[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /** Return 0 instead of null for absent keys. */
+    @Override
+    public Long get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? 0L : counts.get(i);
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        int i = indexOf(key);
+        return i >= 0 && counts.get(i) != 0;
+    }
+    
+    /**
+     * Set the given key's count, as when restoring from a checkpoint. 
+     * 
+     * @throws IllegalArgumentException if key not one of this class's
+     */
+    @Override
+    public Long put(String key, Long value) {
+        int i = indexOf(key);
+        if(i < 0) {
+            throw new IllegalArgumentException("unknown key: " + key);
+        }
+        return counts.getAndSet(i, value);
+    }
+    
+    /**
+     * @return key-sorted snapshot of all nonzero counts
+     */
+    @Override
+    public Set<Map.Entry<String,Long>> entrySet() {
+        TreeMap<String,Long> snapshot = new TreeMap<String,Long>();
+        for(int i = 0; i < KEYS.length; i++) {
+            long count = counts.get(i);
+            if(count != 0) {
+                snapshot.put(KEYS[i], count);
+            }
         }
+        return Collections.unmodifiableSet(snapshot.entrySet());
     }
     
     public String summary() {
@@ -0,0 +1,408 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.archive.io.LogIndex;
+import org.archive.io.LogIndex.Block;
+import org.archive.io.LogIndex.LineReader;
+
+/**
+ * Reads a crawl.log-style file, or a chronological series of them (as 
+ * left by log rotation), using each file's sparse {@link LogIndex} where
+ * present to seek directly to a line number or time, to skip blocks not
+ * mentioning a host, and to regex-scan line-aligned byte ranges in 
+ * parallel. Results are returned a page at a time; line numbers count 
+ * from 1 across the whole series. Files without an index are still 
+ * readable, but are scanned from their start.
+ */
+public class IndexedLogReader {
+    /** most bytes of consecutive blocks scanned as one parallel task */
+    protected static final long RANGE_BYTES = 4 * 1024 * 1024;
+    
+    /**
+     * A matching line and its line number.
+     */
+    public static class Match {
+        public final long lineNumber;
+        public final String line;
+        
+        public Match(long lineNumber, String line) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+        }
+        
+        @Override
+        public String toString() {
+            return lineNumber + ". " + line;
+        }
+    }
+    
+    /**
+     * One file of the series: its index (if any) and the global line 
+     * number of its first line.
+     */
+    protected static class Segment {
+        File file;
+        LogIndex index;
+        long firstLine;
+        long lineCount;
+    }
+    
+    /**
+     * A line-aligned span of one file, with the global number of its 
+     * first line.
+     */
+    protected static class Range {
+        File file;
+        long offset;
+        long end;
+        long firstLine;
+        
+        Range(File file, long offset, long end, long firstLine) {
+            this.file = file;
+            this.offset = offset;
+            this.end = end;
+            this.firstLine = firstLine;
+        }
+    }
+    
+    protected List<Segment> segments = new ArrayList<Segment>();
+    protected ExecutorService executor;
+    
+    /**
+     * @param file single log file
+     * @param threads threads for parallel scanning
+     * @throws IOException
+     */
+    public IndexedLogReader(File file, int threads) throws IOException {
+        this(Collections.singletonList(file), threads);
+    }
+    
+    /**
+     * @param files log files, oldest first
+     * @param threads threads for parallel scanning
+     * @throws IOException
+     */
+    public IndexedLogReader(List<File> files, int threads) throws IOException {
+        long nextLine = 1;
+        for (File file : files) {
+            if (!file.exists()) {
+                continue;
+            }
+            Segment segment = new Segment();
+            segment.file = file;
+            segment.index = LogIndex.load(file);
+            segment.firstLine = nextLine;
+            long indexedLines = 0;
+            long indexedEnd = 0;
+            if (segment.index != null) {
+                indexedLines = segment.index.getNextLine() - 1;
+                indexedEnd = segment.index.getEndOffset();
+            }
+            // lines past the index must be counted to number later files
+            segment.lineCount = indexedLines 
+                + countLines(file, indexedEnd, file.length());
+            nextLine += segment.lineCount;
+            segments.add(segment);
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+    
+    public void close() {
+        executor.shutdownNow();
+    }
+    
+    protected static long countLines(File file, long offset, long end) 
+    throws IOException {
+        if (offset >= end) {
+            return 0;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(offset);
+            LineReader reader = new LineReader(raf, end);
+            long count = 0;
+            while (reader.readLine() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * @return total lines in all files, as of this reader's creation
+     */
+    public long getLineCount() {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Segment last = segments.get(segments.size() - 1);
+        return last.firstLine - 1 + last.lineCount;
+    }
+    
+    /**
+     * Find where to start reading for the given (global) line number. 
+     * 
+     * @return Range from the nearest indexed line at or before lineNumber 
+     * to the end of its file, or null if beyond all lines
+     */
+    protected Range seekLine(long lineNumber) {
+        for (Segment segment : segments) {
+            if (lineNumber >= segment.firstLine + segment.lineCount) {
+                continue;
+            }
+            long local = lineNumber - segment.firstLine + 1;
+            long offset = 0;
+            long firstLocal = 1;
+            if (segment.index != null) {
+                int b = segment.index.findBlockForLine(local);
+                if (b >= 0) {
+                    Block block = segment.index.getBlocks().get(b);
+                    offset = block.offset;
+                    firstLocal = block.firstLine;
+                } else {
+                    offset = segment.index.getEndOffset();
+                    firstLocal = segment.index.getNextLine();
+                }
+            }
+            return new Range(segment.file, offset, segment.file.length(),
+                    segment.firstLine + firstLocal - 1);
+        }
+        return null;
+    }
+    
+    /**
+     * Get a page of consecutive lines.
+     * 
+     * @param lineNumber first line wanted, counting from 1
+     * @param n most lines wanted
+     * @return lines, without terminators; fewer than n at end of log
+     * @throws IOException
+     */
+    public List<String> getLines(long lineNumber, int n) throws IOException {
+        List<String> lines = new ArrayList<String>(Math.min(n, 1024));
+        long next = lineNumber;
+        while (lines.size() < n) {
+            Range range = seekLine(next);
+            if (range == null) {
+                break;
+            }
+            RandomAccessFile raf = new RandomAccessFile(range.file, "r");
+            try {
+                raf.seek(range.offset);
+                LineReader reader = new LineReader(raf, range.end);
+                long current = range.firstLine;
+                String line;
+                while (lines.size() < n && (line = reader.readLine()) != null) {
+                    if (current >= next) {
+                        lines.add(line);
+                    }
+                    current++;
+                }
+                if (current <= next) {
+                    // file shorter than when counted
+                    break;
+                }
+                next = current;
+            } finally {
+                raf.close();
+            }
+        }
+        return lines;
+    }
+    
+    /**
+     * Find the first line whose leading timestamp is at or after the 
+     * given one (timestamps being assumed to increase through the log).
+     * 
+     * @param timestamp timestamp, in the log's own format (or any prefix 
+     * of it, such as "2010-06-01T12")
+     * @return line number, or -1 if none
+     * @throws IOException
+     */
+    public long findFirstLineAtOrAfter(String timestamp) throws IOException {
+        for (Segment segment : segments) {
+            long offset = 0;
+            long current = segment.firstLine;
+            if (segment.index != null) {
+                List<Block> blocks = segment.index.getBlocks();
+                int b = segment.index.findBlockForTimestamp(timestamp);
+                if (b < blocks.size()) {
+                    offset = blocks.get(b).offset;
+                    current = segment.firstLine + blocks.get(b).firstLine - 1;
+                }
+            }
+            RandomAccessFile raf = new RandomAccessFile(segment.file, "r");
+            try {
+                raf.seek(offset);
+                LineReader reader = new LineReader(raf, segment.file.length());
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String lineTimestamp = LogIndex.timestampOf(line);
+                    if (lineTimestamp != null 
+                            && lineTimestamp.compareTo(timestamp) >= 0) {
+                        return current;
+                    }
+                    current++;
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Find a page of lines matching a regular expression (as a whole, as 
+     * with LogReader), optionally only those for a given host. Ranges of 
+     * the log are scanned in parallel; for the next page, call again with 
+     * fromLine one past the last match returned.
+     * 
+     * @param regex regular expression lines must match
+     * @param host if not null, host lines' URIs must have
+     * @param fromLine first line to consider
+     * @param maxMatches most matches to return
+     * @return matches, in line order
+     * @throws IOException
+     */
+    public List<Match> find(String regex, final String host, 
+            final long fromLine, final int maxMatches) throws IOException {
+        final Pattern pattern = Pattern.compile(regex);
+        final String lowerHost = (host == null) ? null : host.toLowerCase();
+        List<Future<List<Match>>> futures = new ArrayList<Future<List<Match>>>();
+        for (final Range range : ranges(lowerHost, fromLine)) {
+            futures.add(executor.submit(new Callable<List<Match>>() {
+                public List<Match> call() throws IOException {
+                    return scan(range, pattern, lowerHost, fromLine, 
+                            maxMatches);
+                }
+            }));
+        }
+        List<Match> matches = new ArrayList<Match>();
+        try {
+            for (Future<List<Match>> future : futures) {
+                if (matches.size() >= maxMatches) {
+                    future.cancel(true);
+                    continue;
+                }
+                List<Match> found = future.get();
+                matches.addAll(found.subList(0, 
+                        Math.min(found.size(), maxMatches - matches.size())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            for (Future<List<Match>> future : futures) {
+                future.cancel(true);
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        return matches;
+    }
+    
+    /**
+     * Split the log from fromLine on into line-aligned ranges for 
+     * scanning, leaving out indexed blocks without the host (if any).
+     */
+    protected List<Range> ranges(String host, long fromLine) {
+        List<Range> ranges = new ArrayList<Range>();
+        for (Segment segment : segments) {
+            if (fromLine >= segment.firstLine + segment.lineCount) {
+                continue;
+            }
+            long tailOffset = 0;
+            long tailFirstLine = segment.firstLine;
+            if (segment.index != null) {
+                Range current = null;
+                for (Block block : segment.index.getBlocks()) {
+                    long blockFirst = segment.firstLine + block.firstLine - 1;
+                    boolean wanted = 
+                        blockFirst + block.lineCount > fromLine
+                        && (host == null || block.hosts.contains(host));
+                    if (!wanted) {
+                        current = null;
+                        continue;
+                    }
+                    if (current == null 
+                            || current.end - current.offset >= RANGE_BYTES) {
+                        current = new Range(segment.file, block.offset, 
+                                block.getEndOffset(), blockFirst);
+                        ranges.add(current);
+                    } else {
+                        current.end = block.getEndOffset();
+                    }
+                }
+                tailOffset = segment.index.getEndOffset();
+                tailFirstLine = segment.firstLine 
+                    + segment.index.getNextLine() - 1;
+            }
+            if (segment.file.length() > tailOffset) {
+                ranges.add(new Range(segment.file, tailOffset, 
+                        segment.file.length(), tailFirstLine));
+            }
+        }
+        return ranges;
+    }
+    
+    protected static List<Match> scan(Range range, Pattern pattern, 
+            String host, long fromLine, int maxMatches) throws IOException {
+        List<Match> matches = new ArrayList<Match>();
+        RandomAccessFile raf = new RandomAccessFile(range.file, "r");
+        try {
+            raf.seek(range.offset);
+            LineReader reader = new LineReader(raf, range.end);
+            long current = range.firstLine;
+            String line;
+            while (matches.size() < maxMatches 
+                    && (line = reader.readLine()) != null) {
+                if (current >= fromLine
+                        && (host == null || host.equals(LogIndex.hostOf(line)))
+                        && pattern.matcher(line).matches()) {
+                    matches.add(new Match(current, line));
+                }
+                current++;
+                if ((current & 0xfff) == 0 && Thread.interrupted()) {
+                    // cancelled: page already full
+                    break;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        return matches;
+    }
+}
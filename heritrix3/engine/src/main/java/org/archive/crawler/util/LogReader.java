@@ -28,11 +28,13 @@ import java.io.RandomAccessFile;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import org.archive.io.CompositeFileReader;
+import org.archive.io.LogIndex;
 import org.archive.util.ArchiveUtils;
 
 /**
@@ -108,8 +110,26 @@ public class LogReader
         File f = new File(aFileName);
         long logsize = f.length();
         try {
+            if (LogIndex.indexFileFor(f).exists()) {
+                // seek straight to the line via the index
+                IndexedLogReader reader = new IndexedLogReader(f, 1);
+                try {
+                    StringBuffer ret = new StringBuffer();
+                    if (lineNumber > 0 && n > 0) {
+                        for (String line : reader.getLines(lineNumber, n)) {
+                            ret.append(line);
+                            ret.append('\n');
+                        }
+                    }
+                    String[] tmp = {ret.toString(),
+                            buildDisplayingHeader(ret.length(), logsize)};
+                    return tmp;
+                } finally {
+                    reader.close();
+                }
+            }
             return get(new FileReader(aFileName),lineNumber,n,logsize);
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
@@ -221,8 +241,22 @@ public class LogReader
     public static int findFirstLineContaining(String aFileName, String regex)
     {
         try {
+            File f = new File(aFileName);
+            if (LogIndex.indexFileFor(f).exists()) {
+                // scan ranges of the log in parallel
+                IndexedLogReader reader = new IndexedLogReader(f, 
+                        Runtime.getRuntime().availableProcessors());
+                try {
+                    List<IndexedLogReader.Match> matches = 
+                        reader.find(regex, null, 1, 1);
+                    return matches.isEmpty() 
+                        ? -1 : (int) matches.get(0).lineNumber;
+                } finally {
+                    reader.close();
+                }
+            }
             return findFirstLineContaining(new FileReader(aFileName), regex);
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
             return -1;
         }
@@ -0,0 +1,95 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.collections.Closure;
+import org.apache.commons.io.FileUtils;
+import org.archive.bdb.BdbModule;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests partitioning of BdbFrontier pending URIs across several 
+ * BdbModule environments.
+ */
+public class BdbFrontierShardingTest extends TmpDirTestCase {
+    List<BdbModule> modules = new ArrayList<BdbModule>();
+    BdbFrontier frontier;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        for(int i = 0; i < 2; i++) {
+            File dir = new File(getTmpDir(), "shard" + i);
+            FileUtils.deleteDirectory(dir);
+            BdbModule bdb = new BdbModule();
+            bdb.setDir(new ConfigPath("shard", dir.getAbsolutePath()));
+            bdb.start();
+            modules.add(bdb);
+        }
+        frontier = new BdbFrontier();
+        frontier.setPendingShards(modules);
+        frontier.pendingUris = frontier.createMultipleWorkQueues();
+    }
+
+    protected void tearDown() throws Exception {
+        for(BdbMultipleWorkQueues shard : frontier.pendingUris) {
+            shard.close();
+        }
+        for(BdbModule bdb : modules) {
+            bdb.stop();
+            bdb.close();
+        }
+        super.tearDown();
+    }
+
+    protected static long countPending(BdbMultipleWorkQueues shard) 
+    throws Exception {
+        final long[] count = new long[1];
+        shard.forAllPendingDo(new Closure() {
+            public void execute(Object curi) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    public void testQueuesPartitionedByClassKey() throws Exception {
+        for(int i = 0; i < 100; i++) {
+            String classKey = "com,example,host" + (i % 20) + ",";
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                    "http://host" + (i % 20) + ".example.com/" + i));
+            curi.setClassKey(classKey);
+            curi.setOrdinal(i);
+            BdbMultipleWorkQueues shard = frontier.getWorkQueues(classKey);
+            assertSame("same queue always in same shard", 
+                    shard, frontier.getWorkQueues(classKey));
+            shard.put(curi, false);
+        }
+        long first = countPending(frontier.pendingUris[0]);
+        long second = countPending(frontier.pendingUris[1]);
+        assertEquals(100, first + second);
+        assertTrue("both shards used", first > 0 && second > 0);
+    }
+}
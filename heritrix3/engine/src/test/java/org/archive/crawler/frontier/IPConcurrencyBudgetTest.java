@@ -0,0 +1,67 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.net.InetAddress;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link IPConcurrencyBudget}.
+ */
+public class IPConcurrencyBudgetTest extends TestCase {
+
+    public void testPerIpLimit() throws Exception {
+        IPConcurrencyBudget budget = new IPConcurrencyBudget();
+        InetAddress a = InetAddress.getByName("10.0.0.1");
+        String key1 = budget.tryAcquire(a, 2, 0);
+        String key2 = budget.tryAcquire(a, 2, 0);
+        assertNotNull(key1);
+        assertNotNull(key2);
+        assertNull("third fetch allowed", budget.tryAcquire(a, 2, 0));
+        assertEquals(2, budget.getInFlight("10.0.0.1"));
+        assertEquals(1, budget.getRefusals());
+        budget.release(key1);
+        assertNotNull(budget.tryAcquire(a, 2, 0));
+        // other IP unaffected
+        assertNotNull(budget.tryAcquire(
+                InetAddress.getByName("10.0.0.2"), 2, 0));
+    }
+
+    public void testPerSubnetLimit() throws Exception {
+        IPConcurrencyBudget budget = new IPConcurrencyBudget();
+        assertNotNull(budget.tryAcquire(
+                InetAddress.getByName("10.0.0.1"), 0, 2));
+        assertNotNull(budget.tryAcquire(
+                InetAddress.getByName("10.0.0.2"), 0, 2));
+        assertNull("third fetch to /24 allowed", budget.tryAcquire(
+                InetAddress.getByName("10.0.0.3"), 0, 2));
+        assertEquals("refused acquire left IP count raised",
+                0, budget.getInFlight("10.0.0.3"));
+        assertNotNull(budget.tryAcquire(
+                InetAddress.getByName("10.0.1.3"), 0, 2));
+    }
+
+    public void testSubnetKeys() throws Exception {
+        IPConcurrencyBudget budget = new IPConcurrencyBudget();
+        assertEquals("192.168.5.0/24", budget.subnetKeyFor("192.168.5.77"));
+        assertEquals("2001:db8:0:1::/64", 
+                budget.subnetKeyFor("2001:db8:0:1:0:0:0:1"));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for LazyQueueLoader
+ */
+public class LazyQueueLoaderTest extends TestCase {
+    
+    /**
+     * Frontier faulting in no real queues, and failing on one key.
+     */
+    @SuppressWarnings("serial")
+    protected static class StubFrontier extends BdbFrontier {
+        Set<String> loaded = new HashSet<String>();
+        SortedMap<Integer,Queue<String>> inactives = 
+            new TreeMap<Integer,Queue<String>>();
+        
+        StubFrontier() {
+            readyClassQueues = new LinkedBlockingQueue<String>();
+        }
+        
+        @Override
+        protected WorkQueue getQueueFor(String classKey) {
+            if ("bad.example.com".equals(classKey)) {
+                throw new IllegalStateException("unreadable queue");
+            }
+            synchronized (loaded) {
+                loaded.add(classKey);
+            }
+            return null;
+        }
+        
+        @Override
+        SortedMap<Integer,Queue<String>> getInactiveQueuesByPrecedence() {
+            return inactives;
+        }
+    }
+    
+    public void testEveryActiveKeyReady() throws Exception {
+        StubFrontier frontier = new StubFrontier();
+        Queue<String> inactive = new LinkedList<String>();
+        inactive.add("inactive.example.com");
+        frontier.inactives.put(1, inactive);
+        
+        StringBuilder active = new StringBuilder();
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 250; i++) {
+            String key = (i == 117) ? "bad.example.com" : i + ".example.com";
+            active.append(key).append('\n');
+            expected.add(key);
+        }
+        LazyQueueLoader loader = new LazyQueueLoader(frontier, 
+                new BufferedReader(new StringReader(active.toString())), 3);
+        loader.setBatchSize(10);
+        loader.start();
+        loader.awaitActive();
+        
+        assertEquals(expected, new HashSet<String>(frontier.readyClassQueues));
+        assertEquals(250L, loader.progressMap().get("activeQueuesRestored"));
+        assertEquals(1L, loader.progressMap().get("loadFailures"));
+        
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!loader.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(loader.isDone());
+        assertTrue(frontier.loaded.contains("inactive.example.com"));
+        assertFalse(frontier.readyClassQueues.contains("inactive.example.com"));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.monitor.MemoryBudgetMonitor.AdjustableConsumer;
+import org.archive.crawler.monitor.MemoryBudgetMonitor.Consumer;
+import org.archive.crawler.monitor.MemoryBudgetMonitor.Kind;
+
+public class MemoryBudgetMonitorTest extends TestCase {
+    static final long MB = 1024 * 1024;
+
+    static class Stub implements Consumer {
+        String name;
+        Kind kind;
+        long used;
+        long allowed;
+        Stub(String name, Kind kind, long used, long allowed) {
+            this.name = name;
+            this.kind = kind;
+            this.used = used;
+            this.allowed = allowed;
+        }
+        public String getName() {
+            return name;
+        }
+        public Kind getKind() {
+            return kind;
+        }
+        public long getUsedBytes() {
+            return used;
+        }
+        public long getAllowedBytes() {
+            return allowed;
+        }
+    }
+
+    static class AdjustableStub extends Stub implements AdjustableConsumer {
+        long lookups = 0;
+        long pressure = 0;
+        AdjustableStub(String name, long used, long allowed) {
+            super(name, Kind.ADJUSTABLE, used, allowed);
+        }
+        public void setAllowedBytes(long bytes) {
+            allowed = bytes;
+        }
+        public long getLookupCount() {
+            return lookups;
+        }
+        public long getPressureCount() {
+            return pressure;
+        }
+    }
+
+    AdjustableStub je = new AdjustableStub("je", 600 * MB, 600 * MB);
+    AdjustableStub objects = new AdjustableStub("objects", 100 * MB, 100 * MB);
+    Stub recorders = new Stub("recorders", Kind.FIXED, 100 * MB, 100 * MB);
+    Stub soft = new Stub("soft", Kind.RECLAIMABLE, 500 * MB, -1);
+
+    MemoryBudgetMonitor monitor = new MemoryBudgetMonitor() {
+        public long getBudgetBytes() {
+            return 500 * MB;
+        }
+        protected List<Consumer> findConsumers() {
+            return new ArrayList<Consumer>(
+                    Arrays.asList(je, objects, recorders, soft));
+        }
+    };
+
+    public void testFitsAdjustableToBudget() {
+        monitor.rebalance();
+        // 500 budget - 100 fixed = 400 for adjustable; amounts above
+        // their floors stay in the same ratio
+        long total = je.allowed + objects.allowed;
+        assertTrue(Math.abs(400 * MB - total) < MB);
+        long floor = monitor.getMinAllowanceBytes();
+        assertEquals((600.0 * MB - floor) / (100 * MB - floor), 
+                (double) (je.allowed - floor) / (objects.allowed - floor), 0.01);
+    }
+
+    public void testShiftsTowardPressure() {
+        monitor.rebalance();
+        long jeBefore = je.allowed;
+        long objectsBefore = objects.allowed;
+        objects.lookups = 1000;
+        objects.pressure = 100; // evicting 10% of lookups
+        je.lookups = 1000;
+        monitor.rebalance();
+        // 5% of 500 moved from je to objects
+        assertEquals(jeBefore - 25 * MB, je.allowed, MB);
+        assertEquals(objectsBefore + 25 * MB, objects.allowed, MB);
+
+        // both under pressure: no further shift
+        long jeSteady = je.allowed;
+        objects.lookups = 2000;
+        objects.pressure = 200;
+        je.lookups = 2000;
+        je.pressure = 50;
+        monitor.rebalance();
+        assertEquals(jeSteady, je.allowed, MB);
+    }
+
+    public void testOccasionalMissesNotPressure() {
+        monitor.rebalance();
+        long jeBefore = je.allowed;
+        long objectsBefore = objects.allowed;
+        // 1 eviction in 1000 lookups is under the 2% pressurePercent
+        objects.lookups = 1000;
+        objects.pressure = 1;
+        je.lookups = 1000;
+        monitor.rebalance();
+        assertEquals(jeBefore, je.allowed, MB);
+        assertEquals(objectsBefore, objects.allowed, MB);
+
+        // 30 more in the next 1000 is over it
+        objects.lookups = 2000;
+        objects.pressure = 31;
+        monitor.rebalance();
+        assertEquals(objectsBefore + 25 * MB, objects.allowed, MB);
+    }
+
+    public void testFloorWhenFixedExceedsBudget() {
+        recorders.used = 1000 * MB;
+        monitor.rebalance();
+        assertEquals(monitor.getMinAllowanceBytes(), je.allowed);
+        assertEquals(monitor.getMinAllowanceBytes(), objects.allowed);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testReport() {
+        Map<String,Object> map = monitor.shortReportMap();
+        assertEquals(100 * MB, map.get("fixedBytes"));
+        Map<String,Object> consumers = (Map<String,Object>) map.get("consumers");
+        assertEquals(4, consumers.size());
+        assertTrue(monitor.shortReportLine().contains("soft"));
+    }
+}
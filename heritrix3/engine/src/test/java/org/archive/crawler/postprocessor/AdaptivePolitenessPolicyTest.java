@@ -0,0 +1,93 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.postprocessor;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.modules.fetcher.FetchStatusCodes;
+import org.archive.net.UURIFactory;
+
+/**
+ * Unit test for {@link AdaptivePolitenessPolicy}.
+ */
+public class AdaptivePolitenessPolicyTest extends TestCase {
+
+    protected DispositionProcessor disposition;
+    protected AdaptivePolitenessPolicy policy;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        disposition = new DispositionProcessor();
+        disposition.setServerCache(new DefaultServerCache());
+        disposition.setDelayFactor(5.0f);
+        disposition.setMinDelayMs(3000);
+        disposition.setMaxDelayMs(30000);
+        policy = new AdaptivePolitenessPolicy();
+        disposition.setPolitenessPolicy(policy);
+    }
+
+    protected long delayAfter(String uri, long duration, int status) 
+    throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri));
+        curi.setFetchBeginTime(1000);
+        curi.setFetchCompletedTime(1000 + duration);
+        curi.setFetchStatus(status);
+        return policy.politenessDelayFor(disposition, curi);
+    }
+
+    public void testHealthyServerFaster() throws Exception {
+        long delay = 0;
+        for (int i = 0; i < 10; i++) {
+            delay = delayAfter("http://fast.example.com/" + i, 200, 200);
+        }
+        // 2.0 * 200ms, below usual 3000ms minimum
+        assertEquals(500, delay);
+        for (int i = 0; i < 10; i++) {
+            delay = delayAfter("http://fast.example.com/" + i, 400, 200);
+        }
+        // converging on 2.0 * 400ms
+        assertTrue("unexpected delay " + delay, delay > 700 && delay <= 800);
+    }
+
+    public void testErrorsBackOff() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            delayAfter("http://sick.example.com/" + i, 400, 200);
+        }
+        long healthy = delayAfter("http://sick.example.com/x", 400, 200);
+        long delay = delayAfter("http://sick.example.com/y", 400, 503);
+        assertTrue("no back-off on 5XX", delay > healthy);
+        assertTrue("no back-off on 5XX", delay > 5 * 400);
+        long later = delayAfter("http://sick.example.com/z", 400, 
+                FetchStatusCodes.S_TIMEOUT);
+        assertTrue("no further back-off on timeout", later > delay);
+        assertEquals("max not respected", 30000,
+                delayAfter("http://sick.example.com/w", 20000, 503));
+    }
+
+    public void testLatencyRiseBacksOff() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            delayAfter("http://slowing.example.com/" + i, 200, 200);
+        }
+        // jump to 1000ms: no longer steady, use delayFactor on latest
+        assertEquals(5000, delayAfter("http://slowing.example.com/x", 1000, 200));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.postprocessor;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.postprocessor.CrawlTrapDetector.Sketch;
+import org.archive.crawler.postprocessor.CrawlTrapDetector.Verdict;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.SchedulingConstants;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.Link;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
+
+public class CrawlTrapDetectorTest extends TestCase {
+    
+    protected static CrawlURI curi(String uri) throws Exception {
+        return new CrawlURI(UURIFactory.getInstance(uri), "L", null, 
+                LinkContext.NAVLINK_MISC);
+    }
+    
+    public void testTemplateOf() {
+        assertEquals("/cal/#/#/#?sid&view", CrawlTrapDetector.templateOf(
+                "http://example.com/cal/2010/06/15?view=month&sid=abc#top"));
+        assertEquals("/", CrawlTrapDetector.templateOf("http://example.com"));
+        assertEquals("/item/*/page#.html", CrawlTrapDetector.templateOf(
+                "http://example.com/item/9f86d081884c7d65/page2.html"));
+        assertEquals("page#.html", CrawlTrapDetector.templateOf("page2.html"));
+        assertEquals("example.com", CrawlTrapDetector.hostOf(
+                "http://user@Example.COM:8080/x"));
+    }
+    
+    public void testSketch() {
+        Sketch sketch = new Sketch();
+        assertEquals(0, sketch.estimate());
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(CrawlTrapDetector.hash("same"));
+        }
+        assertEquals(1, sketch.estimate());
+        for (int i = 0; i < 20000; i++) {
+            sketch.add(CrawlTrapDetector.hash("value" + i));
+        }
+        long estimate = sketch.estimate();
+        assertTrue("estimate " + estimate, 
+                estimate > 13000 && estimate < 27000);
+    }
+    
+    public void testTemplateCardinality() throws Exception {
+        CrawlTrapDetector detector = new CrawlTrapDetector();
+        detector.setTemplateThreshold(50);
+        detector.setRejectMultiple(4);
+        CrawlURI source = curi("http://cal.example.com/");
+        Verdict last = Verdict.NONE;
+        int firstDeprioritized = -1;
+        for (int i = 0; i < 1000; i++) {
+            Verdict v = detector.assess(source, 
+                    curi("http://cal.example.com/day/" + i));
+            if (v == Verdict.DEPRIORITIZE && firstDeprioritized < 0) {
+                firstDeprioritized = i;
+            }
+            last = v;
+        }
+        assertTrue(firstDeprioritized > 25 && firstDeprioritized < 100);
+        assertEquals(Verdict.REJECT, last);
+        // other templates and hosts unaffected
+        assertEquals(Verdict.NONE, detector.assess(source, 
+                curi("http://cal.example.com/about")));
+        assertEquals(Verdict.NONE, detector.assess(source, 
+                curi("http://other.example.com/day/1")));
+        
+        // candidate left at default NORMAL directive, uncalculated cost
+        CrawlURI candidate = curi("http://cal.example.com/day/1001");
+        assertEquals(SchedulingConstants.NORMAL, 
+                candidate.getSchedulingDirective());
+        assertEquals(CrawlURI.UNCALCULATED, candidate.getHolderCost());
+        detector.setRejectMultiple(0);
+        assertTrue(detector.apply(source, candidate));
+        assertEquals(detector.getDeprioritizedCost(), 
+                candidate.getHolderCost());
+        // an untrapped candidate is left for the frontier to cost
+        CrawlURI ordinary = curi("http://cal.example.com/contact");
+        assertTrue(detector.apply(source, ordinary));
+        assertEquals(CrawlURI.UNCALCULATED, ordinary.getHolderCost());
+        
+        // earlier-promoted candidates are demoted too
+        candidate = curi("http://cal.example.com/day/1002");
+        candidate.setSchedulingDirective(SchedulingConstants.HIGH);
+        assertTrue(detector.apply(source, candidate));
+        assertEquals(SchedulingConstants.NORMAL, 
+                candidate.getSchedulingDirective());
+        assertEquals(detector.getDeprioritizedCost(), 
+                candidate.getHolderCost());
+        assertTrue(candidate.getAnnotations().contains(
+                CrawlTrapDetector.TRAP_ANNOTATION));
+        assertTrue(detector.report().contains("template /day/#"));
+    }
+    
+    public void testParamCardinality() throws Exception {
+        CrawlTrapDetector detector = new CrawlTrapDetector();
+        detector.setParamCardinalityThreshold(100);
+        CrawlURI source = curi("http://shop.example.com/");
+        Verdict v = null;
+        for (int i = 0; i < 300; i++) {
+            v = detector.assess(source, curi(
+                    "http://shop.example.com/page" + (i % 5) 
+                    + "?sid=" + Long.toHexString(i * 7919L)));
+        }
+        assertEquals(Verdict.DEPRIORITIZE, v);
+        assertEquals(Verdict.NONE, detector.assess(source, 
+                curi("http://shop.example.com/page1?color=red")));
+        assertTrue(detector.report().contains("param sid"));
+    }
+    
+    public void testSelfSimilar() throws Exception {
+        CrawlTrapDetector detector = new CrawlTrapDetector();
+        detector.setNearDuplicateRun(10);
+        detector.setSelfSimilarTemplateThreshold(20);
+        Verdict v = null;
+        for (int page = 0; page < 60; page++) {
+            CrawlURI source = curi("http://cal.example.com/month/" + page);
+            for (String nav : new String[] {"/", "/about", "/contact", 
+                    "/search?q=", "/login"}) {
+                source.getOutLinks().add(new Link(source.getURI(), nav, 
+                        LinkContext.NAVLINK_MISC, Hop.NAVLINK));
+            }
+            source.getOutLinks().add(new Link(source.getURI(), 
+                    "/month/" + (page + 1), LinkContext.NAVLINK_MISC, 
+                    Hop.NAVLINK));
+            detector.notePage(source);
+            v = detector.assess(source, 
+                    curi("http://cal.example.com/month/" + (page + 1)));
+            if (page < 10) {
+                assertEquals(Verdict.NONE, v);
+            }
+        }
+        assertEquals(Verdict.DEPRIORITIZE, v);
+        // ordinary template threshold still far off
+        assertEquals(Verdict.NONE, detector.assess(
+                curi("http://cal.example.com/"),
+                curi("http://cal.example.com/month/99")));
+    }
+    
+    public void testBounded() throws Exception {
+        CrawlTrapDetector detector = new CrawlTrapDetector();
+        detector.setMaxHosts(3);
+        detector.setMaxTemplatesPerHost(2);
+        CrawlURI source = curi("http://a.example.com/");
+        for (int i = 0; i < 10; i++) {
+            detector.assess(source, curi("http://h" + i + ".example.com/x" 
+                    + "/y".substring(0, i % 2 * 2)));
+            detector.assess(source, curi("http://h9.example.com/t" + i));
+        }
+        assertEquals(3, detector.hosts.size());
+        assertEquals(2, detector.hosts.get("h9.example.com").templates.size());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.prefetch;
+
+import static org.archive.modules.fetcher.FetchStatusCodes.S_BLOCKED_BY_CUSTOM_PROCESSOR;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.postprocessor.CrawlTrapDetector;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.ProcessResult;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
+import org.archive.spring.KeyedProperties;
+
+public class CandidateTrapCheckerTest extends TestCase {
+    
+    protected CrawlTrapDetector detector;
+    protected CandidateTrapChecker checker;
+    protected FrontierPreparer preparer;
+    protected CrawlURI source;
+    
+    @Override
+    protected void setUp() throws Exception {
+        detector = new CrawlTrapDetector();
+        detector.setTemplateThreshold(50);
+        checker = new CandidateTrapChecker();
+        checker.setTrapDetector(detector);
+        preparer = new FrontierPreparer();
+        source = new CrawlURI(UURIFactory.getInstance(
+                "http://cal.example.com/"));
+    }
+    
+    /**
+     * Run the candidate through the checker and preparer, as the 
+     * CandidateChain would.
+     */
+    protected CrawlURI candidate(String uri) throws Exception {
+        CrawlURI candidate = new CrawlURI(UURIFactory.getInstance(uri), 
+                "L", source.getUURI(), LinkContext.NAVLINK_MISC);
+        candidate.setFullVia(source);
+        candidate.getOverlayNames();
+        KeyedProperties.loadOverridesFrom(candidate);
+        try {
+            if (checker.process(candidate) == ProcessResult.PROCEED) {
+                preparer.process(candidate);
+            }
+        } finally {
+            KeyedProperties.clearOverridesFrom(candidate);
+        }
+        return candidate;
+    }
+    
+    public void testDeprioritizedPrecedence() throws Exception {
+        detector.setRejectMultiple(0);
+        for (int i = 0; i < 200; i++) {
+            candidate("http://cal.example.com/day/" + i);
+        }
+        CrawlURI trapped = candidate("http://cal.example.com/day/1001");
+        assertTrue(trapped.getAnnotations().contains(
+                CrawlTrapDetector.TRAP_ANNOTATION));
+        assertNotNull(trapped.getClassKey());
+        assertEquals(detector.getDeprioritizedCost(), 
+                trapped.getPrecedence());
+        
+        CrawlURI ordinary = candidate("http://cal.example.com/about");
+        assertEquals(1, ordinary.getPrecedence());
+        assertTrue(ordinary.getPrecedence() < trapped.getPrecedence());
+    }
+    
+    public void testRejected() throws Exception {
+        detector.setRejectMultiple(4);
+        CrawlURI last = null;
+        for (int i = 0; i < 1000; i++) {
+            last = candidate("http://cal.example.com/day/" + i);
+        }
+        assertEquals(S_BLOCKED_BY_CUSTOM_PROCESSOR, last.getFetchStatus());
+        assertNull(last.getClassKey());
+    }
+}
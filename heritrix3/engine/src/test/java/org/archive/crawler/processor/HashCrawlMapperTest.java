@@ -20,6 +20,7 @@ package org.archive.crawler.processor;
 
 
 import org.archive.crawler.framework.CrawlerProcessorTestBase;
+import org.archive.util.LongToIntConsistentHash;
 
 
 /**
@@ -29,6 +30,40 @@ import org.archive.crawler.framework.CrawlerProcessorTestBase;
  */
 public class HashCrawlMapperTest extends CrawlerProcessorTestBase {
 
-    // TODO TESTME!
+    public void testConsistentHashingMovesFewKeys() {
+        LongToIntConsistentHash conhash = new LongToIntConsistentHash();
+        int moved = 0;
+        for(int i = 0; i < 10000; i++) {
+            String key = "com,example,host" + i + ",";
+            String three = HashCrawlMapper.mapStringConsistent(
+                    key, null, conhash, 3);
+            String four = HashCrawlMapper.mapStringConsistent(
+                    key, null, conhash, 4);
+            if(!three.equals(four)) {
+                assertEquals("keys only move to the new crawler", "3", four);
+                moved++;
+            }
+        }
+        // ideally 1/4 of keys move to the new crawler
+        assertTrue("moved " + moved, moved > 1500 && moved < 3500);
+    }
+    
+    public void testConsistentHashReplacedNotModified() {
+        HashCrawlMapper mapper = new HashCrawlMapper();
+        mapper.setCrawlerCount(4);
+        LongToIntConsistentHash four = mapper.getConsistentHash();
+        assertEquals(4, four.getReplicasInstalledUpTo());
+        assertSame(four, mapper.getConsistentHash());
+        
+        mapper.setCrawlerCount(8);
+        LongToIntConsistentHash eight = mapper.getConsistentHash();
+        assertNotSame(four, eight);
+        assertEquals("published hash left as it was", 
+                4, four.getReplicasInstalledUpTo());
+        assertEquals(8, eight.getReplicasInstalledUpTo());
+        
+        mapper.setCrawlerCount(3);
+        assertSame(eight, mapper.getConsistentHash());
+    }
     
 }
@@ -0,0 +1,257 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.processor;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Hands URIs between several crawler nodes in one JVM, over loopback.
+ */
+public class UriHandoffTest extends TmpDirTestCase {
+
+    /** node which collects received URIs instead of needing a frontier */
+    static class Node extends UriHandoff {
+        List<CrawlURI> scheduled = 
+            Collections.synchronizedList(new ArrayList<CrawlURI>());
+        @Override
+        protected void schedule(CrawlURI curi) {
+            scheduled.add(curi);
+        }
+    }
+
+    protected Node node(String name, int listenPort, Map<String,String> peers) {
+        Node node = new Node();
+        File spool = new File(getTmpDir(), "handoff-" + name);
+        cleanUpOldFiles(spool, "");
+        node.setSpoolDir(new ConfigPath("spool", spool.getAbsolutePath()));
+        node.setListenPort(listenPort);
+        node.setPeers(peers);
+        node.setLingerMs(20);
+        node.setBatchSize(64);
+        node.setRetryIntervalMs(100);
+        return node;
+    }
+
+    protected CrawlURI curi(int i) throws Exception {
+        return new CrawlURI(
+                UURIFactory.getInstance("http://host" + i + ".example.com/"),
+                "LL", UURIFactory.getInstance("http://example.com/"), null);
+    }
+
+    protected static void awaitCount(List<?> list, int count) 
+    throws InterruptedException {
+        for(int i = 0; i < 200 && list.size() < count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, list.size());
+    }
+
+    public void testHandoffToSeveralPeers() throws Exception {
+        Node b = node("b", 0, new HashMap<String,String>());
+        Node c = node("c", 0, new HashMap<String,String>());
+        b.start();
+        c.start();
+        Map<String,String> peers = new HashMap<String,String>();
+        peers.put("1", "127.0.0.1:" + b.getLocalPort());
+        peers.put("2", "127.0.0.1:" + c.getLocalPort());
+        Node a = node("a", -1, peers);
+        a.start();
+        try {
+            for(int i = 0; i < 1000; i++) {
+                assertTrue(a.divert(i % 2 == 0 ? "1" : "2", curi(i)));
+            }
+            assertFalse("unconfigured peer", a.divert("3", curi(0)));
+            awaitCount(b.scheduled, 500);
+            awaitCount(c.scheduled, 500);
+            CrawlURI received = b.scheduled.get(0);
+            assertEquals("http://host0.example.com/", received.toString());
+            assertEquals("LL", received.getPathFromSeed());
+            assertEquals("http://example.com/", received.flattenVia());
+        } finally {
+            a.stop();
+            b.stop();
+            c.stop();
+        }
+    }
+
+    public void testSpoolWhilePeerDown() throws Exception {
+        ServerSocket reserve = new ServerSocket(0);
+        int port = reserve.getLocalPort();
+        reserve.close();
+        Map<String,String> peers = new HashMap<String,String>();
+        peers.put("1", "127.0.0.1:" + port);
+        Node a = node("a", -1, peers);
+        a.start();
+        Node b = node("b", port, new HashMap<String,String>());
+        try {
+            for(int i = 0; i < 300; i++) {
+                a.divert("1", curi(i));
+            }
+            for(int i = 0; i < 200; i++) {
+                if(a.senders.get("1").urisSpooled.get() == 300) {
+                    break;
+                }
+                Thread.sleep(50);
+            }
+            assertEquals(300, a.senders.get("1").urisSpooled.get());
+
+            b.start();
+            awaitCount(b.scheduled, 300);
+            for(int i = 0; i < 300; i++) {
+                a.divert("1", curi(1000 + i));
+            }
+            awaitCount(b.scheduled, 600);
+            assertEquals("later URIs after spooled ones",
+                    "http://host1000.example.com/", 
+                    b.scheduled.get(300).toString());
+            assertFalse(a.senders.get("1").spoolFile.exists());
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+
+    public void testStopSpoolsQueuedUris() throws Exception {
+        Map<String,String> peers = new HashMap<String,String>();
+        peers.put("1", "127.0.0.1:1");
+        Node a = node("a", -1, peers);
+        a.setLingerMs(60000);
+        a.start();
+        File spoolFile = a.senders.get("1").spoolFile;
+        for(int i = 0; i < 10; i++) {
+            a.divert("1", curi(i));
+        }
+        a.stop();
+        assertTrue("queued URIs spooled at stop", spoolFile.length() > 0);
+    }
+
+    public void testDivertRacingStop() throws Exception {
+        Map<String,String> peers = new HashMap<String,String>();
+        peers.put("1", "127.0.0.1:1");
+        final Node a = node("a", -1, peers);
+        a.setLingerMs(60000);
+        a.start();
+        UriHandoff.PeerSender sender = a.senders.get("1");
+        final AtomicInteger accepted = new AtomicInteger(0);
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] diverters = new Thread[4];
+        for(int t = 0; t < diverters.length; t++) {
+            final int base = t * 100000;
+            diverters[t] = new Thread() {
+                public void run() {
+                    try {
+                        go.await();
+                        for(int i = 0; i < 100000; i++) {
+                            if(a.divert("1", curi(base + i))) {
+                                accepted.incrementAndGet();
+                            } else if(!a.isRunning()) {
+                                break;
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            diverters[t].start();
+        }
+        go.countDown();
+        Thread.sleep(50);
+        a.stop();
+        for(Thread diverter : diverters) {
+            diverter.join();
+        }
+        // every URI accepted was spooled; none left stranded in the queue
+        assertEquals(accepted.get(), sender.urisSpooled.get());
+        assertEquals(0, sender.queue.size());
+
+        // a divert reaching the sender after its final drain is refused
+        a.senders.put("1", sender);
+        assertFalse(a.divert("1", curi(-1)));
+        assertEquals(0, sender.queue.size());
+    }
+
+    public void testUnwritableSpool() throws Exception {
+        Map<String,String> peers = new HashMap<String,String>();
+        peers.put("1", "127.0.0.1:1");
+        final Node a = node("a", -1, peers);
+        // a plain file where the spool directory should be
+        File spoolDir = a.getSpoolDir().getFile();
+        spoolDir.delete();
+        spoolDir.createNewFile();
+        a.setMaxQueuedPerPeer(10);
+        a.start();
+        UriHandoff.PeerSender sender = a.senders.get("1");
+        try {
+            final AtomicInteger accepted = new AtomicInteger(0);
+            final AtomicInteger refused = new AtomicInteger(0);
+            Thread diverter = new Thread() {
+                public void run() {
+                    try {
+                        for(int i = 0; i < 200; i++) {
+                            if(a.divert("1", curi(i))) {
+                                accepted.incrementAndGet();
+                            } else {
+                                refused.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            diverter.start();
+            diverter.join(10000);
+            assertFalse("divert blocked on failing spool", diverter.isAlive());
+            assertTrue(sender.spoolFailing);
+            assertTrue(sender.spoolFailures.get() > 0);
+            assertTrue(refused.get() > 0);
+            assertEquals(0, sender.urisSpooled.get());
+
+            // once the spool directory is usable, held URIs are spooled
+            spoolDir.delete();
+            spoolDir.mkdirs();
+            for(int i = 0; i < 200 && sender.spoolFailing; i++) {
+                Thread.sleep(50);
+            }
+            assertFalse(sender.spoolFailing);
+            assertTrue(a.divert("1", curi(1000)));
+            for(int i = 0; i < 200 
+                    && sender.urisSpooled.get() < accepted.get() + 1; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(accepted.get() + 1, sender.urisSpooled.get());
+        } finally {
+            a.stop();
+        }
+    }
+}
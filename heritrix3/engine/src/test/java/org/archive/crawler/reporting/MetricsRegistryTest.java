@@ -0,0 +1,73 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class MetricsRegistryTest extends TestCase {
+
+    public void testLineFormat() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.register("frontier", new MetricsRegistry.MetricSource() {
+            public Map<String, ?> metrics() {
+                Map<String,Object> nested = new LinkedHashMap<String,Object>();
+                nested.put("p99", 12L);
+                Map<String,Object> map = new LinkedHashMap<String,Object>();
+                map.put("readyQueues", 3);
+                map.put("lastReachedState", "RUN");
+                map.put("empty", Boolean.FALSE);
+                map.put("next latency", nested);
+                return map;
+            }
+        });
+        registry.register("broken", new MetricsRegistry.MetricSource() {
+            public Map<String, ?> metrics() {
+                throw new IllegalStateException();
+            }
+        });
+        registry.register("absent", new MetricsRegistry.MetricSource() {
+            public Map<String, ?> metrics() {
+                return null;
+            }
+        });
+        registry.register("jvm", new MetricsRegistry.MetricSource() {
+            public Map<String, ?> metrics() {
+                return MetricsRegistry.jvmMetrics();
+            }
+        });
+        
+        StringWriter sw = new StringWriter();
+        registry.writeTo(new PrintWriter(sw));
+        String[] lines = sw.toString().split("\n");
+        assertTrue(lines[0].startsWith("timestamp "));
+        assertEquals("frontier.readyQueues 3", lines[1]);
+        assertEquals("frontier.empty 0", lines[2]);
+        assertEquals("frontier.next_latency.p99 12", lines[3]);
+        assertTrue(lines[4].startsWith("jvm.heapUsedBytes "));
+        for (String line : lines) {
+            assertEquals("not name-value: " + line, 2, line.split(" ").length);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+public class CrawledBytesHistotableTest extends TestCase {
+
+    public void testAccumulateAndMapView() throws Exception {
+        CrawledBytesHistotable cbh = new CrawledBytesHistotable();
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/"));
+        curi.setFetchStatus(200);
+        curi.setContentSize(1000);
+        cbh.accumulate(curi);
+        curi.setFetchStatus(304);
+        curi.setContentSize(100);
+        cbh.accumulate(curi);
+
+        assertEquals(1000L, (long) cbh.get(CrawledBytesHistotable.NOVEL));
+        assertEquals(1L, (long) cbh.get(CrawledBytesHistotable.NOTMODIFIEDCOUNT));
+        assertEquals("absent as zero", 
+                0L, (long) cbh.get(CrawledBytesHistotable.DUPLICATE));
+        assertFalse(cbh.containsKey(CrawledBytesHistotable.DUPLICATE));
+        assertEquals(1100, cbh.getTotalBytes());
+        assertEquals(2, cbh.getTotalUrls());
+        assertEquals("zero counts omitted", 4, cbh.size());
+
+        // as when restored from checkpoint JSON
+        CrawledBytesHistotable restored = new CrawledBytesHistotable();
+        restored.putAll(new TreeMap<String,Long>(cbh));
+        assertEquals(cbh, restored);
+    }
+}
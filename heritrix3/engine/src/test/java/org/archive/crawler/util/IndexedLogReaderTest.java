@@ -0,0 +1,114 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.archive.crawler.util.IndexedLogReader.Match;
+import org.archive.io.LogIndex;
+import org.archive.util.TmpDirTestCase;
+
+public class IndexedLogReaderTest extends TmpDirTestCase {
+    
+    protected static String line(int i) {
+        return String.format("2010-06-01T%02d:%02d:00.000Z   200 %5d " 
+                + "http://host%d.example.com/page%d - - text/html #001",
+                i / 60, i % 60, i, i % 7, i);
+    }
+    
+    /**
+     * Write lines [from,to) to the given log; index all but the last
+     * few unless told otherwise.
+     */
+    protected File writeLog(String name, int from, int to, boolean index) 
+    throws IOException {
+        File log = new File(getTmpDir(), name);
+        cleanUpOldFiles(name);
+        FileWriter w = new FileWriter(log);
+        for (int i = from; i < to - 3; i++) {
+            w.write(line(i) + "\n");
+        }
+        w.close();
+        if (index) {
+            new LogIndex.Builder(log, 10).close();
+        }
+        w = new FileWriter(log, true);
+        for (int i = Math.max(from, to - 3); i < to; i++) {
+            w.write(line(i) + "\n");
+        }
+        w.close();
+        return log;
+    }
+    
+    public void testSeriesReading() throws IOException {
+        File older = writeLog("series1-crawl.log", 0, 95, true);
+        File unindexed = writeLog("series2-crawl.log", 95, 130, false);
+        File newer = writeLog("series3-crawl.log", 130, 400, true);
+        IndexedLogReader reader = new IndexedLogReader(
+                Arrays.asList(older, unindexed, newer), 3);
+        try {
+            assertEquals(400, reader.getLineCount());
+            List<String> lines = reader.getLines(90, 50);
+            assertEquals(50, lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                assertEquals(line(89 + i), lines.get(i));
+            }
+            assertEquals(2, reader.getLines(399, 10).size());
+            assertTrue(reader.getLines(401, 10).isEmpty());
+            
+            assertEquals(201, reader.findFirstLineAtOrAfter(
+                    LogIndex.timestampOf(line(200))));
+            assertEquals(-1, reader.findFirstLineAtOrAfter("2011"));
+            
+            List<Match> matches = reader.find(".*/page\\d*5 .*", 
+                    "host3.example.com", 1, 5);
+            assertEquals(5, matches.size());
+            long last = 0;
+            for (Match m : matches) {
+                assertTrue(m.lineNumber > last);
+                last = m.lineNumber;
+                assertEquals(line((int) m.lineNumber - 1), m.line);
+                assertEquals("host3.example.com", LogIndex.hostOf(m.line));
+            }
+            // next page picks up after the last match
+            List<Match> next = reader.find(".*/page\\d*5 .*", 
+                    "host3.example.com", last + 1, 100);
+            assertEquals(matches.get(4).lineNumber + 70, 
+                    next.get(0).lineNumber);
+            assertEquals(line(395), next.get(next.size() - 1).line);
+        } finally {
+            reader.close();
+        }
+    }
+    
+    public void testLogReaderDelegation() throws IOException {
+        File log = writeLog("delegate-crawl.log", 0, 60, true);
+        String[] page = LogReader.get(log.getAbsolutePath(), 42, 3);
+        assertEquals(line(41) + "\n" + line(42) + "\n" + line(43) + "\n", 
+                page[0]);
+        assertEquals(58, LogReader.findFirstLineContaining(
+                log.getAbsolutePath(), ".*/page57 .*"));
+        assertEquals(-1, LogReader.findFirstLineContaining(
+                log.getAbsolutePath(), ".*/page99 .*"));
+    }
+}
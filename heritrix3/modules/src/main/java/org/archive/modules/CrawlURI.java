@@ -62,8 +62,10 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -110,7 +112,7 @@ import org.json.JSONObject;
  * @author Gordon Mohr
  */
 public class CrawlURI 
-implements MultiReporter, Serializable, OverlayContext {
+implements MultiReporter, Serializable, OverlayContext, Cloneable {
     private static final long serialVersionUID = 3L;
 
     private static final Logger logger =
@@ -1844,6 +1846,74 @@ implements MultiReporter, Serializable, OverlayContext {
         }
     }
     
+    /**
+     * Make a shallow copy of this CrawlURI for one of several extractors 
+     * run at once over the same fetched content. The view shares this 
+     * URI's recorder and fetch results, but has its own (initially empty)
+     * outlinks, annotations, non-fatal failures and extra info, and its 
+     * own copy of the data map, so that the extractors do not interfere.
+     * 
+     * @return extraction view
+     * @see #mergeExtractionView(CrawlURI, int)
+     */
+    public CrawlURI makeExtractionView() {
+        CrawlURI view;
+        try {
+            view = (CrawlURI) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        view.outLinks = new HashSet<Link>();
+        view.data = new HashMap<String,Object>(getData());
+        view.data.remove(A_ANNOTATIONS);
+        view.data.remove(A_NONFATAL_ERRORS);
+        view.extraInfo = null;
+        view.discardedOutlinks = 0;
+        return view;
+    }
+    
+    /**
+     * Fold the results of extraction on a view back into this CrawlURI: 
+     * its outlinks (in sorted order, discarding any past maxOutlinks), 
+     * annotations, non-fatal failures, extra info, new or changed data 
+     * and link-extraction-finished status. 
+     * 
+     * @param view view made by {@link #makeExtractionView()}
+     * @param maxOutlinks most outlinks this CrawlURI should have
+     */
+    public void mergeExtractionView(CrawlURI view, int maxOutlinks) {
+        List<Link> links = new ArrayList<Link>(view.getOutLinks());
+        Collections.sort(links);
+        for (Link link : links) {
+            if (getOutLinks().size() < maxOutlinks) {
+                getOutLinks().add(link);
+            } else {
+                incrementDiscardedOutLinks();
+            }
+        }
+        discardedOutlinks += view.discardedOutlinks;
+        for (Map.Entry<String,Object> entry : view.getData().entrySet()) {
+            String key = entry.getKey();
+            if (A_ANNOTATIONS.equals(key)) {
+                getAnnotations().addAll(view.getAnnotations());
+            } else if (A_NONFATAL_ERRORS.equals(key)) {
+                getNonFatalFailures().addAll(view.getNonFatalFailures());
+            } else if (getData().get(key) != entry.getValue()) {
+                getData().put(key, entry.getValue());
+            }
+        }
+        if (view.extraInfo != null) {
+            Iterator<?> keys = view.extraInfo.keys();
+            while (keys.hasNext()) {
+                String key = (String) keys.next();
+                addExtraInfo(key, view.extraInfo.opt(key));
+            }
+        }
+        if (view.linkExtractorFinished) {
+            linkExtractorFinished = true;
+        }
+    }
+    
     // Kryo support
     @SuppressWarnings("unused")
     private CrawlURI() {}
@@ -20,6 +20,8 @@ package org.archive.modules;
 
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -34,6 +36,7 @@ import org.archive.modules.deciderules.DecideRule;
 import org.archive.net.UURI;
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
+import org.archive.util.LogHistogram;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.springframework.beans.factory.BeanNameAware;
@@ -102,6 +105,22 @@ implements HasKeyedProperties,
      */
     protected AtomicLong uriCount = new AtomicLong(0);
 
+    /**
+     * Time spent processing each URI handled, in nanoseconds.
+     */
+    protected LogHistogram processNanos = new LogHistogram();
+    public LogHistogram getProcessNanos() {
+        return processNanos;
+    }
+
+    /**
+     * Recorded size of each URI handled, in bytes.
+     */
+    protected LogHistogram processBytes = new LogHistogram();
+    public LogHistogram getProcessBytes() {
+        return processBytes;
+    }
+
     
     /**
      * Processes the given URI.  First checks {@link #ENABLED} and
@@ -139,7 +158,14 @@ implements HasKeyedProperties,
         
         if (shouldProcess(uri)) {
             uriCount.incrementAndGet();
-            return innerProcessResult(uri);
+            long start = System.nanoTime();
+            try {
+                ProcessResult result = innerProcessResult(uri);
+                processBytes.record(getRecordedSize(uri));
+                return result;
+            } finally {
+                processNanos.record(System.nanoTime() - start);
+            }
         } else {
             return ProcessResult.PROCEED;
         }
@@ -246,7 +272,21 @@ implements HasKeyedProperties,
     // FIXME: Internationalize somehow
     // FIXME: Pass in PrintWriter instead creating large in-memory strings
     public String report() {
-        return "Processor: "+getClass().getName()+"\n";
+        return "Processor: "+getClass().getName()+"\n"
+            + "  Latency (ms):      " + processNanos.summaryLine(1000000) + "\n"
+            + "  Size (bytes):      " + processBytes.summaryLine(1) + "\n";
+    }
+    
+    /**
+     * @return map of this processor's count and latency/size summaries, 
+     * for reporting
+     */
+    public Map<String,Object> latencyReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("uriCount", getURICount());
+        map.put("latencyMs", processNanos.summaryMap(1000000));
+        map.put("sizeBytes", processBytes.summaryMap(1));
+        return map;
     }
     
     boolean isRunning = false; 
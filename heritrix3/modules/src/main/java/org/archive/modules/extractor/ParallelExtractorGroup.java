@@ -0,0 +1,284 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+import org.archive.spring.KeyedProperties;
+import org.archive.util.Recorder;
+
+/**
+ * Runs a group of independent extractors over the same CrawlURI at once,
+ * for content large enough that extraction time matters, and in order 
+ * (as if they were listed directly in the chain) otherwise. Use in a 
+ * FetchChain in place of the member extractors.
+ * <p>
+ * Each extractor works on its own extraction view of the CrawlURI (see
+ * {@link CrawlURI#makeExtractionView()}), reading the content through an
+ * in-memory ReplayCharSequence shared by all. Afterward, views are merged
+ * back in the order the extractors are listed, so results do not depend 
+ * on which finished first. As when run in order, a ContentExtractor's 
+ * results are discarded if an earlier extractor claimed the content's 
+ * links were fully extracted (unless extracting independently); the work
+ * of such extractors is wasted, so group together extractors that mostly
+ * apply to different content (or that extract independently). Members 
+ * must not modify shared state of the CrawlURI other than through its 
+ * outlinks, annotations, non-fatal failures, extra info and data map.
+ */
+public class ParallelExtractorGroup extends Processor {
+    private static final long serialVersionUID = 1L;
+    
+    private static final Logger logger = 
+        Logger.getLogger(ParallelExtractorGroup.class.getName());
+    
+    /** extractors to run, in merge order */
+    protected List<Extractor> extractors = Collections.emptyList();
+    public List<Extractor> getExtractors() {
+        return extractors;
+    }
+    public void setExtractors(List<Extractor> extractors) {
+        this.extractors = extractors;
+    }
+    
+    /** 
+     * content length (in bytes) below which extractors simply run in
+     * order, parallelism not being worth the handoffs 
+     */
+    {
+        setMinParallelLength(64 * 1024L);
+    }
+    public long getMinParallelLength() {
+        return (Long) kp.get("minParallelLength");
+    }
+    public void setMinParallelLength(long length) {
+        kp.put("minParallelLength", length);
+    }
+    
+    /** 
+     * content length (in bytes) above which extractors run in order, 
+     * to avoid holding so much decoded content in memory 
+     */
+    {
+        setMaxParallelLength(16 * 1024 * 1024L);
+    }
+    public long getMaxParallelLength() {
+        return (Long) kp.get("maxParallelLength");
+    }
+    public void setMaxParallelLength(long length) {
+        kp.put("maxParallelLength", length);
+    }
+    
+    /** 
+     * threads shared by all ToeThreads for running extractors; 0 means 
+     * one per available processor 
+     */
+    protected int threads = 0;
+    public int getThreads() {
+        return threads;
+    }
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+    
+    protected ExecutorService executor;
+    protected AtomicLong parallelCount = new AtomicLong(0);
+    protected AtomicLong discardedCount = new AtomicLong(0);
+    
+    public ParallelExtractorGroup() {
+    }
+    
+    @Override
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        for (Extractor e : getExtractors()) {
+            e.start();
+        }
+        super.start();
+    }
+    
+    @Override
+    public void stop() {
+        super.stop();
+        for (Extractor e : getExtractors()) {
+            e.stop();
+        }
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+    
+    protected synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int n = getThreads() > 0 
+                ? getThreads() : Runtime.getRuntime().availableProcessors();
+            final AtomicInteger serial = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(n, n, 
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "ParallelExtractor-"
+                                    + serial.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+    
+    @Override
+    protected boolean shouldProcess(CrawlURI curi) {
+        return !getExtractors().isEmpty();
+    }
+
+    @Override
+    protected void innerProcess(CrawlURI curi) throws InterruptedException {
+        long length = curi.getContentLength();
+        Recorder recorder = curi.getRecorder();
+        if (getExtractors().size() < 2 || recorder == null
+                || length < getMinParallelLength() 
+                || length > getMaxParallelLength()) {
+            for (Extractor e : getExtractors()) {
+                e.process(curi);
+            }
+            return;
+        }
+        parallelCount.incrementAndGet();
+        try {
+            recorder.setSharedReplays(true);
+            processInParallel(curi);
+        } catch (IOException e) {
+            curi.getNonFatalFailures().add(e);
+            logger.log(Level.WARNING, "sharing replay of " + curi, e);
+        } finally {
+            try {
+                recorder.setSharedReplays(false);
+            } catch (IOException e) {
+                // only thrown when enabling
+            }
+        }
+    }
+    
+    protected void processInParallel(CrawlURI curi) 
+    throws InterruptedException {
+        List<Extractor> members = getExtractors();
+        List<CrawlURI> views = new ArrayList<CrawlURI>(members.size());
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int i = 0; i < members.size(); i++) {
+            views.add(curi.makeExtractionView());
+        }
+        try {
+            for (int i = 1; i < members.size(); i++) {
+                futures.add(getExecutor().submit(
+                        task(members.get(i), views.get(i))));
+            }
+            // this thread handles the first extractor itself
+            members.get(0).process(views.get(0));
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+        }
+        
+        for (int i = 0; i < members.size(); i++) {
+            Extractor e = members.get(i);
+            if (e instanceof ContentExtractor 
+                    && !e.getExtractorParameters().getExtractIndependently()
+                    && curi.hasBeenLinkExtracted()) {
+                // would not have run, had extractors run in order
+                if (!views.get(i).getOutLinks().isEmpty()) {
+                    discardedCount.incrementAndGet();
+                }
+                continue;
+            }
+            curi.mergeExtractionView(views.get(i), 
+                    e.getExtractorParameters().getMaxOutlinks());
+        }
+    }
+    
+    protected Callable<Object> task(final Extractor extractor, 
+            final CrawlURI view) {
+        return new Callable<Object>() {
+            public Object call() throws Exception {
+                boolean overlays = view.haveOverlayNamesBeenSet();
+                if (overlays) {
+                    KeyedProperties.loadOverridesFrom(view);
+                }
+                try {
+                    extractor.process(view);
+                } finally {
+                    if (overlays) {
+                        KeyedProperties.clearOverridesFrom(view);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+    
+    @Override
+    public String report() {
+        StringBuffer ret = new StringBuffer();
+        ret.append(super.report());
+        ret.append("  " + parallelCount + " CrawlURIs extracted in parallel, " 
+                + discardedCount + " extractions discarded\n");
+        for (Extractor e : getExtractors()) {
+            ret.append(e.report());
+        }
+        return ret.toString();
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.io.BandwidthThrottle;
+import org.archive.modules.net.CrawlHost;
+import org.archive.modules.net.CrawlServer;
+import org.archive.util.TokenBucket;
+
+/**
+ * Crawl-wide bandwidth shaping: token buckets limiting the combined 
+ * download rate of all fetches, of all fetches from one IP address, and 
+ * of all fetches from one server (host:port), consulted by fetchers via 
+ * the RecordingInputStream of each fetch. (Contrast the per-fetch 
+ * maxFetchKBSec of the fetchers, which cannot bound the aggregate of 
+ * many threads.)
+ * <p/>
+ * All rates are in KB/sec, with 0 meaning unlimited, and take effect 
+ * immediately when changed mid-crawl -- including the individual IP and 
+ * server overrides, which suit contractual or operator-requested limits 
+ * for particular sites. (Changes may be made through the job's bandwidth
+ * REST resource, or the bean-browsing or scripting consoles.) Per-IP and
+ * per-server buckets are only kept for addresses/servers actually under a
+ * limit, and are discarded after sitting idle a while. 
+ * <p/>
+ * To avoid all threads contending on the crawl-wide bucket for every 
+ * small read, each fetch accumulates its reads and charges the buckets 
+ * once per batchBytes.
+ */
+public class BandwidthShaper {
+    /** combined rate limit over all fetches, in KB/sec; 0 for none */
+    protected int globalMaxKBSec = 0;
+    public int getGlobalMaxKBSec() {
+        return globalMaxKBSec;
+    }
+    public void setGlobalMaxKBSec(int globalMaxKBSec) {
+        this.globalMaxKBSec = globalMaxKBSec;
+        globalBucket.setRatePerSecond(toBytesPerSecond(globalMaxKBSec));
+    }
+
+    /** default rate limit over all fetches from any one IP address, in 
+     * KB/sec; 0 for none */
+    protected int perIpMaxKBSec = 0;
+    public int getPerIpMaxKBSec() {
+        return perIpMaxKBSec;
+    }
+    public void setPerIpMaxKBSec(int perIpMaxKBSec) {
+        this.perIpMaxKBSec = perIpMaxKBSec;
+        refreshRates(ipBuckets, ipMaxKBSec, perIpMaxKBSec);
+    }
+
+    /** default rate limit over all fetches from any one server 
+     * (host:port), in KB/sec; 0 for none */
+    protected int perServerMaxKBSec = 0;
+    public int getPerServerMaxKBSec() {
+        return perServerMaxKBSec;
+    }
+    public void setPerServerMaxKBSec(int perServerMaxKBSec) {
+        this.perServerMaxKBSec = perServerMaxKBSec;
+        refreshRates(serverBuckets, serverMaxKBSec, perServerMaxKBSec);
+    }
+
+    /** rate limits for particular IP addresses (in dotted/textual form), 
+     * in KB/sec, overriding perIpMaxKBSec */
+    protected Map<String,Integer> ipMaxKBSec = 
+        new ConcurrentHashMap<String,Integer>();
+    public Map<String,Integer> getIpMaxKBSec() {
+        return ipMaxKBSec;
+    }
+    public void setIpMaxKBSec(Map<String,Integer> ipMaxKBSec) {
+        this.ipMaxKBSec = new ConcurrentHashMap<String,Integer>(ipMaxKBSec);
+        refreshRates(ipBuckets, this.ipMaxKBSec, perIpMaxKBSec);
+    }
+
+    /** rate limits for particular servers (as host:port, or host alone 
+     * for the default http port), in KB/sec, overriding perServerMaxKBSec */
+    protected Map<String,Integer> serverMaxKBSec = 
+        new ConcurrentHashMap<String,Integer>();
+    public Map<String,Integer> getServerMaxKBSec() {
+        return serverMaxKBSec;
+    }
+    public void setServerMaxKBSec(Map<String,Integer> serverMaxKBSec) {
+        this.serverMaxKBSec = 
+            new ConcurrentHashMap<String,Integer>(serverMaxKBSec);
+        refreshRates(serverBuckets, this.serverMaxKBSec, perServerMaxKBSec);
+    }
+
+    /** bytes each fetch accumulates before charging the shared buckets */
+    protected int batchBytes = 16 * 1024;
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+    public void setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    /** how much unused rate (in ms worth) a bucket may bank for bursts */
+    protected long burstMs = 1000;
+    public long getBurstMs() {
+        return burstMs;
+    }
+    public void setBurstMs(long burstMs) {
+        this.burstMs = burstMs;
+        globalBucket.setBurstMs(burstMs);
+        for(TokenBucket bucket : ipBuckets.values()) {
+            bucket.setBurstMs(burstMs);
+        }
+        for(TokenBucket bucket : serverBuckets.values()) {
+            bucket.setBurstMs(burstMs);
+        }
+    }
+
+    /** ms a per-IP or per-server bucket may sit unused before being 
+     * discarded */
+    protected long idleBucketExpiryMs = 5 * 60 * 1000;
+    public long getIdleBucketExpiryMs() {
+        return idleBucketExpiryMs;
+    }
+    public void setIdleBucketExpiryMs(long idleBucketExpiryMs) {
+        this.idleBucketExpiryMs = idleBucketExpiryMs;
+    }
+
+    /** how many throttles to hand out between sweeps for idle buckets */
+    protected static final int PRUNE_INTERVAL = 10000;
+
+    protected TokenBucket globalBucket = new TokenBucket(0, burstMs);
+    protected ConcurrentMap<String,TokenBucket> ipBuckets = 
+        new ConcurrentHashMap<String,TokenBucket>();
+    protected ConcurrentMap<String,TokenBucket> serverBuckets = 
+        new ConcurrentHashMap<String,TokenBucket>();
+    protected AtomicLong throttlesIssued = new AtomicLong(0);
+
+    /**
+     * Set (or, with a rate of 0 or less, clear) the limit for one IP 
+     * address, effective immediately.
+     */
+    public void setIpMaxKBSec(String ip, int maxKBSec) {
+        setOverride(ipBuckets, ipMaxKBSec, ip, maxKBSec, perIpMaxKBSec);
+    }
+
+    /**
+     * Set (or, with a rate of 0 or less, clear) the limit for one server
+     * (host:port, or host alone for the default http port), effective 
+     * immediately.
+     */
+    public void setServerMaxKBSec(String server, int maxKBSec) {
+        setOverride(serverBuckets, serverMaxKBSec, server, maxKBSec, 
+                perServerMaxKBSec);
+    }
+
+    protected void setOverride(ConcurrentMap<String,TokenBucket> buckets,
+            Map<String,Integer> overrides, String key, int maxKBSec,
+            int defaultKBSec) {
+        if(maxKBSec > 0) {
+            overrides.put(key, maxKBSec);
+        } else {
+            overrides.remove(key);
+        }
+        TokenBucket bucket = buckets.get(key);
+        if(bucket != null) {
+            bucket.setRatePerSecond(
+                    toBytesPerSecond(limitFor(key, overrides, defaultKBSec)));
+        }
+    }
+
+    /**
+     * Get the throttle a fetch from the given server/host should observe. 
+     * The crawl-wide bucket is always included (so that observed rates 
+     * are known even when unlimited); per-IP and per-server buckets only
+     * when under a limit. 
+     * 
+     * @param server CrawlServer being fetched from; may be null
+     * @param host CrawlHost being fetched from; may be null
+     * @return BandwidthThrottle for one fetch's RecordingInputStream
+     */
+    public BandwidthThrottle throttleFor(CrawlServer server, CrawlHost host) {
+        if(throttlesIssued.incrementAndGet() % PRUNE_INTERVAL == 0) {
+            pruneIdle();
+        }
+        List<TokenBucket> buckets = new ArrayList<TokenBucket>(3);
+        buckets.add(globalBucket);
+        if(host != null) {
+            InetAddress ip = host.getIP();
+            if(ip != null) {
+                TokenBucket bucket = bucketFor(ipBuckets, ipMaxKBSec,
+                        ip.getHostAddress(), perIpMaxKBSec);
+                if(bucket != null) {
+                    buckets.add(bucket);
+                }
+            }
+        }
+        if(server != null) {
+            TokenBucket bucket = bucketFor(serverBuckets, serverMaxKBSec, 
+                    server.getName(), perServerMaxKBSec);
+            if(bucket != null) {
+                buckets.add(bucket);
+            }
+        }
+        return new BandwidthThrottle(
+                buckets.toArray(new TokenBucket[buckets.size()]), batchBytes);
+    }
+
+    protected TokenBucket bucketFor(ConcurrentMap<String,TokenBucket> buckets,
+            Map<String,Integer> overrides, String key, int defaultKBSec) {
+        int limit = limitFor(key, overrides, defaultKBSec);
+        TokenBucket bucket = buckets.get(key);
+        if(bucket != null) {
+            // pick up any change made directly to the overrides map
+            long rate = toBytesPerSecond(limit);
+            if(bucket.getRatePerSecond() != rate) {
+                bucket.setRatePerSecond(rate);
+            }
+            return limit > 0 ? bucket : null;
+        }
+        if(limit <= 0) {
+            return null;
+        }
+        bucket = new TokenBucket(toBytesPerSecond(limit), burstMs);
+        TokenBucket prior = buckets.putIfAbsent(key, bucket);
+        return prior == null ? bucket : prior;
+    }
+
+    protected int limitFor(String key, Map<String,Integer> overrides,
+            int defaultKBSec) {
+        Integer override = overrides.get(key);
+        return override != null ? override : defaultKBSec;
+    }
+
+    protected void refreshRates(Map<String,TokenBucket> buckets, 
+            Map<String,Integer> overrides, int defaultKBSec) {
+        for(Map.Entry<String,TokenBucket> entry : buckets.entrySet()) {
+            entry.getValue().setRatePerSecond(toBytesPerSecond(
+                    limitFor(entry.getKey(), overrides, defaultKBSec)));
+        }
+    }
+
+    /**
+     * Discard per-IP and per-server buckets idle longer than 
+     * idleBucketExpiryMs (or no longer under any limit). 
+     */
+    public void pruneIdle() {
+        long now = System.nanoTime();
+        long expiryNanos = idleBucketExpiryMs * 1000000L;
+        pruneIdle(ipBuckets, now, expiryNanos);
+        pruneIdle(serverBuckets, now, expiryNanos);
+    }
+
+    protected void pruneIdle(Map<String,TokenBucket> buckets, long now, 
+            long expiryNanos) {
+        Iterator<TokenBucket> iter = buckets.values().iterator();
+        while(iter.hasNext()) {
+            TokenBucket bucket = iter.next();
+            if(!bucket.isLimited() || bucket.idleNanos(now) > expiryNanos) {
+                iter.remove();
+            }
+        }
+    }
+
+    protected static long toBytesPerSecond(int kbSec) {
+        return kbSec > 0 ? kbSec * 1024L : 0;
+    }
+
+    /**
+     * Sample the observed rate of every bucket. Should be called on one 
+     * periodic schedule (in a crawl, on each statistics snapshot), as 
+     * each sample starts a new interval; reports only read the latest 
+     * samples. 
+     */
+    public void sampleObservedRates() {
+        globalBucket.sampleObservedRate();
+        for(TokenBucket bucket : ipBuckets.values()) {
+            bucket.sampleObservedRate();
+        }
+        for(TokenBucket bucket : serverBuckets.values()) {
+            bucket.sampleObservedRate();
+        }
+    }
+
+    /**
+     * @return map of limits and observed rates (as of the latest 
+     * {@link #sampleObservedRates()}): crawl-wide, and for each IP and 
+     * server with an individual override
+     */
+    public Map<String,Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("global", bucketReportMap(globalBucket));
+        map.put("perIpMaxKBSec", perIpMaxKBSec);
+        map.put("perServerMaxKBSec", perServerMaxKBSec);
+        map.put("ipBuckets", ipBuckets.size());
+        map.put("serverBuckets", serverBuckets.size());
+        map.put("ip", overridesReportMap(ipBuckets, ipMaxKBSec));
+        map.put("server", overridesReportMap(serverBuckets, serverMaxKBSec));
+        return map;
+    }
+
+    protected Map<String,Object> overridesReportMap(
+            Map<String,TokenBucket> buckets, Map<String,Integer> overrides) {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        for(Map.Entry<String,Integer> entry 
+                : new HashMap<String,Integer>(overrides).entrySet()) {
+            TokenBucket bucket = buckets.get(entry.getKey());
+            Map<String,Object> bucketMap;
+            if(bucket != null) {
+                bucketMap = bucketReportMap(bucket);
+            } else {
+                // not recently fetched from
+                bucketMap = new LinkedHashMap<String,Object>();
+                bucketMap.put("maxKBSec", entry.getValue());
+                bucketMap.put("observedKBSec", 0);
+            }
+            map.put(entry.getKey(), bucketMap);
+        }
+        return map;
+    }
+
+    protected Map<String,Object> bucketReportMap(TokenBucket bucket) {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("maxKBSec", bucket.getRatePerSecond() / 1024);
+        map.put("observedKBSec", bucket.getObservedRate() / 1024);
+        map.put("totalBytes", bucket.getTotalCharged());
+        map.put("totalWaitMs", bucket.getTotalWaitMs());
+        return map;
+    }
+}
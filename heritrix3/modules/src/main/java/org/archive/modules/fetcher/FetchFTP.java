@@ -46,10 +46,12 @@ import org.archive.modules.Processor;
 import org.archive.modules.extractor.Hop;
 import org.archive.modules.extractor.Link;
 import org.archive.modules.extractor.LinkContext;
+import org.archive.modules.net.ServerCache;
 import org.archive.net.ClientFTP;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.Recorder;
+import org.springframework.beans.factory.annotation.Autowired;
 
 
 /**
@@ -227,6 +229,31 @@ public class FetchFTP extends Processor  {
     public void setSoTimeoutMs(int timeout) {
         kp.put("soTimeoutMs",timeout);
     }
+
+    /**
+     * Crawl-wide bandwidth limits (per IP, per server, and overall) to
+     * observe, if any.
+     */
+    protected BandwidthShaper bandwidthShaper;
+    public BandwidthShaper getBandwidthShaper() {
+        return this.bandwidthShaper;
+    }
+    @Autowired(required=false)
+    public void setBandwidthShaper(BandwidthShaper bandwidthShaper) {
+        this.bandwidthShaper = bandwidthShaper;
+    }
+
+    /**
+     * Used to find the CrawlServer/CrawlHost for bandwidth shaping.
+     */
+    protected ServerCache serverCache;
+    public ServerCache getServerCache() {
+        return this.serverCache;
+    }
+    @Autowired(required=false)
+    public void setServerCache(ServerCache serverCache) {
+        this.serverCache = serverCache;
+    }
      
     /**
      * Constructs a new <code>FetchFTP</code>.
@@ -502,6 +529,13 @@ public class FetchFTP extends Processor  {
         int maxRate = getMaxFetchKBSec();
         RecordingInputStream input = recorder.getRecordedInput();
         input.setLimits(hardMax, timeout, maxRate); 
+        if (bandwidthShaper != null) {
+            input.setBandwidthThrottle(serverCache == null
+                    ? bandwidthShaper.throttleFor(null, null)
+                    : bandwidthShaper.throttleFor(
+                            serverCache.getServerFor(curi.getUURI()),
+                            serverCache.getHostFor(curi.getUURI())));
+        }
         input.readFullyOrUntil(softMax);
     }
     
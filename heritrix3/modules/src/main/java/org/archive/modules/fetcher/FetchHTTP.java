@@ -541,6 +541,19 @@ public class FetchHTTP extends Processor implements Lifecycle {
         this.serverCache = serverCache;
     }
 
+    /**
+     * Crawl-wide bandwidth limits (per IP, per server, and overall) to
+     * observe, if any.
+     */
+    protected BandwidthShaper bandwidthShaper;
+    public BandwidthShaper getBandwidthShaper() {
+        return this.bandwidthShaper;
+    }
+    @Autowired(required=false)
+    public void setBandwidthShaper(BandwidthShaper bandwidthShaper) {
+        this.bandwidthShaper = bandwidthShaper;
+    }
+
     static {
         Protocol.registerProtocol("http", new Protocol("http",
                 new HeritrixProtocolSocketFactory(), 80));
@@ -641,6 +654,12 @@ public class FetchHTTP extends Processor implements Lifecycle {
         // Get max fetch rate (bytes/ms). It comes in in KB/sec
         long maxRateKBps = getMaxFetchKBSec();
         rec.getRecordedInput().setLimits(hardMax, timeoutMs, maxRateKBps);
+        if (bandwidthShaper != null) {
+            rec.getRecordedInput().setBandwidthThrottle(
+                    bandwidthShaper.throttleFor(
+                            serverCache.getServerFor(curi.getUURI()),
+                            serverCache.getHostFor(curi.getUURI())));
+        }
 
         try {
             this.http.executeMethod(customConfigOrNull, method);
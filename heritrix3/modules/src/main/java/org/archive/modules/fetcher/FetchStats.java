@@ -71,6 +71,16 @@ public class FetchStats implements Serializable, FetchStatusCodes, MultiReporter
     
     long lastSuccessTime; 
     
+    /** whether tallies must bypass any per-thread batching (as when a 
+     * quota is enforced from these counts); see FetchStatsBatcher */
+    protected transient volatile boolean unbatched = false;
+    public boolean isUnbatched() {
+        return unbatched;
+    }
+    public void setUnbatched(boolean unbatched) {
+        this.unbatched = unbatched;
+    }
+    
     public synchronized void tally(CrawlURI curi, Stage stage) {
         switch(stage) {
             case SCHEDULED:
@@ -131,6 +141,34 @@ public class FetchStats implements Serializable, FetchStatusCodes, MultiReporter
         }
     }
     
+    /**
+     * Add all counts from the given (typically private, unshared) 
+     * FetchStats into this instance, as when folding a batch of 
+     * deferred tallies into a shared instance. 
+     * 
+     * @param other FetchStats whose counts should be added; not modified
+     */
+    public synchronized void add(FetchStats other) {
+        totalScheduled += other.totalScheduled;
+        fetchSuccesses += other.fetchSuccesses;
+        fetchFailures += other.fetchFailures;
+        fetchDisregards += other.fetchDisregards;
+        fetchResponses += other.fetchResponses;
+        robotsDenials += other.robotsDenials;
+        successBytes += other.successBytes;
+        totalBytes += other.totalBytes;
+        fetchNonResponses += other.fetchNonResponses;
+        
+        novelBytes += other.novelBytes;
+        novelUrls += other.novelUrls;
+        notModifiedBytes += other.notModifiedBytes;
+        notModifiedUrls += other.notModifiedUrls;
+        dupByHashBytes += other.dupByHashBytes;
+        dupByHashUrls += other.dupByHashUrls;
+        
+        lastSuccessTime = Math.max(lastSuccessTime, other.lastSuccessTime);
+    }
+    
     public long getFetchSuccesses() {
         return fetchSuccesses;
     }
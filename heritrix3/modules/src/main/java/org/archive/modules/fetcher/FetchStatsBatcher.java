@@ -0,0 +1,234 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.FetchStats.HasFetchStats;
+import org.archive.modules.fetcher.FetchStats.Stage;
+import org.archive.util.IdentityCacheable;
+
+/**
+ * Accumulates FetchStats tallies for shared, frequently-hit stats holders
+ * (such as CrawlServer and CrawlHost) in per-thread batches, only folding
+ * a thread's batch into the shared instances once it holds a certain
+ * number of tallies or has grown old.
+ * <p/>
+ * Each thread thus works against its own private 'stripe' of counts, so
+ * worker threads finishing URIs of the same hot host no longer contend on
+ * that host's FetchStats monitor for every disposition. Also, holders
+ * which are IdentityCacheable are only marked dirty once per fold, rather
+ * than once per tally, coalescing the eventual persistence writes.
+ * <p/>
+ * Shared counts may lag the true counts by up to one batch per thread;
+ * callers which need exact counts (as at checkpoint time) should first
+ * call foldAll(). Holders whose counts must be exact at all times (as 
+ * those against which a quota is enforced) should be passed to 
+ * requireExact(), after which their tallies bypass batching. A 
+ * maxBatchTallies of 1 or less disables batching entirely.
+ */
+public class FetchStatsBatcher {
+    /** number of tallies a thread may accumulate before folding */
+    protected int maxBatchTallies = 100;
+    public int getMaxBatchTallies() {
+        return maxBatchTallies;
+    }
+    public void setMaxBatchTallies(int maxBatchTallies) {
+        this.maxBatchTallies = maxBatchTallies;
+    }
+
+    /** age (in ms) of a thread's oldest unfolded tally at which to fold */
+    protected long maxBatchAgeMs = 1000;
+    public long getMaxBatchAgeMs() {
+        return maxBatchAgeMs;
+    }
+    public void setMaxBatchAgeMs(long maxBatchAgeMs) {
+        this.maxBatchAgeMs = maxBatchAgeMs;
+    }
+
+    /** all batches ever handed out (and not yet reaped), for foldAll() */
+    protected CopyOnWriteArrayList<Batch> allBatches =
+        new CopyOnWriteArrayList<Batch>();
+
+    protected ThreadLocal<Batch> localBatch = new ThreadLocal<Batch>() {
+        @Override
+        protected Batch initialValue() {
+            Batch batch = new Batch(Thread.currentThread());
+            allBatches.add(batch);
+            return batch;
+        }
+    };
+
+    /**
+     * Tally the given CrawlURI/Stage to the given holder's FetchStats,
+     * either immediately (if batching is disabled) or via the current
+     * thread's batch.
+     *
+     * @param holder owner of shared FetchStats to (eventually) update
+     * @param curi CrawlURI to tally
+     * @param stage Stage to tally
+     */
+    public void tally(HasFetchStats holder, CrawlURI curi, Stage stage) {
+        if(getMaxBatchTallies() <= 1 || holder.getSubstats().isUnbatched()) {
+            tallyNow(holder, curi, stage);
+            return;
+        }
+        Batch batch = localBatch.get();
+        batch.tally(holder, curi, stage);
+        if(batch.isDue(getMaxBatchTallies(), getMaxBatchAgeMs())) {
+            batch.fold();
+        }
+    }
+
+    protected static void tallyNow(HasFetchStats holder, CrawlURI curi, 
+            Stage stage) {
+        holder.getSubstats().tally(curi, stage);
+        if(holder instanceof IdentityCacheable) {
+            ((IdentityCacheable)holder).makeDirty();
+        }
+    }
+
+    /**
+     * Ensure the given holder's shared FetchStats are exact from now on:
+     * fold any tallies for it pending in any thread's batch, and have all
+     * future tallies for it bypass batching. Cheap after the first call
+     * for a given FetchStats instance.
+     * 
+     * @param holder owner of shared FetchStats which must stay exact
+     */
+    public void requireExact(HasFetchStats holder) {
+        FetchStats substats = holder.getSubstats();
+        if(substats.isUnbatched()) {
+            return;
+        }
+        // set before folding: any thread tallying after its batch is folded
+        // sees the flag (checked under the same batch lock), so no tally
+        // can be left behind in a batch
+        substats.setUnbatched(true);
+        foldAll();
+    }
+
+    /**
+     * Fold the current thread's batch, if any, into the shared FetchStats.
+     */
+    public void foldLocal() {
+        localBatch.get().fold();
+    }
+
+    /**
+     * Fold every thread's batches into the shared FetchStats, leaving
+     * all shared FetchStats accurate as of the time of the call. Also
+     * forgets batches of threads that have since died.
+     */
+    public void foldAll() {
+        foldAll(-1);
+    }
+
+    /**
+     * Fold those batches whose oldest tally is older than maxBatchAgeMs;
+     * useful to call periodically from a housekeeping thread so that
+     * counts tallied by now-idle threads still appear in a timely fashion.
+     */
+    public void foldStale() {
+        foldAll(getMaxBatchAgeMs());
+    }
+
+    protected void foldAll(long minAgeMs) {
+        Iterator<Batch> iter = allBatches.iterator();
+        while(iter.hasNext()) {
+            Batch batch = iter.next();
+            if(minAgeMs < 0 || batch.isDue(Integer.MAX_VALUE, minAgeMs)) {
+                batch.fold();
+            }
+            if(!batch.isOwnerAlive()) {
+                batch.fold();
+                allBatches.remove(batch);
+            }
+        }
+    }
+
+    /**
+     * One thread's unfolded tallies: a private FetchStats per holder.
+     * Only the owning thread tallies into a Batch, but other threads may
+     * fold it, so access is synchronized (though almost always
+     * uncontended).
+     */
+    protected static class Batch {
+        protected WeakReference<Thread> owner;
+        protected Map<HasFetchStats,FetchStats> pending =
+            new IdentityHashMap<HasFetchStats,FetchStats>();
+        protected int tallies = 0;
+        protected long firstTallyTime = 0;
+
+        protected Batch(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+
+        protected synchronized void tally(HasFetchStats holder,
+                CrawlURI curi, Stage stage) {
+            if(holder.getSubstats().isUnbatched()) {
+                // made exact since caller checked
+                tallyNow(holder, curi, stage);
+                return;
+            }
+            FetchStats stats = pending.get(holder);
+            if(stats == null) {
+                stats = new FetchStats();
+                pending.put(holder, stats);
+            }
+            stats.tally(curi, stage);
+            if(tallies == 0) {
+                firstTallyTime = System.currentTimeMillis();
+            }
+            tallies++;
+        }
+
+        protected synchronized boolean isDue(int maxTallies, long maxAgeMs) {
+            return tallies > 0
+                && (tallies >= maxTallies
+                    || System.currentTimeMillis() - firstTallyTime >= maxAgeMs);
+        }
+
+        protected synchronized void fold() {
+            if(tallies == 0) {
+                return;
+            }
+            for(Entry<HasFetchStats,FetchStats> entry : pending.entrySet()) {
+                HasFetchStats holder = entry.getKey();
+                holder.getSubstats().add(entry.getValue());
+                if(holder instanceof IdentityCacheable) {
+                    ((IdentityCacheable)holder).makeDirty();
+                }
+            }
+            pending.clear();
+            tallies = 0;
+        }
+
+        protected boolean isOwnerAlive() {
+            Thread t = owner.get();
+            return t != null && t.isAlive();
+        }
+    }
+}
@@ -75,6 +75,9 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
     // used to drive exponentially increasing retry timeout or decision
     // to 'freeze' entire class (queue) of URIs
     protected int consecutiveConnectionErrors = 0;
+    
+    /** recent response behavior, as tracked by adaptive politeness */
+    protected ServerResponseStats responseStats = new ServerResponseStats();
 
     /**
      * Set of credentials.
@@ -295,6 +298,14 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
     public FetchStats getSubstats() {
         return substats;
     }
+    
+    public synchronized ServerResponseStats getResponseStats() {
+        if (responseStats == null) {
+            // instance persisted before responseStats was added
+            responseStats = new ServerResponseStats();
+        }
+        return responseStats;
+    }
 
     /**
      * Is the robots policy expired.
@@ -328,6 +339,7 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
         kryo.register(CrawlServer.class);
         kryo.autoregister(FetchStats.class); 
         kryo.autoregister(Robotstxt.class);
+        kryo.autoregister(ServerResponseStats.class);
         kryo.setRegistrationOptional(true); 
     }
     
@@ -0,0 +1,99 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.net;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exponentially-weighted moving averages of a server's recent response
+ * behavior: fetch duration, error rate (connection failures, timeouts and
+ * 5XX responses), and throughput. Used by adaptive politeness policies to
+ * speed up on healthy servers and back off quickly from struggling ones.
+ */
+public class ServerResponseStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** smoothed fetch duration, in ms */
+    protected double avgDurationMs = 0;
+    /** smoothed fraction of fetches that were errors, 0.0-1.0 */
+    protected double errorRate = 0;
+    /** smoothed throughput, in bytes per ms (=KB/sec, roughly) */
+    protected double bytesPerMs = 0;
+    /** duration of the most recent fetch, in ms */
+    protected long lastDurationMs = 0;
+    /** count of observations averaged so far */
+    protected long observations = 0;
+
+    /**
+     * Fold one completed fetch into the moving averages.
+     *
+     * @param durationMs elapsed time of the fetch
+     * @param error whether the fetch counts as a server error
+     * @param bytes bytes received
+     * @param alpha weight (0.0-1.0) given to this newest observation
+     */
+    public synchronized void update(long durationMs, boolean error,
+            long bytes, double alpha) {
+        double errorValue = error ? 1.0 : 0.0;
+        double rate = (double) bytes / Math.max(1, durationMs);
+        if(observations == 0) {
+            avgDurationMs = durationMs;
+            errorRate = errorValue;
+            bytesPerMs = rate;
+        } else {
+            avgDurationMs += alpha * (durationMs - avgDurationMs);
+            errorRate += alpha * (errorValue - errorRate);
+            bytesPerMs += alpha * (rate - bytesPerMs);
+        }
+        lastDurationMs = durationMs;
+        observations++;
+    }
+
+    public synchronized double getAvgDurationMs() {
+        return avgDurationMs;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    public synchronized double getBytesPerMs() {
+        return bytesPerMs;
+    }
+
+    public synchronized long getLastDurationMs() {
+        return lastDurationMs;
+    }
+
+    public synchronized long getObservations() {
+        return observations;
+    }
+
+    public synchronized Map<String, Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String, Object>();
+        map.put("avgDurationMs", avgDurationMs);
+        map.put("errorRate", errorRate);
+        map.put("bytesPerMs", bytesPerMs);
+        map.put("lastDurationMs", lastDurationMs);
+        map.put("observations", observations);
+        return map;
+    }
+}
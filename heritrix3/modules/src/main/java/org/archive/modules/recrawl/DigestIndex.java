@@ -0,0 +1,400 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_DIGEST_INDEX_CAPTURE;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.archive.bdb.BdbModule;
+import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigFile;
+import org.archive.spring.ConfigPath;
+import org.archive.util.ArchiveUtils;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+/**
+ * Index from content digest to the first known capture of that content,
+ * whatever its URI, so that identical content served at different URIs 
+ * (mirrors, session-id variants, and the like) -- or already archived by
+ * an earlier crawl -- need not be written in full again.
+ * <p/>
+ * The index is kept in a database of the shared BdbModule, so it grows
+ * over a crawl and survives checkpoint/resume. It may also be preloaded,
+ * at start, from the CDX index(es) of prior crawls' WARCs. 
+ * <p/>
+ * A DigestIndexProcessor in the fetch chain consults the index for each
+ * fetched URI; a WARCWriterProcessor given this index then writes a 
+ * revisit record referring to the earlier capture, and adds each full
+ * capture it writes to the index.
+ */
+public class DigestIndex implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(DigestIndex.class.getName());
+
+    public static final BdbModule.BdbConfig DIGEST_INDEX_DB_CONFIG;
+    static {
+        BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
+        dbConfig.setTransactional(false);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setDeferredWrite(true);
+        DIGEST_INDEX_DB_CONFIG = dbConfig;
+    }
+
+    /**
+     * A previous capture of some content: its URI, its fetch time, and
+     * (when known) the WARC record id of the response holding the content.
+     */
+    public static class Capture implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        protected String uri;
+        protected long captureTime;
+        protected String recordId;
+        protected long length;
+        
+        public Capture(String uri, long captureTime, String recordId, 
+                long length) {
+            this.uri = uri;
+            this.captureTime = captureTime;
+            this.recordId = recordId;
+            this.length = length;
+        }
+        
+        public String getUri() {
+            return uri;
+        }
+        public long getCaptureTime() {
+            return captureTime;
+        }
+        /** @return record id, or null if unknown (as when from a CDX) */
+        public String getRecordId() {
+            return recordId;
+        }
+        /** @return length of the captured content, or -1 if unknown */
+        public long getLength() {
+            return length;
+        }
+        @Override
+        public String toString() {
+            return uri + " " + ArchiveUtils.get14DigitDate(captureTime);
+        }
+    }
+    
+    protected static class CaptureBinding extends TupleBinding<Capture> {
+        @Override
+        public Capture entryToObject(TupleInput input) {
+            String uri = input.readString();
+            long captureTime = input.readPackedLong();
+            String recordId = input.readString();
+            long length = input.readPackedLong();
+            return new Capture(uri, captureTime, recordId, length);
+        }
+        @Override
+        public void objectToEntry(Capture capture, TupleOutput output) {
+            output.writeString(capture.uri);
+            output.writePackedLong(capture.captureTime);
+            output.writeString(capture.recordId);
+            output.writePackedLong(capture.length);
+        }
+    }
+    
+    protected BdbModule bdb;
+    @Autowired
+    public void setBdbModule(BdbModule bdb) {
+        this.bdb = bdb;
+    }
+
+    protected String indexDbName = "digest_index";
+    public String getIndexDbName() {
+        return indexDbName;
+    }
+    public void setIndexDbName(String indexDbName) {
+        this.indexDbName = indexDbName;
+    }
+    
+    /**
+     * CDX file, or directory of CDX files (ending '.cdx'), from which to 
+     * add captures to the index at startup. Only successful (2xx) 
+     * captures with digests are loaded. Records already in the index are
+     * kept.
+     */
+    protected ConfigPath preloadCdx = new ConfigFile("preload CDX", "");
+    public ConfigPath getPreloadCdx() {
+        return preloadCdx;
+    }
+    public void setPreloadCdx(ConfigPath preloadCdx) {
+        this.preloadCdx = preloadCdx;
+    }
+
+    protected Database indexDb;
+    protected CaptureBinding captureBinding = new CaptureBinding();
+    
+    protected AtomicLong lookups = new AtomicLong(0);
+    protected AtomicLong hits = new AtomicLong(0);
+    protected AtomicLong added = new AtomicLong(0);
+    protected AtomicLong preloaded = new AtomicLong(0);
+    protected AtomicLong bytesSaved = new AtomicLong(0);
+    
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        try {
+            indexDb = bdb.openDatabase(getIndexDbName(), 
+                    DIGEST_INDEX_DB_CONFIG, true);
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+        if (StringUtils.isNotBlank(getPreloadCdx().getPath())) {
+            File source = getPreloadCdx().getFile();
+            try {
+                long count = preload(source);
+                logger.info("preloaded " + count + " digests from " + source);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "problem preloading " + source 
+                        + "; proceeding with partial digest index", e);
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return indexDb != null;
+    }
+
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        // leave closing to BdbModule
+        indexDb = null;
+    }
+
+    /**
+     * @param digest content digest, in 'scheme:value' form as from 
+     * CrawlURI.getContentDigestSchemeString()
+     * @return earliest known capture of content with the digest, or null
+     */
+    public Capture lookup(String digest) {
+        lookups.incrementAndGet();
+        DatabaseEntry key = new DatabaseEntry();
+        StringBinding.stringToEntry(digest, key);
+        DatabaseEntry value = new DatabaseEntry();
+        try {
+            if (indexDb.get(null, key, value, LockMode.READ_UNCOMMITTED) 
+                    != OperationStatus.SUCCESS) {
+                return null;
+            }
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+        hits.incrementAndGet();
+        return captureBinding.entryToObject(value);
+    }
+
+    /**
+     * Add a capture of the given digest, unless one is already indexed.
+     * 
+     * @return true if added; false if digest was already present
+     */
+    public boolean add(String digest, Capture capture) {
+        DatabaseEntry key = new DatabaseEntry();
+        StringBinding.stringToEntry(digest, key);
+        DatabaseEntry value = new DatabaseEntry();
+        captureBinding.objectToEntry(capture, value);
+        try {
+            if (indexDb.putNoOverwrite(null, key, value) 
+                    == OperationStatus.SUCCESS) {
+                added.incrementAndGet();
+                return true;
+            }
+            return false;
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Note content bytes not written thanks to an index hit.
+     */
+    public void noteBytesSaved(long bytes) {
+        bytesSaved.addAndGet(bytes);
+    }
+
+    /**
+     * Add captures from a CDX file, or all '.cdx' files in a directory. 
+     * 
+     * @return count of captures added
+     */
+    public long preload(File source) throws IOException {
+        long count = 0;
+        if (source.isDirectory()) {
+            File[] files = source.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.getName().endsWith(".cdx")) {
+                        count += preload(f);
+                    }
+                }
+            }
+            return count;
+        }
+        BufferedReader reader = ArchiveUtils.getBufferedReader(source);
+        try {
+            count = preload(reader);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        preloaded.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Add captures from CDX lines. The field layout is taken from a 
+     * leading ' CDX' legend line if present, otherwise the common 
+     * 'N b a m s k r V g' (or, with 11 fields, 'N b a m s k r M S V g')
+     * layout is assumed.
+     * 
+     * @return count of captures added
+     */
+    protected long preload(BufferedReader reader) throws IOException {
+        long count = 0;
+        int dateField = 1, uriField = 2, statusField = 4, digestField = 5;
+        boolean legend = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(" CDX ")) {
+                String[] letters = line.trim().split(" ");
+                dateField = uriField = statusField = digestField = -1;
+                for (int i = 1; i < letters.length; i++) {
+                    char c = letters[i].charAt(0);
+                    if (c == 'b') {
+                        dateField = i - 1;
+                    } else if (c == 'a') {
+                        uriField = i - 1;
+                    } else if (c == 's') {
+                        statusField = i - 1;
+                    } else if (c == 'k') {
+                        digestField = i - 1;
+                    }
+                }
+                legend = true;
+                continue;
+            }
+            String[] fields = line.split(" ");
+            if (!legend && fields.length != 9 && fields.length != 11) {
+                continue;
+            }
+            if (dateField < 0 || uriField < 0 || digestField < 0 
+                    || fields.length <= Math.max(Math.max(dateField, uriField), 
+                            Math.max(statusField, digestField))) {
+                continue;
+            }
+            if (statusField >= 0 && !fields[statusField].startsWith("2")) {
+                continue;
+            }
+            String digest = fields[digestField];
+            if (digest.length() < 2 || "-".equals(digest)) {
+                continue;
+            }
+            if (digest.indexOf(':') < 0) {
+                // CDX digests are conventionally bare SHA-1 base32
+                digest = "sha1:" + digest;
+            }
+            long captureTime;
+            try {
+                captureTime = ArchiveUtils.parse14DigitDate(
+                        fields[dateField]).getTime();
+            } catch (ParseException e) {
+                continue;
+            }
+            if (add(digest, new Capture(fields[uriField], captureTime, 
+                    null, -1))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param curi CrawlURI
+     * @return earlier capture of curi's content found by a 
+     * DigestIndexProcessor, or null if none
+     */
+    public static Capture getIndexedCapture(CrawlURI curi) {
+        return (Capture) curi.getData().get(A_DIGEST_INDEX_CAPTURE);
+    }
+
+    public long getLookups() {
+        return lookups.get();
+    }
+    public long getHits() {
+        return hits.get();
+    }
+    public long getAdded() {
+        return added.get();
+    }
+    public long getPreloaded() {
+        return preloaded.get();
+    }
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+    
+    public Map<String,Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("lookups", getLookups());
+        map.put("hits", getHits());
+        map.put("hitRate", getLookups() == 0 
+                ? 0.0 : (double) getHits() / getLookups());
+        map.put("added", getAdded());
+        map.put("preloaded", getPreloaded());
+        map.put("bytesSaved", getBytesSaved());
+        return map;
+    }
+    
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + new JSONObject(shortReportMap());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_DIGEST_INDEX_CAPTURE;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+import org.archive.modules.recrawl.DigestIndex.Capture;
+
+/**
+ * Consults a DigestIndex for the content digest of each successfully
+ * fetched URI, noting any earlier capture of the same content (under 
+ * whatever URI) in the CrawlURI's data, for use by a later writer. 
+ * Belongs in the fetch chain, after the fetchers (and after any 
+ * HTTPContentDigest, which may recompute the digest).
+ */
+public class DigestIndexProcessor extends Processor {
+    private static final long serialVersionUID = 1L;
+
+    protected DigestIndex digestIndex;
+    public DigestIndex getDigestIndex() {
+        return digestIndex;
+    }
+    public void setDigestIndex(DigestIndex digestIndex) {
+        this.digestIndex = digestIndex;
+    }
+
+    /**
+     * Smallest content, in bytes, worth checking; tiny responses cost 
+     * little to write in full, and revisits of them save nothing. 
+     */
+    {
+        setMinContentLength(1024L);
+    }
+    public long getMinContentLength() {
+        return (Long) kp.get("minContentLength");
+    }
+    public void setMinContentLength(long length) {
+        kp.put("minContentLength", length);
+    }
+
+    @Override
+    protected boolean shouldProcess(CrawlURI curi) {
+        return curi.is2XXSuccess() 
+            && curi.getContentDigest() != null
+            && curi.getContentLength() >= getMinContentLength();
+    }
+
+    @Override
+    protected void innerProcess(CrawlURI curi) throws InterruptedException {
+        Capture capture = digestIndex.lookup(
+                curi.getContentDigestSchemeString());
+        if (capture != null) {
+            curi.getData().put(A_DIGEST_INDEX_CAPTURE, capture);
+            curi.getAnnotations().add("duplicate:digestIndex");
+        }
+    }
+    
+    @Override
+    public String report() {
+        StringBuilder buf = new StringBuilder(super.report());
+        buf.append("  Function:          Looks up content digests in index\n");
+        buf.append("  Digest index:      " 
+                + digestIndex.shortReportMap() + "\n");
+        return buf.toString();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sleepycat.je.Database;
+
+/**
+ * Bounded, least-recently-used cache of encoded (compact) uri_history 
+ * records, in front of a history Database. Records are held in their
+ * FetchHistoryBinding byte[] form, so every reader gets a freshly 
+ * decoded (and thus privately mutable) Map, and so that memory use can
+ * be tracked closely against a byte budget. Known-absent keys are
+ * cached too, as an empty record.
+ * <p/>
+ * Load and store processors are separate beans, so caches are registered
+ * by Database: a PersistLoadProcessor creates the cache, and any 
+ * PersistStoreProcessor writing to the same Database invalidates entries
+ * it overwrites.
+ */
+public class FetchHistoryCache {
+    /** rough per-entry overhead of map entry, key String, and array */
+    protected static final int ENTRY_OVERHEAD = 96;
+    
+    /** cached record standing for 'no history' */
+    public static final byte[] ABSENT = new byte[0];
+    
+    protected static final Map<Database,FetchHistoryCache> CACHES = 
+        new ConcurrentHashMap<Database,FetchHistoryCache>();
+
+    /**
+     * Get the cache registered for the given Database, creating one 
+     * with the given budget if none exists.
+     */
+    public static synchronized FetchHistoryCache forDatabase(Database db, 
+            long maxBytes) {
+        FetchHistoryCache cache = CACHES.get(db);
+        if (cache == null) {
+            cache = new FetchHistoryCache(maxBytes);
+            CACHES.put(db, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * @return cache registered for given Database, or null if none
+     */
+    public static FetchHistoryCache existingFor(Database db) {
+        return CACHES.get(db);
+    }
+
+    public static void release(Database db) {
+        CACHES.remove(db);
+    }
+    
+    protected final long maxBytes;
+    protected long bytes = 0;
+    protected AtomicLong hits = new AtomicLong(0);
+    protected AtomicLong misses = new AtomicLong(0);
+    
+    /** access-ordered, so iteration starts at least-recently-used */
+    protected LinkedHashMap<String,byte[]> records = 
+        new LinkedHashMap<String,byte[]>(1024, 0.75f, true);
+
+    public FetchHistoryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+    
+    protected static long weigh(String key, byte[] record) {
+        return ENTRY_OVERHEAD + 2 * key.length() + record.length;
+    }
+    
+    /**
+     * @return cached record (possibly ABSENT), or null if not cached
+     */
+    public byte[] get(String key) {
+        byte[] record;
+        synchronized (this) {
+            record = records.get(key);
+        }
+        if (record == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return record;
+    }
+    
+    public synchronized void put(String key, byte[] record) {
+        byte[] prior = records.get(key);
+        if (prior != null) {
+            bytes -= weigh(key, prior);
+        }
+        bytes += weigh(key, record);
+        records.put(key, record);
+        Iterator<Map.Entry<String,byte[]>> iter = 
+            records.entrySet().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            Map.Entry<String,byte[]> eldest = iter.next();
+            bytes -= weigh(eldest.getKey(), eldest.getValue());
+            iter.remove();
+        }
+    }
+    
+    public synchronized void invalidate(String key) {
+        byte[] prior = records.remove(key);
+        if (prior != null) {
+            bytes -= weigh(key, prior);
+        }
+    }
+    
+    public synchronized long getBytes() {
+        return bytes;
+    }
+    
+    public synchronized int size() {
+        return records.size();
+    }
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -28,6 +28,7 @@ import org.apache.commons.lang.StringUtils;
 import org.archive.modules.CrawlURI;
 import org.archive.spring.ConfigFile;
 import org.archive.spring.ConfigPath;
+import org.archive.util.ArchiveUtils;
 
 import com.sleepycat.je.DatabaseException;
 
@@ -80,12 +81,28 @@ public class PersistLoadProcessor extends PersistOnlineProcessor {
         this.preloadSourceUrl = preloadSourceUrl;
     }
     
+    /**
+     * Percentage of heap to devote to a cache of recently loaded (or 
+     * known-absent) history records, in their compact encoding. Default 0 
+     * means no cache. Any PersistStoreProcessor sharing the history 
+     * database keeps the cache current.
+     */
+    int readCachePercent = 0;
+    public int getReadCachePercent() {
+        return readCachePercent;
+    }
+    public void setReadCachePercent(int readCachePercent) {
+        this.readCachePercent = readCachePercent;
+    }
+    
+    protected FetchHistoryCache cache;
+    protected FetchHistoryBinding cacheBinding = new FetchHistoryBinding();
+    
     @SuppressWarnings("unchecked")
     @Override
     protected void innerProcess(CrawlURI curi) throws InterruptedException {
         String pkey = persistKeyFor(curi);
-        Map<String, Object> prior = 
-        	(Map<String,Object>) store.get(pkey);
+        Map<String, Object> prior = loadHistory(pkey);
         if(prior!=null) {
             // merge in keys
             prior.keySet().removeAll(curi.getData().keySet());
@@ -93,6 +110,32 @@ public class PersistLoadProcessor extends PersistOnlineProcessor {
         }
     }
 
+    /**
+     * Load history for the given key, consulting the read cache if any.
+     * (The frontier never has the same URI in process twice at once, so 
+     * no store of this key can slip between the load and the cache fill.)
+     * 
+     * @param pkey persist key
+     * @return fresh history map, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    protected Map<String,Object> loadHistory(String pkey) {
+        if (cache == null) {
+            return (Map<String,Object>) store.get(pkey);
+        }
+        byte[] record = cache.get(pkey);
+        if (record != null) {
+            return record.length == 0 
+                ? null 
+                : (Map<String,Object>) cacheBinding.fromBytes(record);
+        }
+        Map<String,Object> prior = (Map<String,Object>) store.get(pkey);
+        cache.put(pkey, prior == null 
+                ? FetchHistoryCache.ABSENT 
+                : cacheBinding.toBytes(prior));
+        return prior;
+    }
+
     @Override
     protected boolean shouldProcess(CrawlURI uri) {
         return shouldLoad(uri);
@@ -104,6 +147,11 @@ public class PersistLoadProcessor extends PersistOnlineProcessor {
             return;
         }
         super.start();
+        if (getReadCachePercent() > 0) {
+            cache = FetchHistoryCache.forDatabase(historyDb, 
+                    Runtime.getRuntime().maxMemory() / 100 
+                        * getReadCachePercent());
+        }
         if (StringUtils.isNotBlank(getPreloadSourceUrl()) && StringUtils.isNotBlank(getPreloadSource().getPath())) {
             logger.log(Level.SEVERE, "Both preloadSource and preloadSourceUrl are set - using preloadSource " + getPreloadSource().getFile());
         }
@@ -129,4 +177,29 @@ public class PersistLoadProcessor extends PersistOnlineProcessor {
             logger.log(Level.SEVERE, "Problem loading " + source + ", proceeding without deduplication. " + iae);
         }
     }
+
+    @Override
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        if (cache != null) {
+            FetchHistoryCache.release(historyDb);
+            cache = null;
+        }
+        super.stop();
+    }
+
+    @Override
+    public String report() {
+        StringBuilder buf = new StringBuilder(super.report());
+        if (cache != null) {
+            buf.append("  History cache:     " + cache.size() + " records, "
+                    + ArchiveUtils.formatBytesForDisplay(cache.getBytes()) 
+                    + "\n");
+            buf.append("  Cache hits/misses: " + cache.getHits() + "/" 
+                    + cache.getMisses() + "\n");
+        }
+        return buf.toString();
+    }
 } //EOC
\ No newline at end of file
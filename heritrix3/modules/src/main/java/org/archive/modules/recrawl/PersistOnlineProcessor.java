@@ -25,9 +25,7 @@ import org.archive.bdb.BdbModule;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
-import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
-import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredSortedMap;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseException;
@@ -56,6 +54,22 @@ implements Lifecycle {
         this.historyDbName = name; 
     }
 
+    /**
+     * Whether to store history in the compact binary format of 
+     * FetchHistoryBinding, rather than as serialized Java Maps. Compact 
+     * history is kept in a separate database, named with the suffix
+     * '_compact'; existing history environments may be converted with
+     * PersistProcessor's main(). Load and store processors sharing a
+     * history database must agree on this setting.
+     */
+    boolean compactHistory = false;
+    public boolean getCompactHistory() {
+        return compactHistory;
+    }
+    public void setCompactHistory(boolean compactHistory) {
+        this.compactHistory = compactHistory;
+    }
+
     @SuppressWarnings("unchecked")
     protected StoredSortedMap<String,Map> store;
     protected Database historyDb;
@@ -74,15 +88,16 @@ implements Lifecycle {
         StoredSortedMap<String,Map> historyMap;
         try {
             StoredClassCatalog classCatalog = bdb.getClassCatalog();
-            BdbModule.BdbConfig dbConfig = HISTORY_DB_CONFIG;
-
-            historyDb = bdb.openDatabase(getHistoryDbName(), dbConfig, true);
-            historyMap = 
-                new StoredSortedMap<String,Map>(
-                        historyDb,
-                        new StringBinding(), 
-                        new SerialBinding<Map>(classCatalog,Map.class), 
-                        true);
+            if (getCompactHistory()) {
+                historyDb = bdb.openDatabase(
+                        getHistoryDbName() + COMPACT_DBNAME_SUFFIX, 
+                        COMPACT_HISTORY_DB_CONFIG, true);
+            } else {
+                historyDb = bdb.openDatabase(getHistoryDbName(), 
+                        HISTORY_DB_CONFIG, true);
+            }
+            historyMap = historyMap(historyDb, classCatalog, 
+                    getCompactHistory());
         } catch (DatabaseException e) {
         	throw new RuntimeException(e);
         }
@@ -49,6 +49,7 @@ import org.archive.util.bdbje.EnhancedEnvironment;
 import org.archive.util.iterator.LineReadingIterator;
 import org.json.JSONObject;
 
+import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
@@ -84,6 +85,24 @@ public abstract class PersistProcessor extends Processor {
         HISTORY_DB_CONFIG = dbConfig;
     }
 
+    /** 
+     * suffix distinguishing the name of a history Database holding 
+     * FetchHistoryBinding (compact) records, so that the two formats can
+     * never be confused 
+     */
+    public static final String COMPACT_DBNAME_SUFFIX = "_compact";
+    
+    public static final BdbModule.BdbConfig COMPACT_HISTORY_DB_CONFIG;
+    static {
+        BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
+        dbConfig.setTransactional(false);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setDeferredWrite(true);
+        // SURT keys share long prefixes
+        dbConfig.setKeyPrefixing(true);
+        COMPACT_HISTORY_DB_CONFIG = dbConfig;
+    }
+
     /** @see RecrawlAttributeConstants#A_WRITE_TAG */
     boolean onlyStoreIfWriteTagPresent = true;
     public boolean getOnlyStoreIfWriteTagPresent() {
@@ -142,6 +161,25 @@ public abstract class PersistProcessor extends Processor {
         return true;
     }
 
+    /**
+     * Wrap a history Database in a StoredSortedMap of the appropriate 
+     * format.
+     * 
+     * @param historyDb history Database
+     * @param classCatalog class catalog (only used if not compact)
+     * @param compact whether historyDb holds compact records
+     * @return map view of historyDb
+     */
+    @SuppressWarnings("unchecked")
+    public static StoredSortedMap<String,Map> historyMap(Database historyDb, 
+            StoredClassCatalog classCatalog, boolean compact) {
+        EntryBinding<Map> valueBinding = compact 
+            ? new FetchHistoryBinding()
+            : new SerialBinding<Map>(classCatalog, Map.class);
+        return new StoredSortedMap<String,Map>(historyDb, 
+                new StringBinding(), valueBinding, true);
+    }
+
     /**
      * Copies entries from an existing environment db to a new one. If
      * historyMap is not provided, only logs the entries that would have been 
@@ -158,14 +196,21 @@ public abstract class PersistProcessor extends Processor {
 
         // open the source env history DB, copying entries to target env
         EnhancedEnvironment sourceEnv = setupCopyEnvironment(sourceDir, true);
-        StoredClassCatalog sourceClassCatalog = sourceEnv.getClassCatalog();
-        DatabaseConfig historyDbConfig = HISTORY_DB_CONFIG.toDatabaseConfig();
+        boolean sourceCompact = sourceEnv.getDatabaseNames().contains(
+                URI_HISTORY_DBNAME + COMPACT_DBNAME_SUFFIX);
+        StoredClassCatalog sourceClassCatalog = 
+            sourceCompact ? null : sourceEnv.getClassCatalog();
+        DatabaseConfig historyDbConfig = (sourceCompact 
+                ? COMPACT_HISTORY_DB_CONFIG 
+                : HISTORY_DB_CONFIG).toDatabaseConfig();
         historyDbConfig.setReadOnly(true);
-        Database sourceHistoryDB = sourceEnv.openDatabase(
-                null, URI_HISTORY_DBNAME, historyDbConfig);
-        StoredSortedMap<String,Map> sourceHistoryMap = new StoredSortedMap<String,Map>(sourceHistoryDB,
-                new StringBinding(), new SerialBinding<Map>(sourceClassCatalog,
-                        Map.class), true);
+        Database sourceHistoryDB = sourceEnv.openDatabase(null, 
+                sourceCompact 
+                    ? URI_HISTORY_DBNAME + COMPACT_DBNAME_SUFFIX 
+                    : URI_HISTORY_DBNAME, 
+                historyDbConfig);
+        StoredSortedMap<String,Map> sourceHistoryMap = 
+            historyMap(sourceHistoryDB, sourceClassCatalog, sourceCompact);
 
         Iterator<Entry<String,Map>> iter = sourceHistoryMap.entrySet().iterator();
         while (iter.hasNext()) {
@@ -254,6 +299,28 @@ public abstract class PersistProcessor extends Processor {
      */
     public static int populatePersistEnv(String sourcePath, File envFile)
         throws DatabaseException, IOException {
+        return populatePersistEnv(sourcePath, envFile, false);
+    }
+
+    /**
+     * Populates a new environment db from an old environment db or a persist
+     * log, optionally writing compact (FetchHistoryBinding) records. Given 
+     * an existing serialized-history environment as source, this converts
+     * it to the compact format.
+     * 
+     * @param sourcePath
+     *            source of old entries: can be a path to an existing
+     *            environment db, or a URL or path to a persist log
+     * @param envFile
+     *            path to new environment db (or null for a dry run)
+     * @param compact
+     *            whether to write compact records
+     * @return number of records
+     * @throws DatabaseException
+     * @throws IOException
+     */
+    public static int populatePersistEnv(String sourcePath, File envFile, 
+            boolean compact) throws DatabaseException, IOException {
         int count = 0;
         StoredSortedMap<String,Map> historyMap = null;
         EnhancedEnvironment targetEnv = null;
@@ -264,12 +331,16 @@ public abstract class PersistProcessor extends Processor {
             // set up target environment
             FileUtils.ensureWriteableDirectory(envFile);
             targetEnv = setupCopyEnvironment(envFile);
-            classCatalog = targetEnv.getClassCatalog();
-            historyDB = targetEnv.openDatabase(null, URI_HISTORY_DBNAME, 
-                    HISTORY_DB_CONFIG.toDatabaseConfig());
-            historyMap = new StoredSortedMap<String,Map>(historyDB, 
-                    new StringBinding(), new SerialBinding<Map>(classCatalog,
-                        Map.class), true);
+            if (compact) {
+                historyDB = targetEnv.openDatabase(null, 
+                        URI_HISTORY_DBNAME + COMPACT_DBNAME_SUFFIX, 
+                        COMPACT_HISTORY_DB_CONFIG.toDatabaseConfig());
+            } else {
+                classCatalog = targetEnv.getClassCatalog();
+                historyDB = targetEnv.openDatabase(null, URI_HISTORY_DBNAME, 
+                        HISTORY_DB_CONFIG.toDatabaseConfig());
+            }
+            historyMap = historyMap(historyDB, classCatalog, compact);
         }
 
         try {
@@ -340,7 +411,9 @@ public abstract class PersistProcessor extends Processor {
     /**
      * Utility main for importing a log into a BDB-JE environment or moving a
      * database between environments (2 arguments), or simply dumping a log
-     * to stderr in a more readable format (1 argument). 
+     * to stderr in a more readable format (1 argument). A leading 
+     * '--compact' argument writes the target in the compact history 
+     * format, converting an existing environment.
      * 
      * @param args command-line arguments
      * @throws DatabaseException
@@ -353,19 +426,28 @@ public abstract class PersistProcessor extends Processor {
         logger.addHandler(handler);
         logger.setUseParentHandlers(false);
 
+        boolean compact = false;
+        if (args.length > 0 && "--compact".equals(args[0])) {
+            compact = true;
+            String[] rest = new String[args.length - 1];
+            System.arraycopy(args, 1, rest, 0, rest.length);
+            args = rest;
+        }
         if (args.length == 2) {
             logger.setLevel(Level.INFO);
-            populatePersistEnv(args[0], new File(args[1]));
+            populatePersistEnv(args[0], new File(args[1]), compact);
         } else if (args.length == 1) {
             logger.setLevel(Level.FINE);
-            populatePersistEnv(args[0], null);
+            populatePersistEnv(args[0], null, compact);
         } else {
             System.out.println("Arguments: ");
-            System.out.println("    source [target]");
+            System.out.println("    [--compact] source [target]");
             System.out.println(
                 "...where source is either a txtser log file or BDB env dir");
             System.out.println(
-                "and target, if present, is a BDB env dir. ");
+                "and target, if present, is a BDB env dir. With --compact,");
+            System.out.println(
+                "target history is written in the compact binary format.");
             return;
         }
     }
@@ -40,7 +40,12 @@ public class PersistStoreProcessor extends PersistOnlineProcessor
     @SuppressWarnings("unchecked")
     @Override
     protected void innerProcess(CrawlURI curi) throws InterruptedException {
-        store.put(persistKeyFor(curi),curi.getPersistentDataMap());
+        String pkey = persistKeyFor(curi);
+        store.put(pkey,curi.getPersistentDataMap());
+        FetchHistoryCache cache = FetchHistoryCache.existingFor(historyDb);
+        if (cache != null) {
+            cache.invalidate(pkey);
+        }
     }
 
     @Override
@@ -40,6 +40,8 @@ public interface RecrawlAttributeConstants {
     public static final String A_STATUS = "status"; 
     /** reference length (content length or virtual length */
     public static final String A_REFERENCE_LENGTH = "reference-length";
+    /** earlier capture of identical content, from a DigestIndex */
+    public static final String A_DIGEST_INDEX_CAPTURE = "digest-index-capture";
 
     /**
      * Writer processors of all types are encouraged to put a 'writeTag'
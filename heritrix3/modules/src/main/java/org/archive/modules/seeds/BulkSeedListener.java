@@ -0,0 +1,37 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.seeds;
+
+import java.util.List;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * SeedListener which can more efficiently accept many seeds at once, as
+ * announced by a bulk seed import. 
+ */
+public interface BulkSeedListener extends SeedListener {
+    /**
+     * Equivalent to addedSeed() for each of the given seeds, in any 
+     * order the listener prefers.
+     * 
+     * @param curis seeds added
+     */
+    void addedSeeds(final List<CrawlURI> curis);
+}
@@ -22,7 +22,9 @@ package org.archive.modules.seeds;
 import java.io.File;
 import java.io.Serializable;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.archive.modules.CrawlURI;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -55,10 +57,35 @@ public abstract class SeedModule implements Serializable
         this.seedListeners.addAll(seedListeners);
     }
     
+    /** count of seeds announced to listeners */
+    protected AtomicLong announcedSeedCount = new AtomicLong(0);
+    public long getAnnouncedSeedCount() {
+        return announcedSeedCount.get();
+    }
+    
+    /** whether an announcement of many seeds is underway */
+    protected volatile boolean announcing = false;
+    public boolean isAnnouncing() {
+        return announcing;
+    }
+    
     protected void publishAddedSeed(CrawlURI curi) {
         for (SeedListener l: seedListeners) {
             l.addedSeed(curi);
         }
+        announcedSeedCount.incrementAndGet();
+    }
+    protected void publishAddedSeeds(List<CrawlURI> curis) {
+        for (SeedListener l: seedListeners) {
+            if (l instanceof BulkSeedListener) {
+                ((BulkSeedListener)l).addedSeeds(curis);
+            } else {
+                for (CrawlURI curi : curis) {
+                    l.addedSeed(curi);
+                }
+            }
+        }
+        announcedSeedCount.addAndGet(curis.size());
     }
     protected void publishNonSeedLine(String line) {
         for (SeedListener l: seedListeners) {
@@ -84,4 +111,4 @@ public abstract class SeedModule implements Serializable
     public void addSeedListener(SeedListener sl) {
         seedListeners.add(sl);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
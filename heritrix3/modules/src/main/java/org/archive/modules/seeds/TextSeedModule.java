@@ -24,8 +24,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -85,6 +95,35 @@ implements ReadSource {
         this.blockAwaitingSeedLines = blockAwaitingSeedLines;
     }
 
+    /**
+     * Number of threads to use parsing and canonicalizing seed lines. The
+     * default, 1, handles each line in turn in the announcing thread. Any
+     * larger value reads lines in batches of seedBatchLines, parses 
+     * batches in parallel, drops duplicates within each batch, and 
+     * announces each batch's seeds together, in their original order 
+     * relative to any non-seed (directive) lines. Useful for very large 
+     * seed lists, especially in combination with blockAwaitingSeedLines.
+     */
+    protected int seedParsingThreads = 1;
+    public int getSeedParsingThreads() {
+        return seedParsingThreads;
+    }
+    public void setSeedParsingThreads(int seedParsingThreads) {
+        this.seedParsingThreads = seedParsingThreads;
+    }
+    
+    /**
+     * Number of seed-source lines per batch when seedParsingThreads is 
+     * greater than 1. 
+     */
+    protected int seedBatchLines = 1000;
+    public int getSeedBatchLines() {
+        return seedBatchLines;
+    }
+    public void setSeedBatchLines(int seedBatchLines) {
+        this.seedBatchLines = seedBatchLines;
+    }
+
     public TextSeedModule() {
     }
 
@@ -132,7 +171,6 @@ implements ReadSource {
      * another thread to proceed after a configurable number of lines processed
      */
     protected void announceSeedsFromReader(BufferedReader reader, CountDownLatch latchOrNull) {
-        String s;
         Iterator<String> iter = 
             new RegexLineIterator(
                     new LineReadingIterator(reader),
@@ -140,6 +178,24 @@ implements ReadSource {
                     RegexLineIterator.NONWHITESPACE_ENTRY_TRAILING_COMMENT,
                     RegexLineIterator.ENTRY);
 
+        announcing = true;
+        try {
+            if (getSeedParsingThreads() > 1) {
+                announceSeedsInParallel(iter, latchOrNull);
+                return;
+            }
+            announceSeedsSerially(iter, latchOrNull);
+        } finally {
+            announcing = false;
+        }
+    }
+    
+    /**
+     * Announce each line from the iterator in turn, in the current thread. 
+     */
+    protected void announceSeedsSerially(Iterator<String> iter, 
+            CountDownLatch latchOrNull) {
+        String s;
         int count = 0; 
         while (iter.hasNext()) {
             s = (String) iter.next();
@@ -161,17 +217,175 @@ implements ReadSource {
         publishConcludedSeedBatch(); 
     }
     
+    /**
+     * Announce lines from the iterator using a pool of parsing threads, 
+     * in batches. Batches are announced in the order read, and only a 
+     * bounded number are outstanding at once, so memory use stays modest
+     * however large the source. 
+     */
+    protected void announceSeedsInParallel(Iterator<String> iter,
+            CountDownLatch latchOrNull) {
+        ExecutorService pool = 
+            Executors.newFixedThreadPool(getSeedParsingThreads());
+        LinkedList<Future<List<Object>>> pending = 
+            new LinkedList<Future<List<Object>>>();
+        LinkedList<Integer> pendingLines = new LinkedList<Integer>();
+        int maxPending = getSeedParsingThreads() * 2;
+        try {
+            List<String> lines = new ArrayList<String>(getSeedBatchLines());
+            while (iter.hasNext()) {
+                lines.add(iter.next());
+                if (lines.size() >= getSeedBatchLines()) {
+                    pending.add(pool.submit(new SeedBatchParser(lines)));
+                    pendingLines.add(lines.size());
+                    lines = new ArrayList<String>(getSeedBatchLines());
+                    while (pending.size() >= maxPending) {
+                        announceOldestBatch(pending, pendingLines, 
+                                latchOrNull);
+                    }
+                }
+            }
+            if (!lines.isEmpty()) {
+                pending.add(pool.submit(new SeedBatchParser(lines)));
+                pendingLines.add(lines.size());
+            }
+            while (!pending.isEmpty()) {
+                announceOldestBatch(pending, pendingLines, latchOrNull);
+            }
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "seed import interrupted", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        publishConcludedSeedBatch(); 
+    }
+    
+    /**
+     * Announce the oldest pending batch. A batch which failed to parse is
+     * logged and skipped (its lines still counting down any latch), so 
+     * that later batches are still announced.
+     */
+    protected void announceOldestBatch(
+            LinkedList<Future<List<Object>>> pending, 
+            LinkedList<Integer> pendingLines,
+            CountDownLatch latchOrNull) throws InterruptedException {
+        Future<List<Object>> batch = pending.removeFirst();
+        int lineCount = pendingLines.removeFirst();
+        try {
+            announceParsedBatch(batch.get(), latchOrNull);
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "problem parsing batch of " + lineCount
+                    + " seed lines; skipping batch", e.getCause());
+            if (latchOrNull != null) {
+                for (int i = 0; i < lineCount; i++) {
+                    latchOrNull.countDown();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Announce one batch of parsed lines: runs of seeds (CrawlURIs) 
+     * together, and non-seed lines (Strings) individually, in order.
+     */
+    protected void announceParsedBatch(List<Object> parsed, 
+            CountDownLatch latchOrNull) {
+        List<CrawlURI> seeds = new ArrayList<CrawlURI>(parsed.size());
+        for (Object item : parsed) {
+            if (item instanceof CrawlURI) {
+                seeds.add((CrawlURI) item);
+            } else {
+                if (!seeds.isEmpty()) {
+                    publishAddedSeeds(seeds);
+                    seeds = new ArrayList<CrawlURI>();
+                }
+                if (item != null) {
+                    nonseedLine((String) item);
+                }
+            }
+            if (latchOrNull != null) {
+                latchOrNull.countDown();
+            }
+        }
+        if (!seeds.isEmpty()) {
+            publishAddedSeeds(seeds);
+        }
+    }
+    
+    /**
+     * Parses a batch of lines to a list, parallel to the lines, of
+     * seed CrawlURIs, non-seed line Strings, or nulls (for duplicates
+     * within the batch).
+     */
+    protected class SeedBatchParser implements Callable<List<Object>> {
+        protected List<String> lines;
+        public SeedBatchParser(List<String> lines) {
+            this.lines = lines;
+        }
+        public List<Object> call() {
+            List<Object> parsed = new ArrayList<Object>(lines.size());
+            Set<String> seen = new HashSet<String>();
+            for (String line : lines) {
+                if (!Character.isLetterOrDigit(line.charAt(0))) {
+                    parsed.add(line);
+                    continue;
+                }
+                String uri = fixupSeedLine(line);
+                CrawlURI curi = seedFor(uri);
+                if (curi == null) {
+                    // try as nonseed line as fallback
+                    parsed.add(uri);
+                } else if (seen.add(curi.getURI())) {
+                    parsed.add(curi);
+                } else {
+                    // duplicate within batch
+                    parsed.add(null);
+                }
+            }
+            return parsed;
+        }
+    }
+    
     /**
      * Handle a read line that is probably a seed.
      * 
      * @param uri String seed-containing line
      */
     protected void seedLine(String uri) {
+        uri = fixupSeedLine(uri);
+        CrawlURI curi = seedFor(uri);
+        if (curi != null) {
+            publishAddedSeed(curi);
+        } else {
+            // try as nonseed line as fallback
+            nonseedLine(uri);
+        }
+    }
+    
+    /**
+     * Add an http:// scheme to a probable-seed line lacking a scheme.
+     * 
+     * @param uri String seed-containing line
+     * @return line, with scheme
+     */
+    protected String fixupSeedLine(String uri) {
         if (!uri.matches("[a-zA-Z][\\w+\\-]+:.*")) { // Rfc2396 s3.1 scheme,
                                                      // minus '.'
             // Does not begin with scheme, so try http://
             uri = "http://" + uri;
         }
+        return uri;
+    }
+    
+    /**
+     * Create the seed CrawlURI for the given URI string. Safe to call
+     * from multiple threads at once. 
+     * 
+     * @param uri String URI, with scheme
+     * @return seed CrawlURI, or null if the string is not a valid URI
+     */
+    protected CrawlURI seedFor(String uri) {
         try {
             UURI uuri = UURIFactory.getInstance(uri);
             CrawlURI curi = new CrawlURI(uuri);
@@ -180,10 +394,9 @@ implements ReadSource {
             if (getSourceTagSeeds()) {
                 curi.setSourceTag(curi.toString());
             }
-            publishAddedSeed(curi);
+            return curi;
         } catch (URIException e) {
-            // try as nonseed line as fallback
-            nonseedLine(uri);
+            return null;
         }
     }
     
@@ -26,6 +26,9 @@ import static org.archive.io.warc.WARCConstants.HEADER_KEY_IP;
 import static org.archive.io.warc.WARCConstants.HEADER_KEY_LAST_MODIFIED;
 import static org.archive.io.warc.WARCConstants.HEADER_KEY_PAYLOAD_DIGEST;
 import static org.archive.io.warc.WARCConstants.HEADER_KEY_PROFILE;
+import static org.archive.io.warc.WARCConstants.HEADER_KEY_REFERS_TO;
+import static org.archive.io.warc.WARCConstants.HEADER_KEY_REFERS_TO_DATE;
+import static org.archive.io.warc.WARCConstants.HEADER_KEY_REFERS_TO_TARGET_URI;
 import static org.archive.io.warc.WARCConstants.HEADER_KEY_TRUNCATED;
 import static org.archive.io.warc.WARCConstants.HTTP_REQUEST_MIMETYPE;
 import static org.archive.io.warc.WARCConstants.HTTP_RESPONSE_MIMETYPE;
@@ -82,6 +85,8 @@ import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
 import org.archive.modules.deciderules.recrawl.IdenticalDigestDecideRule;
 import org.archive.modules.extractor.Link;
+import org.archive.modules.recrawl.DigestIndex;
+import org.archive.modules.recrawl.DigestIndex.Capture;
 import org.archive.spring.ConfigPath;
 import org.archive.uid.RecordIDGenerator;
 import org.archive.uid.UUIDGenerator;
@@ -169,6 +174,34 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         kp.put("writeRevisitForNotModified",writeRevisits);
     }
 
+    /**
+     * Whether to write 'revisit' type records when a DigestIndexProcessor
+     * has found an earlier capture of identical content, under any URI.
+     * Default is true. 
+     */
+    {
+        setWriteRevisitForIndexedDigests(true);
+    }
+    public boolean getWriteRevisitForIndexedDigests() {
+        return (Boolean) kp.get("writeRevisitForIndexedDigests");
+    }
+    public void setWriteRevisitForIndexedDigests(boolean writeRevisits) {
+        kp.put("writeRevisitForIndexedDigests",writeRevisits);
+    }
+    
+    /**
+     * Optional index of content digests, to which every full response 
+     * written is added, so later identical content (under any URI) can be
+     * written as a revisit. 
+     */
+    protected DigestIndex digestIndex;
+    public DigestIndex getDigestIndex() {
+        return digestIndex;
+    }
+    public void setDigestIndex(DigestIndex digestIndex) {
+        this.digestIndex = digestIndex;
+    }
+
     /**
      * Generator for record IDs
      */
@@ -355,6 +388,11 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
                 getWriteRevisitForNotModified()) {
             rid = writeRevisitNotModified(w, timestamp,
                     baseid, curi, headers);
+        } else if (DigestIndex.getIndexedCapture(curi) != null &&
+                getWriteRevisitForIndexedDigests()) {
+            rid = writeRevisitIndexedDigest(w, timestamp, 
+                    HTTP_RESPONSE_MIMETYPE, baseid, curi, headers, 
+                    DigestIndex.getIndexedCapture(curi));
         } else {
             // Check for truncated annotation
             String value = null;
@@ -372,6 +410,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
             }
             rid = writeResponse(w, timestamp, HTTP_RESPONSE_MIMETYPE,
             	baseid, curi, headers);
+            indexDigest(curi, rid);
         }
         
         headers = new ANVLRecord(1);
@@ -531,6 +570,49 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         return baseid;
     }
     
+    /**
+     * Write a revisit record for content identical to an earlier capture
+     * (of possibly another URI) found in the digest index, referring to
+     * that capture. 
+     */
+    protected URI writeRevisitIndexedDigest(final WARCWriter w,
+            final String timestamp, final String mimetype,
+            final URI baseid, final CrawlURI curi,
+            final ANVLRecord namedFields, final Capture capture) 
+    throws IOException {
+        if (capture.getRecordId() != null) {
+            namedFields.addLabelValue(HEADER_KEY_REFERS_TO, 
+                    '<' + capture.getRecordId() + '>');
+        }
+        namedFields.addLabelValue(HEADER_KEY_REFERS_TO_TARGET_URI, 
+                capture.getUri());
+        namedFields.addLabelValue(HEADER_KEY_REFERS_TO_DATE, 
+                ArchiveUtils.getLog14Date(capture.getCaptureTime()));
+        long contentBegin = 
+            curi.getRecorder().getRecordedInput().getContentBegin();
+        if (contentBegin > 0 && digestIndex != null) {
+            digestIndex.noteBytesSaved(
+                    curi.getRecorder().getRecordedInput().getSize() 
+                    - contentBegin);
+        }
+        URI rid = writeRevisitDigest(w, timestamp, mimetype, baseid, curi, 
+                namedFields);
+        return rid;
+    }
+    
+    /**
+     * Add a just-written full capture to the digest index, if any.
+     */
+    protected void indexDigest(CrawlURI curi, URI rid) {
+        if (digestIndex == null || curi.getContentDigest() == null 
+                || !curi.is2XXSuccess()) {
+            return;
+        }
+        digestIndex.add(curi.getContentDigestSchemeString(), 
+                new Capture(curi.toString(), curi.getFetchBeginTime(), 
+                        rid.toString(), curi.getContentSize()));
+    }
+    
     protected URI writeRevisitNotModified(final WARCWriter w,
             final String timestamp, 
             final URI baseid, final CrawlURI puri,
@@ -718,6 +800,9 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         buf.append("  Function:          Writes WARCs\n");
         buf.append("  Total CrawlURIs:   " + urlsWritten + "\n");
         buf.append("  Revisit records:   " + WARCWriter.getStat(stats, WARCWriter.REVISIT, WARCWriter.NUM_RECORDS) + "\n");
+        if (digestIndex != null) {
+            buf.append("  Digest index:      " + digestIndex.shortReportMap() + "\n");
+        }
         
         long bytes = WARCWriter.getStat(stats, WARCWriter.RESPONSE, WARCWriter.CONTENT_BYTES)
                 + WARCWriter.getStat(stats, WARCWriter.RESOURCE, WARCWriter.CONTENT_BYTES);
@@ -731,6 +816,38 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         buf.append("  Total size on disk ("+ (getCompress() ? "compressed" : "uncompressed") + "): "
                 + getTotalBytesWritten() + " (" + ArchiveUtils.formatBytesForDisplay(getTotalBytesWritten()) + ")\n");
         
+        bytes = WARCWriter.getStat(stats, WARCWriter.TOTALS, WARCWriter.DIRECT_BYTES);
+        buf.append("  Bytes by direct transfer: "
+                + bytes + " (" + ArchiveUtils.formatBytesForDisplay(bytes) + ")\n");
+        buf.append("  Record write times (avg/total ms):\n");
+        for (String type : new String[] {WARCWriter.RESPONSE, 
+                WARCWriter.REVISIT, WARCWriter.REQUEST, WARCWriter.METADATA, 
+                WARCWriter.RESOURCE, WARCWriter.TOTALS}) {
+            long records = WARCWriter.getStat(stats, type, WARCWriter.NUM_RECORDS);
+            if (records == 0) {
+                continue;
+            }
+            long nanos = WARCWriter.getStat(stats, type, WARCWriter.WRITE_NANOS);
+            buf.append("    " + type + ": " 
+                    + String.format("%.3f", nanos / 1000000d / records) + "/"
+                    + (nanos / 1000000) + " (" + records + " records)\n");
+        }
+        Map<String,Object> poolReport = poolReportMap();
+        if (poolReport != null) {
+            buf.append("  Writer pool: ");
+            for (Map.Entry<String,Object> entry : poolReport.entrySet()) {
+                if (!(entry.getValue() instanceof Map) 
+                        && !(entry.getValue() instanceof List)) {
+                    buf.append(entry.getKey() + "=" + entry.getValue() + " ");
+                }
+            }
+            buf.append("\n");
+            buf.append("    storePaths: " + poolReport.get("storePaths") + "\n");
+            for (Object writer : (List<?>) poolReport.get("writers")) {
+                buf.append("    " + writer + "\n");
+            }
+        }
+        
         return buf.toString();
     }
     
@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import org.archive.checkpointing.Checkpoint;
 import org.archive.checkpointing.Checkpointable;
@@ -130,8 +131,10 @@ implements Lifecycle, Checkpointable, WriterPoolSettings {
     }
     
     /**
-     * Maximum active files in pool. This setting cannot be varied over the life
-     * of a crawl.
+     * Maximum active files in pool. New files are opened, up to this 
+     * many, when writing threads find no writer idle within 
+     * maxWaitForIdleMs. May be changed mid-crawl; a lower value takes
+     * effect as surplus files roll over or are retired.
      */
     int poolMaxActive = WriterPool.DEFAULT_MAX_ACTIVE;
     public int getPoolMaxActive() {
@@ -139,6 +142,58 @@ implements Lifecycle, Checkpointable, WriterPoolSettings {
     }
     public void setPoolMaxActive(int poolMaxActive) {
         this.poolMaxActive = poolMaxActive;
+        if (pool != null) {
+            pool.setMaxActive(poolMaxActive);
+        }
+    }
+    
+    /**
+     * Fewest active files the pool shrinks to when uncontended. See
+     * poolShrinkAfterMs.
+     */
+    int poolMinActive = 1;
+    public int getPoolMinActive() {
+        return poolMinActive;
+    }
+    public void setPoolMinActive(int poolMinActive) {
+        this.poolMinActive = poolMinActive;
+        if (pool != null) {
+            pool.setMinActive(poolMinActive);
+        }
+    }
+    
+    /**
+     * If greater than zero, once no writing thread has had to wait for a 
+     * writer for this many ms, writers returned to the pool beyond 
+     * poolMinActive are closed (finishing their files early). Default is
+     * 0 (files are only closed when full).
+     */
+    long poolShrinkAfterMs = 0;
+    public long getPoolShrinkAfterMs() {
+        return poolShrinkAfterMs;
+    }
+    public void setPoolShrinkAfterMs(long poolShrinkAfterMs) {
+        this.poolShrinkAfterMs = poolShrinkAfterMs;
+        if (pool != null) {
+            pool.setShrinkAfterMs(poolShrinkAfterMs);
+        }
+    }
+    
+    /**
+     * Whether, when there are several storePaths, to open each new file 
+     * in the one with the best recently-measured write rate (adjusted for
+     * the files already open there) rather than round-robin. Default is 
+     * false.
+     */
+    boolean balanceStorePaths = false;
+    public boolean getBalanceStorePaths() {
+        return balanceStorePaths;
+    }
+    public void setBalanceStorePaths(boolean balanceStorePaths) {
+        this.balanceStorePaths = balanceStorePaths;
+        if (pool != null) {
+            pool.setBalanceStorePaths(balanceStorePaths);
+        }
     }
 
     /**
@@ -200,6 +255,64 @@ implements Lifecycle, Checkpointable, WriterPoolSettings {
         this.frequentFlushes = frequentFlushes;
     }
     
+    /**
+     * Whether to copy recorded content into files without the usual pass
+     * through a small user-space buffer: directly by FileChannel transfer
+     * when writing uncompressed, or directly from the recording buffers 
+     * into the compressor otherwise. Output is identical either way. 
+     * Default is true.
+     */
+    protected boolean directTransfer = true; 
+    public boolean getDirectTransfer() {
+        return directTransfer; 
+    }
+    public void setDirectTransfer(boolean directTransfer) {
+        this.directTransfer = directTransfer;
+    }
+    
+    /**
+     * Deflater level used when compressing, from 1 (fastest) to 9 (best 
+     * compression), or -1 for the zlib default (6). 
+     */
+    protected int compressionLevel = Deflater.DEFAULT_COMPRESSION; 
+    public int getCompressionLevel() {
+        return compressionLevel; 
+    }
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+    
+    /**
+     * If greater than zero, compress records in a shared pool of this many
+     * threads rather than in the thread writing each record. Each record
+     * remains one gzip member, appended in the order written, so output 
+     * is identical; but records reach the file (and count toward its size)
+     * only as their compression completes. Default is 0 (compress in the
+     * writing thread).
+     */
+    protected int compressionThreads = 0; 
+    public int getCompressionThreads() {
+        return compressionThreads; 
+    }
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+    
+    /**
+     * When compressing in parallel, the most uncompressed record bytes
+     * each writer may hold awaiting compression; past this, writing 
+     * threads wait for earlier records to be appended. Single records 
+     * larger than this are compressed in the writing thread. Default is 
+     * 16MiB.
+     */
+    protected long compressionBufferBytes = 16*1024*1024; 
+    public long getCompressionBufferBytes() {
+        return compressionBufferBytes; 
+    }
+    public void setCompressionBufferBytes(long compressionBufferBytes) {
+        this.compressionBufferBytes = compressionBufferBytes;
+    }
+    
     /**
      * Size of buffer in front of disk-writing. Default is 256K.
      */
@@ -281,6 +394,9 @@ implements Lifecycle, Checkpointable, WriterPoolSettings {
         }
         super.start(); 
         setupPool(serial);
+        pool.setMinActive(getPoolMinActive());
+        pool.setShrinkAfterMs(getPoolShrinkAfterMs());
+        pool.setBalanceStorePaths(getBalanceStorePaths());
     }
     
     public void stop() {
@@ -424,6 +540,15 @@ implements Lifecycle, Checkpointable, WriterPoolSettings {
     protected void setPool(WriterPool pool) {
         this.pool = pool;
     }
+    
+    /**
+     * @return map of writer pool contention and write rates, or null if 
+     * not started
+     */
+    public Map<String,Object> poolReportMap() {
+        WriterPool p = pool;
+        return (p == null) ? null : p.shortReportMap();
+    }
 
     protected long getTotalBytesWritten() {
         return totalBytesWritten;
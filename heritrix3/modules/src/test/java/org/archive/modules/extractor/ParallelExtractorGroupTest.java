@@ -0,0 +1,184 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import static org.archive.modules.extractor.LinkContext.NAVLINK_MISC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+public class ParallelExtractorGroupTest extends TestCase {
+    
+    /**
+     * Extractor adding one link per occurrence of a marker in the content,
+     * reading the whole ReplayCharSequence.
+     */
+    static class MarkerExtractor extends ContentExtractor {
+        private static final long serialVersionUID = 1L;
+        String marker;
+        boolean finish;
+        MarkerExtractor(String marker, boolean finish) {
+            this.marker = marker;
+            this.finish = finish;
+            setLoggerModule(new UnitTestUriLoggerModule());
+        }
+        protected boolean shouldExtract(CrawlURI uri) {
+            return true;
+        }
+        protected boolean innerExtract(CrawlURI uri) {
+            try {
+                CharSequence cs = uri.getRecorder().getContentReplayCharSequence();
+                String content = cs.toString();
+                int count = 0;
+                for (int i = content.indexOf(marker); i >= 0; 
+                        i = content.indexOf(marker, i + 1)) {
+                    addOutlink(uri, "/" + marker + "/" + count++, 
+                            NAVLINK_MISC, Hop.NAVLINK);
+                }
+                uri.getAnnotations().add(marker + ":" + count);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return finish;
+        }
+    }
+    
+    protected static String content(int size) {
+        StringBuilder sb = new StringBuilder("<html><body>\n");
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append("<p>paragraph ").append(i).append(" <a href=\"/page")
+                .append(i).append(".html\">link</a>");
+            if (i % 10 == 0) {
+                sb.append(" alpha");
+            }
+            if (i % 25 == 0) {
+                sb.append(" beta");
+            }
+            sb.append("</p>\n");
+        }
+        return sb.append("</body></html>\n").toString();
+    }
+    
+    protected CrawlURI makeURI(String content) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                "http://www.example.com/start/"), null, null, NAVLINK_MISC);
+        curi.setContentType("text/html");
+        curi.setFetchStatus(200);
+        curi.setRecorder(ContentExtractorTestBase.createRecorder(content));
+        curi.setContentSize(content.length());
+        return curi;
+    }
+    
+    protected ExtractorHTML makeExtractorHTML() {
+        ExtractorHTML result = new ExtractorHTML();
+        result.setLoggerModule(new UnitTestUriLoggerModule());
+        CrawlMetadata metadata = new CrawlMetadata();
+        metadata.afterPropertiesSet();
+        result.setMetadata(metadata);
+        result.afterPropertiesSet();
+        return result;
+    }
+    
+    protected List<String> outlinks(CrawlURI curi) {
+        List<String> links = new ArrayList<String>();
+        for (Link link : new TreeSet<Link>(curi.getOutLinks())) {
+            links.add(link.getDestination().toString());
+        }
+        return links;
+    }
+    
+    public void testSameAsSequential() throws Exception {
+        String content = content(200 * 1024);
+        ParallelExtractorGroup group = new ParallelExtractorGroup();
+        group.setExtractors(Arrays.<Extractor>asList(
+                new MarkerExtractor("alpha", false), makeExtractorHTML(),
+                new MarkerExtractor("beta", false)));
+        
+        group.setMinParallelLength(Long.MAX_VALUE);
+        CrawlURI sequential = makeURI(content);
+        group.process(sequential);
+        
+        group.setMinParallelLength(0);
+        CrawlURI parallel = makeURI(content);
+        group.process(parallel);
+        
+        assertEquals(outlinks(sequential), outlinks(parallel));
+        assertTrue(parallel.getOutLinks().size() > 1000);
+        assertEquals(new TreeSet<String>(sequential.getAnnotations()), 
+                new TreeSet<String>(parallel.getAnnotations()));
+        assertTrue(parallel.hasBeenLinkExtracted());
+        assertEquals(1, group.parallelCount.get());
+        // "beta" ran, but would not have after ExtractorHTML finished
+        assertTrue(parallel.getAnnotations().contains(
+                "alpha:" + countOf(content, "alpha")));
+        assertFalse(parallel.getAnnotations().contains(
+                "beta:" + countOf(content, "beta")));
+        assertEquals(1, group.discardedCount.get());
+        group.stop();
+    }
+    
+    protected static int countOf(String content, String marker) {
+        int count = 0;
+        for (int i = content.indexOf(marker); i >= 0; 
+                i = content.indexOf(marker, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+    
+    public void testMaxOutlinks() throws Exception {
+        String content = content(100 * 1024);
+        ParallelExtractorGroup group = new ParallelExtractorGroup();
+        MarkerExtractor alpha = new MarkerExtractor("alpha", false);
+        MarkerExtractor para = new MarkerExtractor("paragraph", false);
+        ExtractorParameters limit = new ExtractorParameters() {
+            public int getMaxOutlinks() {
+                return 100;
+            }
+            public boolean getExtractIndependently() {
+                return false;
+            }
+            public boolean getExtract404s() {
+                return false;
+            }
+        };
+        alpha.setExtractorParameters(limit);
+        para.setExtractorParameters(limit);
+        group.setExtractors(Arrays.<Extractor>asList(alpha, para));
+        group.setMinParallelLength(0);
+        CrawlURI curi = makeURI(content);
+        group.process(curi);
+        assertEquals(100, curi.getOutLinks().size());
+        assertTrue(countOf(content, "alpha") > 100);
+        // the first-listed extractor's links are kept first
+        for (String link : outlinks(curi)) {
+            assertTrue(link, link.contains("/alpha/"));
+        }
+        group.stop();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.archive.io.BandwidthThrottle;
+import org.archive.modules.net.CrawlServer;
+
+public class BandwidthShaperTest extends TestCase {
+
+    public void testBucketsOnlyWhenLimited() {
+        BandwidthShaper shaper = new BandwidthShaper();
+        CrawlServer server = new CrawlServer("www.example.com");
+        BandwidthThrottle throttle = shaper.throttleFor(server, null);
+        assertEquals("global only", 1, throttle.getBuckets().length);
+
+        shaper.setServerMaxKBSec("www.example.com", 100);
+        throttle = shaper.throttleFor(server, null);
+        assertEquals(2, throttle.getBuckets().length);
+        assertEquals(100 * 1024, throttle.getBuckets()[1].getRatePerSecond());
+        assertEquals("other servers unlimited", 1, shaper.throttleFor(
+                new CrawlServer("www.example.org"), null).getBuckets().length);
+
+        // change applies to bucket already handed out
+        shaper.setServerMaxKBSec("www.example.com", 50);
+        assertEquals(50 * 1024, throttle.getBuckets()[1].getRatePerSecond());
+        shaper.setServerMaxKBSec("www.example.com", 0);
+        assertEquals(1, shaper.throttleFor(server, null).getBuckets().length);
+        shaper.pruneIdle();
+        assertEquals(0, shaper.serverBuckets.size());
+    }
+
+    public void testDefaultAndDirectOverrideEdit() {
+        BandwidthShaper shaper = new BandwidthShaper();
+        shaper.setPerServerMaxKBSec(10);
+        CrawlServer server = new CrawlServer("www.example.com");
+        BandwidthThrottle throttle = shaper.throttleFor(server, null);
+        assertEquals(10 * 1024, throttle.getBuckets()[1].getRatePerSecond());
+        // as if edited via bean browser: picked up on next throttleFor()
+        shaper.getServerMaxKBSec().put("www.example.com", 20);
+        shaper.throttleFor(server, null);
+        assertEquals(20 * 1024, throttle.getBuckets()[1].getRatePerSecond());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testReport() {
+        BandwidthShaper shaper = new BandwidthShaper();
+        shaper.setGlobalMaxKBSec(1000);
+        shaper.setServerMaxKBSec("www.example.com", 100);
+        BandwidthThrottle throttle = shaper.throttleFor(null, null);
+        throttle.consumed(64 * 1024);
+        Map<String,Object> report = shaper.shortReportMap();
+        Map<String,Object> global = (Map<String,Object>) report.get("global");
+        assertEquals(1000L, global.get("maxKBSec"));
+        assertEquals(64L * 1024, global.get("totalBytes"));
+        Map<String,Object> servers = (Map<String,Object>) report.get("server");
+        assertTrue(servers.containsKey("www.example.com"));
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testReportsReadLatestSample() throws InterruptedException {
+        BandwidthShaper shaper = new BandwidthShaper();
+        BandwidthThrottle throttle = shaper.throttleFor(null, null);
+        throttle.consumed(1024 * 1024);
+        Thread.sleep(1100);
+        shaper.sampleObservedRates();
+        Map<String,Object> global = 
+            (Map<String,Object>) shaper.shortReportMap().get("global");
+        long observed = (Long) global.get("observedKBSec");
+        assertTrue("observed " + observed, observed > 0);
+        // further reports, however often, neither resample nor reset 
+        Thread.sleep(1100);
+        for (int i = 0; i < 3; i++) {
+            global = (Map<String,Object>) shaper.shortReportMap().get("global");
+            assertEquals(observed, global.get("observedKBSec"));
+        }
+        shaper.sampleObservedRates();
+        global = (Map<String,Object>) shaper.shortReportMap().get("global");
+        assertEquals("idle interval", 0L, global.get("observedKBSec"));
+    }
+}
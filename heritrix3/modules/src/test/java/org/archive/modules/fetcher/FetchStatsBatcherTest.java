@@ -0,0 +1,140 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.FetchStats.HasFetchStats;
+import org.archive.modules.fetcher.FetchStats.Stage;
+import org.archive.net.UURIFactory;
+
+public class FetchStatsBatcherTest extends TestCase {
+
+    static class Holder implements HasFetchStats {
+        FetchStats substats = new FetchStats();
+        public FetchStats getSubstats() {
+            return substats;
+        }
+    }
+
+    public void testBatchedUntilDue() throws Exception {
+        FetchStatsBatcher batcher = new FetchStatsBatcher();
+        batcher.setMaxBatchTallies(3);
+        batcher.setMaxBatchAgeMs(Long.MAX_VALUE);
+        Holder holder = new Holder();
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/"));
+
+        batcher.tally(holder, curi, Stage.SCHEDULED);
+        batcher.tally(holder, curi, Stage.SCHEDULED);
+        assertEquals("tallies visible before batch due",
+                0, holder.getSubstats().getTotalScheduled());
+        batcher.tally(holder, curi, Stage.SCHEDULED);
+        assertEquals(3, holder.getSubstats().getTotalScheduled());
+
+        batcher.tally(holder, curi, Stage.SCHEDULED);
+        batcher.foldAll();
+        assertEquals(4, holder.getSubstats().getTotalScheduled());
+    }
+
+    public void testUnbatched() throws Exception {
+        FetchStatsBatcher batcher = new FetchStatsBatcher();
+        batcher.setMaxBatchTallies(1);
+        Holder holder = new Holder();
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/"));
+        batcher.tally(holder, curi, Stage.SCHEDULED);
+        assertEquals(1, holder.getSubstats().getTotalScheduled());
+    }
+
+    /**
+     * A quota checked against shared counts holds exactly, even with 
+     * batching on and tallies pending in other threads' batches, once
+     * the holder is made exact.
+     */
+    public void testQuotaHoldsExactlyWhileBatching() throws Exception {
+        final FetchStatsBatcher batcher = new FetchStatsBatcher();
+        batcher.setMaxBatchTallies(100);
+        batcher.setMaxBatchAgeMs(Long.MAX_VALUE);
+        final Holder holder = new Holder();
+        final CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/"));
+        curi.setFetchStatus(200);
+        // successes pending in another (still live) thread's batch
+        final CountDownLatch tallied = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread other = new Thread() {
+            public void run() {
+                for(int i = 0; i < 3; i++) {
+                    batcher.tally(holder, curi, Stage.SUCCEEDED);
+                }
+                tallied.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        };
+        other.start();
+        tallied.await();
+        assertEquals("batched", 0, holder.getSubstats().getFetchSuccesses());
+
+        batcher.requireExact(holder);
+        assertEquals("pending folded", 3, holder.getSubstats().getFetchSuccesses());
+        // enforce a quota of 10 successes, checking before each 'fetch'
+        int fetched = 0;
+        while(holder.getSubstats().getFetchSuccesses() < 10) {
+            batcher.tally(holder, curi, Stage.SUCCEEDED);
+            fetched++;
+        }
+        assertEquals(7, fetched);
+        assertEquals(10, holder.getSubstats().getFetchSuccesses());
+
+        release.countDown();
+        other.join();
+    }
+
+    public void testFoldAllFromOtherThreads() throws Exception {
+        final FetchStatsBatcher batcher = new FetchStatsBatcher();
+        batcher.setMaxBatchTallies(1000);
+        batcher.setMaxBatchAgeMs(Long.MAX_VALUE);
+        final Holder holder = new Holder();
+        final CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/"));
+        Thread[] threads = new Thread[8];
+        for(int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for(int j = 0; j < 2500; j++) {
+                        batcher.tally(holder, curi, Stage.SCHEDULED);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for(Thread t : threads) {
+            t.join();
+        }
+        batcher.foldAll();
+        assertEquals(8 * 2500, holder.getSubstats().getTotalScheduled());
+        assertEquals("dead threads' batches not forgotten",
+                0, batcher.allBatches.size());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.bdb.BdbModule;
+import org.archive.modules.recrawl.DigestIndex.Capture;
+import org.archive.spring.ConfigFile;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+public class DigestIndexTest extends TmpDirTestCase {
+
+    public void testPreloadAndLookup() throws Exception {
+        ConfigPath basePath = new ConfigPath("testBase",getTmpDir().getAbsolutePath());
+        ConfigPath bdbDir = new ConfigPath("bdb","digestIndexBdb"); 
+        bdbDir.setBase(basePath); 
+        FileUtils.deleteDirectory(bdbDir.getFile());
+        BdbModule bdb = new BdbModule();
+        bdb.setDir(bdbDir);
+        bdb.start();
+        
+        File cdx = new File(getTmpDir(), "DigestIndexTest.cdx");
+        FileUtils.writeStringToFile(cdx, 
+            " CDX N b a m s k r M S V g\n"
+            + "com,example)/a 20100101000000 http://example.com/a text/html 200 AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA - - 100 0 x.warc.gz\n"
+            + "com,example)/b 20100102000000 http://example.com/b text/html 404 BBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBB - - 100 100 x.warc.gz\n"
+            + "com,example)/c 20100103000000 http://example.com/c text/html 200 AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA - - 100 200 x.warc.gz\n");
+        
+        DigestIndex index = new DigestIndex();
+        index.setBdbModule(bdb);
+        index.setPreloadCdx(new ConfigFile("cdx", cdx.getAbsolutePath()));
+        index.start();
+        try {
+            assertEquals(1, index.getPreloaded());
+            Capture capture = index.lookup("sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA");
+            assertNotNull(capture);
+            assertEquals("first capture not kept", 
+                    "http://example.com/a", capture.getUri());
+            assertNull(capture.getRecordId());
+            assertNull("non-2xx capture indexed", 
+                    index.lookup("sha1:BBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBB"));
+            
+            assertTrue(index.add("sha1:CCCC", 
+                    new Capture("http://example.com/d", 1L, "urn:uuid:1", 5)));
+            assertFalse(index.add("sha1:CCCC", 
+                    new Capture("http://example.com/e", 2L, "urn:uuid:2", 5)));
+            assertEquals("urn:uuid:1", 
+                    index.lookup("sha1:CCCC").getRecordId());
+            
+            assertEquals(3, index.getLookups());
+            assertEquals(2, index.getHits());
+        } finally {
+            index.stop();
+            bdb.stop();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.CoreAttributeConstants.A_FETCH_BEGAN_TIME;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.lang.SerializationUtils;
+
+public class FetchHistoryBindingTest extends TestCase {
+
+    @SuppressWarnings("unchecked")
+    protected Map<String,Object> sampleData() {
+        HashMap<String,Object> latest = new HashMap<String,Object>();
+        latest.put(A_STATUS, 200);
+        latest.put(A_FETCH_BEGAN_TIME, 1276123456789L);
+        latest.put(A_CONTENT_DIGEST, "sha1:3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ");
+        latest.put(A_ETAG_HEADER, "\"abc-123\"");
+        latest.put(A_LAST_MODIFIED_HEADER, "Mon, 07 Jun 2010 22:10:00 GMT");
+        latest.put(A_REFERENCE_LENGTH, 12345L);
+        latest.put(A_WRITE_TAG, "TEST-20100610-00000.warc.gz");
+        HashMap<String,Object> older = new HashMap<String,Object>();
+        older.put(A_STATUS, -2);
+        older.put(A_FETCH_BEGAN_TIME, 1270000000000L);
+        older.put(A_CONTENT_DIGEST, "md5:not-base32");
+        older.put("custom", Arrays.asList("a", "b"));
+        
+        HashMap[] history = new HashMap[] {latest, older, null};
+        Map<String,Object> data = new HashMap<String,Object>();
+        data.put(A_FETCH_HISTORY, history);
+        data.put("other-key", "other-value");
+        return data;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public void testRoundTrip() {
+        FetchHistoryBinding binding = new FetchHistoryBinding();
+        Map<String,Object> data = sampleData();
+        Map<String,Object> back = binding.fromBytes(binding.toBytes(data));
+        
+        assertEquals(data.keySet(), back.keySet());
+        assertEquals("other-value", back.get("other-key"));
+        HashMap[] history = (HashMap[]) data.get(A_FETCH_HISTORY);
+        HashMap[] backHistory = (HashMap[]) back.get(A_FETCH_HISTORY);
+        assertEquals(history.length, backHistory.length);
+        for (int i = 0; i < history.length; i++) {
+            assertEquals(history[i], backHistory[i]);
+        }
+    }
+    
+    public void testSmallerThanSerialized() {
+        FetchHistoryBinding binding = new FetchHistoryBinding();
+        HashMap<String,Object> data = new HashMap<String,Object>();
+        HashMap[] history = new HashMap[] { 
+                (HashMap) ((HashMap[]) sampleData().get(A_FETCH_HISTORY))[0], 
+                null };
+        data.put(A_FETCH_HISTORY, history);
+        int compact = binding.toBytes(data).length;
+        int serialized = SerializationUtils.serialize(data).length;
+        assertTrue("compact " + compact + " not much smaller than " 
+                + serialized, compact * 3 < serialized);
+    }
+    
+    public void testCacheBudget() {
+        FetchHistoryCache cache = new FetchHistoryCache(1000);
+        byte[] record = new byte[100];
+        for (int i = 0; i < 20; i++) {
+            cache.put("key" + i, record);
+        }
+        assertTrue(cache.getBytes() <= 1000);
+        assertNull("eldest not evicted", cache.get("key0"));
+        assertNotNull(cache.get("key19"));
+        cache.invalidate("key19");
+        assertNull(cache.get("key19"));
+        cache.put("absent", FetchHistoryCache.ABSENT);
+        assertSame(FetchHistoryCache.ABSENT, cache.get("absent"));
+    }
+}
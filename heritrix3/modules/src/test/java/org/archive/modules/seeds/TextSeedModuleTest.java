@@ -0,0 +1,113 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.seeds;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+
+public class TextSeedModuleTest extends TestCase {
+
+    static class Collector implements BulkSeedListener {
+        List<String> events = new ArrayList<String>();
+        int bulkCalls = 0;
+        boolean concluded = false;
+        public void addedSeed(CrawlURI curi) {
+            events.add(curi.getURI());
+        }
+        public void addedSeeds(List<CrawlURI> curis) {
+            bulkCalls++;
+            for (CrawlURI curi : curis) {
+                addedSeed(curi);
+            }
+        }
+        public boolean nonseedLine(String line) {
+            events.add("nonseed:" + line);
+            return false;
+        }
+        public void concludedSeedBatch() {
+            concluded = true;
+        }
+    }
+
+    protected String seedText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("example").append(i).append(".com\n");
+            if (i % 17 == 0) {
+                sb.append("+directive").append(i).append("\n");
+            }
+        }
+        sb.append("example0.com\n");
+        return sb.toString();
+    }
+
+    protected Collector announce(int threads) {
+        TextSeedModule seeds = new TextSeedModule();
+        seeds.setSeedParsingThreads(threads);
+        seeds.setSeedBatchLines(7);
+        Collector collector = new Collector();
+        seeds.addSeedListener(collector);
+        seeds.announceSeedsFromReader(
+                new BufferedReader(new StringReader(seedText())), null);
+        assertTrue(collector.concluded);
+        assertFalse(seeds.isAnnouncing());
+        return collector;
+    }
+
+    public void testParallelMatchesSerial() {
+        Collector serial = announce(1);
+        Collector parallel = announce(4);
+        assertEquals(0, serial.bulkCalls);
+        assertTrue(parallel.bulkCalls > 0);
+        assertEquals(serial.events, parallel.events);
+        assertEquals("http://example0.com/", parallel.events.get(0));
+        assertEquals("nonseed:+directive0", parallel.events.get(1));
+    }
+
+    public void testFailedBatchSkipped() {
+        TextSeedModule seeds = new TextSeedModule() {
+            @Override
+            protected String fixupSeedLine(String s) {
+                if (s.equals("example10.com")) {
+                    throw new IllegalStateException("unparseable");
+                }
+                return super.fixupSeedLine(s);
+            }
+        };
+        seeds.setSeedParsingThreads(4);
+        seeds.setSeedBatchLines(7);
+        Collector collector = new Collector();
+        seeds.addSeedListener(collector);
+        seeds.announceSeedsFromReader(
+                new BufferedReader(new StringReader(seedText())), null);
+        assertTrue(collector.concluded);
+        assertFalse(collector.events.contains("http://example10.com/"));
+        assertTrue("batches before bad one announced",
+                collector.events.contains("http://example1.com/"));
+        assertTrue("batches after bad one announced",
+                collector.events.contains("http://example49.com/"));
+    }
+}